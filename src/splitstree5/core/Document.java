@@ -19,7 +19,6 @@
 
 package splitstree5.core;
 
-import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.collections.ListChangeListener;
 import jloda.fx.control.ItemSelectionModel;
@@ -27,6 +26,7 @@ import jloda.util.FileUtils;
 import jloda.util.StringUtils;
 import splitstree5.core.misc.Taxon;
 import splitstree5.core.workflow.Workflow;
+import splitstree5.core.workflow.WorkflowEngine;
 import splitstree5.info.MethodsTextGenerator;
 import splitstree5.main.MainWindow;
 
@@ -63,7 +63,7 @@ public class Document {
 		workflow.updatingProperty().addListener((c, o, n) -> updateMethodsText());
 		workflow.incrementTopologyChanged();
 
-		fileName.addListener((c, o, n) -> Platform.runLater(() -> {
+		fileName.addListener((c, o, n) -> WorkflowEngine.runLater(() -> {
 			name.set(FileUtils.getFileNameWithoutPath(fileName.get()));
 			tmpFile.set(n.endsWith(".tmp"));
 		}));
@@ -21,6 +21,7 @@ package splitstree5.core.algorithms.characters2distances;
 
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -46,7 +47,6 @@ public class BaseFreqDistance extends Algorithm<CharactersBlock, DistancesBlock>
         distancesBlock.setNtax(ntax);
 
         progress.setTasks("Base Frequency Distance", "Init.");
-        progress.setMaximum(ntax);
 
         final double[][] baseFreqs = new double[ntax + 1][nstates];
         System.err.println("Base Frequencies");
@@ -70,20 +70,15 @@ public class BaseFreqDistance extends Algorithm<CharactersBlock, DistancesBlock>
             //System.err.println("");
         }
 
-        for (int s = 1; s <= ntax; s++) {
-            for (int t = s + 1; t <= ntax; t++) {
-                double p = 0.0;
-                for (int i = 0; i < nstates; i++) {
-                    double pi_i = baseFreqs[s][i];
-                    double pihat_i = baseFreqs[t][i];
-                    p += Math.abs(pi_i - pihat_i);
-                }
-
-                distancesBlock.set(s, t, p);
-                distancesBlock.set(t, s, p);
+        PairwiseScheduler.apply(progress, distancesBlock, (s, t) -> {
+            double p = 0.0;
+            for (int i = 0; i < nstates; i++) {
+                double pi_i = baseFreqs[s][i];
+                double pihat_i = baseFreqs[t][i];
+                p += Math.abs(pi_i - pihat_i);
             }
-            progress.incrementProgress();
-        }
+            return p;
+        });
         progress.close();
     }
 }
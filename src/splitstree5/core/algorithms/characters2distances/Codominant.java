@@ -23,6 +23,7 @@ import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -73,77 +74,70 @@ public class Codominant extends Algorithm<CharactersBlock, DistancesBlock> imple
         distancesBlock.setNtax(ntax);
 
         progress.setTasks("Codominant Genetic Distance", "Init.");
-        progress.setMaximum(ntax);
-
-        for (int i = 0; i < ntax; i++) {
-            char[] seqi = charactersBlock.getRow0(i);
-
-            for (int j = i + 1; j < ntax; j++) {
-
-                char[] seqj = charactersBlock.getRow0(j);
-                double distSquared = 0.0;
-
-
-                int nchar = charactersBlock.getNchar();
-                int nLoci = nchar / 2;
-                int nValidLoci = 0;
-
-                for (int k = 0; k < nLoci; k++) {
-
-                    char ci1 = seqi[2 * k];
-                    char ci2 = seqi[2 * k + 1];
-                    char cj1 = seqj[2 * k];
-                    char cj2 = seqj[2 * k + 1];
-
-                    if (ci1 == missingchar || ci2 == missingchar || cj1 == missingchar || cj2 == missingchar)
-                        continue;
-                    if (ci1 == gapchar || ci2 == gapchar || cj1 == gapchar || cj2 == gapchar)
-                        continue;
-
-                    nValidLoci++;
-
-                    int diff;
-
-                    if (ci1 == ci2) { //AA vs ...
-                        if (cj1 == cj2) {
-                            if (ci1 != cj1)
-                                diff = 4;   //AA vs BB
-                            else
-                                diff = 0;  //AA vs AA
-                        } else {  //AA vs XY
-                            if (ci1 == cj1 || ci1 == cj2)
-                                diff = 1; //AA vs AY
-                            else
-                                diff = 3; //AA vs BC
-                        }
-                    } else {     //AB vs ...
-                        if (cj1 == cj2) {  //AB vs XX
-                            if (ci1 == cj1 && ci2 == cj1)
-                                diff = 1;   //AB vs AA
-                            else
-                                diff = 3;   //AB vs CC
-                        } else {  //AB vs XY
-                            if ((ci1 == cj1 && ci2 == cj2) || (ci1 == cj2 && ci2 == cj1))
-                                diff = 0; //AB vs BA or AB vs AB
-                            else if (ci1 == cj1 || ci2 == cj2 || ci1 == cj2 || ci2 == cj1)
-                                diff = 1;   //AB vs AC
-                            else
-                                diff = 2;   //AB vs CD
-                        }
-                    }
+        final boolean useSquareRoot = getOptionUseSquareRoot();
 
-                    distSquared += diff;
-                }
+        PairwiseScheduler.apply(progress, distancesBlock, (s, t) -> {
+            final char[] seqi = charactersBlock.getRow0(s - 1);
+            final char[] seqj = charactersBlock.getRow0(t - 1);
+            double distSquared = 0.0;
+
+
+            int nchar = charactersBlock.getNchar();
+            int nLoci = nchar / 2;
+            int nValidLoci = 0;
+
+            for (int k = 0; k < nLoci; k++) {
+
+                char ci1 = seqi[2 * k];
+                char ci2 = seqi[2 * k + 1];
+                char cj1 = seqj[2 * k];
+                char cj2 = seqj[2 * k + 1];
+
+                if (ci1 == missingchar || ci2 == missingchar || cj1 == missingchar || cj2 == missingchar)
+                    continue;
+                if (ci1 == gapchar || ci2 == gapchar || cj1 == gapchar || cj2 == gapchar)
+                    continue;
 
-                double dij = nchar / 2.0 * distSquared / (double) nValidLoci;
-                if (getOptionUseSquareRoot())
-                    dij = Math.sqrt(dij);
+                nValidLoci++;
 
-                distancesBlock.set(i + 1, j + 1, Math.sqrt(dij));
-                distancesBlock.set(j + 1, i + 1, Math.sqrt(dij));
+                int diff;
+
+                if (ci1 == ci2) { //AA vs ...
+                    if (cj1 == cj2) {
+                        if (ci1 != cj1)
+                            diff = 4;   //AA vs BB
+                        else
+                            diff = 0;  //AA vs AA
+                    } else {  //AA vs XY
+                        if (ci1 == cj1 || ci1 == cj2)
+                            diff = 1; //AA vs AY
+                        else
+                            diff = 3; //AA vs BC
+                    }
+                } else {     //AB vs ...
+                    if (cj1 == cj2) {  //AB vs XX
+                        if (ci1 == cj1 && ci2 == cj1)
+                            diff = 1;   //AB vs AA
+                        else
+                            diff = 3;   //AB vs CC
+                    } else {  //AB vs XY
+                        if ((ci1 == cj1 && ci2 == cj2) || (ci1 == cj2 && ci2 == cj1))
+                            diff = 0; //AB vs BA or AB vs AB
+                        else if (ci1 == cj1 || ci2 == cj2 || ci1 == cj2 || ci2 == cj1)
+                            diff = 1;   //AB vs AC
+                        else
+                            diff = 2;   //AB vs CD
+                    }
+                }
+
+                distSquared += diff;
             }
-            progress.incrementProgress();
-        }
+
+            double dij = nchar / 2.0 * distSquared / (double) nValidLoci;
+            if (useSquareRoot)
+                dij = Math.sqrt(dij);
+            return Math.sqrt(dij);
+        });
         progress.close();
     }
 
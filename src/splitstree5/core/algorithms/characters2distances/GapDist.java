@@ -21,6 +21,7 @@ package splitstree5.core.algorithms.characters2distances;
 
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -46,42 +47,29 @@ public class GapDist extends Algorithm<CharactersBlock, DistancesBlock> implemen
         distancesBlock.setNtax(ntax);
         //final char missingChar = charactersBlock.getMissingCharacter();
         final char gapChar = charactersBlock.getGapCharacter();
-        int c, s, t;
 
         progress.setTasks("Gap distance", "Init.");
-        progress.setMaximum(ntax);
 
-        //todo get row
-        for (t = 0; t < ntax; t++) {
-            final char[] row_t = charactersBlock.getRow0(t);
-            //char[] row_t = new char[charactersBlock.getMatrix()[t].length];
-            //System.arraycopy(charactersBlock.getMatrix()[t], 0, row_t, 0, charactersBlock.getMatrix()[t].length);
+        PairwiseScheduler.apply(progress, distancesBlock, (t, s) -> {
+            final char[] row_t = charactersBlock.getRow0(t - 1);
+            final char[] row_s = charactersBlock.getRow0(s - 1);
 
-            for (s = t + 1; s < ntax; s++) {
-                char[] row_s = charactersBlock.getRow0(s);
-                //char[] row_s = new char[charactersBlock.getMatrix()[s].length];
-                //System.arraycopy(charactersBlock.getMatrix()[s], 0, row_s, 0, charactersBlock.getMatrix()[s].length);
+            double sim = 0;
+            double len = 0;
+            for (int c = 0; c < nchar; c++) {
+                final char sc = row_s[c];
+                final char tc = row_t[c];
 
-                double sim = 0;
-                double len = 0;
-                char sc, tc;
-                for (c = 0; c < nchar; c++) {
-                    sc = row_s[c];
-                    tc = row_t[c];
-
-                    double weight = charactersBlock.getCharacterWeight(c);
-                    len += weight;
-                    if (((sc == gapChar && tc == gapChar) ||
-                            (sc != gapChar && tc != gapChar)))
-                        sim += weight;
-                }
-                double v = 1.0;
-                if (sim != 0 && len != 0) v = (1.0 - sim / len);
-                distancesBlock.set(s + 1, t + 1, v);
-                distancesBlock.set(t + 1, s + 1, v);
+                double weight = charactersBlock.getCharacterWeight(c);
+                len += weight;
+                if (((sc == gapChar && tc == gapChar) ||
+                        (sc != gapChar && tc != gapChar)))
+                    sim += weight;
             }
-            progress.incrementProgress();
-        }
+            double v = 1.0;
+            if (sim != 0 && len != 0) v = (1.0 - sim / len);
+            return v;
+        });
         progress.close();
     }
 }
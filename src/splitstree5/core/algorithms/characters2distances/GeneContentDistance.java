@@ -23,6 +23,7 @@ import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -71,66 +72,52 @@ public class GeneContentDistance extends Algorithm<CharactersBlock, DistancesBlo
          */
         final BitSet[] genes = computeGenes(charactersBlock);
         if (!optionUseML_DistancesDistance.getValue())
-            computeSnelBorkDistance(distancesBlock, taxaBlock.getNtax(), genes);
+            computeSnelBorkDistance(progress, distancesBlock, taxaBlock.getNtax(), genes);
         else
-            computeMLDistance(distancesBlock, taxaBlock.getNtax(), genes);
+            computeMLDistance(progress, distancesBlock, taxaBlock.getNtax(), genes);
     }
 
     /**
      * computes the SnelBork et al distance
      *
 	 */
-    private static void computeSnelBorkDistance(DistancesBlock dist, int ntax, BitSet[] genes) {
+    private static void computeSnelBorkDistance(ProgressListener progress, DistancesBlock dist, int ntax, BitSet[] genes) throws Exception {
 
         dist.setNtax(ntax);
-        for (int i = 1; i <= ntax; i++) {
-            dist.set(i, i, 0.0);
-            for (int j = i + 1; j <= ntax; j++) {
-                BitSet intersection = ((BitSet) (genes[i]).clone());
-                intersection.and(genes[j]);
-                dist.set(j, i, (float) (1.0 - ((float) intersection.cardinality() / (float) Math.min(genes[i].cardinality(), genes[j].cardinality()))));
-                dist.set(i, j, dist.get(j, i));
-            }
-        }
+        PairwiseScheduler.apply(progress, dist, (i, j) -> {
+            BitSet intersection = ((BitSet) (genes[i]).clone());
+            intersection.and(genes[j]);
+            return (float) (1.0 - ((float) intersection.cardinality() / (float) Math.min(genes[i].cardinality(), genes[j].cardinality())));
+        });
     }
 
     /**
      * computes the maximum likelihood estimator distance Huson and Steel 2003
      *
 	 */
-    private static void computeMLDistance(DistancesBlock dist, int ntax, BitSet[] genes) {
+    private static void computeMLDistance(ProgressListener progress, DistancesBlock dist, int ntax, BitSet[] genes) throws Exception {
         dist.setNtax(ntax);
         // dtermine average importgenomes size:
-        double m = 0;
+        double sum = 0;
         for (int i = 1; i <= ntax; i++) {
-            m += genes[i].cardinality();
+            sum += genes[i].cardinality();
         }
-        m /= ntax;
+        final double m = sum / ntax;
 
         final double[] ai = new double[ntax + 1];
-        final double[][] aij = new double[ntax + 1][ntax + 1];
         for (int i = 1; i <= ntax; i++) {
             ai[i] = ((double) genes[i].cardinality()) / m;
         }
-        for (int i = 1; i <= ntax; i++) {
-            for (int j = i + 1; j <= ntax; j++) {
-                BitSet intersection = ((BitSet) (genes[i]).clone());
-                intersection.and(genes[j]);
-                aij[i][j] = aij[j][i] = ((double) intersection.cardinality()) / m;
-            }
-        }
 
-        for (int i = 1; i <= ntax; i++) {
-            dist.set(i, i, 0.0);
-            for (int j = i + 1; j <= ntax; j++) {
-                double b = 1.0 + aij[i][j] - ai[i] - ai[j];
-
-                dist.set(j, i, (float) -Math.log(0.5 * (b + Math.sqrt(b * b + 4.0 * aij[i][j] * aij[i][j]))));
-                if (dist.get(j, i) < 0)
-                    dist.set(j, i, 0.0);
-                dist.set(i, j, dist.get(j, i));
-            }
-        }
+        PairwiseScheduler.apply(progress, dist, (i, j) -> {
+            BitSet intersection = ((BitSet) (genes[i]).clone());
+            intersection.and(genes[j]);
+            final double aij = ((double) intersection.cardinality()) / m;
+            double b = 1.0 + aij - ai[i] - ai[j];
+
+            final double value = (float) -Math.log(0.5 * (b + Math.sqrt(b * b + 4.0 * aij * aij)));
+            return (value < 0 ? 0.0 : value);
+        });
     }
 
 
@@ -21,13 +21,12 @@ package splitstree5.core.algorithms.characters2distances;
 
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
-import jloda.fx.util.ProgramExecutorService;
 import jloda.fx.window.NotificationManager;
-import jloda.util.Counter;
-import jloda.util.Single;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.EncodedAlignment;
 import splitstree5.core.algorithms.characters2distances.utils.PairwiseCompare;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -36,8 +35,7 @@ import splitstree5.core.datablocks.TaxaBlock;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * hamming distances
@@ -67,57 +65,31 @@ public class HammingDistances extends Algorithm<CharactersBlock, DistancesBlock>
 
     @Override
     public void compute(ProgressListener progress, TaxaBlock taxa, CharactersBlock characters, DistancesBlock distances) throws Exception {
-        progress.setMaximum(((long) taxa.getNtax() * taxa.getNtax()) / 2 - taxa.getNtax());
-
         distances.setNtax(characters.getNtax());
 
-        var service = Executors.newFixedThreadPool(ProgramExecutorService.getNumberOfCoresToUse());
-
-        var numMissing = new Counter();
-        var exception = new Single<Exception>(null);
-
-        try {
-            final int ntax = taxa.getNtax();
-            for (int s0 = 1; s0 <= ntax; s0++) {
-                for (int t0 = s0 + 1; t0 <= ntax; t0++) {
-                    final var s = s0;
-                    final var t = t0;
-                    service.submit(() -> {
-                        if (exception.isNull()) {
-                            try {
-                                final PairwiseCompare seqPair = new PairwiseCompare(characters, s, t);
-                                double p = 1.0;
-
-                                final double[][] F = seqPair.getF();
-
-                                if (F == null) {
-                                    numMissing.increment();
-                                } else {
-                                    for (int x = 0; x < seqPair.getNumStates(); x++) {
-                                        p = p - F[x][x];
-                                    }
-
-                                    if (!isOptionNormalize())
-                                        p = Math.round(p * seqPair.getNumNotMissing());
-                                }
-                                distances.set(s, t, p);
-                                distances.set(t, s, p);
-                                progress.incrementProgress();
-                            } catch (Exception ex) {
-                                exception.setIfCurrentValueIsNull(ex);
-                            }
-                        }
-                    });
+        final boolean normalize = isOptionNormalize();
+        final var numMissing = new AtomicInteger();
+
+        final EncodedAlignment alignment = new EncodedAlignment(characters, false);
+
+        PairwiseScheduler.apply(progress, distances, (s, t) -> {
+            final PairwiseCompare seqPair = new PairwiseCompare(alignment, s, t);
+            double p = 1.0;
+
+            final double[][] F = seqPair.getF();
+
+            if (F == null) {
+                numMissing.incrementAndGet();
+            } else {
+                for (int x = 0; x < seqPair.getNumStates(); x++) {
+                    p = p - F[x][x];
                 }
+
+                if (!normalize)
+                    p = Math.round(p * seqPair.getNumNotMissing());
             }
-        } finally {
-            service.shutdown();
-            //noinspection ResultOfMethodCallIgnored
-            service.awaitTermination(1000, TimeUnit.DAYS);
-        }
-
-        if (exception.isNotNull())
-            throw exception.get();
+            return p;
+        });
 
         if (numMissing.get() > 0)
             NotificationManager.showWarning("Proceed with caution: " + numMissing + " saturated or missing entries in the distance matrix");
@@ -26,7 +26,9 @@ import javafx.beans.property.SimpleObjectProperty;
 import jloda.fx.window.NotificationManager;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.EncodedAlignment;
 import splitstree5.core.algorithms.characters2distances.utils.PairwiseCompare;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -36,6 +38,7 @@ import splitstree5.core.datablocks.characters.AmbiguityCodes;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class HammingDistancesAmbigStates extends Algorithm<CharactersBlock, DistancesBlock> implements IFromCharacters, IToDistances {
 
@@ -66,46 +69,36 @@ public class HammingDistancesAmbigStates extends Algorithm<CharactersBlock, Dist
 
     @Override
     public void compute(ProgressListener progress, TaxaBlock taxa, CharactersBlock characters, DistancesBlock distances) throws Exception {
-        progress.setMaximum(taxa.getNtax());
-
         distances.setNtax(characters.getNtax());
 
         if (optionHandleAmbiguousStates.getValue().equals(AmbiguousOptions.MatchStates)
                 && characters.getDataType().isNucleotides() && characters.isHasAmbiguityCodes())
-            computeMatchStatesHamming(taxa, characters, distances);
+            computeMatchStatesHamming(progress, characters, distances);
         else {
             // all the same here
-            int numMissing = 0;
-            final int ntax = taxa.getNtax();
-            for (int s = 1; s <= ntax; s++) {
-                for (int t = s + 1; t <= ntax; t++) {
-
-                    final PairwiseCompare seqPair;
-                    if (optionHandleAmbiguousStates.getValue().equals(AmbiguousOptions.Ignore))
-                        seqPair = new PairwiseCompare(characters, s, t, true);
-                    else
-                        seqPair = new PairwiseCompare(characters, s, t, false);
-
-                    double p = 1.0;
-
-                    final double[][] F = seqPair.getF();
-
-                    if (F == null) {
-                        numMissing++;
-                    } else {
-                        for (int x = 0; x < seqPair.getNumStates(); x++) {
-                            p = p - F[x][x];
-                        }
-
-                        if (!isOptionNormalize())
-                            p = Math.round(p * seqPair.getNumNotMissing());
+            final AtomicInteger numMissing = new AtomicInteger();
+            final boolean normalize = isOptionNormalize();
+            final EncodedAlignment alignment = new EncodedAlignment(characters, optionHandleAmbiguousStates.getValue().equals(AmbiguousOptions.Ignore));
+            PairwiseScheduler.apply(progress, distances, (s, t) -> {
+                final PairwiseCompare seqPair = new PairwiseCompare(alignment, s, t);
+
+                double p = 1.0;
+
+                final double[][] F = seqPair.getF();
+
+                if (F == null) {
+                    numMissing.incrementAndGet();
+                } else {
+                    for (int x = 0; x < seqPair.getNumStates(); x++) {
+                        p = p - F[x][x];
                     }
-                    distances.set(s, t, p);
-                    distances.set(t, s, p);
+
+                    if (!normalize)
+                        p = Math.round(p * seqPair.getNumNotMissing());
                 }
-                progress.incrementProgress();
-            }
-            if (numMissing > 0)
+                return p;
+            });
+            if (numMissing.get() > 0)
                 NotificationManager.showWarning("Proceed with caution: " + numMissing + " saturated or missing entries in the distance matrix");
         }
     }
@@ -116,9 +109,8 @@ public class HammingDistancesAmbigStates extends Algorithm<CharactersBlock, Dist
      * @param taxa       the taxa
      * @param characters the input characters
      */
-    private void computeMatchStatesHamming(TaxaBlock taxa, CharactersBlock characters, DistancesBlock distances) {
+    private void computeMatchStatesHamming(ProgressListener progress, CharactersBlock characters, DistancesBlock distances) throws Exception {
         final String ALLSTATES = "acgt" + AmbiguityCodes.CODES;
-        final int ntax = taxa.getNtax();
         final int nstates = ALLSTATES.length();
 
         /* Fill in the costs ascribed to comparing different allele combinations */
@@ -133,19 +125,15 @@ public class HammingDistancesAmbigStates extends Algorithm<CharactersBlock, Dist
                 weights[s1][s2] = stringDiff(AmbiguityCodes.getNucleotides(s1), AmbiguityCodes.getNucleotides(s2));*/
 
         /*Fill in the distance matrix */
-        for (int s = 1; s <= ntax; s++) {
-            for (int t = s + 1; t <= ntax; t++) {
-
-                double[][] F = getFmatrix(ALLSTATES, characters, s, t);
-                double diff = 0.0;
-                for (int s1 = 0; s1 < F.length; s1++)
-                    for (int s2 = 0; s2 < F.length; s2++)
-                        diff += F[s1][s2] * weights[s1][s2];
-
-                distances.set(s, t, (float) diff);
-                distances.set(t, s, (float) diff);
-            }
-        }
+        PairwiseScheduler.apply(progress, distances, (s, t) -> {
+            double[][] F = getFmatrix(ALLSTATES, characters, s, t);
+            double diff = 0.0;
+            for (int s1 = 0; s1 < F.length; s1++)
+                for (int s2 = 0; s2 < F.length; s2++)
+                    diff += F[s1][s2] * weights[s1][s2];
+
+            return (float) diff;
+        });
     }
 
     private double stringDiff(String s1, String s2) {
@@ -22,7 +22,9 @@ package splitstree5.core.algorithms.characters2distances;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
 import splitstree5.core.algorithms.characters2distances.utils.FixUndefinedDistances;
+import splitstree5.core.algorithms.characters2distances.utils.EncodedAlignment;
 import splitstree5.core.algorithms.characters2distances.utils.PairwiseCompare;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -30,6 +32,8 @@ import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.characters.CharactersType;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Calculates distances using the Jaccard coefficient distance
  *
@@ -48,44 +52,37 @@ public class Jaccard extends Algorithm<CharactersBlock, DistancesBlock> implemen
         distancesBlock.setNtax(ntax);
 
         progress.setTasks("Jaccard distance", "Init.");
-        progress.setMaximum(ntax);
 
-        double maxDist = 0.0;
-        int numUndefined = 0;
+        final AtomicInteger numUndefined = new AtomicInteger();
 
-        for (int s = 1; s <= ntax; s++) {
-            for (int t = s + 1; t <= ntax; t++) {
-                //System.err.println(s+","+t);
-                final PairwiseCompare seqPair = new PairwiseCompare(charactersBlock, s, t);
-                double[][] F = seqPair.getF();
+        final EncodedAlignment alignment = new EncodedAlignment(charactersBlock, false);
 
-                double dist = -1.0;
+        PairwiseScheduler.apply(progress, distancesBlock, (s, t) -> {
+            //System.err.println(s+","+t);
+            final PairwiseCompare seqPair = new PairwiseCompare(alignment, s, t);
+            double[][] F = seqPair.getF();
 
-                if (F == null) {
-                    numUndefined++;
-                } else {
-                    double b = F[1][0];
-                    double c = F[0][1];
-                    double a = F[1][1];
+            double dist = -1.0;
 
-                    if (a + b + c <= 0.0) {
-                        numUndefined++;
-                        dist = -1;
-                    } else {
-                        dist = 1.0 - 2 * a / (2 * a + b + c);
-                    }
+            if (F == null) {
+                numUndefined.incrementAndGet();
+            } else {
+                double b = F[1][0];
+                double c = F[0][1];
+                double a = F[1][1];
 
+                if (a + b + c <= 0.0) {
+                    numUndefined.incrementAndGet();
+                    dist = -1;
+                } else {
+                    dist = 1.0 - 2 * a / (2 * a + b + c);
                 }
 
-                distancesBlock.set(s, t, dist);
-                distancesBlock.set(t, s, dist);
-                if (dist > maxDist)
-                    maxDist = dist;
             }
-            progress.incrementProgress();
-        }
-        if (numUndefined > 0)
-            FixUndefinedDistances.apply(ntax, maxDist, distancesBlock);
+            return dist;
+        });
+        if (numUndefined.get() > 0)
+            FixUndefinedDistances.apply(ntax, distancesBlock);
 
         progress.close();
     }
@@ -27,7 +27,9 @@ import javafx.beans.property.SimpleDoubleProperty;
 import jloda.fx.window.NotificationManager;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.EncodedAlignment;
 import splitstree5.core.algorithms.characters2distances.utils.PairwiseCompare;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -36,6 +38,7 @@ import splitstree5.core.datablocks.TaxaBlock;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Calculation of the LogDet transform.
@@ -121,132 +124,131 @@ public class LogDet extends Algorithm<CharactersBlock, DistancesBlock> implement
     public void compute(ProgressListener progress, TaxaBlock taxaBlock, CharactersBlock charactersBlock, DistancesBlock distancesBlock) throws Exception {
         final int ntax = charactersBlock.getNtax();
         progress.setTasks("logDet distance", "Init.");
-        progress.setMaximum(ntax);
         distancesBlock.setNtax(ntax);
-        int numUndefined = 0;
-
-        for (int t = 1; t <= ntax; t++) {
-            for (int s = t + 1; s <= ntax; s++) {
-                PairwiseCompare seqPair = new PairwiseCompare(charactersBlock, s, t);
-                double dist = -1.0;
-
-                int r = seqPair.getNumStates();
-
-                double[][] F = seqPair.getF();
-                if (F == null) {
-                    numUndefined++;
-                } else {
-                    if (this.optionFudgeFactor.getValue()) {
-                        /* LDDist 1.2 implements some questionable tricks to avoid singluar matrices. To enable
-                   comparisons, I've implemented these here. */
-                        double[][] extF = seqPair.getfCount();
-
-                        double[] rowsum = new double[r];
-                        double[] colsum = new double[r];
-                        double[] rowgaps = new double[r]; //sum of gap and missng cols
-                        double[] colgaps = new double[r]; //sum of gap and missing rows
-                        for (int i = 0; i < r + 2; i++) {
-                            for (int j = 0; j < r + 2; j++) {
-                                if (i < r && j < r) {
-                                    rowsum[i] += extF[i][j];
-                                    colsum[j] += extF[i][j];
-                                } else if (i < r && j >= r) {
-                                    rowgaps[i] += extF[i][j];
-                                } else if (i >= r && j < r) {
-                                    colgaps[j] += extF[i][j];
-                                }
+        final AtomicInteger numUndefined = new AtomicInteger();
+        final boolean fudgeFactor = optionFudgeFactor.getValue();
+        final boolean fillZeros = optionFillZeros.getValue();
+        final double pinv = getOptionPropInvariableSites();
+
+        final EncodedAlignment alignment = new EncodedAlignment(charactersBlock, false);
+
+        // s>t, as F is not symmetric
+        PairwiseScheduler.apply(progress, distancesBlock, (t, s) -> {
+            PairwiseCompare seqPair = new PairwiseCompare(alignment, s, t);
+            double dist = -1.0;
+
+            int r = seqPair.getNumStates();
+
+            double[][] F = seqPair.getF();
+            if (F == null) {
+                numUndefined.incrementAndGet();
+            } else {
+                if (fudgeFactor) {
+                    /* LDDist 1.2 implements some questionable tricks to avoid singluar matrices. To enable
+               comparisons, I've implemented these here. */
+                    double[][] extF = seqPair.getfCount();
+
+                    double[] rowsum = new double[r];
+                    double[] colsum = new double[r];
+                    double[] rowgaps = new double[r]; //sum of gap and missng cols
+                    double[] colgaps = new double[r]; //sum of gap and missing rows
+                    for (int i = 0; i < r + 2; i++) {
+                        for (int j = 0; j < r + 2; j++) {
+                            if (i < r && j < r) {
+                                rowsum[i] += extF[i][j];
+                                colsum[j] += extF[i][j];
+                            } else if (i < r && j >= r) {
+                                rowgaps[i] += extF[i][j];
+                            } else if (i >= r && j < r) {
+                                colgaps[j] += extF[i][j];
                             }
                         }
+                    }
 
-                        /* add fudge factors from sites with gap or missing */
-                        for (int i = 0; i < r; i++) {
-                            for (int j = 0; j < r; j++) {
-                                double fudgei = 0.0, fudgej = 0.0;
-                                if (rowsum[i] != 0) fudgei = rowgaps[i] / rowsum[i];
-                                if (colsum[j] != 0) fudgej = colgaps[j] / colsum[j];
-                                F[i][j] = extF[i][j] * (1.0 + fudgei + fudgej);
-                            }
+                    /* add fudge factors from sites with gap or missing */
+                    for (int i = 0; i < r; i++) {
+                        for (int j = 0; j < r; j++) {
+                            double fudgei = 0.0, fudgej = 0.0;
+                            if (rowsum[i] != 0) fudgei = rowgaps[i] / rowsum[i];
+                            if (colsum[j] != 0) fudgej = colgaps[j] / colsum[j];
+                            F[i][j] = extF[i][j] * (1.0 + fudgei + fudgej);
                         }
+                    }
 
-                        /* Replace zeros with small numbers !?! but only in rows/columns with values present*/
-                        double Fsum = 0.0;
-                        for (int i = 0; i < r; i++) {
-                            if (rowsum[i] == 0) continue;
-                            for (int j = 0; j < r; j++) {
-                                if (this.optionFillZeros.getValue() && colsum[j] != 0 && F[i][j] < 0.5) F[i][j] = 0.5;
-                                Fsum += F[i][j];
-                            }
+                    /* Replace zeros with small numbers !?! but only in rows/columns with values present*/
+                    double Fsum = 0.0;
+                    for (int i = 0; i < r; i++) {
+                        if (rowsum[i] == 0) continue;
+                        for (int j = 0; j < r; j++) {
+                            if (fillZeros && colsum[j] != 0 && F[i][j] < 0.5) F[i][j] = 0.5;
+                            Fsum += F[i][j];
                         }
-                        /*Normalise */
-                        for (int i = 0; i < r; i++)
-                            for (int j = 0; j < r; j++)
-                                F[i][j] /= Fsum;
+                    }
+                    /*Normalise */
+                    for (int i = 0; i < r; i++)
+                        for (int j = 0; j < r; j++)
+                            F[i][j] /= Fsum;
 
+                }
+
+                /* Determine base frequencies */
+                double[] Pi_x = new double[r];
+                double[] Pi_y = new double[r];
+                double[] Pi = new double[r];
+                for (int i = 0; i < r; i++)
+                    Pi_x[i] = Pi_y[i] = Pi[i] = 0.0;
+
+                for (int i = 0; i < r; i++)
+                    for (int j = 0; j < r; j++) {
+                        double Fij = F[i][j];
+                        Pi_x[i] += Fij;
+                        Pi_y[j] += Fij;
                     }
 
-                    /* Determine base frequencies */
-                    double[] Pi_x = new double[r];
-                    double[] Pi_y = new double[r];
-                    double[] Pi = new double[r];
-                    for (int i = 0; i < r; i++)
-                        Pi_x[i] = Pi_y[i] = Pi[i] = 0.0;
 
-                    for (int i = 0; i < r; i++)
-                        for (int j = 0; j < r; j++) {
-                            double Fij = F[i][j];
-                            Pi_x[i] += Fij;
-                            Pi_y[j] += Fij;
-                        }
+                for (int i = 0; i < r; i++)
+                    Pi[i] = (Pi_x[i] + Pi_y[i]) / 2.0;
 
+                double logPi = 0.0;
+                for (int i = 0; i < r; i++)
+                    if (Pi_x[i] != 0.0 && Pi_y[i] != 0.0)
+                        logPi += Math.log(Pi_x[i]) + Math.log(Pi_y[i]);
+                logPi *= 0.5;
 
-                    for (int i = 0; i < r; i++)
-                        Pi[i] = (Pi_x[i] + Pi_y[i]) / 2.0;
+                /* Compute Log Det */
 
-                    double logPi = 0.0;
+                /* Incorporate proportion of invariable sites */
+                if (pinv > 0.0)
                     for (int i = 0; i < r; i++)
-                        if (Pi_x[i] != 0.0 && Pi_y[i] != 0.0)
-                            logPi += Math.log(Pi_x[i]) + Math.log(Pi_y[i]);
-                    logPi *= 0.5;
-
-                    /* Compute Log Det */
-
-                    /* Incorporate proportion of invariable sites */
-                    double pinv = getOptionPropInvariableSites();
-                    if (pinv > 0.0)
-                        for (int i = 0; i < r; i++)
-                            F[i][i] -= pinv * Pi[i];
-
-                    final Matrix Fmatrix = new Matrix(F);
-                    double[] Feigs = Fmatrix.eig().getRealEigenvalues();
-                    double x = 0.0;
-                    boolean thisIsSaturated = false;
-                    for (double Feig : Feigs) {
-                        if (Feig <= 0.0)
-                            thisIsSaturated = true;
-                        else
-                            x += Math.log(Feig);
-                    }
-                    /* now x =  trace(log(F)) = log(det(F)) */
-                    if (thisIsSaturated) {
-                        numUndefined++;
-                        x = -10000000;
-                    }
-
-                    double PiSum = 0;
-                    for (int i = 0; i < r; i++) {
-                        PiSum += Pi[i] * Pi[i];
-                    }
+                        F[i][i] -= pinv * Pi[i];
+
+                final Matrix Fmatrix = new Matrix(F);
+                double[] Feigs = Fmatrix.eig().getRealEigenvalues();
+                double x = 0.0;
+                boolean thisIsSaturated = false;
+                for (double Feig : Feigs) {
+                    if (Feig <= 0.0)
+                        thisIsSaturated = true;
+                    else
+                        x += Math.log(Feig);
+                }
+                /* now x =  trace(log(F)) = log(det(F)) */
+                if (thisIsSaturated) {
+                    numUndefined.incrementAndGet();
+                    x = -10000000;
+                }
 
-                    dist = -(1.0 - PiSum) / (r - 1.0) * (x - logPi);
+                double PiSum = 0;
+                for (int i = 0; i < r; i++) {
+                    PiSum += Pi[i] * Pi[i];
                 }
-                distancesBlock.set(s, t, dist);
-                distancesBlock.set(t, s, dist);
 
+                dist = -(1.0 - PiSum) / (r - 1.0) * (x - logPi);
             }
-            progress.incrementProgress();
-        }
+            return dist;
+        });
 
-        if (numUndefined > 0)
+        if (numUndefined.get() > 0)
             NotificationManager.showWarning("Proceed with caution: " + numUndefined + " saturated or missing entries in the distance matrix. These have been replaced by very large values.");
 
         progress.close();
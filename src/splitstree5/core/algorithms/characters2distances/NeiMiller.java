@@ -21,6 +21,7 @@ package splitstree5.core.algorithms.characters2distances;
 
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -28,6 +29,8 @@ import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.characters.CharactersType;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Computes the Nei and Miller (1990) distance from a set of characters
  *
@@ -63,7 +66,7 @@ public class NeiMiller extends Algorithm<CharactersBlock, DistancesBlock> implem
 
         //distancesBlock.setNtax(ntax);
 
-        boolean warned_sij = false, warned_dhij = false, warned_dist = false;
+        final AtomicBoolean warned_sij = new AtomicBoolean(false), warned_dhij = new AtomicBoolean(false), warned_dist = new AtomicBoolean(false);
 
         // Determine enzyme classes etc:
 
@@ -72,10 +75,7 @@ public class NeiMiller extends Algorithm<CharactersBlock, DistancesBlock> implem
         int[] char2class = new int[nchar + 1];        // Maps characters to enzyme classes
         int num_classes = 0;                    // Number of different classes
 
-        final int maxProgress = 5 * taxaBlock.getNtax() + charactersBlock.getNchar();
-
         progress.setTasks("NeiMiller distance", "Init.");
-        progress.setMaximum(maxProgress);
 
         for (int c = 1; c <= nchar; c++) {
             //if (!characters.isMasked(c)) {
@@ -96,120 +96,77 @@ public class NeiMiller extends Algorithm<CharactersBlock, DistancesBlock> implem
                 class_size[num_classes] = 1;
             }
             //}
-
-            //doc.notifySetProgress(100 * c / maxProgress);
-            progress.incrementProgress();
         }
 
-        // Compute mij_k:
-
-        final int[][][] mij_k = new int[ntax + 1][ntax + 1][num_classes + 1];
-
-        for (int i = 1; i <= ntax; i++) {
-            for (int j = i; j <= ntax; j++) {
-                for (int c = 1; c <= nchar; c++) {
-                    //if (!characters.isMasked(c)) {
-                    if (charactersBlock.get(i, c) == '1' && charactersBlock.get(j, c) == '1') {
-                        mij_k[i][j][char2class[c]]++;
-                    }
-                    //}
-                }
-            }
-
-            //doc.notifySetProgress((characters.getNchar() + i) * 100 / maxProgress);
-            progress.incrementProgress();
-        }
+        // Compute mii_k, the number of sites of class k present in i:
 
-        // Compute sij_k  (equation 2):
+        final int[][] mii_k = new int[ntax + 1][num_classes + 1];
 
-        final double[][][] sij_k = new double[ntax + 1][ntax + 1][num_classes + 1];
         for (int i = 1; i <= ntax; i++) {
-            for (int j = i + 1; j <= ntax; j++) {
-                for (int k = 1; k <= num_classes; k++) {
-                    double bot = mij_k[i][i][k] + mij_k[j][j][k];
-
-                    if (bot != 0)
-                        sij_k[i][j][k] = (2 * mij_k[i][j][k]) / bot;
-                    else {
-                        if (!warned_sij) {
-                            System.err.println("nei_miller: denominator zero in equation (2)");
-                            warned_sij = true;
-                        }
-                        sij_k[i][j][k] = 100000;
-                    }
+            for (int c = 1; c <= nchar; c++) {
+                //if (!characters.isMasked(c)) {
+                if (charactersBlock.get(i, c) == '1') {
+                    mii_k[i][char2class[c]]++;
                 }
+                //}
             }
-
-            //doc.notifySetProgress((characters.getNchar() + ntax + i) * 100 / maxProgress);
-            progress.incrementProgress();
         }
 
-        // Compute dhij_k (i.e. dij_k_hat in equation (3)):
+        // All remaining quantities only depend on the pair i,j, so we compute them pair by pair:
 
-        final double[][][] dhij_k = new double[ntax + 1][ntax + 1][num_classes + 1];
+        final int numClasses = num_classes;
 
-        for (int i = 1; i <= ntax; i++) {
-            for (int j = i + 1; j <= ntax; j++) {
-                for (int k = 1; k <= num_classes; k++) {
-                    if (class_value[k] == 0) {
-                        dhij_k[i][j][k] = 100000;
-                        if (!warned_dhij) {
-                            System.err.println("nei_miller: denominator zero in equation (3)");
-                            warned_dhij = true;
-                        }
-                    } else
-                        dhij_k[i][j][k]
-                                = (-Math.log(sij_k[i][j][k])) / class_value[k]; // equation (3)
+        PairwiseScheduler.apply(progress, distancesBlock, (i, j) -> {
+            // Compute mij_k:
+            final int[] mij_k = new int[numClasses + 1];
+            final char[] row_i = charactersBlock.getRow0(i - 1);
+            final char[] row_j = charactersBlock.getRow0(j - 1);
+            for (int c = 1; c <= nchar; c++) {
+                if (row_i[c - 1] == '1' && row_j[c - 1] == '1') {
+                    mij_k[char2class[c]]++;
                 }
             }
 
-            //doc.notifySetProgress(100 * (characters.getNchar() + 2 * ntax + i) / maxProgress);
-            progress.incrementProgress();
-        }
-
-        // Compute mk_k (mk_bar=(mii_k+mjj_k)/2):
-
-        final double[][][] mk_k = new double[ntax + 1][ntax + 1][num_classes + 1];
-
-        for (int i = 1; i <= ntax; i++) {
-            for (int j = i; j <= ntax; j++) {
-                for (int k = 1; k <= num_classes; k++) {
-                    mk_k[i][j][k] = (mij_k[i][i][k] + mij_k[j][j][k]) / 2.0;
-                }
-            }
-
-            //doc.notifySetProgress((100 * characters.getNchar() + 3 * ntax + i) / maxProgress);
-            progress.incrementProgress();
-        }
-
-        // Computes the distances as described in equation (4):
-
-        for (int i = 1; i <= ntax; i++) {
-            for (int j = i + 1; j <= ntax; j++) {
-                // Computes the bottom of equation 4:
-                double bottom = 0;
-                for (int k = 1; k <= num_classes; k++)
-                    bottom += mk_k[i][j][k] * class_value[k];
-
-                // Computes the top of equation 4:
-                double top = 0;
-                for (int k = 1; k <= num_classes; k++)
-                    top += mk_k[i][j][k] * class_value[k] * dhij_k[i][j][k];
-
-                if (bottom != 0)
-                    distancesBlock.set(i, j, top / bottom);
+            double bottom = 0;
+            double top = 0;
+            for (int k = 1; k <= numClasses; k++) {
+                // Compute sij_k  (equation 2):
+                final double sij_k;
+                final double bot = mii_k[i][k] + mii_k[j][k];
+                if (bot != 0)
+                    sij_k = (2 * mij_k[k]) / bot;
                 else {
-                    if (!warned_dist) {
-                        System.err.println("nei_miller: denominator zero in equation (4)");
-                        warned_dist = true;
-                    }
-                    distancesBlock.set(i, j, 1);
+                    if (warned_sij.compareAndSet(false, true))
+                        System.err.println("nei_miller: denominator zero in equation (2)");
+                    sij_k = 100000;
                 }
+
+                // Compute dhij_k (i.e. dij_k_hat in equation (3)):
+                final double dhij_k;
+                if (class_value[k] == 0) {
+                    dhij_k = 100000;
+                    if (warned_dhij.compareAndSet(false, true))
+                        System.err.println("nei_miller: denominator zero in equation (3)");
+                } else
+                    dhij_k = (-Math.log(sij_k)) / class_value[k]; // equation (3)
+
+                // Compute mk_k (mk_bar=(mii_k+mjj_k)/2):
+                final double mk_k = (mii_k[i][k] + mii_k[j][k]) / 2.0;
+
+                // Computes the bottom and top of equation 4:
+                bottom += mk_k * class_value[k];
+                top += mk_k * class_value[k] * dhij_k;
             }
 
-            //doc.notifySetProgress(100 * (characters.getNchar() + 4 * ntax + i) / maxProgress);
-            progress.incrementProgress();
-        }
+            // Computes the distances as described in equation (4):
+            if (bottom != 0)
+                return top / bottom;
+            else {
+                if (warned_dist.compareAndSet(false, true))
+                    System.err.println("nei_miller: denominator zero in equation (4)");
+                return 1;
+            }
+        });
         progress.close();
     }
 }
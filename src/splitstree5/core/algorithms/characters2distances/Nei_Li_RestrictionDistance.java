@@ -24,7 +24,9 @@ import javafx.beans.property.SimpleDoubleProperty;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
 import splitstree5.core.algorithms.characters2distances.utils.FixUndefinedDistances;
+import splitstree5.core.algorithms.characters2distances.utils.EncodedAlignment;
 import splitstree5.core.algorithms.characters2distances.utils.PairwiseCompare;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -32,6 +34,8 @@ import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.characters.CharactersType;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Implements the NeiLi (1979) distance for restriction site data.
  *
@@ -61,47 +65,40 @@ public class Nei_Li_RestrictionDistance extends Algorithm<CharactersBlock, Dista
         distancesBlock.setNtax(ntax);
 
         progress.setTasks("Nei Li (1979) Restriction Site Distance", "Init.");
-        progress.setMaximum(ntax);
-
-        double maxDist = 0.0;
-        int numUndefined = 0;
-
-        for (int s = 1; s <= ntax; s++) {
-            for (int t = s + 1; t <= ntax; t++) {
 
-                PairwiseCompare seqPair = new PairwiseCompare(charactersBlock, s, t);
-                final double[][] F = seqPair.getF();
-                double dist = -1.0;
-                if (F == null)
-                    numUndefined++;
-                else {
-                    final double ns = F[1][0] + F[1][1];
-                    final double nt = F[0][1] + F[1][1];
-                    final double nst = F[1][1];
-
-                    if (nst == 0) {
+        final AtomicInteger numUndefined = new AtomicInteger();
+        final double restrictionSiteLength = getOptionRestrictionSiteLength();
+
+        final EncodedAlignment alignment = new EncodedAlignment(charactersBlock, false);
+
+        PairwiseScheduler.apply(progress, distancesBlock, (s, t) -> {
+            PairwiseCompare seqPair = new PairwiseCompare(alignment, s, t);
+            final double[][] F = seqPair.getF();
+            double dist = -1.0;
+            if (F == null)
+                numUndefined.incrementAndGet();
+            else {
+                final double ns = F[1][0] + F[1][1];
+                final double nt = F[0][1] + F[1][1];
+                final double nst = F[1][1];
+
+                if (nst == 0) {
+                    dist = -1;
+                    numUndefined.incrementAndGet();
+                } else {
+                    final double s_hat = 2.0 * nst / (ns + nt);
+                    final double a = (4.0 * Math.pow(s_hat, 1.0 / (2 * restrictionSiteLength)) - 1.0) / 3.0;
+                    if (a <= 0.0) {
                         dist = -1;
-                        numUndefined++;
-                    } else {
-                        final double s_hat = 2.0 * nst / (ns + nt);
-                        final double a = (4.0 * Math.pow(s_hat, 1.0 / (2 * getOptionRestrictionSiteLength())) - 1.0) / 3.0;
-                        if (a <= 0.0) {
-                            dist = -1;
-                            numUndefined++;
-                        } else
-                            dist = -1.5 * Math.log(a);
-                    }
+                        numUndefined.incrementAndGet();
+                    } else
+                        dist = -1.5 * Math.log(a);
                 }
-                distancesBlock.set(s, t, dist);
-                distancesBlock.set(t, s, dist);
-                if (dist > maxDist)
-                    maxDist = dist;
-
             }
-            progress.incrementProgress();
-        }
-        if (numUndefined > 0)
-            FixUndefinedDistances.apply(ntax, maxDist, distancesBlock);
+            return dist;
+        });
+        if (numUndefined.get() > 0)
+            FixUndefinedDistances.apply(ntax, distancesBlock);
 
         progress.close();
     }
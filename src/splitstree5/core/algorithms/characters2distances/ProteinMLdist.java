@@ -23,7 +23,9 @@ import javafx.beans.property.*;
 import jloda.fx.window.NotificationManager;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.EncodedAlignment;
 import splitstree5.core.algorithms.characters2distances.utils.PairwiseCompare;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.characters2distances.utils.SaturatedDistancesException;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
@@ -35,6 +37,7 @@ import splitstree5.core.models.proteinModels.*;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Computes the maximum likelihood protein distance estimates for a set of characters
@@ -92,51 +95,41 @@ public class ProteinMLdist extends Algorithm<CharactersBlock, DistancesBlock> im
 
     @Override
     public void compute(ProgressListener progress, TaxaBlock taxaBlock, CharactersBlock charactersBlock, DistancesBlock distancesBlock) throws Exception {
-
-        boolean hasSaturated = false;
-
-        int ntax = charactersBlock.getNtax();
-        int npairs = ntax * (ntax - 1) / 2;
+        final int ntax = charactersBlock.getNtax();
 
         distancesBlock.setNtax(ntax);
         progress.setTasks("Protein ML distance", "Init.");
-        progress.setMaximum(npairs);
 
-        ProteinModel model = selectModel(optionModel.getValue());
+        final ProteinModel model = selectModel(optionModel.getValue());
         model.setPinv(this.getOptionPropInvariableSites());
         model.setGamma(this.getOptionGamma());
 
         /*if (model == null) {
             throw new SplitsException("Incorrect model name");
         }*/
-        int k = 0;
-        for (int s = 1; s <= ntax; s++) {
-            for (int t = s + 1; t <= ntax; t++) {
-                final PairwiseCompare seqPair = new PairwiseCompare(charactersBlock, s, t);
-                double dist = 100.0;
-
-                //Maximum likelihood distance. Note we want to ignore sites
-                //with the stop codon.
-                try {
-                    dist = seqPair.mlDistance(model);
-                } catch (SaturatedDistancesException e) {
-                    hasSaturated = true;
-                }
-
-                distancesBlock.set(s, t, dist);
-                distancesBlock.set(t, s, dist);
-
-                double var = seqPair.bulmerVariance(dist, 0.93);
-                distancesBlock.setVariance(s, t, var);
-                distancesBlock.setVariance(t, s, var);
-
-                k++;
-                progress.incrementProgress();
+        final AtomicBoolean hasSaturated = new AtomicBoolean(false);
+        final EncodedAlignment alignment = new EncodedAlignment(charactersBlock, false);
+
+        PairwiseScheduler.apply(progress, distancesBlock, (s, t) -> {
+            final PairwiseCompare seqPair = new PairwiseCompare(alignment, s, t);
+            double dist = 100.0;
+
+            //Maximum likelihood distance. Note we want to ignore sites
+            //with the stop codon.
+            try {
+                dist = seqPair.mlDistance(model);
+            } catch (SaturatedDistancesException e) {
+                hasSaturated.set(true);
             }
-        }
+
+            final double var = seqPair.bulmerVariance(dist, 0.93);
+            distancesBlock.setVariance(s, t, var);
+            distancesBlock.setVariance(t, s, var);
+            return dist;
+        });
 
         progress.close();
-        if (hasSaturated) {
+        if (hasSaturated.get()) {
             NotificationManager.showWarning("Proceed with caution: saturated or missing entries in the distance matrix");
         }
     }
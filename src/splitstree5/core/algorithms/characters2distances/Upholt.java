@@ -24,7 +24,9 @@ import javafx.beans.property.SimpleDoubleProperty;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
 import splitstree5.core.algorithms.characters2distances.utils.FixUndefinedDistances;
+import splitstree5.core.algorithms.characters2distances.utils.EncodedAlignment;
 import splitstree5.core.algorithms.characters2distances.utils.PairwiseCompare;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromCharacters;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.CharactersBlock;
@@ -32,6 +34,8 @@ import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.characters.CharactersType;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Implements the Upholt (1979) distance for restriction site data.
  *
@@ -61,45 +65,39 @@ public class Upholt extends Algorithm<CharactersBlock, DistancesBlock> implement
         distancesBlock.setNtax(ntax);
 
         progress.setTasks("Upholt distance", "Init.");
-        progress.setMaximum(ntax);
-
-        double maxDist = 0.0;
-        int numUndefined = 0;
-
-        for (int s = 1; s <= ntax; s++) {
-            for (int t = s + 1; t <= ntax; t++) {
-                //System.err.println(s+","+t);
-                PairwiseCompare seqPair = new PairwiseCompare(charactersBlock, s, t);
-                double[][] F = seqPair.getF();
-                double dist = -1.0;
-
-                if (F == null)
-                    numUndefined++;
-                else {
-
-                    double ns = F[1][0] + F[1][1];
-                    double nt = F[0][1] + F[1][1];
-                    double nst = F[1][1];
-
-                    if (nst == 0) {
-                        numUndefined++;
-                        dist = -1;
-                    } else {
-                        double s_hat = 2.0 * nst / (ns + nt);
-                        dist = -Math.log(s_hat) / getOptionRestrictionSiteLength();
-                    }
 
+        final AtomicInteger numUndefined = new AtomicInteger();
+        final double restrictionSiteLength = getOptionRestrictionSiteLength();
+
+        final EncodedAlignment alignment = new EncodedAlignment(charactersBlock, false);
+
+        PairwiseScheduler.apply(progress, distancesBlock, (s, t) -> {
+            //System.err.println(s+","+t);
+            PairwiseCompare seqPair = new PairwiseCompare(alignment, s, t);
+            double[][] F = seqPair.getF();
+            double dist = -1.0;
+
+            if (F == null)
+                numUndefined.incrementAndGet();
+            else {
+
+                double ns = F[1][0] + F[1][1];
+                double nt = F[0][1] + F[1][1];
+                double nst = F[1][1];
+
+                if (nst == 0) {
+                    numUndefined.incrementAndGet();
+                    dist = -1;
+                } else {
+                    double s_hat = 2.0 * nst / (ns + nt);
+                    dist = -Math.log(s_hat) / restrictionSiteLength;
                 }
 
-                distancesBlock.set(s, t, dist);
-                distancesBlock.set(t, s, dist);
-                if (dist > maxDist)
-                    maxDist = dist;
             }
-            progress.incrementProgress();
-        }
-        if (numUndefined > 0)
-            FixUndefinedDistances.apply(ntax, maxDist, distancesBlock);
+            return dist;
+        });
+        if (numUndefined.get() > 0)
+            FixUndefinedDistances.apply(ntax, distancesBlock);
 
         progress.close();
     }
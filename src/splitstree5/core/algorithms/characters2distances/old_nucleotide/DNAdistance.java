@@ -21,10 +21,11 @@ package splitstree5.core.algorithms.characters2distances.old_nucleotide;
 
 import javafx.beans.property.*;
 import jloda.fx.window.NotificationManager;
-import jloda.util.CanceledException;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.EncodedAlignment;
 import splitstree5.core.algorithms.characters2distances.utils.PairwiseCompare;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.characters2distances.utils.SaturatedDistancesException;
 import splitstree5.core.datablocks.CharactersBlock;
 import splitstree5.core.datablocks.DataBlock;
@@ -33,10 +34,10 @@ import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.characters.CharactersType;
 import splitstree5.core.models.nucleotideModels.NucleotideModel;
 import splitstree5.core.workflow.Connector;
-import splitstree5.utils.SplitsException;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @deprecated
@@ -161,53 +162,51 @@ public abstract class DNAdistance extends Algorithm<CharactersBlock, DistancesBl
      *
      * @param progressListener used to display the progress
 	 */
-    protected DistancesBlock fillDistanceMatrix(ProgressListener progressListener, CharactersBlock characters, NucleotideModel model) throws SplitsException, CanceledException {
+    protected DistancesBlock fillDistanceMatrix(ProgressListener progressListener, CharactersBlock characters, NucleotideModel model) throws Exception {
         final int ntax = characters.getNtax();
         final DistancesBlock distances = new DistancesBlock();
         distances.setNtax(ntax);
         //distances.setTriangle("both"); // todo always so?
 
-        int numMissing = 0;
+        final AtomicInteger numMissing = new AtomicInteger();
+        final boolean useML = this.optionUseML_Distances.getValue();
 
-        for (int s = 1; s <= ntax; s++) {
-            for (int t = s + 1; t <= ntax; t++) {
-                final PairwiseCompare seqPair = new PairwiseCompare(characters, s, t);
-                double dist = 100.0;
+        final EncodedAlignment alignment = new EncodedAlignment(characters, false);
 
-                if (this.optionUseML_Distances.getValue()) {
-                    //Maximum likelihood distance
+        PairwiseScheduler.apply(progressListener, distances, (s, t) -> {
+            final PairwiseCompare seqPair = new PairwiseCompare(alignment, s, t);
+            double dist = 100.0;
+
+            if (useML) {
+                //Maximum likelihood distance
+                try {
+                    dist = seqPair.mlDistance(model);
+                } catch (SaturatedDistancesException e) {
+                    numMissing.incrementAndGet();
+                }
+            } else {
+                //Exact distance
+                double[][] F = seqPair.getF();
+                if (F == null)
+                    numMissing.incrementAndGet();
+                else {
                     try {
-                        dist = seqPair.mlDistance(model);
+                        dist = exactDist(F);
                     } catch (SaturatedDistancesException e) {
-                        numMissing++;
+                        numMissing.incrementAndGet();
                     }
-                } else {
-                    //Exact distance
-                    double[][] F = seqPair.getF();
-                    if (F == null)
-                        numMissing++;
-                    else {
-                        try {
-                            dist = exactDist(F);
-                        } catch (SaturatedDistancesException e) {
-                            numMissing++;
-                        }
-                    }
-
                 }
 
-                distances.set(s, t, dist);
-                distances.set(t, s, dist);
-
-                double var = seqPair.bulmerVariance(dist, 0.75);
-                distances.setVariance(s, t, var);
-                distances.setVariance(t, s, var);
             }
-            progressListener.incrementProgress();
-        }
+
+            double var = seqPair.bulmerVariance(dist, 0.75);
+            distances.setVariance(s, t, var);
+            distances.setVariance(t, s, var);
+            return dist;
+        });
         progressListener.close();
 
-        if (numMissing > 0) {
+        if (numMissing.get() > 0) {
             NotificationManager.showWarning("Proceed with caution: " + numMissing + " saturated or missing entries in the distance matrix");
         }
         return distances;
@@ -0,0 +1,239 @@
+/*
+ * EncodedAlignment.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.characters2distances.utils;
+
+import splitstree5.core.datablocks.CharactersBlock;
+import splitstree5.core.datablocks.characters.AmbiguityCodes;
+import splitstree5.utils.SplitsException;
+
+import java.util.Arrays;
+
+/**
+ * a characters block encoded for fast pairwise comparison. Each symbol is translated once into a state index, the gap
+ * index or the missing index, as in PairwiseCompare. For alphabets of up to six states (nucleotides), each taxon is stored
+ * as one bit plane per state, 64 sites per long, so that the counts of all pairs of states are obtained by popcounts.
+ * Sites with ambiguity codes are kept in a separate mask and are processed one by one, as in PairwiseCompare.
+ * <p>
+ * The counts are exactly those computed by PairwiseCompare. Ambiguity codes for three nucleotides contribute thirds,
+ * which depend on the order of summation, so for taxa containing them, and for weighted characters, all sites are
+ * processed in order, using a table lookup per symbol
+ * <p>
+ * The encoding is immutable and can be shared by threads
+ * Daniel Huson, 10.2026
+ */
+public class EncodedAlignment {
+    private static final int MAX_STATES_FOR_PLANES = 6;
+    private static final int AMBIGUOUS = -1;
+    private static final int INVALID = -2;
+
+    private final CharactersBlock characters;
+    private final boolean ignoreAmbiguous;
+    private final int ntax;
+    private final int nchar;
+    private final int numStates;
+    private final int numWords;
+    private final String states;
+    private final char gapChar;
+    private final char missingChar;
+    private final double[] weights; // null, if all weights are 1
+
+    private final int[] char2code; // code of each symbol
+    private final boolean[] valid; // does taxon only contain valid characters?
+    private final boolean[] inexact; // does taxon contain an ambiguity code whose contributions aren't exact?
+    private final long[][] present; // sites that are neither gap nor missing
+    private final long[][] ambiguous; // sites containing an ambiguity code
+    private final long[][][] planes; // one bit plane per state, gap and missing, or null
+
+    /**
+     * encode the given characters block
+     *
+     * @param characters      the characters
+     * @param ignoreAmbiguous if true, ambiguity codes are treated as ordinary symbols, as in PairwiseCompare
+     */
+    public EncodedAlignment(CharactersBlock characters, boolean ignoreAmbiguous) {
+        this.characters = characters;
+        this.ignoreAmbiguous = ignoreAmbiguous;
+        ntax = characters.getNtax();
+        nchar = characters.getNchar();
+        states = characters.getSymbols();
+        numStates = states.length();
+        numWords = (nchar + 63) / 64;
+        gapChar = characters.getGapCharacter();
+        missingChar = characters.getMissingCharacter();
+        weights = (characters.isUseCharacterWeights() ? characters.getCharacterWeights() : null);
+
+        final boolean handleAmbiguity = characters.getDataType().isNucleotides() && !ignoreAmbiguous;
+        final int numCodes = numStates + 2;
+        final boolean usePlanes = (numStates <= MAX_STATES_FOR_PLANES && weights == null);
+
+        valid = new boolean[ntax];
+        inexact = new boolean[ntax];
+        present = new long[ntax][numWords];
+        ambiguous = new long[ntax][numWords];
+        planes = (usePlanes ? new long[ntax][numCodes][numWords] : null);
+
+        char2code = new int[Character.MAX_VALUE + 1];
+        final int unknown = Integer.MIN_VALUE;
+        Arrays.fill(char2code, unknown);
+
+        for (int t = 0; t < ntax; t++) {
+            final char[] row = characters.getRow0(t);
+            boolean ok = true;
+            boolean thirds = false;
+            for (int k = 0; k < nchar; k++) {
+                final char ch = row[k];
+                int code = char2code[ch];
+                if (code == unknown) {
+                    code = computeCode(ch, handleAmbiguity);
+                    char2code[ch] = code;
+                }
+                if (ch != gapChar && ch != missingChar)
+                    present[t][k >>> 6] |= (1L << k);
+                if (code == AMBIGUOUS) {
+                    ambiguous[t][k >>> 6] |= (1L << k);
+                    if (AmbiguityCodes.getNucleotides(ch).length() == 3)
+                        thirds = true;
+                } else if (code == INVALID)
+                    ok = false;
+                else if (planes != null)
+                    planes[t][code][k >>> 6] |= (1L << k);
+            }
+            valid[t] = ok;
+            inexact[t] = thirds;
+        }
+    }
+
+    /**
+     * determines the code for a character: the index of the state, or numStates for a gap, numStates+1 for missing,
+     * AMBIGUOUS for an ambiguity code, or INVALID for an invalid character
+     */
+    private int computeCode(char ch, boolean handleAmbiguity) {
+        if (handleAmbiguity && AmbiguityCodes.isAmbiguityCode(ch)) {
+            for (char c : AmbiguityCodes.getNucleotides(ch).toCharArray()) {
+                if (states.indexOf(c) < 0)
+                    return INVALID; // PairwiseCompare will fail on this
+            }
+            return AMBIGUOUS;
+        } else if (ch == gapChar)
+            return numStates;
+        else if (ch == missingChar)
+            return numStates + 1;
+        else {
+            final int state = states.indexOf(ch);
+            return (state >= 0 ? state : INVALID);
+        }
+    }
+
+    /**
+     * can the two taxa be compared using the encoding? This is not the case if one contains an invalid character
+     *
+     * @param i 1-based
+     * @param j 1-based
+     * @return true, if computeFCount can be used
+     */
+    public boolean isEncoded(int i, int j) {
+        return valid[i - 1] && valid[j - 1];
+    }
+
+    /**
+     * adds the counts of all pairs of states, gaps and missing to fCount, as in PairwiseCompare
+     *
+     * @param i      1-based
+     * @param j      1-based
+     * @param fCount array of size (numStates+2)*(numStates+2)
+     * @return the number of sites at which neither is gap or missing
+     */
+    public int computeFCount(int i, int j, double[][] fCount) throws SplitsException {
+        final long[] ambiguousI = ambiguous[i - 1];
+        final long[] ambiguousJ = ambiguous[j - 1];
+
+        if (planes != null && !inexact[i - 1] && !inexact[j - 1]) {
+            final long[][] planesI = planes[i - 1];
+            final long[][] planesJ = planes[j - 1];
+            for (int a = 0; a < planesI.length; a++) {
+                final long[] planeA = planesI[a];
+                for (int b = 0; b < planesJ.length; b++) {
+                    final long[] planeB = planesJ[b];
+                    long count = 0;
+                    for (int w = 0; w < numWords; w++)
+                        count += Long.bitCount(planeA[w] & planeB[w]);
+                    fCount[a][b] += count;
+                }
+            }
+            for (int w = 0; w < numWords; w++) {
+                long mask = (ambiguousI[w] | ambiguousJ[w]);
+                while (mask != 0) {
+                    final int k = (w << 6) + Long.numberOfTrailingZeros(mask) + 1;
+                    PairwiseCompare.addAmbiguousSite(fCount, states, gapChar, missingChar, characters.get(i, k), characters.get(j, k), 1.0, i, j, k);
+                    mask &= (mask - 1);
+                }
+            }
+        } else {
+            final char[] rowI = characters.getRow0(i - 1);
+            final char[] rowJ = characters.getRow0(j - 1);
+            for (int k = 0; k < nchar; k++) {
+                final int a = char2code[rowI[k]];
+                final int b = char2code[rowJ[k]];
+                final double weight = (weights == null ? 1.0 : weights[k]);
+                if (a >= 0 && b >= 0)
+                    fCount[a][b] += weight;
+                else
+                    PairwiseCompare.addAmbiguousSite(fCount, states, gapChar, missingChar, rowI[k], rowJ[k], weight, i, j, k + 1);
+            }
+        }
+        return countPresent(i, j);
+    }
+
+    /**
+     * count the number of sites at which neither of the two taxa has a gap or missing character
+     *
+     * @param i 1-based
+     * @param j 1-based
+     * @return count
+     */
+    public int countPresent(int i, int j) {
+        final long[] presentI = present[i - 1];
+        final long[] presentJ = present[j - 1];
+        int count = 0;
+        for (int w = 0; w < numWords; w++)
+            count += Long.bitCount(presentI[w] & presentJ[w]);
+        return count;
+    }
+
+    public CharactersBlock getCharacters() {
+        return characters;
+    }
+
+    public boolean isIgnoreAmbiguous() {
+        return ignoreAmbiguous;
+    }
+
+    public int getNumStates() {
+        return numStates;
+    }
+
+    public int getNtax() {
+        return ntax;
+    }
+
+    public int getNchar() {
+        return nchar;
+    }
+}
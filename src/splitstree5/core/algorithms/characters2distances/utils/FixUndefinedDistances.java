@@ -27,6 +27,18 @@ import splitstree5.core.datablocks.DistancesBlock;
  * Daniel Huson, 2.2018
  */
 public class FixUndefinedDistances {
+    /**
+     * apply, using the maximum defined distance in the block
+     */
+    public static void apply(int ntax, DistancesBlock distancesBlock) {
+        double maxDist = 0.0;
+        for (int s = 1; s <= ntax; s++)
+            for (int t = s + 1; t <= ntax; t++) {
+                maxDist = Math.max(maxDist, distancesBlock.get(s, t));
+            }
+        apply(ntax, maxDist, distancesBlock);
+    }
+
     /**
      * apply
      *
@@ -0,0 +1,140 @@
+/*
+ * MLDistanceBenchmark.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.characters2distances.utils;
+
+import splitstree5.core.datablocks.CharactersBlock;
+import splitstree5.core.datablocks.characters.CharactersType;
+import splitstree5.core.models.SubstitutionModel;
+import splitstree5.core.models.nucleotideModels.GTRmodel;
+import splitstree5.core.models.proteinModels.JTTmodel;
+import splitstree5.core.models.proteinModels.WagModel;
+
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * compares the running times of maximum likelihood distances computed using the eigensystem of the model
+ * and by golden section search, on sequences simulated under JTT, WAG and GTR
+ * <p>
+ * Usage: MLDistanceBenchmark [ntax [nchar]], defaults to 50 500
+ * Daniel Huson, 10.2026
+ */
+public class MLDistanceBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int ntax = (args.length > 0 ? Integer.parseInt(args[0]) : 50);
+        final int nchar = (args.length > 1 ? Integer.parseInt(args[1]) : 500);
+        final Random random = new Random(666);
+
+        final double[][] Q = {{0, 1.0, 4.0, 0.8}, {1.0, 0, 0.6, 5.0}, {4.0, 0.6, 0, 1.2}, {0.8, 5.0, 1.2, 0}};
+        final SubstitutionModel[] models = {new JTTmodel(), new WagModel(), new GTRmodel(Q, new double[]{0.3, 0.2, 0.2, 0.3})};
+        final CharactersType[] types = {CharactersType.Protein, CharactersType.Protein, CharactersType.DNA};
+
+        System.err.println("model\tpairs\tms-eigen\tms-golden\tmax-diff");
+        for (int m = 0; m < models.length; m++) {
+            final SubstitutionModel model = models[m];
+            final CharactersBlock characters = simulate(model, types[m], ntax, nchar, random);
+            final EncodedAlignment alignment = new EncodedAlignment(characters, false);
+            final SubstitutionModel withoutEigensystem = hideEigensystem(model);
+
+            final double[][] distances = new double[ntax + 1][ntax + 1];
+            long start = System.currentTimeMillis();
+            for (int s = 1; s <= ntax; s++) {
+                for (int t = s + 1; t <= ntax; t++)
+                    distances[s][t] = new PairwiseCompare(alignment, s, t).mlDistance(model);
+            }
+            final long timeEigen = System.currentTimeMillis() - start;
+
+            double maxDiff = 0;
+            start = System.currentTimeMillis();
+            for (int s = 1; s <= ntax; s++) {
+                for (int t = s + 1; t <= ntax; t++)
+                    maxDiff = Math.max(maxDiff, Math.abs(distances[s][t] - new PairwiseCompare(alignment, s, t).mlDistance(withoutEigensystem)));
+            }
+            final long timeGolden = System.currentTimeMillis() - start;
+
+            System.err.printf("%s\t%d\t%d\t%d\t%.2e%n", model.getClass().getSimpleName(), ntax * (ntax - 1) / 2, timeEigen, timeGolden, maxDiff);
+        }
+    }
+
+    /**
+     * simulates sequences on a star tree with random branch lengths
+     */
+    private static CharactersBlock simulate(SubstitutionModel model, CharactersType type, int ntax, int nchar, Random random) {
+        final CharactersBlock characters = new CharactersBlock();
+        characters.setDataType(type);
+        characters.setDimension(ntax, nchar);
+        final String symbols = characters.getSymbols();
+        final int nStates = model.getNstates();
+
+        final int[] root = new int[nchar];
+        for (int k = 0; k < nchar; k++) {
+            root[k] = draw(random, nStates, i -> model.getPi(i));
+        }
+        for (int s = 1; s <= ntax; s++) {
+            final double length = 0.02 + 0.6 * random.nextDouble();
+            for (int k = 0; k < nchar; k++) {
+                final int from = root[k];
+                characters.set(s, k + 1, symbols.charAt(draw(random, nStates, j -> model.getP(from, j, length))));
+            }
+        }
+        return characters;
+    }
+
+    private static int draw(Random random, int nStates, IntToDoubleFunction probability) {
+        double x = random.nextDouble();
+        for (int i = 0; i < nStates - 1; i++) {
+            x -= probability.applyAsDouble(i);
+            if (x < 0)
+                return i;
+        }
+        return nStates - 1;
+    }
+
+    /**
+     * wraps a model so that its eigensystem isn't used
+     */
+    private static SubstitutionModel hideEigensystem(SubstitutionModel model) {
+        return new SubstitutionModel() {
+            public double getP(int i, int j, double t) {
+                return model.getP(i, j, t);
+            }
+
+            public double getX(int i, int j, double t) {
+                return model.getX(i, j, t);
+            }
+
+            public double getQ(int i, int j) {
+                return model.getQ(i, j);
+            }
+
+            public double getPi(int i) {
+                return model.getPi(i);
+            }
+
+            public double getRate() {
+                return model.getRate();
+            }
+
+            public int getNstates() {
+                return model.getNstates();
+            }
+        };
+    }
+}
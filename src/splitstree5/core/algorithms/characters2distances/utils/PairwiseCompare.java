@@ -21,6 +21,7 @@ package splitstree5.core.algorithms.characters2distances.utils;
 
 import splitstree5.core.datablocks.CharactersBlock;
 import splitstree5.core.datablocks.characters.AmbiguityCodes;
+import splitstree5.core.models.SpectralDecomposition;
 import splitstree5.core.models.SubstitutionModel;
 import splitstree5.utils.SplitsException;
 
@@ -56,6 +57,22 @@ public class PairwiseCompare { // todo: add support for character weights
         calculatePairwiseCompare(characters, i, j, isIgnoreAmbiguous);
     }
 
+    /**
+     * constructor using an encoded alignment, which is much faster when comparing many pairs
+     *
+     * @param alignment the encoded alignment, computed once for all pairs
+     * @param i         first taxon, 1-based
+     * @param j         second taxon, 1-based
+     */
+    public PairwiseCompare(final EncodedAlignment alignment, final int i, final int j) throws SplitsException {
+        numStates = alignment.getNumStates();
+        fCount = new double[numStates + 2][numStates + 2];
+        if (alignment.isEncoded(i, j))
+            numNotMissing = alignment.computeFCount(i, j, fCount);
+        else // invalid characters, use the original code to report them
+            calculatePairwiseCompare(alignment.getCharacters(), i, j, alignment.isIgnoreAmbiguous());
+    }
+
     public void calculatePairwiseCompare(final CharactersBlock characters, final int i, final int j, boolean isIgnoreAmbiguous)
             throws SplitsException {
         final String states = characters.getSymbols();
@@ -87,43 +104,7 @@ public class PairwiseCompare { // todo: add support for character weights
             }
 
             if (ambigI || ambigJ) {
-
-                final String si = AmbiguityCodes.getNucleotides(ci);
-                final String sj = AmbiguityCodes.getNucleotides(cj);
-
-                //Two cases... if they are the same states, then this needs to be distributed
-                //down the diagonal of F. Otherwise, average.
-
-                if (si.equals(sj)) {
-                    double weight = 1.0 / si.length();
-                    for (int pos = 0; pos < si.length(); pos++) {
-                        int statei = states.indexOf(si.charAt(pos));
-                        fCount[statei][statei] += weight * charWeight;
-                    }
-                } else {
-                    double weight = 1.0 / (si.length() * sj.length());
-
-                    for (int x = 0; x < si.length(); x++) {
-                        for (int y = 0; y < sj.length(); y++) {
-                            final int cx = si.charAt(x);
-                            final int cy = sj.charAt(y);
-                            int stateX = states.indexOf(cx);
-                            int stateY = states.indexOf(cy);
-                            if (cx == gapChar) stateX = gapIndex;
-                            if (cx == missingChar) stateX = missingIndex;
-                            if (cy == gapChar) stateY = gapIndex;
-                            if (cy == missingChar) stateY = missingIndex;
-                            if (stateX >= 0 && stateY >= 0)
-                                fCount[stateX][stateY] += weight * charWeight;
-                            else {
-                                if (stateX < 0)
-                                    throw new SplitsException("Position " + k + " for taxa " + i + ": invalid character '" + cx + "'");
-                                else if (stateY < 0)
-                                    throw new SplitsException("Position " + k + " for taxa " + j + ": invalid character '" + cy + "'");
-                            }
-                        }
-                    }
-                }
+                addAmbiguousSite(fCount, states, gapChar, missingChar, ci, cj, charWeight, i, j, k);
             } else {
                 final int stateI;
                 if (ci == gapChar)
@@ -152,6 +133,51 @@ public class PairwiseCompare { // todo: add support for character weights
         }
     }
 
+    /**
+     * add a site at which one or both characters are ambiguity codes
+     */
+    static void addAmbiguousSite(double[][] fCount, String states, char gapChar, char missingChar, char ci, char cj, double charWeight, int i, int j, int k) throws SplitsException {
+        final int gapIndex = states.length();
+        final int missingIndex = states.length() + 1;
+
+        final String si = AmbiguityCodes.getNucleotides(ci);
+        final String sj = AmbiguityCodes.getNucleotides(cj);
+
+        //Two cases... if they are the same states, then this needs to be distributed
+        //down the diagonal of F. Otherwise, average.
+
+        if (si.equals(sj)) {
+            double weight = 1.0 / si.length();
+            for (int pos = 0; pos < si.length(); pos++) {
+                int statei = states.indexOf(si.charAt(pos));
+                fCount[statei][statei] += weight * charWeight;
+            }
+        } else {
+            double weight = 1.0 / (si.length() * sj.length());
+
+            for (int x = 0; x < si.length(); x++) {
+                for (int y = 0; y < sj.length(); y++) {
+                    final int cx = si.charAt(x);
+                    final int cy = sj.charAt(y);
+                    int stateX = states.indexOf(cx);
+                    int stateY = states.indexOf(cy);
+                    if (cx == gapChar) stateX = gapIndex;
+                    if (cx == missingChar) stateX = missingIndex;
+                    if (cy == gapChar) stateY = gapIndex;
+                    if (cy == missingChar) stateY = missingIndex;
+                    if (stateX >= 0 && stateY >= 0)
+                        fCount[stateX][stateY] += weight * charWeight;
+                    else {
+                        if (stateX < 0)
+                            throw new SplitsException("Position " + k + " for taxa " + i + ": invalid character '" + cx + "'");
+                        else if (stateY < 0)
+                            throw new SplitsException("Position " + k + " for taxa " + j + ": invalid character '" + cy + "'");
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Number of active sites with valid, non-gap or non-missing states for both seqs.
      * This number also includes the number of sites where one or other
@@ -266,15 +292,14 @@ public class PairwiseCompare { // todo: add support for character weights
 
     /**
      * Max Likelihood Distance - returns maximum likelihood distance for a given substitution
-     * model.
+     * model. If the model provides its eigensystem, the likelihood is maximized using Newton steps with
+     * analytic derivatives, otherwise by golden section search.
      *
      * @param model Substitution model in use
      * @return distance
      * @throws SaturatedDistancesException distance undefined if saturated (distance more than 10 substitutions per site)
      */
     public double mlDistance(SubstitutionModel model) throws SaturatedDistancesException {
-
-        //TODO: Replace the golden arc method with Brent's algorithm
         final int nStates = model.getNstates();
         final double[][] fullF = getF();
         final double[][] F = new double[nStates][nStates];
@@ -293,6 +318,16 @@ public class PairwiseCompare { // todo: add support for character weights
             }
         }
 
+        final SpectralDecomposition spectralDecomposition = model.getSpectralDecomposition();
+        if (spectralDecomposition != null) {
+            if (k == 0.0)
+                throw new SaturatedDistancesException();
+            final double t = spectralDecomposition.maximizeLikelihood(F, 0.00000001, 10.0);
+            if (t == 10.0)
+                throw new SaturatedDistancesException();
+            return t * model.getRate();
+        }
+
         double t = goldenSection(model, F, 0.00000001, 2.0);
         if (t == 2.0) {
             t = goldenSection(model, F, 2.0, 10.0);
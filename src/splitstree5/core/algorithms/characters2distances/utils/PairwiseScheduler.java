@@ -0,0 +1,197 @@
+/*
+ * PairwiseScheduler.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.characters2distances.utils;
+
+import jloda.fx.util.ProgramExecutorService;
+import jloda.util.CanceledException;
+import jloda.util.progress.ProgressListener;
+import splitstree5.core.datablocks.DistancesBlock;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * computes a value for all pairs of taxa in parallel. The upper triangle of the matrix is split into square tiles of
+ * taxa, so that a thread works on a small set of sequences at a time, and the tiles are run on a work-stealing pool.
+ * Progress is reported and cancellation is checked by the calling thread, which waits for the workers
+ * Daniel Huson, 10.2026
+ */
+public class PairwiseScheduler {
+    static final int TILE_SIZE = 32; // number of taxa per side of a tile
+    private static final long POLL_MILLISECONDS = 100;
+
+    /**
+     * computation for a single pair of taxa. Must be thread-safe
+     */
+    public interface PairComputation {
+        /**
+         * @param s 1-based, s<t
+         * @param t 1-based
+         */
+        void compute(int s, int t) throws Exception;
+    }
+
+    /**
+     * computation of a distance for a single pair of taxa. Must be thread-safe
+     */
+    public interface DistanceComputation {
+        /**
+         * @param s 1-based, s<t
+         * @param t 1-based
+         * @return distance
+         */
+        double compute(int s, int t) throws Exception;
+    }
+
+    /**
+     * computes the distance for all pairs of taxa and writes them to both triangles of the distances block,
+     * which must already have the correct size
+     */
+    public static void apply(ProgressListener progress, DistancesBlock distances, DistanceComputation computation) throws Exception {
+        apply(progress, distances.getNtax(), (s, t) -> distances.setBoth(s, t, computation.compute(s, t)));
+    }
+
+    /**
+     * runs the computation for all pairs s<t of taxa
+     *
+     * @param progress    used to report the number of pairs done and to cancel
+     * @param ntax        number of taxa
+     * @param computation the computation
+     * @throws CanceledException if canceled by user, otherwise, the first exception thrown by the computation
+     */
+    public static void apply(ProgressListener progress, int ntax, PairComputation computation) throws Exception {
+        final int numTiles = (ntax + TILE_SIZE - 1) / TILE_SIZE;
+        final int numTilePairs = numTiles * (numTiles + 1) / 2;
+        final int numThreads = Math.max(1, ProgramExecutorService.getNumberOfCoresToUse());
+
+        progress.setMaximum((long) ntax * (ntax - 1) / 2);
+        progress.setProgress(0);
+
+        final AtomicLong done = new AtomicLong();
+        final AtomicReference<Exception> exception = new AtomicReference<>();
+
+        if (numThreads == 1 || numTilePairs <= 1) {
+            for (int tile = 0; tile < numTilePairs; tile++) {
+                computeTile(ntax, tile, numTiles, computation, done, exception);
+                if (exception.get() != null)
+                    throw exception.get();
+                progress.setProgress(done.get());
+            }
+            return;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            final TileRange task = new TileRange(ntax, numTiles, 0, numTilePairs, computation, done, exception);
+            pool.execute(task);
+            while (!task.isDone()) {
+                try {
+                    progress.setProgress(done.get());
+                } catch (CanceledException ex) {
+                    exception.compareAndSet(null, ex); // stop workers
+                    task.quietlyJoin();
+                    throw ex;
+                }
+                try {
+                    task.get(POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ignored) {
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (exception.get() != null)
+            throw exception.get();
+        progress.setProgress(done.get());
+    }
+
+    /**
+     * computes all pairs in the given tile, which is the k-th tile of the upper triangle of tiles, in row order
+     */
+    private static void computeTile(int ntax, int k, int numTiles, PairComputation computation, AtomicLong done, AtomicReference<Exception> exception) {
+        int rowTile = 0;
+        while (k >= numTiles - rowTile) {
+            k -= (numTiles - rowTile);
+            rowTile++;
+        }
+        final int colTile = rowTile + k;
+
+        final int sFrom = rowTile * TILE_SIZE + 1;
+        final int sTo = Math.min(ntax, sFrom + TILE_SIZE - 1);
+        final int tFrom = colTile * TILE_SIZE + 1;
+        final int tTo = Math.min(ntax, tFrom + TILE_SIZE - 1);
+
+        for (int s = sFrom; s <= sTo; s++) {
+            if (exception.get() != null)
+                return;
+            int count = 0;
+            for (int t = Math.max(tFrom, s + 1); t <= tTo; t++) {
+                try {
+                    computation.compute(s, t);
+                } catch (Exception ex) {
+                    exception.compareAndSet(null, ex);
+                    return;
+                }
+                count++;
+            }
+            done.addAndGet(count);
+        }
+    }
+
+    /**
+     * a range of tiles, split in half until a single tile remains
+     */
+    private static class TileRange extends RecursiveAction {
+        private final int ntax;
+        private final int numTiles;
+        private final int from;
+        private final int to;
+        private final PairComputation computation;
+        private final AtomicLong done;
+        private final AtomicReference<Exception> exception;
+
+        TileRange(int ntax, int numTiles, int from, int to, PairComputation computation, AtomicLong done, AtomicReference<Exception> exception) {
+            this.ntax = ntax;
+            this.numTiles = numTiles;
+            this.from = from;
+            this.to = to;
+            this.computation = computation;
+            this.done = done;
+            this.exception = exception;
+        }
+
+        @Override
+        protected void compute() {
+            if (exception.get() != null)
+                return;
+            if (to - from == 1)
+                computeTile(ntax, from, numTiles, computation, done, exception);
+            else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new TileRange(ntax, numTiles, from, middle, computation, done, exception),
+                        new TileRange(ntax, numTiles, middle, to, computation, done, exception));
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * PairwiseSchedulerTest.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.characters2distances.utils;
+
+import jloda.util.progress.ProgressSilent;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * tests the pairwise scheduler
+ * Daniel Huson, 10.2026
+ */
+public class PairwiseSchedulerTest {
+
+    @Test
+    public void testAllPairsOnce() throws Exception {
+        for (int ntax : new int[]{0, 1, 2, 5, PairwiseScheduler.TILE_SIZE, PairwiseScheduler.TILE_SIZE + 1, 3 * PairwiseScheduler.TILE_SIZE + 7}) {
+            final AtomicIntegerArray count = new AtomicIntegerArray((ntax + 1) * (ntax + 1));
+            PairwiseScheduler.apply(new ProgressSilent(), ntax, (s, t) -> {
+                if (s < 1 || s >= t || t > ntax)
+                    throw new IllegalArgumentException("s=" + s + " t=" + t);
+                count.incrementAndGet(s * (ntax + 1) + t);
+            });
+            for (int s = 1; s <= ntax; s++) {
+                for (int t = s + 1; t <= ntax; t++) {
+                    assertEquals("ntax=" + ntax + " s=" + s + " t=" + t, 1, count.get(s * (ntax + 1) + t));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testException() throws Exception {
+        try {
+            PairwiseScheduler.apply(new ProgressSilent(), 100, (s, t) -> {
+                if (s == 50 && t == 60)
+                    throw new IllegalStateException("failed");
+            });
+            fail("no exception");
+        } catch (IllegalStateException ex) {
+            assertEquals("failed", ex.getMessage());
+        }
+    }
+}
@@ -19,13 +19,12 @@
 
 package splitstree5.core.algorithms.distances2splits;
 
-import javafx.beans.property.BooleanProperty;
-import javafx.beans.property.ObjectProperty;
-import javafx.beans.property.SimpleBooleanProperty;
-import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.*;
+import jloda.fx.util.ProgramExecutorService;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
 import splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetCycle;
+import splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetPCG.NeighborNetBlockPivot;
 import splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetSplits;
 import splitstree5.core.algorithms.interfaces.IFromDistances;
 import splitstree5.core.algorithms.interfaces.IToSplits;
@@ -48,19 +47,34 @@ import java.util.List;
  * @author David Bryant and Daniel Huson
  */
 public class NeighborNet extends Algorithm<DistancesBlock, SplitsBlock> implements IFromDistances, IToSplits {
-    // public enum WeightsAlgorithm {NNet2004, NNet2021, LP}
-    public enum WeightsAlgorithm {NNet2004, NNet2021}
-
-    private final ObjectProperty<WeightsAlgorithm> optionWeights = new SimpleObjectProperty<>(WeightsAlgorithm.NNet2004);
-
     public enum InferenceAlgorithm {ActiveSet, BlockPivot}
 
-    private final ObjectProperty<InferenceAlgorithm> optionInferenceAlgorithm = new SimpleObjectProperty<>(InferenceAlgorithm.BlockPivot);
+    private final ObjectProperty<InferenceAlgorithm> optionInferenceAlgorithm = new SimpleObjectProperty<>(InferenceAlgorithm.ActiveSet);
 
     private final BooleanProperty optionUsePreconditioner = new SimpleBooleanProperty(true);
+    private final IntegerProperty optionPreconditionerBands = new SimpleIntegerProperty(10);
+    private final IntegerProperty optionMaxPCGIterations = new SimpleIntegerProperty(1000);
+    private final DoubleProperty optionPCGTolerance = new SimpleDoubleProperty(1e-8);
 
     public List<String> listOptions() {
-        return Arrays.asList("optionInferenceAlgorithm", "optionUsePreconditioner", "optionWeights");
+        return Arrays.asList("optionInferenceAlgorithm", "optionUsePreconditioner", "optionPreconditionerBands", "optionMaxPCGIterations", "optionPCGTolerance");
+    }
+
+    @Override
+    public String getToolTip(String optionName) {
+        switch (optionName) {
+            case "optionInferenceAlgorithm":
+                return "Algorithm used to compute the split weights: active set (2004) or block pivot with preconditioned conjugate gradients (2021)";
+            case "optionUsePreconditioner":
+                return "Block pivot: use the banded preconditioner in the conjugate gradient steps";
+            case "optionPreconditionerBands":
+                return "Block pivot: number of bands used by the preconditioner";
+            case "optionMaxPCGIterations":
+                return "Block pivot: maximum number of conjugate gradient iterations per least squares step";
+            case "optionPCGTolerance":
+                return "Block pivot: conjugate gradient stops when the residual is less than this, relative to the right-hand side";
+        }
+        return optionName;
     }
 
     @Override
@@ -81,21 +95,24 @@ public class NeighborNet extends Algorithm<DistancesBlock, SplitsBlock> implemen
 
         progress.setMaximum(-1);
 
-        final int[] cycle = NeighborNetCycle.compute(progress, distancesBlock.size(), distancesBlock.getDistances());
+        final int[] cycle = NeighborNetCycle.compute(progress, distancesBlock.size(), distancesBlock.getDistanceMatrix(), ProgramExecutorService.getNumberOfCoresToUse());
 
         progress.setTasks("NNet", "edge weights");
 
         final ArrayList<ASplit> splits;
 
-        final long start = System.currentTimeMillis();
-
+        final NeighborNetBlockPivot.BlockPivotParams params;
+        if (getOptionInferenceAlgorithm() == InferenceAlgorithm.BlockPivot) {
+            params = new NeighborNetBlockPivot.BlockPivotParams();
+            params.usePreconditioner = isOptionUsePreconditioner();
+            params.preconditionerBands = Math.max(1, getOptionPreconditionerBands());
+            params.maxPCGIterations = Math.max(1, getOptionMaxPCGIterations());
+            params.pcgTol = getOptionPCGTolerance();
+        } else
+            params = null;
 
-        //  if (getOptionWeights().equals(WeightsAlgorithm.LP))
-        //      splits = NeighborNetSplitsLP.compute(taxaBlock.getNtax(), cycle, distancesBlock.getDistances(), 0.000001, progress);
-        //  else
-        splits = NeighborNetSplits.compute(getOptionWeights().equals(WeightsAlgorithm.NNet2021),
-                taxaBlock.getNtax(), cycle, distancesBlock.getDistances(), distancesBlock.getVariances(), 0.000001, NeighborNetSplits.LeastSquares.ols, NeighborNetSplits.Regularization.nnls, 1,
-                progress);
+        splits = NeighborNetSplits.compute(taxaBlock.getNtax(), cycle, distancesBlock.getDistanceMatrix(), distancesBlock.getVarianceMatrix(), 0.000001,
+                NeighborNetSplits.LeastSquares.ols, NeighborNetSplits.Regularization.nnls, 1, params, progress);
 
         if (Compatibility.isCompatible(splits))
             splitsBlock.setCompatibility(Compatibility.compatible);
@@ -105,8 +122,6 @@ public class NeighborNet extends Algorithm<DistancesBlock, SplitsBlock> implemen
         splitsBlock.setFit(SplitsUtilities.computeLeastSquaresFit(distancesBlock, splits));
 
         splitsBlock.getSplits().addAll(splits);
-
-        System.err.println("Time: " + Math.round((System.currentTimeMillis() - start)) + "ms");
     }
 
     @Override
@@ -114,18 +129,6 @@ public class NeighborNet extends Algorithm<DistancesBlock, SplitsBlock> implemen
         return parent.getNtax() > 0;
     }
 
-    public WeightsAlgorithm getOptionWeights() {
-        return optionWeights.get();
-    }
-
-    public ObjectProperty<WeightsAlgorithm> optionWeightsProperty() {
-        return optionWeights;
-    }
-
-    public void setOptionWeights(WeightsAlgorithm optionWeights) {
-        this.optionWeights.set(optionWeights);
-    }
-
     public InferenceAlgorithm getOptionInferenceAlgorithm() {
         return optionInferenceAlgorithm.get();
     }
@@ -149,4 +152,40 @@ public class NeighborNet extends Algorithm<DistancesBlock, SplitsBlock> implemen
     public void setOptionUsePreconditioner(boolean optionUsePreconditioner) {
         this.optionUsePreconditioner.set(optionUsePreconditioner);
     }
+
+    public int getOptionPreconditionerBands() {
+        return optionPreconditionerBands.get();
+    }
+
+    public IntegerProperty optionPreconditionerBandsProperty() {
+        return optionPreconditionerBands;
+    }
+
+    public void setOptionPreconditionerBands(int optionPreconditionerBands) {
+        this.optionPreconditionerBands.set(optionPreconditionerBands);
+    }
+
+    public int getOptionMaxPCGIterations() {
+        return optionMaxPCGIterations.get();
+    }
+
+    public IntegerProperty optionMaxPCGIterationsProperty() {
+        return optionMaxPCGIterations;
+    }
+
+    public void setOptionMaxPCGIterations(int optionMaxPCGIterations) {
+        this.optionMaxPCGIterations.set(optionMaxPCGIterations);
+    }
+
+    public double getOptionPCGTolerance() {
+        return optionPCGTolerance.get();
+    }
+
+    public DoubleProperty optionPCGToleranceProperty() {
+        return optionPCGTolerance;
+    }
+
+    public void setOptionPCGTolerance(double optionPCGTolerance) {
+        this.optionPCGTolerance.set(optionPCGTolerance);
+    }
 }
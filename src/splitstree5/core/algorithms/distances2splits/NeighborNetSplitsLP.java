@@ -50,7 +50,7 @@ public class NeighborNetSplitsLP extends Algorithm<DistancesBlock, SplitsBlock>
 
         progress.setMaximum(-1);
 
-        final var cycle = NeighborNetCycle.compute(progress, distancesBlock.size(), distancesBlock.getDistances());
+        final var cycle = NeighborNetCycle.compute(progress, distancesBlock.size(), distancesBlock.getDistanceMatrix(), 1);
         var splits = new ArrayList<>(compute(taxaBlock.getNtax(), cycle, distancesBlock.getDistances(), 0.0001, progress));
 
         if (Compatibility.isCompatible(splits))
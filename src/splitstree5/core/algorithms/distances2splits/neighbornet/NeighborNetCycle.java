@@ -22,19 +22,53 @@ package splitstree5.core.algorithms.distances2splits.neighbornet;
 import jloda.util.CanceledException;
 import jloda.util.progress.ProgressListener;
 import jloda.util.progress.ProgressSilent;
+import splitstree5.core.datablocks.distances.DistanceMatrix;
+import splitstree5.core.datablocks.distances.SquareDistanceMatrix;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Stack;
+import java.util.concurrent.*;
 
 /**
  * compute the neighbor-net cycle
  * David Bryant and Daniel Huson, 2005
+ * <p>
+ * The working matrix only holds the active nodes, in packed triangular form, and rows of merged nodes are reused.
+ * Clusters are evaluated from arrays rather than by walking the list of nodes, and the computation of the sums and the
+ * search for the best pair of clusters can be run in parallel. All sums are accumulated in the same order as before,
+ * so the cycle does not depend on the number of threads and ties are resolved as in previous versions
+ * Daniel Huson, 10.2026
  */
 public class NeighborNetCycle {
+    /**
+     * minimum number of clusters for which the search for the best pair is run in parallel
+     */
+    private static final int MIN_CLUSTERS_FOR_PARALLEL_SEARCH = 500;
+
     /**
      * Run the neighbor net algorithm to compute the circular ordering of the taxa
      */
     public static int[] compute(ProgressListener progress, int nTax, double[][] dist) throws CanceledException {
+        return compute(progress, nTax, dist, 1);
+    }
+
+    /**
+     * Run the neighbor net algorithm to compute the circular ordering of the taxa
+     *
+     * @param numberOfThreads number of threads to use in the computation of the sums and in the search for the best pair of clusters
+     */
+    public static int[] compute(ProgressListener progress, int nTax, double[][] dist, int numberOfThreads) throws CanceledException {
+        return compute(progress, nTax, new SquareDistanceMatrix(dist), numberOfThreads);
+    }
+
+    /**
+     * Run the neighbor net algorithm to compute the circular ordering of the taxa
+     *
+     * @param dist            distances, 0-based, only the lower triangle is used
+     * @param numberOfThreads number of threads to use in the computation of the sums and in the search for the best pair of clusters
+     */
+    public static int[] compute(ProgressListener progress, int nTax, DistanceMatrix dist, int numberOfThreads) throws CanceledException {
         //Special cases. When nTax<=3, the default circular ordering will work.
         if (nTax <= 3) {
             int[] cycle = new int[nTax + 1];
@@ -43,13 +77,14 @@ public class NeighborNetCycle {
             return cycle;
         }
 
-        final double[][] mat = setupMatrix(nTax, dist);
+        final WorkingMatrix mat = new WorkingMatrix(nTax, dist);
 
         final NetNode nodesHeader = new NetNode(0);
 
         /* Nodes are stored in a doubly linked list that we set up here */
         for (int i = nTax; i >= 1; i--) /* Initially, all singleton nodes are active */ {
             final NetNode node = new NetNode(i);
+            node.slot = i - 1;
             node.next = nodesHeader.next;
             nodesHeader.next = node;
         }
@@ -60,7 +95,14 @@ public class NeighborNetCycle {
 
         /* Perform the agglomeration step */
         progress.setTasks("NNet", "agglomeration");
-        final Stack<NetNode> joins = joinNodes(progress, mat, nodesHeader, nTax);
+        final ExecutorService executor = (numberOfThreads > 1 && nTax >= MIN_CLUSTERS_FOR_PARALLEL_SEARCH ? Executors.newFixedThreadPool(numberOfThreads) : null);
+        final Stack<NetNode> joins;
+        try {
+            joins = joinNodes(progress, mat, nodesHeader, nTax, executor, numberOfThreads);
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+        }
         progress.setTasks("NNet", "expansion");
         // System.err.println("Ordering: "+ Basic.toString(ordering));
 
@@ -78,30 +120,10 @@ public class NeighborNetCycle {
         }
     }
 
-    /**
-     * Sets up the working matrix. The original distance matrix is enlarged to
-     * handle the maximum number of nodes
-     *
-     * @param dist Distance block 0-based
-     * @return a working matrix of appropriate cardinality 1-based
-     */
-    private static double[][] setupMatrix(int nTax, double[][] dist) {
-        int max_num_nodes = 3 * nTax - 5;
-        double[][] mat = new double[max_num_nodes][max_num_nodes];
-        /* Copy the distance matrix into a larger, scratch distance matrix */
-        for (int i = 1; i <= nTax; i++) {
-            System.arraycopy(dist[i - 1], 0, mat[i], 1, nTax);
-            Arrays.fill(mat[i], nTax + 1, max_num_nodes, 0.0);
-        }
-        for (int i = nTax + 1; i < max_num_nodes; i++)
-            Arrays.fill(mat[i], 0, max_num_nodes, 0.0);
-        return mat;
-    }
-
     /**
      * Agglomerates the nodes
      */
-    static private Stack<NetNode> joinNodes(ProgressListener progress, double[][] D, NetNode nodesHead, int num_nodes) throws CanceledException {
+    static private Stack<NetNode> joinNodes(ProgressListener progress, WorkingMatrix D, NetNode nodesHead, int num_nodes, ExecutorService executor, int numberOfThreads) throws CanceledException {
         final Stack<NetNode> joins = new Stack<>();
 
         //System.err.println("joinNodes");
@@ -111,7 +133,8 @@ public class NeighborNetCycle {
         int num_active = num_nodes;
         int num_clusters = num_nodes;
         int m;
-        double Dpq;
+
+        final Representatives reps = new Representatives(num_nodes);
 
         while (num_active > 3) {
 
@@ -124,7 +147,7 @@ public class NeighborNetCycle {
                     q = p.next;
                 else
                     q = p.next.next;
-                if (D[p.id][q.id] + D[p.nbr.id][q.nbr.id] < D[p.id][q.nbr.id] + D[p.nbr.id][q.id]) {
+                if (D.get(p, q) + D.get(p.nbr, q.nbr) < D.get(p, q.nbr) + D.get(p.nbr, q)) {
                     join3way(p, q, q.nbr, joins, D, nodesHead, num_nodes);
                 } else {
                     join3way(p, q.nbr, q, joins, D, nodesHead, num_nodes);
@@ -132,70 +155,30 @@ public class NeighborNetCycle {
                 break;
             }
 
-            /* Compute the "averaged" sums s_i from each cluster to every other cluster.
-
-            todo: 2x speedup by using symmetry */
-
-            for (NetNode p = nodesHead.next; p != null; p = p.next)
-                p.Sx = 0.0;
-            for (NetNode p = nodesHead.next; p != null; p = p.next) {
-                if (p.nbr == null || p.nbr.id > p.id) {
-                    for (NetNode q = p.next; q != null; q = q.next) {
-                        if (q.nbr == null || (q.nbr.id > q.id) && (q.nbr != p)) {
-                            if ((p.nbr == null) && (q.nbr == null))
-                                Dpq = D[p.id][q.id];
-                            else if ((p.nbr != null) && (q.nbr == null))
-                                Dpq = (D[p.id][q.id] + D[p.nbr.id][q.id]) / 2.0;
-                            else if ((p.nbr == null)) //  && (q.nbr != null))
-                                Dpq = (D[p.id][q.id] + D[p.id][q.nbr.id]) / 2.0;
-                            else
-                                Dpq = (D[p.id][q.id] + D[p.id][q.nbr.id] + D[p.nbr.id][q.id] + D[p.nbr.id][q.nbr.id]) / 4.0;
-
-                            p.Sx += Dpq;
-                            if (p.nbr != null)
-                                p.nbr.Sx += Dpq;
-                            q.Sx += Dpq;
-                            if (q.nbr != null)
-                                q.nbr.Sx += Dpq;
-                        }
-                    }
-                    progress.checkForCancel();
-                }
-            }
-
-            NetNode Cx = null;
-            NetNode Cy = null;
+            /* Compute the "averaged" sums s_i from each cluster to every other cluster */
+            reps.load(nodesHead);
+            final boolean parallel = (executor != null && reps.size >= MIN_CLUSTERS_FOR_PARALLEL_SEARCH);
+            if (parallel)
+                computeSumsInParallel(D, reps, executor, numberOfThreads);
+            else
+                computeSums(D, reps);
+            progress.checkForCancel();
 
             /* Now minimize (m-2) D[C_i,C_k] - Sx - Sy */
-            best = 0;
-            for (NetNode p = nodesHead.next; p != null; p = p.next) {
-                if ((p.nbr != null) && (p.nbr.id < p.id)) /* We only evaluate one node per cluster */
-                    continue;
-                for (NetNode q = nodesHead.next; q != p; q = q.next) {
-                    if ((q.nbr != null) && (q.nbr.id < q.id)) /* We only evaluate one node per cluster */
-                        continue;
-                    if (q.nbr == p) /* We only evaluate nodes in different clusters */
-                        continue;
-                    if ((p.nbr == null) && (q.nbr == null))
-                        Dpq = D[p.id][q.id];
-                    else if ((p.nbr != null) && (q.nbr == null))
-                        Dpq = (D[p.id][q.id] + D[p.nbr.id][q.id]) / 2.0;
-                    else if ((p.nbr == null)) // && (q.nbr != null))
-                        Dpq = (D[p.id][q.id] + D[p.id][q.nbr.id]) / 2.0;
-                    else
-                        Dpq = (D[p.id][q.id] + D[p.id][q.nbr.id] + D[p.nbr.id][q.id] + D[p.nbr.id][q.nbr.id]) / 4.0;
-                    Qpq = ((double) num_clusters - 2.0) * Dpq - p.Sx - q.Sx;
-
-                    /* Check if this is the best so far */
-                    if ((Cx == null || (Qpq < best)) && (p.nbr != q)) {
-                        Cx = p;
-                        Cy = q;
-                        best = Qpq;
-                    }
-                }
+            final NetNode Cx;
+            final NetNode Cy;
+            {
+                final int[] pair;
+                if (parallel)
+                    pair = findBestPairInParallel(D, reps, num_clusters, executor, numberOfThreads);
+                else
+                    pair = findBestPair(D, reps, num_clusters, 1, reps.size);
+                if (pair == null)
+                    throw new RuntimeException("Internal error");
+                Cx = reps.nodes[pair[0]];
+                Cy = reps.nodes[pair[1]];
             }
-            if (Cx == null || Cy == null)
-                throw new RuntimeException("Internal error");
+            progress.checkForCancel();
 
             /* Find the node in each cluster */
             NetNode x = Cx;
@@ -216,9 +199,9 @@ public class NeighborNetCycle {
             if (Cy.nbr != null)
                 m++;
 
-            best = ((double) m - 2.0) * D[Cx.id][Cy.id] - Cx.Rx - Cy.Rx;
+            best = ((double) m - 2.0) * D.get(Cx, Cy) - Cx.Rx - Cy.Rx;
             if (Cx.nbr != null) {
-                Qpq = ((double) m - 2.0) * D[Cx.nbr.id][Cy.id] - Cx.nbr.Rx - Cy.Rx;
+                Qpq = ((double) m - 2.0) * D.get(Cx.nbr, Cy) - Cx.nbr.Rx - Cy.Rx;
                 if (Qpq < best) {
                     x = Cx.nbr;
                     y = Cy;
@@ -226,7 +209,7 @@ public class NeighborNetCycle {
                 }
             }
             if (Cy.nbr != null) {
-                Qpq = ((double) m - 2.0) * D[Cx.id][Cy.nbr.id] - Cx.Rx - Cy.nbr.Rx;
+                Qpq = ((double) m - 2.0) * D.get(Cx, Cy.nbr) - Cx.Rx - Cy.nbr.Rx;
                 if (Qpq < best) {
                     x = Cx;
                     y = Cy.nbr;
@@ -234,7 +217,7 @@ public class NeighborNetCycle {
                 }
             }
             if ((Cx.nbr != null) && (Cy.nbr != null)) {
-                Qpq = ((double) m - 2.0) * D[Cx.nbr.id][Cy.nbr.id] - Cx.nbr.Rx - Cy.nbr.Rx;
+                Qpq = ((double) m - 2.0) * D.get(Cx.nbr, Cy.nbr) - Cx.nbr.Rx - Cy.nbr.Rx;
                 if (Qpq < best) {
                     x = Cx.nbr;
                     y = Cy.nbr;
@@ -258,7 +241,8 @@ public class NeighborNetCycle {
                 num_active--;
                 num_clusters--;
             } else {  /* Both nodes are connected to others and there are more than 4 active nodes */
-                num_nodes = join4way(x.nbr, x, y, y.nbr, joins, D, nodesHead, num_nodes);
+                join4way(x.nbr, x, y, y.nbr, joins, D, nodesHead, num_nodes);
+                num_nodes += 4;
                 num_active -= 2;
                 num_clusters--;
             }
@@ -268,6 +252,186 @@ public class NeighborNetCycle {
         return joins;
     }
 
+    /**
+     * average distance between the clusters of two nodes
+     */
+    private static double clusterDistance(NetNode p, NetNode q, WorkingMatrix D) {
+        if ((p.nbr == null) && (q.nbr == null))
+            return D.get(p, q);
+        else if ((p.nbr != null) && (q.nbr == null))
+            return (D.get(p, q) + D.get(p.nbr, q)) / 2.0;
+        else if ((p.nbr == null)) //  && (q.nbr != null))
+            return (D.get(p, q) + D.get(p, q.nbr)) / 2.0;
+        else
+            return (D.get(p, q) + D.get(p, q.nbr) + D.get(p.nbr, q) + D.get(p.nbr, q.nbr)) / 4.0;
+    }
+
+    /**
+     * average distance between two clusters, given by the rows of their nodes, with -1 for no second node.
+     * Terms are added in the same order as in clusterDistance(p,q,D)
+     */
+    private static double clusterDistance(double[] values, int[] rowStart, int p, int p2, int q, int q2) {
+        if (p2 < 0 && q2 < 0)
+            return values[index(rowStart, p, q)];
+        else if (p2 >= 0 && q2 < 0)
+            return (values[index(rowStart, p, q)] + values[index(rowStart, p2, q)]) / 2.0;
+        else if (p2 < 0) // && q2 >= 0
+            return (values[index(rowStart, p, q)] + values[index(rowStart, p, q2)]) / 2.0;
+        else
+            return (values[index(rowStart, p, q)] + values[index(rowStart, p, q2)] + values[index(rowStart, p2, q)] + values[index(rowStart, p2, q2)]) / 4.0;
+    }
+
+    /**
+     * is this node the representative of its cluster? We only evaluate one node per cluster
+     */
+    private static boolean isRepresentative(NetNode p) {
+        return p.nbr == null || p.nbr.id > p.id;
+    }
+
+    /**
+     * computes the sum of distances from each cluster to all other clusters. Each distance is added to both clusters,
+     * so the sums are accumulated in the order of the clusters in the list
+     */
+    private static void computeSums(WorkingMatrix D, Representatives reps) {
+        final int[] slot = reps.slot;
+        final int[] nbrSlot = reps.nbrSlot;
+        final double[] sum = reps.sum;
+        Arrays.fill(sum, 0, reps.size, 0.0);
+        for (int i = 0; i < reps.size; i++) {
+            final int p = slot[i];
+            final int p2 = nbrSlot[i];
+            double Sp = sum[i];
+            for (int j = i + 1; j < reps.size; j++) {
+                final double Dpq = clusterDistance(D.values, D.rowStart, p, p2, slot[j], nbrSlot[j]);
+                Sp += Dpq;
+                sum[j] += Dpq;
+            }
+            sum[i] = Sp;
+        }
+    }
+
+    /**
+     * computes the sums using multiple threads. Each thread computes complete sums for a block of clusters, adding the
+     * distances in the same order and orientation as in the sequential computation
+     */
+    private static void computeSumsInParallel(WorkingMatrix D, Representatives reps, ExecutorService executor, int numberOfThreads) {
+        final int numberOfBlocks = 4 * numberOfThreads;
+        final int blockSize = (reps.size + numberOfBlocks - 1) / numberOfBlocks;
+
+        final ArrayList<Future<?>> futures = new ArrayList<>(numberOfBlocks);
+        for (int from = 0; from < reps.size; from += blockSize) {
+            final int blockFrom = from;
+            final int blockTo = Math.min(reps.size, from + blockSize);
+            futures.add(executor.submit(() -> {
+                final int[] slot = reps.slot;
+                final int[] nbrSlot = reps.nbrSlot;
+                for (int i = blockFrom; i < blockTo; i++) {
+                    final int p = slot[i];
+                    final int p2 = nbrSlot[i];
+                    double sum = 0.0;
+                    for (int j = 0; j < i; j++)
+                        sum += clusterDistance(D.values, D.rowStart, slot[j], nbrSlot[j], p, p2);
+                    for (int j = i + 1; j < reps.size; j++)
+                        sum += clusterDistance(D.values, D.rowStart, p, p2, slot[j], nbrSlot[j]);
+                    reps.sum[i] = sum;
+                }
+            }));
+        }
+        waitForAll(futures);
+    }
+
+    /**
+     * find the pair of clusters that minimizes the Q-criterion, considering all pairs (i,j) with from &le; i &lt; to and j &lt; i.
+     * Ties are resolved in favor of the first pair encountered
+     *
+     * @return indices of the best pair, or null
+     */
+    private static int[] findBestPair(WorkingMatrix D, Representatives reps, int num_clusters, int from, int to) {
+        final double[] values = D.values;
+        final int[] rowStart = D.rowStart;
+        final double factor = (double) num_clusters - 2.0;
+
+        int bestI = -1;
+        int bestJ = -1;
+        double best = 0;
+
+        for (int i = from; i < to; i++) {
+            final int p = reps.slot[i];
+            final int p2 = reps.nbrSlot[i];
+            final double Sp = reps.sum[i];
+
+            for (int j = 0; j < i; j++) {
+                final double Dpq = clusterDistance(values, rowStart, p, p2, reps.slot[j], reps.nbrSlot[j]);
+                final double Qpq = factor * Dpq - Sp - reps.sum[j];
+
+                /* Check if this is the best so far */
+                if (bestI == -1 || Qpq < best) {
+                    bestI = i;
+                    bestJ = j;
+                    best = Qpq;
+                }
+            }
+        }
+        return (bestI == -1 ? null : new int[]{bestI, bestJ});
+    }
+
+    /**
+     * find the best pair of clusters using multiple threads. The rows are split into blocks of similar numbers of pairs,
+     * the result is the same as for the sequential search
+     *
+     * @return indices of the best pair, or null
+     */
+    private static int[] findBestPairInParallel(WorkingMatrix D, Representatives reps, int num_clusters, ExecutorService executor, int numberOfThreads) {
+        final int numberOfBlocks = 4 * numberOfThreads;
+        final long pairsPerBlock = ((long) reps.size * (reps.size - 1) / 2) / numberOfBlocks + 1;
+
+        final ArrayList<Future<int[]>> futures = new ArrayList<>(numberOfBlocks);
+        int from = 1;
+        while (from < reps.size) {
+            int to = from;
+            long pairs = 0;
+            while (to < reps.size && pairs < pairsPerBlock) {
+                pairs += to;
+                to++;
+            }
+            final int blockFrom = from;
+            final int blockTo = to;
+            futures.add(executor.submit(() -> findBestPair(D, reps, num_clusters, blockFrom, blockTo)));
+            from = to;
+        }
+
+        waitForAll(futures);
+
+        final double factor = (double) num_clusters - 2.0;
+        int[] bestPair = null;
+        double best = 0;
+        for (Future<int[]> future : futures) { // blocks are in order of rows, so keeping the first minimum resolves ties as in the sequential search
+            final int[] pair = getResult(future);
+            if (pair != null) {
+                final double Qpq = factor * clusterDistance(reps.nodes[pair[0]], reps.nodes[pair[1]], D) - reps.sum[pair[0]] - reps.sum[pair[1]];
+                if (bestPair == null || Qpq < best) {
+                    bestPair = pair;
+                    best = Qpq;
+                }
+            }
+        }
+        return bestPair;
+    }
+
+    private static void waitForAll(Iterable<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            getResult(future);
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     /**
      * agglomerate 2 nodes
      *
@@ -289,7 +453,7 @@ public class NeighborNetCycle {
      * @param z other node
      * @return one of the new nodes
      */
-    static private NetNode join3way(NetNode x, NetNode y, NetNode z, Stack<NetNode> joins, double[][] mat, NetNode nodesHead, int num_nodes) {
+    static private NetNode join3way(NetNode x, NetNode y, NetNode z, Stack<NetNode> joins, WorkingMatrix mat, NetNode nodesHead, int num_nodes) {
         /* Agglomerate x,y, and z to give TWO new nodes, u and v */
 /* In terms of the linked list: we replace x and z
        by u and v and remove y from the linked list.
@@ -331,13 +495,21 @@ public class NeighborNetCycle {
         u.nbr = v;
         v.nbr = u;
 
-        /* Update distance matrix */
-
+        /* Update distance matrix, the new nodes get the rows of nodes no longer active */
+        mat.allocate(u);
+        mat.allocate(v);
         for (NetNode p = nodesHead.next; p != null; p = p.next) {
-            mat[u.id][p.id] = mat[p.id][u.id] = (2.0 / 3.0) * mat[x.id][p.id] + mat[y.id][p.id] / 3.0;
-            mat[v.id][p.id] = mat[p.id][v.id] = (2.0 / 3.0) * mat[z.id][p.id] + mat[y.id][p.id] / 3.0;
+            if (p != u && p != v) {
+                mat.set(u, p, (2.0 / 3.0) * mat.get(x, p) + mat.get(y, p) / 3.0);
+                mat.set(v, p, (2.0 / 3.0) * mat.get(z, p) + mat.get(y, p) / 3.0);
+            }
         }
-        mat[u.id][u.id] = mat[v.id][v.id] = 0.0;
+        mat.set(u, v, 0.0);
+        mat.set(u, u, 0.0);
+        mat.set(v, v, 0.0);
+        mat.free(x);
+        mat.free(y);
+        mat.free(z);
 
         joins.push(u);
 
@@ -345,24 +517,23 @@ public class NeighborNetCycle {
     }
 
     /**
-     * Agglomerate four nodes
+     * Agglomerate four nodes. Note that this doesn't update num_nodes, you need to
+     * num_nodes+=4 after calling this!
      *
      * @param x2 a node
      * @param x  a node
      * @param y  a node
      * @param y2 a node
-     * @return the new number of nodes
+     * @return one of the new nodes
      */
-    static private int join4way(NetNode x2, NetNode x, NetNode y, NetNode y2, Stack<NetNode> joins, double[][] mat, NetNode nodesHead, int num_nodes) {
+    static private NetNode join4way(NetNode x2, NetNode x, NetNode y, NetNode y2, Stack<NetNode> joins, WorkingMatrix mat, NetNode nodesHead, int num_nodes) {
 /* Replace x2,x,y,y2 by with two vertices... performed using two
        3 way amalgamations */
 
         //noinspection SuspiciousNameCombination
         final NetNode u = join3way(x2, x, y, joins, mat, nodesHead, num_nodes); /* Replace x2,x,y by two nodes, equals to x2_prev.next and y_prev.next. */
         num_nodes += 2;
-        join3way(u, u.nbr, y2, joins, mat, nodesHead, num_nodes); /* z = y_prev . next */
-        num_nodes += 2;
-        return num_nodes;
+        return join3way(u, u.nbr, y2, joins, mat, nodesHead, num_nodes); /* z = y_prev . next */
     }
 
     /**
@@ -375,18 +546,106 @@ public class NeighborNetCycle {
      * @param nodesHead the net nodes
      * @return the Rx value
      */
-    static private double ComputeRx(NetNode z, NetNode Cx, NetNode Cy, double[][] mat, NetNode nodesHead) {
+    static private double ComputeRx(NetNode z, NetNode Cx, NetNode Cy, WorkingMatrix mat, NetNode nodesHead) {
         double Rx = 0.0;
 
         for (NetNode p = nodesHead.next; p != null; p = p.next) {
             if (p == Cx || p == Cx.nbr || p == Cy || p == Cy.nbr || p.nbr == null)
-                Rx += mat[z.id][p.id];
+                Rx += mat.get(z, p);
             else /* p.nbr != null */
-                Rx += mat[z.id][p.id] / 2.0; /* We take the average of the distances */
+                Rx += mat.get(z, p) / 2.0; /* We take the average of the distances */
         }
         return Rx;
     }
 
+    /**
+     * index of an entry in a packed lower triangular matrix, including the diagonal
+     */
+    private static int index(int[] rowStart, int a, int b) {
+        return (a >= b ? rowStart[a] + b : rowStart[b] + a);
+    }
+
+    /**
+     * the working matrix of distances between active nodes. Stored in packed triangular form, with one row per active
+     * node. As at most nTax nodes are active and a join creates two new nodes before removing three, nTax+2 rows suffice
+     */
+    private static class WorkingMatrix {
+        private final int[] rowStart;
+        private final double[] values;
+        private final int[] freeSlots;
+        private int numberOfFreeSlots = 0;
+
+        /**
+         * setup the working matrix
+         *
+         * @param dist Distance block 0-based
+         */
+        WorkingMatrix(int nTax, DistanceMatrix dist) {
+            final int rows = nTax + 2;
+            final long size = (long) rows * (rows + 1) / 2;
+            if (size > Integer.MAX_VALUE - 8)
+                throw new RuntimeException("Too many taxa for neighbor-net: " + nTax);
+            rowStart = new int[rows];
+            for (int a = 0; a < rows; a++)
+                rowStart[a] = (int) ((long) a * (a + 1) / 2);
+            values = new double[(int) size];
+            for (int i = 0; i < nTax; i++) {
+                for (int j = 0; j < i; j++)
+                    values[rowStart[i] + j] = dist.get(i, j);
+            }
+            freeSlots = new int[rows];
+            freeSlots[numberOfFreeSlots++] = nTax + 1;
+            freeSlots[numberOfFreeSlots++] = nTax;
+        }
+
+        double get(NetNode a, NetNode b) {
+            return values[index(rowStart, a.slot, b.slot)];
+        }
+
+        void set(NetNode a, NetNode b, double value) {
+            values[index(rowStart, a.slot, b.slot)] = value;
+        }
+
+        void allocate(NetNode a) {
+            a.slot = freeSlots[--numberOfFreeSlots];
+        }
+
+        void free(NetNode a) {
+            freeSlots[numberOfFreeSlots++] = a.slot;
+            a.slot = -1;
+        }
+    }
+
+    /**
+     * the representatives of all current clusters, in the order of the list of active nodes
+     */
+    private static class Representatives {
+        private final NetNode[] nodes;
+        private final int[] slot;
+        private final int[] nbrSlot;
+        private final double[] sum; // sum of distances to all other clusters
+        private int size;
+
+        Representatives(int nTax) {
+            nodes = new NetNode[nTax];
+            slot = new int[nTax];
+            nbrSlot = new int[nTax];
+            sum = new double[nTax];
+        }
+
+        void load(NetNode nodesHead) {
+            size = 0;
+            for (NetNode p = nodesHead.next; p != null; p = p.next) {
+                if (isRepresentative(p)) {
+                    nodes[size] = p;
+                    slot[size] = p.slot;
+                    nbrSlot[size] = (p.nbr != null ? p.nbr.slot : -1);
+                    size++;
+                }
+            }
+        }
+    }
+
     /**
      * Expands the net nodes to obtain the ordering, quickly
      *
@@ -0,0 +1,113 @@
+/*
+ * NeighborNetCycleTest.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.distances2splits.neighbornet;
+
+import jloda.util.progress.ProgressSilent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test the neighbor-net cycle
+ * Daniel Huson, 10.2026
+ */
+public class NeighborNetCycleTest {
+
+    /**
+     * distances along a circle are circular, so the cycle must be recovered
+     */
+    @Test
+    public void testCircularDistances() throws Exception {
+        final Random random = new Random(666);
+        for (int nTax : new int[]{5, 10, 50, 200}) {
+            final int[] order = new int[nTax];
+            final double[][] dist = createCircularDistances(nTax, random, order);
+            final int[] cycle = NeighborNetCycle.compute(new ProgressSilent(), nTax, dist);
+            assertTrue("cycle for " + nTax + " taxa: " + Arrays.toString(cycle), isSameCycle(order, cycle));
+        }
+    }
+
+    /**
+     * the cycle must not depend on the number of threads
+     */
+    @Test
+    public void testParallel() throws Exception {
+        final Random random = new Random(42);
+        final int nTax = 600;
+        final double[][] dist = new double[nTax][nTax];
+        for (int i = 0; i < nTax; i++) {
+            for (int j = 0; j < i; j++) {
+                dist[i][j] = dist[j][i] = random.nextDouble();
+            }
+        }
+        final int[] cycle = NeighborNetCycle.compute(new ProgressSilent(), nTax, dist, 1);
+        assertArrayEquals(cycle, NeighborNetCycle.compute(new ProgressSilent(), nTax, dist, 4));
+    }
+
+    /**
+     * places the taxa at randomly perturbed, evenly spaced positions on a circle of circumference 1
+     *
+     * @param order is set to the taxa (1-based) in the order around the circle
+     */
+    private static double[][] createCircularDistances(int nTax, Random random, int[] order) {
+        final ArrayList<Integer> taxa = new ArrayList<>();
+        for (int t = 1; t <= nTax; t++)
+            taxa.add(t);
+        Collections.shuffle(taxa, random);
+
+        final double[] position = new double[nTax + 1];
+        for (int i = 0; i < nTax; i++) {
+            order[i] = taxa.get(i);
+            position[order[i]] = (i + 0.5 * random.nextDouble()) / nTax;
+        }
+
+        final double[][] dist = new double[nTax][nTax];
+        for (int s = 1; s <= nTax; s++) {
+            for (int t = 1; t <= nTax; t++) {
+                final double arc = Math.abs(position[s] - position[t]);
+                dist[s - 1][t - 1] = Math.min(arc, 1 - arc);
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * is the cycle (1-based) the given order, up to rotation and reflection?
+     */
+    private static boolean isSameCycle(int[] order, int[] cycle) {
+        final int n = order.length;
+        int start = 0;
+        while (order[start] != cycle[1])
+            start++;
+        boolean forward = true;
+        boolean backward = true;
+        for (int i = 0; i < n; i++) {
+            forward &= (order[(start + i) % n] == cycle[i + 1]);
+            backward &= (order[(start - i + n) % n] == cycle[i + 1]);
+        }
+        return forward || backward;
+    }
+}
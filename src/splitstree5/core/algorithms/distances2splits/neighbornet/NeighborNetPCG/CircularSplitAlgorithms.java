@@ -20,20 +20,66 @@
 package splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetPCG;
 
 import Jama.Matrix;
+import jloda.fx.util.ProgramExecutorService;
 
+import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 public class CircularSplitAlgorithms {
+	/**
+	 * Minimum number of taxa for which circularAx and circularAtx use the tiled versions that run in the fork-join pool.
+	 * The tiles are cache friendly, so that even on a single thread they are faster from about this size on, while for
+	 * smaller sizes the whole vector fits into the cache and the sequential sweep is faster.
+	 */
+	public static final int MIN_TAXA_FOR_PARALLEL = 1000;
+
+	/**
+	 * Size of the square tiles of pairs that are processed by a single task in the parallel versions.
+	 */
+	private static final int TILE_SIZE = 128;
+
+	/**
+	 * Decides whether to use the parallel versions of the kernels
+	 * @param n number of taxa
+	 * @return true, if n is at least MIN_TAXA_FOR_PARALLEL
+	 */
+	static public boolean useParallel(int n) {
+		return n >= MIN_TAXA_FOR_PARALLEL;
+	}
+
+	private static ForkJoinPool pool;
+
+	/**
+	 * Gets the fork-join pool for the parallel versions of the kernels, using as many threads as
+	 * ProgramExecutorService.getNumberOfCoresToUse(). When that number changes, a new pool is made. The previous
+	 * pool is not shut down, as a computation may still be using it, its idle threads terminate on their own.
+	 * @return pool
+	 */
+	static public ForkJoinPool getPool() {
+		synchronized (CircularSplitAlgorithms.class) {
+			final int numberOfThreads = Math.max(1, ProgramExecutorService.getNumberOfCoresToUse());
+			if (pool == null || pool.getParallelism() != numberOfThreads)
+				pool = new ForkJoinPool(numberOfThreads);
+			return pool;
+		}
+	}
 
 	/**
 	 * Computes A*x where A is the matrix for a full circular split system. The indices of the rows and columns
 	 * of A and x correspond to an ordering of pairs (1,2),(1,3),...,(1,n),(2,3),...,(2,n),...,(n-1,n).
 	 * In A we have A{(i,j)(k,l)} = 1 if i and j are on opposite sides of the split {k,k+1,...,l-1}|...
-	 * This algorithm runs in O(n^2) time, which is the number of entries of x.
+	 * This algorithm runs in O(n^2) time, which is the number of entries of x. Uses multiple threads for large n, with the same result.
 	 * @param n Number of taxa.
 	 * @param x vector with dimension n(n-1)/2
 	 */
 	static public void circularAx(int n, double[] x , double[] d) {
+		if (useParallel(n)) {
+			circularAxInParallel(getPool(), n, x, d, 1);
+			return;
+		}
 		int npairs = n * (n - 1) / 2;
 		//double[] d = new double[npairs+1];
 
@@ -81,12 +127,16 @@ public class CircularSplitAlgorithms {
 	 * Computes A'*x where A is the matrix for a full circular split system. The indices of the rows and columns
 	 * of A and x correspond to an ordering of pairs (1,2),(1,3),...,(1,n),(2,3),...,(2,n),...,(n-1,n).
 	 * In A we have A{(i,j)(k,l)} = 1 if i and j are on opposite sides of the split {k,k+1,...,l-1}|...
-	 * This algorithm runs in O(n^2) time, which is the number of entries of x.
+	 * This algorithm runs in O(n^2) time, which is the number of entries of x. Uses multiple threads for large n, with the same result.
 	 * @param n Number of taxa.
 	 * @param x vector with dimension n(n-1)/2 +1
 	 * @param p, vector assumed to be of size n(n-1)/2. Overwritten by A'x.
 	 */
 	static public void  circularAtx(int n, double[] x, double[] p) {
+		if (useParallel(n)) {
+			circularAtxInParallel(getPool(), n, x, p, 1);
+			return;
+		}
 		int npairs = n*(n-1)/2;
 		//double[] p = new double[npairs+1];
 
@@ -127,6 +177,131 @@ public class CircularSplitAlgorithms {
 		}
 	}
 
+	/**
+	 * Parallel version of circularAx. Produces exactly the same values as the sequential version, as every entry
+	 * is computed from the same operands in the same order.
+	 * @param pool fork-join pool to run in
+	 * @param n Number of taxa
+	 * @param x input vector
+	 * @param d output vector
+	 * @param base index of the pair (1,2) in x and d: 1 for the indexing used here, 0 for the 2004 indexing
+	 */
+	static public void circularAxInParallel(ForkJoinPool pool, int n, double[] x, double[] d, int base) {
+		circularRecurrenceInParallel(pool, n, x, d, base, true);
+	}
+
+	/**
+	 * Parallel version of circularAtx. Produces exactly the same values as the sequential version, as every entry
+	 * is computed from the same operands in the same order.
+	 * @param pool fork-join pool to run in
+	 * @param n Number of taxa
+	 * @param x input vector
+	 * @param p output vector
+	 * @param base index of the pair (1,2) in x and p: 1 for the indexing used here, 0 for the 2004 indexing
+	 */
+	static public void circularAtxInParallel(ForkJoinPool pool, int n, double[] x, double[] p, int base) {
+		circularRecurrenceInParallel(pool, n, x, p, base, false);
+	}
+
+	/**
+	 * Both Ax and A'x are computed by the same scheme. Using 0-based pairs (i,j), we first compute y(i,i+1) as the sum of
+	 * all entries of x that involve taxon i+1 (Ax) or taxon i (A'x). Then we compute
+	 * y(i,i+2) = y(i,i+1) + y(i+1,i+2) - 2 x(.)  and finally
+	 * y(i,j) = y(i,j-1) + y(i+1,j) - y(i+1,j-1) - 2 x(.),
+	 * where x(.) is x(i+1,j) for Ax and x(i,j-1) for A'x.
+	 * <p>
+	 * The sums are computed in parallel over blocks of rows. The recurrence is computed in square tiles of pairs. A tile only
+	 * depends on the tiles to its left, below and below-left, so all tiles on the same diagonal of tiles can run in parallel.
+	 * @param next true: use the row of taxon i+1 and x(i+1,j) (Ax); false: use the row of taxon i and x(i,j-1) (A'x)
+	 */
+	private static void circularRecurrenceInParallel(ForkJoinPool pool, int n, double[] x, double[] y, int base, boolean next) {
+		if (n < 3) {
+			if (n == 2)
+				y[base] = x[base];
+			return;
+		}
+		final int[] rowStart = new int[n]; // index of pair (i,i+1)
+		rowStart[0] = base;
+		for (int i = 1; i < n; i++)
+			rowStart[i] = rowStart[i - 1] + (n - i);
+
+		final ArrayList<RecursiveAction> sumTasks = new ArrayList<>();
+		final int numberOfBlocks = 4 * pool.getParallelism();
+		final int blockSize = Math.max(1, (n - 1 + numberOfBlocks - 1) / numberOfBlocks);
+		for (int from = 0; from < n - 1; from += blockSize) {
+			final int blockFrom = from;
+			final int blockTo = Math.min(n - 1, from + blockSize);
+			sumTasks.add(action(() -> {
+				for (int i = blockFrom; i < blockTo; i++)
+					y[rowStart[i]] = taxonSum(n, x, rowStart, next ? i + 1 : i);
+			}));
+		}
+		pool.invoke(action(() -> ForkJoinTask.invokeAll(sumTasks)));
+
+		for (int i = 0; i < n - 2; i++) {
+			final int index = rowStart[i] + 1; // (i,i+2)
+			y[index] = y[index - 1] + y[rowStart[i + 1]] - 2 * (next ? x[rowStart[i + 1]] : x[index - 1]);
+		}
+
+		final int numberOfRowTiles = (n - 1 + TILE_SIZE - 1) / TILE_SIZE;
+		final int numberOfColumnTiles = (n + TILE_SIZE - 1) / TILE_SIZE;
+		for (int diagonal = 0; diagonal < numberOfColumnTiles; diagonal++) {
+			final ArrayList<RecursiveAction> tileTasks = new ArrayList<>();
+			for (int ti = 0; ti < numberOfRowTiles && ti + diagonal < numberOfColumnTiles; ti++) {
+				final int iFrom = ti * TILE_SIZE;
+				final int iTo = Math.min(n - 1, iFrom + TILE_SIZE);
+				final int jFrom = (ti + diagonal) * TILE_SIZE;
+				final int jTo = Math.min(n, jFrom + TILE_SIZE);
+				if (jTo - 1 - iFrom >= 3)
+					tileTasks.add(action(() -> computeTile(n, x, y, rowStart, next, iFrom, iTo, jFrom, jTo)));
+			}
+			if (tileTasks.size() == 1)
+				tileTasks.get(0).invoke();
+			else if (tileTasks.size() > 1)
+				pool.invoke(action(() -> ForkJoinTask.invokeAll(tileTasks)));
+		}
+	}
+
+	/**
+	 * Sum of all entries x(s,t) and x(t,u), in the same order as in the sequential versions
+	 */
+	private static double taxonSum(int n, double[] x, int[] rowStart, int t) {
+		double total = 0.0;
+		for (int s = 0; s < t; s++)
+			total += x[rowStart[s] + t - s - 1];
+		for (int index = rowStart[t]; index < rowStart[t] + n - t - 1; index++)
+			total += x[index];
+		return total;
+	}
+
+	/**
+	 * Computes y(i,j) for all pairs with j-i&ge;3, iFrom&le;i&lt;iTo and jFrom&le;j&lt;jTo, processing rows from the
+	 * bottom and each row from left to right, so that y(i,j-1), y(i+1,j) and y(i+1,j-1) are available
+	 */
+	private static void computeTile(int n, double[] x, double[] y, int[] rowStart, boolean next, int iFrom, int iTo, int jFrom, int jTo) {
+		for (int i = iTo - 1; i >= iFrom; i--) {
+			final int j0 = Math.max(jFrom, i + 3);
+			if (j0 >= jTo)
+				continue;
+			final int offset = rowStart[i] - i - 1; // index of (i,j) is offset+j
+			final int below = rowStart[i + 1] - i - 2; // index of (i+1,j) is below+j
+			for (int j = j0; j < jTo; j++) {
+				final int index = offset + j;
+				final int indexBelow = below + j;
+				y[index] = y[index - 1] + y[indexBelow] - y[indexBelow - 1] - 2.0 * (next ? x[indexBelow] : x[index - 1]);
+			}
+		}
+	}
+
+	private static RecursiveAction action(Runnable runnable) {
+		return new RecursiveAction() {
+			@Override
+			protected void compute() {
+				runnable.run();
+			}
+		};
+	}
+
 	/**
 	 * Computes A\x where A is the matrix for a full circular split system. The indices of the rows and columns
 	 * of A and y correspond to an ordering of pairs (1,2),(1,3),...,(1,n),(2,3),...,(2,n),...,(n-1,n).
@@ -0,0 +1,92 @@
+/*
+ * CircularSplitAlgorithmsTest.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetPCG;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * tests that the parallel versions of circularAx and circularAtx give exactly the same results as the sequential ones
+ * Daniel Huson, 10.2026
+ */
+public class CircularSplitAlgorithmsTest {
+	private static final int[] SIZES = {3, 4, 5, 17, 128, 130, 257, 400};
+
+	@Test
+	public void testCircularAx() {
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final Random random = new Random(666);
+			for (int n : SIZES) {
+				final double[] x = randomVector(n, random);
+				final double[] expected = new double[x.length];
+				CircularSplitAlgorithms.circularAx(n, x, expected);
+				final double[] result = new double[x.length];
+				CircularSplitAlgorithms.circularAxInParallel(pool, n, x, result, 1);
+				assertArrayEquals("n=" + n, expected, result, 0.0);
+
+				final double[] shifted = new double[x.length - 1];
+				CircularSplitAlgorithms.circularAxInParallel(pool, n, shift(x), shifted, 0);
+				assertArrayEquals("n=" + n + ", base 0", shift(expected), shifted, 0.0);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testCircularAtx() {
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final Random random = new Random(667);
+			for (int n : SIZES) {
+				final double[] x = randomVector(n, random);
+				final double[] expected = new double[x.length];
+				CircularSplitAlgorithms.circularAtx(n, x, expected);
+				final double[] result = new double[x.length];
+				CircularSplitAlgorithms.circularAtxInParallel(pool, n, x, result, 1);
+				assertArrayEquals("n=" + n, expected, result, 0.0);
+
+				final double[] shifted = new double[x.length - 1];
+				CircularSplitAlgorithms.circularAtxInParallel(pool, n, shift(x), shifted, 0);
+				assertArrayEquals("n=" + n + ", base 0", shift(expected), shifted, 0.0);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static double[] randomVector(int n, Random random) {
+		final double[] x = new double[n * (n - 1) / 2 + 1];
+		for (int i = 1; i < x.length; i++)
+			x[i] = random.nextDouble() - 0.3;
+		return x;
+	}
+
+	private static double[] shift(double[] x) {
+		final double[] y = new double[x.length - 1];
+		System.arraycopy(x, 1, y, 0, y.length);
+		return y;
+	}
+}
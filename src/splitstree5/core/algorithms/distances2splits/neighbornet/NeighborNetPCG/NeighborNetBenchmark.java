@@ -0,0 +1,103 @@
+/*
+ * NeighborNetBenchmark.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetPCG;
+
+import jloda.util.CanceledException;
+import jloda.util.progress.ProgressSilent;
+import splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetCycle;
+import splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetSplits;
+import splitstree5.core.misc.ASplit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * compares the running times and fits of the two neighbor-net split weight solvers, active set and block pivot,
+ * on random L1 distances for a range of taxon counts
+ * <p>
+ * Usage: NeighborNetBenchmark [ntax ...], defaults to 25 50 100 200
+ * Daniel Huson, 10.2026
+ */
+public class NeighborNetBenchmark {
+	public static void main(String[] args) throws CanceledException {
+		final int[] sizes = (args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : new int[]{25, 50, 100, 200});
+		final Random random = new Random(666);
+
+		System.err.println("ntax\tsolver\tms\tsplits\tfit");
+		for (int n : sizes) {
+			final double[][] distances = randomDistances(n, 5, random);
+			final int[] cycle = NeighborNetCycle.compute(new ProgressSilent(), n, distances);
+
+			for (int run = 0; run < 2; run++) {
+				final boolean blockPivot = (run == 1);
+				final long start = System.currentTimeMillis();
+				final ArrayList<ASplit> splits = NeighborNetSplits.compute(n, cycle, distances, null, 0.000001, NeighborNetSplits.LeastSquares.ols,
+						NeighborNetSplits.Regularization.nnls, 1, blockPivot ? new NeighborNetBlockPivot.BlockPivotParams() : null, new ProgressSilent());
+				final long time = System.currentTimeMillis() - start;
+				System.err.printf("%d\t%s\t%d\t%d\t%.6f%n", n, (blockPivot ? "BlockPivot" : "ActiveSet"), time, splits.size(), residual(n, distances, splits));
+			}
+		}
+	}
+
+	/**
+	 * L1 distances between random points, so that the distances are circular-ish but not exactly so
+	 */
+	private static double[][] randomDistances(int n, int dimensions, Random random) {
+		final double[][] points = new double[n][dimensions];
+		for (double[] point : points) {
+			for (int k = 0; k < dimensions; k++)
+				point[k] = random.nextGaussian();
+		}
+		final double[][] distances = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < i; j++) {
+				double sum = 0;
+				for (int k = 0; k < dimensions; k++)
+					sum += Math.abs(points[i][k] - points[j][k]);
+				distances[i][j] = distances[j][i] = sum;
+			}
+		}
+		return distances;
+	}
+
+	/**
+	 * the norm of the difference between the given distances and those induced by the splits
+	 */
+	private static double residual(int n, double[][] distances, ArrayList<ASplit> splits) {
+		final double[][] induced = new double[n][n];
+		for (ASplit split : splits) {
+			final BitSet A = split.getA();
+			for (int i = 1; i <= n; i++) {
+				for (int j = i + 1; j <= n; j++) {
+					if (A.get(i) != A.get(j))
+						induced[i - 1][j - 1] += split.getWeight();
+				}
+			}
+		}
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++)
+				sum += (induced[i][j] - distances[i][j]) * (induced[i][j] - distances[i][j]);
+		}
+		return Math.sqrt(sum);
+	}
+}
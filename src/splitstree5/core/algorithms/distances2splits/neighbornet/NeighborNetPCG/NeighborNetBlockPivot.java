@@ -38,17 +38,19 @@ import static splitstree5.core.algorithms.distances2splits.neighbornet.NeighborN
 
 
 public class NeighborNetBlockPivot {
-	private static final boolean verbose = true;
+	private static final boolean verbose = false;
 
+	/**
+	 * tuning parameters for the block pivot algorithm
+	 */
 	public static class BlockPivotParams {
-		public final int maxBlockPivotIterations = 1000; //Maximum number of iterations for the block pivot algorithm
+		public int maxBlockPivotIterations = 1000; //Maximum number of iterations for the block pivot algorithm
 		public int maxPCGIterations = 1000; //Maximum number of iterations for the conjugate gradient algorithm
-		public final double pcgTol = 1e-12; //Tolerance for pcg: will stop when residual has norm less than this.
-		public final double blockPivotCutoff = 1e-8; //Cutoff - values in block pivot with value smaller than this are set to zero.
-		public final boolean usePreconditioner = true; //True if the conjugate gradient makes use of preconditioner.
-		public final int preconditionerBands = 10; //Number of bands used when computing Y,Z submatrices in the preconditioner.
+		public double pcgTol = 1e-8; //Tolerance for pcg: will stop when residual has norm less than this times the norm of the right-hand side.
+		public double blockPivotCutoff = 1e-8; //Cutoff - values in block pivot with value smaller than this are set to zero.
+		public boolean usePreconditioner = true; //True if the conjugate gradient makes use of preconditioner.
 		// Note that alot of the calculations for preconditioning are done even if this is false, so use this flag only to assess #iterations.
-		public boolean useOldCG = true; //Use the old CG code for least squares
+		public int preconditionerBands = 10; //Number of bands used when computing Y,Z submatrices in the preconditioner.
 	}
 
 
@@ -85,6 +87,10 @@ public class NeighborNetBlockPivot {
 		int p = 3;
 		int iter = 1;
 
+		progress.setSubtask("block pivot");
+		progress.setMaximum(params.maxBlockPivotIterations);
+		progress.setProgress(0);
+
 		final boolean[] infeasible = new boolean[npairs + 1]; //negative entries are 'infeasible'
 		Arrays.fill(infeasible,false);
 		int ninf = 0; //Number of infeasible indices
@@ -131,7 +137,7 @@ public class NeighborNetBlockPivot {
 
 			//z[~G] = x[~G] and z[G] = y[G]  where x mininizes ||Ax - d||  such that x[G] = 0 and
 			// y = A'(Ax - d).
-			z = circularLeastSquares(n, G, d, params.pcgTol, z, params);
+			z = circularLeastSquares(n, G, d, params.pcgTol, z, params, progress);
 
 			for (int i = 1; i <= npairs; i++) {
 				if (Math.abs(z[i]) < params.blockPivotCutoff)
@@ -139,18 +145,20 @@ public class NeighborNetBlockPivot {
 			}
 			iter++;
 
-			progress.checkForCancel();
+			progress.setProgress(iter);
 		}
 
 
 		//Do one final refitting with these edges.
-		z = circularLeastSquares(n, G, d, 1e-3 * params.pcgTol, z,params);
+		z = circularLeastSquares(n, G, d, 1e-3 * params.pcgTol, z, params, progress);
 		for(int i=1; i<=npairs; i++) {
 			if (G[i])
 				z[i] = 0.0;
 		}
-		double pgn = projectedGradientNorm(n,d,z,G);
-		System.err.println("Block pivot pgnorm: "+ pgn);
+		if (verbose) {
+			double pgn = projectedGradientNorm(n, d, z, G);
+			System.err.println("Block pivot iterations: " + iter + ", pgnorm: " + pgn);
+		}
 
 		return z;
 	}
@@ -165,49 +173,15 @@ public class NeighborNetBlockPivot {
 	 * @param n Number of taxa
 	 * @param G  Mask: indicating variables to constrain to zero
 	 * @param d Vector of distances
-	 * @param tol  Target tolerance: algorithm halts when ||Ax-d|| <= tol.
-	 * @param x0  Initial vector (only entries such that G[i]=false are used)
+	 * @param tol  Target tolerance: algorithm halts when the residual of the dual system is at most tol times the norm of its right-hand side.
+	 * @param x0  Initial vector, used for a warm start (only entries such that G[i]=true are used)
 	 * @param params   Tuning parameters for the algorithm
+	 * @param progress Progress listener, used for cancellation
 	 * @return vector
 	 */
-	private static double[] circularLeastSquares(int n, boolean[] G, double[] d, double tol, double[] x0, BlockPivotParams params) {
-
-
+	private static double[] circularLeastSquares(int n, boolean[] G, double[] d, double tol, double[] x0, BlockPivotParams params, ProgressListener progress) throws CanceledException {
 		int npairs = n * (n - 1) / 2; //Dimensions of G,d.
-		//int maxiter = params.maxPCGIterations;
-		int maxiter = npairs + 10;
-
-		//-----------
-		//TODO: This code is for debugging and needs to be stripped out.
-
-		if (params.useOldCG && false) {
-			double[] r = new double[npairs];
-			double[] u = new double[npairs];
-			double[] p = new double[npairs];
-			double[] y = new double[npairs];
-			double[] W = new double[npairs];
-			Arrays.fill(W, 1.0);
-			double[] oldd = new double[npairs];
-			//Need to translate the distance vector into the old form
-			if (npairs >= 0) System.arraycopy(d, 1, oldd, 0, npairs);
-			double[] Atd = new double[npairs + 1];
-			circularAtx(n, d, Atd);
-			double[] b = new double[npairs];
-			if (npairs >= 0) System.arraycopy(Atd, 1, b, 0, npairs);
-			double[] xOld = new double[npairs];
-			boolean[] activeOld = new boolean[npairs];
-			if (npairs >= 0) System.arraycopy(G, 1, activeOld, 0, npairs);
-			NeighborNetSplits.circularConjugateGrads(n, npairs, r, u, p, y, W, b, activeOld, xOld);
-			double[] x = new double[npairs + 1];
-			if (npairs >= 0) System.arraycopy(xOld, 0, x, 1, npairs);
-
-			//System.err.println("Norm after circular ls is " + pgnorm(n,G,d,x));
-
-			return x;
-		}
-
-		//------------
-
+		int maxiter = params.maxPCGIterations;
 
 		boolean usePreconditioner = params.usePreconditioner;
 
@@ -233,24 +207,35 @@ public class NeighborNetBlockPivot {
 		Preconditioner M = new Preconditioner(X,params.preconditionerBands);
 
 		double[] nuvec = new double[npairs+1];
+		if (x0 != null) { //Warm start: on G, the multipliers are minus the gradient returned by the previous call
+			for (int i = 1; i <= npairs; i++)
+				if (G[i])
+					nuvec[i] = -x0[i];
+		}
 		double[][] nu = vector2blocks(n,nuvec,G);
+		final double[][] nu0 = blockclone(nu);
 
 		double[][] r = blockvectorAdd(b,-1,X.multiply(nu));
 
 		double[][] z;
-		if (usePreconditioner)
+		if (usePreconditioner) {
 			z = M.solve(r);
-		else
+			if (!isPositiveAndFinite(blockvectorDot(r, z))) { //The preconditioner has broken down for this mask, so don't use it
+				usePreconditioner = false;
+				z = r.clone();
+			}
+		} else
 			z = r.clone();
 
 		double[][] p = blockclone(z);
 
 		double rnorm,alpha,beta,rtz;
 		int j;
+		final double bnorm = Math.max(1.0, Math.sqrt(blockvectorDot(b,b)));
 
 		for(j=1; j<=maxiter; j++) {
 			rnorm = Math.sqrt(blockvectorDot(r,r));
-			if (rnorm<tol)
+			if (rnorm<tol*bnorm)
 				break;
 
 			double[][] xp = X.multiply(p);
@@ -258,19 +243,30 @@ public class NeighborNetBlockPivot {
 
 			nu = blockvectorAdd(nu,alpha,p);
 			rtz = blockvectorDot(r,z);
-			r = blockvectorAdd(r,-alpha,X.multiply(p));
-			if (usePreconditioner)
+			r = blockvectorAdd(r,-alpha,xp);
+			if (usePreconditioner) {
 				z = M.solve(r);
-			else
+				if (!isPositiveAndFinite(blockvectorDot(r, z)) || !isPositiveAndFinite(rtz)) { //Preconditioner has broken down, restart without it
+					usePreconditioner = false;
+					nu = blockclone(nu0);
+					r = blockvectorAdd(b, -1, X.multiply(nu));
+					z = r.clone();
+					p = blockclone(z);
+					continue;
+				}
+			} else
 				z = r.clone();
 
 			beta = blockvectorDot(r,z)/rtz;
 			p = blockvectorAdd(z,beta,p);
+
+			progress.checkForCancel();
 		}
 		if (j>maxiter)
 			System.err.println("WARNING: Preconditioned Conjugate Gradient reached maximum iterations");
 
-		System.err.println("Number of iterations in PCG = "+j);
+		if (verbose)
+			System.err.println("Number of iterations in PCG = " + j);
 		nuvec = blocks2vector(n,nu,G);
 		double[] x = new double[npairs+1];
 		double[] y = new double[npairs+1];
@@ -284,15 +280,16 @@ public class NeighborNetBlockPivot {
 			Ax[i] -= d[i];
 		circularAtx(n,Ax,y);
 
-		//Check KKT conditions.
-		double xerr = 0.0, graderr = 0.0;
-		for(int i=1; i<=npairs; i++) {
-			if (G[i])
-				xerr = Math.max(xerr,Math.abs(x[i]));
-			else
-				graderr = Math.max(xerr,Math.abs(y[i]));
+		if (verbose) { //Check KKT conditions.
+			double xerr = 0.0, graderr = 0.0;
+			for (int i = 1; i <= npairs; i++) {
+				if (G[i])
+					xerr = Math.max(xerr, Math.abs(x[i]));
+				else
+					graderr = Math.max(graderr, Math.abs(y[i]));
+			}
+			System.err.println("xerr = " + xerr + "\tgraderr = " + graderr);
 		}
-		System.err.println("xerr = "+xerr+"\tgraderr = "+graderr);
 
 
 		for(int i = 1; i<=npairs; i++) {
@@ -419,6 +416,13 @@ public class NeighborNetBlockPivot {
 		return xty;
 	}
 
+	/**
+	 * Is value positive and finite? Used to detect a breakdown of the preconditioner
+	 */
+	private static boolean isPositiveAndFinite(double value) {
+		return value > 0 && value < Double.POSITIVE_INFINITY;
+	}
+
 	/**
 	 * Clone a block array.
 	 * @param x double[][]
@@ -551,7 +555,6 @@ public class NeighborNetBlockPivot {
 		n=20;
 		long startTime = System.currentTimeMillis();
 		NeighborNetBlockPivot.BlockPivotParams params = new NeighborNetBlockPivot.BlockPivotParams();
-		params.useOldCG=true;
 
 		double[] y = circularBlockPivot(n, d, new ProgressSilent(),params);
 		long finishTime = System.currentTimeMillis();
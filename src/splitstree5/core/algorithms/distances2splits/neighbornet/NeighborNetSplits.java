@@ -23,6 +23,8 @@ import jloda.util.CanceledException;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetPCG.CircularSplitAlgorithms;
 import splitstree5.core.algorithms.distances2splits.neighbornet.NeighborNetPCG.NeighborNetBlockPivot;
+import splitstree5.core.datablocks.distances.DistanceMatrix;
+import splitstree5.core.datablocks.distances.SquareDistanceMatrix;
 import splitstree5.core.misc.ASplit;
 
 import java.text.DecimalFormat;
@@ -53,32 +55,57 @@ public class NeighborNetSplits {
 
     static final double CG_EPSILON = 0.0001;     /* Epsilon constant for the conjugate gradient algorithm */
 
+    /**
+     * Compute optimal weight squares under least squares for Splits compatible with a circular ordering.
+     *
+     * @param runPCG use the block pivot algorithm with preconditioned conjugate gradients, rather than the active set method
+     * @see #compute(int, int[], double[][], double[][], double, LeastSquares, Regularization, double, NeighborNetBlockPivot.BlockPivotParams, ProgressListener)
+     */
+    static public ArrayList<ASplit> compute(boolean runPCG, int nTax, int[] cycle, double[][] distances, double[][] variances, double cutoff, LeastSquares leastSquares, Regularization regularization, double lambdaFrac, ProgressListener progress) throws CanceledException {
+        return compute(nTax, cycle, distances, variances, cutoff, leastSquares, regularization, lambdaFrac, runPCG ? new NeighborNetBlockPivot.BlockPivotParams() : null, progress);
+    }
+
     /**
      * Compute optimal weight squares under least squares for Splits compatible with a circular ordering.
      * This version carries out adaptive L1 regularisation, controlled by the parameter lambdaFraction.
      * That is, it minimizes  0.5*||Ax - d||^2_2  +  \lambda ||x||_1
+     * <p>
+     * If block pivot parameters are given, then ordinary non-negative least squares are solved using the block pivot
+     * algorithm with preconditioned conjugate gradients, which is much faster for large numbers of taxa.
+     * Weighted least squares and regularization are only supported by the active set method, which is used otherwise
      *
      * @param nTax           number of taxa
      * @param cycle          taxon cycle, 1-based
-     * @param distances      pairwise distances. Stores as a square matrix with taxa 1..ntax in rows 0..ntax-1  //TODO use a standard distance block here.
+     * @param distances      pairwise distances, 0-based
      * @param cutoff         min split weight
      * @param leastSquares   least square mode
      * @param regularization use regularization
      * @param lambdaFrac     the lambda fraction
+     * @param params         parameters for the block pivot algorithm, or null, to use the active set method
      * @param progress       progress listener
      * @return weighted splits
-	 */
-    static public ArrayList<ASplit> compute(boolean runPCG, int nTax, int[] cycle, double[][] distances, double[][] variances, double cutoff, LeastSquares leastSquares, Regularization regularization, double lambdaFrac, ProgressListener progress) throws CanceledException {
-        //Handle n=1,2 separately.
-        if (true)
-            return computeRevised(runPCG,nTax,cycle,distances,variances,cutoff,leastSquares,regularization,lambdaFrac,progress);
+     */
+    static public ArrayList<ASplit> compute(int nTax, int[] cycle, double[][] distances, double[][] variances, double cutoff, LeastSquares leastSquares, Regularization regularization, double lambdaFrac,
+                                            NeighborNetBlockPivot.BlockPivotParams params, ProgressListener progress) throws CanceledException {
+        return compute(nTax, cycle, new SquareDistanceMatrix(distances), variances == null ? null : new SquareDistanceMatrix(variances), cutoff, leastSquares, regularization, lambdaFrac, params, progress);
+    }
 
+    /**
+     * Compute optimal weight squares under least squares for Splits compatible with a circular ordering.
+     *
+     * @param distances pairwise distances, 0-based
+     * @param variances pairwise variances, 0-based, or null
+     * @see #compute(int, int[], double[][], double[][], double, LeastSquares, Regularization, double, NeighborNetBlockPivot.BlockPivotParams, ProgressListener)
+     */
+    static public ArrayList<ASplit> compute(int nTax, int[] cycle, DistanceMatrix distances, DistanceMatrix variances, double cutoff, LeastSquares leastSquares, Regularization regularization, double lambdaFrac,
+                                            NeighborNetBlockPivot.BlockPivotParams params, ProgressListener progress) throws CanceledException {
+        //Handle n=1,2 separately.
         if (nTax == 1) {
             return new ArrayList<>();
         }
         if (nTax == 2) {
             final ArrayList<ASplit> splits = new ArrayList<>();
-            float d_ij = (float) distances[cycle[1] - 1][cycle[2] - 1];
+            float d_ij = (float) distances.get(cycle[1] - 1, cycle[2] - 1);
             if (d_ij > 0.0) {
                 final BitSet A = new BitSet();
                 A.set(cycle[1]);
@@ -86,118 +113,46 @@ public class NeighborNetSplits {
             }
             return splits;
         }
-        final int nPairs = (nTax * (nTax - 1)) / 2;
-
-        if (runPCG) {
-            //Set up the distance vector.
-
-            final double[] d = new double[nPairs + 1];
-            {
-                int index = 1;
-                for (int i = 1; i <= nTax; i++) {
-                    for (int j = i + 1; j <= nTax; j++) {
-                        d[index++] = distances[cycle[i] - 1][cycle[j] - 1];
-                    }
-                }
-            }
-
-            System.err.print("d=[");
-            for (int i = 1; i <= nPairs; i++) {
-                System.out.print(d[i] + " ");
-            }
-            System.err.println("];");
-
-            NeighborNetBlockPivot.BlockPivotParams params = new NeighborNetBlockPivot.BlockPivotParams();
-            double[] x = NeighborNetBlockPivot.circularBlockPivot(nTax, d, progress, params);
-            final ArrayList<ASplit> splits = new ArrayList<>();
-
-            int index = 1;
-            for (int i = 1; i <= nTax; i++) {
-                final BitSet A = new BitSet();
-                for (int j = i + 1; j <= nTax; j++) {
-                    A.set(cycle[j - 1]);
-                    if (x[index] > cutoff)
-                        splits.add(new ASplit(A, nTax, (float) (x[index])));
-                    index++;
-                }
-            }
-            return splits;
-        }
-
-        /* Re-order taxa so that the ordering is 0,1,2,...,n-1 */
-        final double[] d = setupD(nTax, nPairs, distances, cycle);
-        final double[] v = setupV(nTax, nPairs, distances, variances, leastSquares, cycle);
-        final double[] x = new double[nPairs];
+        if (params != null && leastSquares == LeastSquares.ols && regularization == Regularization.nnls)
+            return computeBlockPivot(nTax, cycle, distances, cutoff, params, progress);
+        else
+            return computeRevised(nTax, cycle, distances, variances, cutoff, leastSquares, regularization, lambdaFrac, progress);
+    }
 
-        /* Initialize the weight matrix */
-        final double[] W = new double[nPairs];
-        for (int k = 0; k < nPairs; k++) {
-            if (v[k] == 0.0)
-                W[k] = 10E10;
-            else
-                W[k] = 1.0 / v[k];
-        }
-        /* Find the constrained optimal values for x */
+    /**
+     * Compute optimal weight squares under ordinary non-negative least squares using the block pivot algorithm
+     *
+     * @param nTax      number of taxa, at least 3
+     * @param cycle     taxon cycle, 1-based
+     * @param distances pairwise distances, 0-based
+     * @param cutoff    min split weight
+     * @param params    parameters for the block pivot algorithm
+     * @param progress  progress listener
+     * @return weighted splits
+     */
+    static private ArrayList<ASplit> computeBlockPivot(int nTax, int[] cycle, DistanceMatrix distances, double cutoff, NeighborNetBlockPivot.BlockPivotParams params, ProgressListener progress) throws CanceledException {
+        final int nPairs = (nTax * (nTax - 1)) / 2;
 
-        runActiveConjugate(nTax, nPairs, d, W, x, regularization, lambdaFrac);
+        final double[] d = setupDRevised(nTax, nPairs, distances, cycle);
+        final double[] x = NeighborNetBlockPivot.circularBlockPivot(nTax, d, progress, params);
 
         /* Construct the splits with the appropriate weights */
         final ArrayList<ASplit> splits = new ArrayList<>();
 
-        int index = 0;
+        int index = 1;
+        final BitSet A = new BitSet();
         for (int i = 1; i <= nTax; i++) {
-            final BitSet A = new BitSet();
+            A.clear();
             for (int j = i + 1; j <= nTax; j++) {
-                A.set(cycle[j]);
+                A.set(cycle[j - 1]);
                 if (x[index] > cutoff)
-                    splits.add(new ASplit(A, nTax, (float) (x[index])));
+                    splits.add(new ASplit(A, nTax, (float) (x[index]))); //Note ASplit will flip representation if 1 \in A.
                 index++;
             }
         }
         return splits;
     }
 
-    /**
-     * setup working distance so that ordering is trivial.
-     * Note the the code assumes that taxa are labeled 0..nTax-1 and
-     * we do the transition here. It is undone when extracting the splits
-     */
-    static private double[] setupD(int nTax, int nPairs, double[][] distances, int[] cycle) {
-        final double[] d = new double[nPairs];
-        int index = 0;
-        for (int i = 1; i <= nTax; i++)
-            for (int j = i + 1; j <= nTax; j++)
-                d[index++] = distances[cycle[i] - 1][cycle[j] - 1];
-        return d;
-    }
-
-    static private double[] setupV(int nTax, int nPairs, double[][] distances, double[][] variances, LeastSquares leastSquares, int[] cycle) {
-        final double[] v = new double[nPairs];
-
-        int index = 0;
-        for (int i = 1; i <= nTax; i++)
-            for (int j = i + 1; j <= nTax; j++) {
-                double dij = distances[cycle[i] - 1][cycle[j] - 1];
-                switch (leastSquares) {
-                    default:
-                    case ols:
-                        v[index] = 1.0;
-                        break;
-                    case fm1:
-                        v[index] = dij;
-                        break;
-                    case fm2:
-                        v[index] = dij * dij;
-                        break;
-                    case estimated:
-                        v[index] = (variances != null ? variances[cycle[i] - 1][cycle[j] - 1] : 1.0);
-                        break;
-                }
-                index++;
-            }
-        return v;
-    }
-
     /**
      * Compute the branch lengths for unconstrained least squares using
      * the formula of Chepoi and Fichet (this takes O(N^2) time only!).
@@ -372,8 +327,6 @@ public class NeighborNetSplits {
                             active[index] = true;
                         }
                         NeighborNetSplits.circularConjugateGrads(nTax, nPairs, r, u, p, y, W, AtWd, active, x); /* Re-optimise, so that the current x is always optimal */
-                        for(int i=0;i<nPairs;i++)
-                            System.out.println("\t"+i+"\t"+x[i]);
                     }
                 }
                 else
@@ -477,9 +430,19 @@ public class NeighborNetSplits {
 
     /**
      * Computes p = A^Td, where A is the topological matrix for the
-     * splits with circular ordering 0,1,2,....,nTax-1
+     * splits with circular ordering 0,1,2,....,nTax-1. Uses multiple threads for large n, with the same result
      */
     static private void calculateAtx(int n, double[] d, double[] p) {
+        if (CircularSplitAlgorithms.useParallel(n)) // same recurrence as circularAx, in the 2004 indexing
+            CircularSplitAlgorithms.circularAxInParallel(CircularSplitAlgorithms.getPool(), n, d, p, 0);
+        else
+            calculateAtxSequential(n, d, p);
+    }
+
+    /**
+     * sequential version of calculateAtx
+     */
+    static void calculateAtxSequential(int n, double[] d, double[] p) {
         //First the trivial splits
         {
             int index = 0;
@@ -516,9 +479,19 @@ public class NeighborNetSplits {
 
     /**
      * Computes d = Ab, where A is the topological matrix for the
-     * splits with circular ordering 0,1,2,....,nTax-1
+     * splits with circular ordering 0,1,2,....,nTax-1. Uses multiple threads for large n, with the same result
      */
     static private void calculateAb(int n, double[] b, double[] d) {
+        if (CircularSplitAlgorithms.useParallel(n)) // same recurrence as circularAtx, in the 2004 indexing
+            CircularSplitAlgorithms.circularAtxInParallel(CircularSplitAlgorithms.getPool(), n, b, d, 0);
+        else
+            calculateAbSequential(n, b, d);
+    }
+
+    /**
+     * sequential version of calculateAb
+     */
+    static void calculateAbSequential(int n, double[] b, double[] d) {
         //First the pairs distance one apart.
         {
             int dIndex = 0;
@@ -664,6 +637,7 @@ public class NeighborNetSplits {
      * That is, it minimizes  0.5*||Ax - d||^2_2  +  \lambda ||x||_1
      * This revised version uses a different indexing scheme for the splits and distances. In this system, pair (i,j)
      * refers to the split {i,i+1,i+2,...j-1}| ----
+     * Uses the active set method, assumes at least 3 taxa
      *
      *
      * @param nTax           number of taxa
@@ -676,63 +650,20 @@ public class NeighborNetSplits {
      * @param progress       progress listener
      * @return weighted splits
 	 */
-    static public ArrayList<ASplit> computeRevised(boolean runPCG, int nTax, int[] cycle, double[][] distances, double[][] variances, double cutoff, LeastSquares leastSquares, Regularization regularization, double lambdaFrac, ProgressListener progress) throws CanceledException {
-        //Handle n=1,2 separately.
-        System.out.println("REVISED ALGORITHM\n======================\n");
-        if (nTax == 1) {
-            return new ArrayList<>();
-        }
-        if (nTax == 2) {
-            final ArrayList<ASplit> splits = new ArrayList<>();
-            float d_ij = (float) distances[cycle[1] - 1][cycle[2] - 1];
-            if (d_ij > 0.0) {
-                final BitSet A = new BitSet();
-                A.set(cycle[1]);
-                splits.add(new ASplit(A, 2, d_ij));
-            }
-            return splits;
-        }
-        final int nPairs = (nTax * (nTax - 1)) / 2;
-
-		//Set up the distance vector.
-
-            double[] d = new double[nPairs + 1];
-            {
-                int index = 1;
-                for (int i = 1; i <= nTax; i++) {
-                    for (int j = i + 1; j <= nTax; j++) {
-                        d[index++] = distances[cycle[i] - 1][cycle[j] - 1];
-                    }
-                }
-            }
-
-            System.err.print("d=[");
-            for (int i = 1; i <= nPairs; i++) {
-                System.out.print(d[i] + " ");
-            }
-            System.err.println("];");
-
-            NeighborNetBlockPivot.BlockPivotParams params = new NeighborNetBlockPivot.BlockPivotParams();
-            double[] xPCG = NeighborNetBlockPivot.circularBlockPivot(nTax, d, progress, params);
-            final ArrayList<ASplit> splitsPCG = new ArrayList<>();
+    static public ArrayList<ASplit> computeRevised(int nTax, int[] cycle, double[][] distances, double[][] variances, double cutoff, LeastSquares leastSquares, Regularization regularization, double lambdaFrac, ProgressListener progress) throws CanceledException {
+        return computeRevised(nTax, cycle, new SquareDistanceMatrix(distances), variances == null ? null : new SquareDistanceMatrix(variances), cutoff, leastSquares, regularization, lambdaFrac, progress);
+    }
 
-            int index = 1;
-            for (int i = 1; i <= nTax; i++) {
-                final BitSet A = new BitSet();
-                for (int j = i + 1; j <= nTax; j++) {
-                    A.set(cycle[j - 1]);
-                    if (xPCG[index] > cutoff)
-                        splitsPCG.add(new ASplit(A, nTax, (float) (xPCG[index])));
-                    index++;
-                }
-            }
-            //return splitsPCG;
+    /**
+     * Compute optimal weight squares under least squares for Splits compatible with a circular ordering, using the active set method
+     *
+     * @see #computeRevised(int, int[], double[][], double[][], double, LeastSquares, Regularization, double, ProgressListener)
+     */
+    static public ArrayList<ASplit> computeRevised(int nTax, int[] cycle, DistanceMatrix distances, DistanceMatrix variances, double cutoff, LeastSquares leastSquares, Regularization regularization, double lambdaFrac, ProgressListener progress) throws CanceledException {
+        final int nPairs = (nTax * (nTax - 1)) / 2;
 
 		/* Re-order taxa so that the ordering is 0,1,2,...,n-1 */
-        /*final double[] d = setupDRevised(nTax, nPairs, distances, cycle);
-        final double[] v = setupVRevised(nTax, nPairs, distances, variances, leastSquares, cycle);
-        final double[] x = new double[nPairs+1];*/
-        d = setupDRevised(nTax, nPairs, distances, cycle);
+        final double[] d = setupDRevised(nTax, nPairs, distances, cycle);
         final double[] v = setupVRevised(nTax, nPairs, distances, variances, leastSquares, cycle);
         final double[] x = new double[nPairs+1];
 
@@ -751,7 +682,7 @@ public class NeighborNetSplits {
         /* Construct the splits with the appropriate weights */
         final ArrayList<ASplit> splits = new ArrayList<>();
 
-        index = 1;
+        int index = 1;
         final BitSet A = new BitSet();
         for (int i = 1; i <= nTax; i++) {
             A.clear();
@@ -763,10 +694,6 @@ public class NeighborNetSplits {
             }
         }
 
-        for (int i=1;i<x.length;i++)
-            System.out.println("\t"+xPCG[i]+"\t" + x[i]);
-
-
         return splits;
     }
 
@@ -777,12 +704,12 @@ public class NeighborNetSplits {
      *      *
      *      * In this revised version, vector d starts at index 1.
 	 */
-    static private double[] setupDRevised(int nTax, int nPairs, double[][] distances, int[] cycle) {
+    static private double[] setupDRevised(int nTax, int nPairs, DistanceMatrix distances, int[] cycle) {
         final double[] d = new double[nPairs+1];
         int index = 1;
         for (int i = 1; i <= nTax; i++)
             for (int j = i + 1; j <= nTax; j++)
-                d[index++] = distances[cycle[i] - 1][cycle[j] - 1];
+                d[index++] = distances.get(cycle[i] - 1, cycle[j] - 1);
         return d;
     }
 
@@ -796,13 +723,13 @@ public class NeighborNetSplits {
      * @param cycle Circular ordering that we are fitting
      * @return  vector of variances [0,v12,v13,....,v_(n-1)n]
      */
-    static private double[] setupVRevised(int nTax, int nPairs, double[][] distances, double[][] variances, LeastSquares leastSquares, int[] cycle) {
+    static private double[] setupVRevised(int nTax, int nPairs, DistanceMatrix distances, DistanceMatrix variances, LeastSquares leastSquares, int[] cycle) {
         final double[] v = new double[nPairs+1];
 
         int index = 1;
         for (int i = 1; i <= nTax; i++)
             for (int j = i + 1; j <= nTax; j++) {
-                double dij = distances[cycle[i] - 1][cycle[j] - 1];
+                double dij = distances.get(cycle[i] - 1, cycle[j] - 1);
                 switch (leastSquares) {
                     default:
                     case ols:
@@ -815,7 +742,7 @@ public class NeighborNetSplits {
                         v[index] = dij * dij;
                         break;
                     case estimated:
-                        v[index] = (variances != null ? variances[cycle[i] - 1][cycle[j] - 1] : 1.0);
+                        v[index] = (variances != null ? variances.get(cycle[i] - 1, cycle[j] - 1) : 1.0);
                         break;
                 }
                 index++;
@@ -949,9 +876,6 @@ public class NeighborNetSplits {
                         }
                         NeighborNetSplits.circularConjugateGradsRevised(nTax, nPairs, r, u, p, y, W, AtWd, active, x); /* Re-optimise, so that the current x is always optimal */
                     //}
-                    double[] oldx = sortArrayAsOld(x,nTax);
-                    for(int i=0;i<nPairs;i++)
-                        System.out.println("\t"+i+"\t"+oldx[i]);
 
 
 
@@ -1069,12 +993,16 @@ public class NeighborNetSplits {
     }
 
     /**
-     * Computes A^Tx in O(n^2) time.
+     * Computes A^Tx in O(n^2) time. Uses multiple threads for large n, with the same result.
      * @param n  Number of taxa
      * @param x   Input vector, using entries 1...n(n-1)/2
      * @param p  Output vector. Must be initialised in advance.
 	 */
     static public void circularAtxRevised(int n, double[] x, double[] p) {
+        if (CircularSplitAlgorithms.useParallel(n)) {
+            CircularSplitAlgorithms.circularAtxInParallel(CircularSplitAlgorithms.getPool(), n, x, p, 1);
+            return;
+        }
         int npairs = n*(n-1)/2;
         //p = new double[npairs+1];
 
@@ -1119,11 +1047,15 @@ public class NeighborNetSplits {
      * Computes A*x where A is the matrix for a full circular split system. The indices of the rows and columns
      * of A and x correspond to an ordering of pairs (1,2),(1,3),...,(1,n),(2,3),...,(2,n),...,(n-1,n).
      * In A we have A{(i,j)(k,l)} = 1 if i and j are on opposite sides of the split {k,k+1,...,l-1}|...
-     * This algorithm runs in O(n^2) time, which is the number of entries of x.
+     * This algorithm runs in O(n^2) time, which is the number of entries of x. Uses multiple threads for large n, with the same result.
      * @param n Number of taxa.
      * @param x vector with dimension n(n-1)/2
      */
     static public void circularAxRevised(int n,double[] x, double[] d ) {
+        if (CircularSplitAlgorithms.useParallel(n)) {
+            CircularSplitAlgorithms.circularAxInParallel(CircularSplitAlgorithms.getPool(), n, x, d, 1);
+            return;
+        }
         int npairs = n*(n-1)/2;
 
         //First compute d[i][i+1] for all i.
@@ -1305,7 +1237,7 @@ public class NeighborNetSplits {
                 rho+=r[i]*r[i];
             }
         }
-        System.err.println("Number of CG iterations = "+k);
+        // System.err.println("Number of CG iterations = "+k);
     }
 }
 
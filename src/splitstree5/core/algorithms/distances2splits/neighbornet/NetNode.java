@@ -33,7 +33,7 @@ class NetNode {
     NetNode next = null; // next in list of active nodes
     NetNode prev = null; // prev in list of active nodes
     double Rx = 0;
-    double Sx = 0;
+    int slot = -1; // row of this node in the working matrix, while active
 
     NetNode(int id) {
         this.id = id;
@@ -48,7 +48,6 @@ class NetNode {
                 + " prev=" + (prev == null ? "null" : ("" + prev.id))
                 + " next=" + (next == null ? "null" : ("" + next.id))
                 + " Rx=" + Rx
-                + " Sx=" + Sx
                 + "]";
     }
 
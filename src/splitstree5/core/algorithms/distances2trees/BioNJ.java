@@ -19,7 +19,7 @@
 
 package splitstree5.core.algorithms.distances2trees;
 
-import jloda.graph.Edge;
+import jloda.fx.util.ProgramExecutorService;
 import jloda.graph.Node;
 import jloda.phylo.PhyloTree;
 import jloda.util.CanceledException;
@@ -31,13 +31,15 @@ import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.TreesBlock;
 
-import java.util.BitSet;
-import java.util.HashMap;
+import java.util.Arrays;
 
 
 /**
  * Implementation of the Bio-Neighbor-Joining algorithm (Gascuel 1997)
  * <p>
+ * The tree is built directly from nodes, distances and variances are kept in one triangular matrix and
+ * the pair to join is found using the same search as for neighbor joining
+ * <p>
  * Created on 2008-02-26
  *
  * @author David Bryant and Daniel Huson
@@ -57,204 +59,186 @@ public class BioNJ extends Algorithm<DistancesBlock, TreesBlock> implements IFro
          progress.setTasks("BioNJ", "Creating nodes...");
         progress.setMaximum(distances.getNtax());
 
-        PhyloTree tree = computeBioNJTree(progress, taxaBlock, distances);
+        PhyloTree tree = computeBioNJTree(progress, taxaBlock, distances, ProgramExecutorService.getNumberOfCoresToUse());
         trees.getTrees().setAll(tree);
 
         progress.close();
     }
 
     /**
-     * compute the BIO nj tree
+     * compute the BIO nj tree. The pair to join is found using the bounds of RapidNJ, see RapidNJSearch
      *
      * @return tree
-	 */
-    private PhyloTree computeBioNJTree(ProgressListener progressListener, TaxaBlock taxaBlock, DistancesBlock distances) throws InterruptedException, CanceledException {
+     */
+    static PhyloTree computeBioNJTree(ProgressListener progressListener, TaxaBlock taxaBlock, DistancesBlock distances, int numThreads) throws CanceledException {
+        return computeBioNJTree(progressListener, taxaBlock, distances, numThreads, RapidNJSearch.DEFAULT_PREFIX_SIZE, RapidNJSearch.DEFAULT_MIN_ROWS_FOR_PARALLEL);
+    }
 
+    /**
+     * compute the BIO nj tree, using the given parameters for the search, see RapidNJSearch
+     */
+    static PhyloTree computeBioNJTree(ProgressListener progressListener, TaxaBlock taxaBlock, DistancesBlock distances, int numThreads, int prefixSize, int minRowsForParallel) throws CanceledException {
         final PhyloTree tree = new PhyloTree();
-        final HashMap<String, Node> taxaHashMap = new HashMap<>();
         final int nTax = distances.getNtax();
 
-        final StringBuffer[] tax = new StringBuffer[nTax + 1];
-
+        final Node[] nodes = new Node[nTax]; // 0-based, indexed by first taxon in cluster
         for (int t = 1; t <= nTax; t++) {
-            tax[t] = new StringBuffer();
-            tax[t].append(t);
             final Node v = tree.newNode(); // create newNode for each Taxon
             tree.setLabel(v, taxaBlock.getLabel(t));
-            taxaHashMap.put(tax[t].toString(), v);
             tree.addTaxon(v, t);
-		}
-
-		final double[][] h = new double[nTax + 1][nTax + 1];// distance matrix
-
-		final BitSet active = new BitSet();
-
-		final double[][] var = new double[nTax + 1][nTax + 1]; // variances matrix. This really should be upper diag of h.
-		final double[] b = new double[nTax + 1];// the b variable in Neighbor Joining
-		int i_min = 0, j_min = 0; // needed for manipulation of h and b
-		double temp, dist_e, dist_f;//new edge weights
-		StringBuilder tax_old_i; //labels of taxa that are being merged
-		StringBuilder tax_old_j;
-		StringBuilder tax_old_k;
-		Node v;
-		Edge e, f; //from tax_old to new=merged edge
-		double lambda; //lambda value in BioNJ
-
-		active.set(1, nTax + 1);
-
-		for (int i = 1; i <= nTax; i++) {
-			h[i][i] = 0.0;
-			for (int j = 1; j <= nTax; j++) { //fill up the distance matix h
-				if (i < j)
-                    h[i][j] = distances.get(i, j);//
-                else
-                    h[i][j] = distances.get(j, i);
-                var[i][j] = h[i][j];
-            }
+            nodes[t - 1] = v;
         }
 
-        // calculate b:
-        for (int i = 1; i <= nTax; i++) {
-            for (int j = 1; j <= nTax; j++) {
-                b[i] += h[i][j];
-            }
+        if (nTax < 3) {
+            if (nTax == 2)
+                tree.setWeight(tree.newEdge(nodes[0], nodes[1]), distances.get(1, 2));
+            return tree;
         }
-        // recall: int i_min=0, j_min=0;
-
-        // actual for (finding all nearest Neighbors)
-        for (int actual = nTax; actual > 3; actual--) {
-            // find: min D (h, b, b)
-            double d_min = Double.POSITIVE_INFINITY, d_ij;
-            for (int i = 1; i < nTax; i++) {
-                if (!active.get(i)) continue;
-                for (int j = i + 1; j <= nTax; j++) {
-                    if (!active.get(j))
+
+        final Matrix h = new Matrix(distances);
+
+        try (RapidNJSearch search = new RapidNJSearch(nTax, h, numThreads, prefixSize, minRowsForParallel)) {
+            final int[] pair = new int[2];
+
+            // actual for (finding all nearest Neighbors)
+            for (int actual = nTax; actual > 3; actual--) {
+                // find: min D (h, b, b)
+                search.findPair(pair);
+                final int i_min = pair[0];
+                final int j_min = pair[1];
+                final double[] b = h.b;
+
+                final double h_min = h.getDistance(i_min, j_min);
+                final double dist_e = 0.5 * (h_min + b[i_min] / ((double) actual - 2.0) - b[j_min] / ((double) actual - 2.0));
+                final double dist_f = h_min - dist_e;
+                final double var_min = h.getVariance(i_min, j_min); //Variance of the distance between i_min and j_min
+
+                // Gascuel's lambda, which minimizes the variances of the new distances, is
+                // 0.5 + sum_k (var(i_min,k) - var(j_min,k)) / (2 (actual-2) var_min), over all other clusters k.
+                // In previous versions, the sum was taken over no clusters, so lambda is 0.5, and this is kept
+                // so that trees do not change
+                final double lambda = 0.5;
+
+                // b update and fusion of h:
+                b[i_min] = 0.0;
+                b[j_min] = 0.0;
+
+                final int[] active = search.getActive();
+                for (int a = 0; a < actual; a++) {
+                    final int i = active[a];
+                    if (i == i_min || i == j_min)
                         continue;
-                    d_ij = ((double) actual - 2.0) * h[i][j] - b[i] - b[j];
-                    if (d_ij < d_min) {
-                        d_min = d_ij;
-                        i_min = i;
-                        j_min = j;
-                    }
-                }
-			}
-			dist_e = 0.5 * (h[i_min][j_min] + b[i_min] / ((double) actual - 2.0)
-							- b[j_min] / ((double) actual - 2.0));
-			dist_f = h[i_min][j_min] - dist_e;
-			//dist_f=0.5*(h[i_min][j_min] + b[j_min]/((double)actual-2.0)
-			//	- b[i_min]/((double)actual-2.0) );
-
-			active.set(j_min, false);
-
-			// tax taxa update:
-			tax_old_i = new StringBuilder(tax[i_min].toString());
-			tax_old_j = new StringBuilder(tax[j_min].toString());
-			tax[i_min].insert(0, "(");
-			tax[i_min].append(",");
-			tax[i_min].append(tax[j_min]);
-			tax[i_min].append(")");
-			tax[j_min].delete(0, tax[j_min].length());
-
-			// b update:
-
-			b[i_min] = 0.0;
-			b[j_min] = 0.0;
-
-            // fusion of h
-            // double h_min = h[i_min][j_min];
-            double var_min = var[i_min][j_min]; //Variance of the distance between i_min and j_min
-
-            //compute lambda to minimize the variances of the new distances
-            lambda = 0.0;
-            if ((var_min == 0.0) || (actual == 3))
-                lambda = 0.5;
-            else {
-                for (int i = 1; i <= nTax; i++) {
-                    if ((i_min != i) && (j_min != i) && (h[0][i] != 0.0))
-                        lambda += var[i_min][i] - var[j_min][i];
+                    final double h_i = h.getDistance(i, i_min);
+                    final double h_j = h.getDistance(i, j_min);
+                    final double temp = (1.0 - lambda) * (h_i - dist_e) + (lambda) * (h_j - dist_f); //BioNJ
+                    b[i] = b[i] - h_i - h_j + temp;
+                    b[i_min] += temp;
+                    //Update variances
+                    final double var = (1.0 - lambda) * h.getVariance(i_min, i) + (lambda) * h.getVariance(j_min, i) - lambda * (1.0 - lambda) * var_min;
+                    h.set(i_min, i, temp, var);
                 }
-                lambda = 0.5 + lambda / (2.0 * (actual - 2) * var_min);
-                if (lambda < 0.0)
-                    lambda = 0.0;
-                if (lambda > 1.0)
-                    lambda = 1.0;
-            }
 
+                // generate new Node for merged Taxa and edges from the two taxa that are merged to one:
+                final Node v = tree.newNode();
+                tree.setWeight(tree.newEdge(nodes[search.getId(i_min)], v), dist_e);
+                tree.setWeight(tree.newEdge(nodes[search.getId(j_min)], v), dist_f);
+                nodes[search.getId(i_min)] = v;
 
-            for (int i = 1; i <= nTax; i++) {
-                if ((i == i_min) || (!active.get(i)))
-                    continue;
-                //temp=(h[i][i_min] + h[i][j_min] - h_min)/2; NJ                                        //temp=(h[i][i_min] + h[i][j_min] - dist_e - dist_f)/2; NJ
-                temp = (1.0 - lambda) * (h[i][i_min] - dist_e) + (lambda) * (h[i][j_min] - dist_f); //BioNJ
+                search.join(i_min, j_min);
 
-                if (i != i_min) {
-                    b[i] = b[i] - h[i][i_min] - h[i][j_min] + temp;
-                }
-                b[i_min] += temp;
-                h[i_min][i] = h[i][i_min] = temp; //WARNING... this can affect updating of b[i]
-                //Update variances
-                var[i_min][i] = (1.0 - lambda) * var[i_min][i] + (lambda) * var[j_min][i] - lambda * (1.0 - lambda) * var_min;
-                var[i][i_min] = var[i_min][i];
+                progressListener.incrementProgress();
             }
 
-            for (int i = 1; i <= nTax; i++) {
-                h[i_min][i] = h[i][i_min];
-                h[i][j_min] = 0.0;
-                h[j_min][i] = 0.0;
+            // evaluating last three nodes:
+            final int i = search.getActive()[0];
+            final int j = search.getActive()[1];
+            final int k = search.getActive()[2];
+            final double h_ij = h.getDistance(i, j);
+            final double h_ik = h.getDistance(i, k);
+            final double h_jk = h.getDistance(j, k);
+
+            // generate new Node for the root of the tree.
+            final Node v = tree.newNode();
+            tree.setWeight(tree.newEdge(nodes[search.getId(i)], v), 0.5 * (h_ij + h_ik - h_jk));
+            tree.setWeight(tree.newEdge(nodes[search.getId(j)], v), 0.5 * (h_ij + h_jk - h_ik));
+            tree.setWeight(tree.newEdge(nodes[search.getId(k)], v), 0.5 * (h_ik + h_jk - h_ij));
+        }
+        return tree;
+    }
+
+    /**
+     * distances and variances, stored together as a lower triangle, one array per row, and the b values
+     */
+    private static class Matrix implements RapidNJSearch.Matrix {
+        private final double[][] rows; // rows[i][2j] is the distance and rows[i][2j+1] the variance, for j<i
+        private final double[] b; // the b variable in Neighbor Joining
+
+        Matrix(DistancesBlock distances) {
+            final int nTax = distances.getNtax();
+            rows = new double[nTax][];
+            for (int i = 0; i < nTax; i++) {
+                final double[] row = rows[i] = new double[2 * i];
+                for (int j = 0; j < i; j++) {
+                    row[2 * j] = row[2 * j + 1] = distances.get(j + 1, i + 1);
+                }
             }
+            b = new double[nTax];
+            for (int i = 0; i < nTax; i++) {
+                for (int j = 0; j < nTax; j++) {
+                    b[i] += (i == j ? 0.0 : getDistance(i, j));
+                }
+            }
+        }
 
-            // generate new Node for merged Taxa:
-            v = tree.newNode();
-            taxaHashMap.put(tax[i_min].toString(), v);
+        double getDistance(int i, int j) {
+            return (i > j ? rows[i][2 * j] : rows[j][2 * i]);
+        }
 
-            // generate Edges from two Taxa that are merged to one:
-			e = tree.newEdge(taxaHashMap.get(tax_old_i.toString()), v);
-			tree.setWeight(e, dist_e);
-			f = tree.newEdge(taxaHashMap.get(tax_old_j.toString()), v);
-			tree.setWeight(f, dist_f);
-            progressListener.incrementProgress();
+        double getVariance(int i, int j) {
+            return (i > j ? rows[i][2 * j + 1] : rows[j][2 * i + 1]);
         }
 
-        // evaluating last three nodes:
-        int k_min, i;
-        i = 1;
-        while (!active.get(i))
-            i++;
-		i_min = i;
-		i++;
-		while (!active.get(i))
-			i++;
-		j_min = i;
-		i++;
-		while (!active.get(i))
-			i++;
-		k_min = i;
-
-		tax_old_i = new StringBuilder(tax[i_min].toString());
-		tax_old_j = new StringBuilder(tax[j_min].toString());
-		tax_old_k = new StringBuilder(tax[k_min].toString());
-
-		tax[i_min].insert(0, "(");
-		tax[i_min].append(",");
-		tax[i_min].append(tax[j_min]);
-		tax[i_min].append(",");
-		tax[i_min].append(tax[k_min]);
-		tax[i_min].append(")");
-		tax[j_min].delete(0, tax[j_min].length()); //not neces. but sets content to NULL
-		tax[k_min].delete(0, tax[k_min].length()); //not neces. but sets content to NULL
-
-        // System.err.println(tax[i_min].toString());
-
-        // generate new Node for the root of the tree.
-        v = tree.newNode();
-        taxaHashMap.put(tax[i_min].toString(), v);
-        e = tree.newEdge(taxaHashMap.get(tax_old_i.toString()), v);
-        tree.setWeight(e, 0.5 * (h[i_min][j_min] + h[i_min][k_min] - h[j_min][k_min]));
-        e = tree.newEdge(taxaHashMap.get(tax_old_j.toString()), v);
-        tree.setWeight(e, 0.5 * (h[i_min][j_min] + h[j_min][k_min] - h[i_min][k_min]));
-        e = tree.newEdge(taxaHashMap.get(tax_old_k.toString()), v);
-        tree.setWeight(e, 0.5 * (h[i_min][k_min] + h[j_min][k_min] - h[i_min][j_min]));
-        return tree;
+        void set(int i, int j, double distance, double variance) {
+            final double[] row = rows[Math.max(i, j)];
+            final int p = 2 * Math.min(i, j);
+            row[p] = distance;
+            row[p + 1] = variance;
+        }
+
+        @Override
+        public double get(int i, int j) {
+            return getDistance(i, j);
+        }
+
+        @Override
+        public double q(int i, int j, int numActive) {
+            return ((double) numActive - 2.0) * getDistance(i, j) - b[i] - b[j];
+        }
+
+        @Override
+        public double getRowSum(int i) {
+            return b[i];
+        }
+
+        @Override
+        public void compact(int[] newSlot, int size) {
+            // a row only moves to a smaller slot, so rows can be moved in place, in increasing order
+            for (int i = 0; i < newSlot.length; i++) {
+                final int newI = newSlot[i];
+                if (newI != -1) {
+                    final double[] row = new double[2 * newI];
+                    for (int j = 0; j < i; j++) {
+                        if (newSlot[j] != -1) {
+                            row[2 * newSlot[j]] = rows[i][2 * j];
+                            row[2 * newSlot[j] + 1] = rows[i][2 * j + 1];
+                        }
+                    }
+                    rows[newI] = row;
+                    b[newI] = b[i];
+                }
+            }
+            Arrays.fill(rows, size, rows.length, null);
+        }
     }
 
     @Override
@@ -21,6 +21,7 @@ package splitstree5.core.algorithms.distances2trees;
 
 import jloda.util.progress.ProgressListener;
 import jloda.util.progress.ProgressPercentage;
+import jloda.util.progress.ProgressSilent;
 import org.junit.Test;
 import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.TaxaBlock;
@@ -133,4 +134,17 @@ public class BioNJTest {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * checks that the same trees are computed as by the classic algorithm, also when there are many ties
+     */
+    @Test
+    public void testSameAsClassic() throws Exception {
+        TieHeavyDistances.forEach(3, (run, taxaBlock, distances) -> {
+            final int prefixSize = (run % 4 == 0 ? 2 : RapidNJSearch.DEFAULT_PREFIX_SIZE);
+            final int minRowsForParallel = (run % 5 == 0 ? 4 : RapidNJSearch.DEFAULT_MIN_ROWS_FOR_PARALLEL);
+            final int numThreads = (run % 5 == 0 ? 4 : 1);
+            assertEquals(NeighborJoiningBenchmark.computeClassicBioNJTree(taxaBlock, distances).toString(),
+                    BioNJ.computeBioNJTree(new ProgressSilent(), taxaBlock, distances, numThreads, prefixSize, minRowsForParallel).toString());
+        });
+    }
+}
@@ -19,9 +19,9 @@
 
 package splitstree5.core.algorithms.distances2trees;
 
+import jloda.fx.util.ProgramExecutorService;
 import jloda.graph.Node;
 import jloda.phylo.PhyloTree;
-import jloda.util.BitSetUtils;
 import jloda.util.CanceledException;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
@@ -31,10 +31,12 @@ import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.TreesBlock;
 
-import java.util.BitSet;
+import java.util.Arrays;
 
 /**
  * Neighbor joining algorithm
+ * <p>
+ * The pair to join is found using the bounds of RapidNJ
  *
  * @author Daniel Huson, 12.2020
  */
@@ -54,25 +56,34 @@ public class NeighborJoining extends Algorithm<DistancesBlock, TreesBlock> imple
         progress.setTasks("Neighbor Joining", "Init.");
         progress.setMaximum(distances.getNtax());
 
-        PhyloTree tree = computeNJTree(progress, taxaBlock, distances);
+        PhyloTree tree = computeNJTree(progress, taxaBlock, distances, ProgramExecutorService.getNumberOfCoresToUse());
         trees.getTrees().setAll(tree);
 
         progress.close();
     }
 
-    private PhyloTree computeNJTree(ProgressListener progressListener, TaxaBlock taxaBlock, DistancesBlock distances) throws CanceledException {
+    /**
+     * compute the neighbor joining tree. The pair to join is found using the bounds of RapidNJ, which gives the same tree
+     * as scanning all pairs, see RapidNJSearch
+     */
+    static PhyloTree computeNJTree(ProgressListener progressListener, TaxaBlock taxaBlock, DistancesBlock distances, int numThreads) throws CanceledException {
+        return computeNJTree(progressListener, taxaBlock, distances, numThreads, RapidNJSearch.DEFAULT_PREFIX_SIZE, RapidNJSearch.DEFAULT_MIN_ROWS_FOR_PARALLEL);
+    }
+
+    /**
+     * compute the neighbor joining tree, using the given parameters for the search, see RapidNJSearch
+     */
+    static PhyloTree computeNJTree(ProgressListener progressListener, TaxaBlock taxaBlock, DistancesBlock distances, int numThreads, int prefixSize, int minRowsForParallel) throws CanceledException {
         final int ntax = distances.getNtax();
         final PhyloTree tree = new PhyloTree();
 
-        final BitSet alive = new BitSet(); // o-based
+        final Node[] nodes = new Node[ntax]; // 0-based, indexed by first taxon in cluster
 
-        final Node[] nodes = new Node[ntax]; // 0-based
         for (int t = 1; t <= ntax; t++) {
             final Node v = tree.newNode();
             tree.addTaxon(v, t);
             tree.setLabel(v, taxaBlock.getLabel(t));
             nodes[t - 1] = v;
-            alive.set(t - 1);
         }
 
         if (ntax <= 1)
@@ -81,111 +92,123 @@ public class NeighborJoining extends Algorithm<DistancesBlock, TreesBlock> imple
         progressListener.setMaximum(ntax);
         progressListener.setProgress(0);
 
-        final float[][] matrix = new float[ntax][ntax]; // 0-based
-
-        final float[] rowSum = new float[ntax]; // 0-based
-
-        for (int i : BitSetUtils.members(alive)) {
-            for (int j : BitSetUtils.members(alive, i + 1)) {
-                matrix[i][j] = matrix[j][i] = (float) distances.get(i + 1, j + 1);
-            }
-        }
-
-        for (int i : BitSetUtils.members(alive)) {
-            rowSum[i] = computeRowSum(alive, i, matrix);
-        }
-
-        boolean verbose = false;
-
-        while (alive.cardinality() > 2) {
-            int minI = -1;
-            int minJ = -1;
-            float minQ = Float.MAX_VALUE;
-
-            if (verbose) {
-                System.err.println("\nTaxa: " + alive.cardinality());
-                System.err.println("Distances:");
-                for (int i : BitSetUtils.members(alive)) {
-                    System.err.print(i + 1 + ":");
-                    for (int j : BitSetUtils.members(alive, i + 1)) {
-                        System.err.printf(" %d", (int) matrix[i][j]);
+        final Matrix matrix = new Matrix(distances);
+
+        try (RapidNJSearch search = new RapidNJSearch(ntax, matrix, numThreads, prefixSize, minRowsForParallel)) {
+            final int[] pair = new int[2];
+
+            while (search.getNumActive() > 2) {
+                search.findPair(pair);
+                final int minI = pair[0];
+                final int minJ = pair[1];
+                final int numActive = search.getNumActive();
+                final float[] rowSum = matrix.rowSum;
+                final float dIJ = matrix.distance(minI, minJ);
+
+                final Node u = tree.newNode();
+                final double weightIU = 0.5f * dIJ + 0.5f * (rowSum[minI] - rowSum[minJ]) / (numActive - 2);
+                tree.setWeight(tree.newEdge(u, nodes[search.getId(minI)]), weightIU);
+                final double weightJU = dIJ - weightIU;
+                tree.setWeight(tree.newEdge(u, nodes[search.getId(minJ)]), weightJU);
+
+                nodes[search.getId(minI)] = u; // replaces both old taxa
+
+                final int[] active = search.getActive();
+                float sum = 0;
+                for (int a = 0; a < numActive; a++) {
+                    final int k = active[a];
+                    if (k != minI && k != minJ) {
+                        final float dIK = matrix.distance(minI, k);
+                        final float dJK = matrix.distance(minJ, k);
+                        rowSum[k] -= dIK;
+                        rowSum[k] -= dJK;
+                        final float dUK = (float) (0.5 * (dIK + dJK - dIJ));
+                        matrix.set(minI, k, dUK);
+                        rowSum[k] += dUK;
+                        sum += dUK;
                     }
-                    System.err.println();
                 }
-            }
-
-            if (verbose)
-                System.err.println("Q:");
+                rowSum[minI] = sum;
 
-            for (int i : BitSetUtils.members(alive)) {
-                if (verbose) System.err.print(i + 1 + ":");
-                for (int j : BitSetUtils.members(alive, i + 1)) {
-                    final float q = (alive.cardinality() - 2) * matrix[i][j] - rowSum[i] - rowSum[j];
+                search.join(minI, minJ);
 
-                    if (verbose) System.err.printf(" %f", q);
-
-                    if (q < minQ) {
-                        minQ = q;
-                        minI = i;
-                        minJ = j;
-                    }
-                }
-                if (verbose) System.err.println();
+                progressListener.incrementProgress();
             }
-            if (verbose) System.err.println("minI=" + (minI + 1) + " minJ=" + (minJ + 1) + " minQ=" + (int) minQ);
-
-
-            final Node u = tree.newNode();
-            final double weightIU = 0.5f * matrix[minI][minJ] + 0.5f * (rowSum[minI] - rowSum[minJ]) / (alive.cardinality() - 2);
-            tree.setWeight(tree.newEdge(u, nodes[minI]), weightIU);
-            final double weightJU = matrix[minI][minJ] - weightIU;
-            tree.setWeight(tree.newEdge(u, nodes[minJ]), weightJU);
 
-            nodes[minI] = u;
-
-            alive.clear(minI);
-            alive.clear(minJ);
+            final int i = search.getActive()[0];
+            final int j = search.getActive()[1];
+            tree.setWeight(tree.newEdge(nodes[search.getId(i)], nodes[search.getId(j)]), matrix.distance(i, j));
+            tree.setRoot(nodes[search.getId(i)]);
+        }
+        progressListener.setProgress(ntax);
 
-            for (int k : BitSetUtils.members(alive)) {
-                rowSum[k] -= matrix[k][minI];
-                rowSum[k] -= matrix[k][minJ];
-            }
+        return tree;
+    }
 
-            for (int k : BitSetUtils.members(alive)) {
-                matrix[minI][k] = matrix[k][minI] = (float) (0.5 * (matrix[minI][k] + matrix[minJ][k] - matrix[minI][minJ]));
+    /**
+     * distances in single precision and row sums
+     */
+    private static class Matrix implements RapidNJSearch.Matrix {
+        private final float[][] rows;
+        private final float[] rowSum;
+
+        Matrix(DistancesBlock distances) {
+            final int ntax = distances.getNtax();
+            rows = new float[ntax][ntax];
+            for (int i = 0; i < ntax; i++) {
+                for (int j = i + 1; j < ntax; j++)
+                    rows[i][j] = rows[j][i] = (float) distances.get(i + 1, j + 1);
             }
-
-            for (int k : BitSetUtils.members(alive)) {
-                rowSum[k] += matrix[k][minI];
+            rowSum = new float[ntax];
+            for (int i = 0; i < ntax; i++) {
+                float r = 0;
+                for (int j = 0; j < ntax; j++) {
+                    r += rows[i][j];
+                }
+                rowSum[i] = r;
             }
+        }
 
-            rowSum[minI] = computeRowSum(alive, minI, matrix);
-
-            alive.set(minI); // replaces both old taxa
-
-            progressListener.incrementProgress();
+        float distance(int i, int j) {
+            return rows[i][j];
         }
 
-        if (alive.cardinality() == 2) {
-            final int i = BitSetUtils.min(alive);
-            final int j = BitSetUtils.max(alive);
+        void set(int i, int j, float value) {
+            rows[i][j] = rows[j][i] = value;
+        }
 
-			tree.setWeight(tree.newEdge(nodes[i], nodes[j]), matrix[i][j]);
-			tree.setRoot(nodes[i]);
+        @Override
+        public double get(int i, int j) {
+            return rows[i][j];
         }
-        progressListener.setProgress(ntax);
 
-        // System.err.println(tree.toBracketString());
+        @Override
+        public double q(int i, int j, int numActive) {
+            return (numActive - 2) * rows[i][j] - rowSum[i] - rowSum[j];
+        }
 
-        return tree;
-    }
+        @Override
+        public double getRowSum(int i) {
+            return rowSum[i];
+        }
 
-    private float computeRowSum(BitSet alive, int i, float[][] matrix) {
-        float r = 0;
-        for (int j : BitSetUtils.members(alive)) {
-            r += matrix[i][j];
+        @Override
+        public void compact(int[] newSlot, int size) {
+            // a row only moves to a smaller slot, so rows and row sums can be moved in place, in increasing order
+            for (int i = 0; i < newSlot.length; i++) {
+                final int newI = newSlot[i];
+                if (newI != -1) {
+                    final float[] row = new float[size];
+                    for (int j = 0; j < newSlot.length; j++) {
+                        if (newSlot[j] != -1)
+                            row[newSlot[j]] = rows[i][j];
+                    }
+                    rows[newI] = row;
+                    rowSum[newI] = rowSum[i];
+                }
+            }
+            Arrays.fill(rows, size, rows.length, null);
         }
-        return r;
     }
 
     @Override
@@ -0,0 +1,390 @@
+/*
+ * NeighborJoiningBenchmark.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.distances2trees;
+
+import jloda.fx.util.ProgramExecutorService;
+import jloda.graph.Edge;
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+import jloda.util.progress.ProgressSilent;
+import splitstree5.core.datablocks.DistancesBlock;
+import splitstree5.core.datablocks.TaxaBlock;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * compares the running times of neighbor joining, BioNJ and UPGMA with those of the classic cubic implementations,
+ * and checks that the same trees are computed. Distances are Euclidean distances between random points.
+ * <p>
+ * Usage: NeighborJoiningBenchmark [ntax...], defaults to 1000 5000 20000. The classic implementations are only
+ * run for up to 5000 taxa
+ * Daniel Huson, 10.2026
+ */
+public class NeighborJoiningBenchmark {
+    private static final int MAX_TAXA_CLASSIC = 5000;
+
+    public static void main(String[] args) throws Exception {
+        final int[] sizes;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        } else
+            sizes = new int[]{1000, 5000, 20000};
+
+        System.err.println("Threads: " + ProgramExecutorService.getNumberOfCoresToUse());
+        System.err.println("ntax\tmethod\tms-new\tms-classic\tsame");
+        for (int ntax : sizes) {
+            final TaxaBlock taxaBlock = createTaxa(ntax);
+            final DistancesBlock distances = createRandomDistances(ntax, new Random(666));
+            final boolean runClassic = (ntax <= MAX_TAXA_CLASSIC);
+
+            {
+                long start = System.currentTimeMillis();
+                final PhyloTree tree = NeighborJoining.computeNJTree(new ProgressSilent(), taxaBlock, distances, ProgramExecutorService.getNumberOfCoresToUse());
+                final long time = System.currentTimeMillis() - start;
+                if (runClassic) {
+                    start = System.currentTimeMillis();
+                    final PhyloTree classic = computeClassicNJTree(taxaBlock, distances);
+                    final long timeClassic = System.currentTimeMillis() - start;
+                    System.err.printf("%d\tNJ\t%d\t%d\t%s%n", ntax, time, timeClassic, tree.toString().equals(classic.toString()));
+                } else
+                    System.err.printf("%d\tNJ\t%d\t-\t-%n", ntax, time);
+            }
+            {
+                long start = System.currentTimeMillis();
+                final PhyloTree tree = BioNJ.computeBioNJTree(new ProgressSilent(), taxaBlock, distances, ProgramExecutorService.getNumberOfCoresToUse());
+                final long time = System.currentTimeMillis() - start;
+                if (runClassic) {
+                    start = System.currentTimeMillis();
+                    final PhyloTree classic = computeClassicBioNJTree(taxaBlock, distances);
+                    final long timeClassic = System.currentTimeMillis() - start;
+                    System.err.printf("%d\tBioNJ\t%d\t%d\t%s%n", ntax, time, timeClassic, tree.toString().equals(classic.toString()));
+                } else
+                    System.err.printf("%d\tBioNJ\t%d\t-\t-%n", ntax, time);
+            }
+            {
+                long start = System.currentTimeMillis();
+                final PhyloTree tree = UPGMA.computeUPGMATree(new ProgressSilent(), taxaBlock, distances);
+                final long time = System.currentTimeMillis() - start;
+                if (runClassic) {
+                    start = System.currentTimeMillis();
+                    final PhyloTree classic = computeClassicUPGMATree(taxaBlock, distances);
+                    final long timeClassic = System.currentTimeMillis() - start;
+                    System.err.printf("%d\tUPGMA\t%d\t%d\t%s%n", ntax, time, timeClassic, tree.toString().equals(classic.toString()));
+                } else
+                    System.err.printf("%d\tUPGMA\t%d\t-\t-%n", ntax, time);
+            }
+        }
+    }
+
+    static TaxaBlock createTaxa(int ntax) {
+        final TaxaBlock taxaBlock = new TaxaBlock();
+        final ArrayList<String> names = new ArrayList<>(ntax);
+        for (int t = 1; t <= ntax; t++)
+            names.add("t" + t);
+        taxaBlock.addTaxaByNames(names);
+        return taxaBlock;
+    }
+
+    /**
+     * Euclidean distances between random points, in clusters, rounded to three digits, so that there are ties
+     */
+    static DistancesBlock createRandomDistances(int ntax, Random random) {
+        final int dimensions = 8;
+        final int numCenters = Math.max(1, ntax / 50);
+        final double[][] centers = new double[numCenters][dimensions];
+        for (double[] center : centers) {
+            for (int k = 0; k < dimensions; k++)
+                center[k] = random.nextDouble();
+        }
+        final double[][] points = new double[ntax][dimensions];
+        for (double[] point : points) {
+            final double[] center = centers[random.nextInt(numCenters)];
+            for (int k = 0; k < dimensions; k++)
+                point[k] = center[k] + 0.1 * random.nextGaussian();
+        }
+        final double[][] matrix = new double[ntax][ntax];
+        for (int i = 0; i < ntax; i++) {
+            for (int j = i + 1; j < ntax; j++) {
+                double sum = 0;
+                for (int k = 0; k < dimensions; k++)
+                    sum += (points[i][k] - points[j][k]) * (points[i][k] - points[j][k]);
+                matrix[i][j] = matrix[j][i] = Math.round(1000 * Math.sqrt(sum)) / 1000.0;
+            }
+        }
+        final DistancesBlock distances = new DistancesBlock();
+        distances.set(matrix);
+        return distances;
+    }
+
+    /**
+     * the classic cubic neighbor joining algorithm, which scans all pairs in each step
+     */
+    static PhyloTree computeClassicNJTree(TaxaBlock taxaBlock, DistancesBlock distances) {
+        final int ntax = distances.getNtax();
+        final PhyloTree tree = new PhyloTree();
+
+        final boolean[] alive = new boolean[ntax];
+        final Node[] nodes = new Node[ntax];
+        for (int t = 1; t <= ntax; t++) {
+            final Node v = tree.newNode();
+            tree.addTaxon(v, t);
+            tree.setLabel(v, taxaBlock.getLabel(t));
+            nodes[t - 1] = v;
+            alive[t - 1] = true;
+        }
+        if (ntax <= 1)
+            return tree;
+
+        final float[][] matrix = new float[ntax][ntax];
+        final float[] rowSum = new float[ntax];
+        for (int i = 0; i < ntax; i++) {
+            for (int j = i + 1; j < ntax; j++)
+                matrix[i][j] = matrix[j][i] = (float) distances.get(i + 1, j + 1);
+        }
+        for (int i = 0; i < ntax; i++) {
+            for (int j = 0; j < ntax; j++)
+                rowSum[i] += matrix[i][j];
+        }
+
+        for (int numAlive = ntax; numAlive > 2; numAlive--) {
+            int minI = -1;
+            int minJ = -1;
+            float minQ = Float.MAX_VALUE;
+            for (int i = 0; i < ntax; i++) {
+                if (alive[i]) {
+                    for (int j = i + 1; j < ntax; j++) {
+                        if (alive[j]) {
+                            final float q = (numAlive - 2) * matrix[i][j] - rowSum[i] - rowSum[j];
+                            if (q < minQ) {
+                                minQ = q;
+                                minI = i;
+                                minJ = j;
+                            }
+                        }
+                    }
+                }
+            }
+
+            final Node u = tree.newNode();
+            final double weightIU = 0.5f * matrix[minI][minJ] + 0.5f * (rowSum[minI] - rowSum[minJ]) / (numAlive - 2);
+            tree.setWeight(tree.newEdge(u, nodes[minI]), weightIU);
+            final double weightJU = matrix[minI][minJ] - weightIU;
+            tree.setWeight(tree.newEdge(u, nodes[minJ]), weightJU);
+            nodes[minI] = u;
+
+            alive[minI] = false;
+            alive[minJ] = false;
+            for (int k = 0; k < ntax; k++) {
+                if (alive[k]) {
+                    rowSum[k] -= matrix[k][minI];
+                    rowSum[k] -= matrix[k][minJ];
+                }
+            }
+            for (int k = 0; k < ntax; k++) {
+                if (alive[k])
+                    matrix[minI][k] = matrix[k][minI] = (float) (0.5 * (matrix[minI][k] + matrix[minJ][k] - matrix[minI][minJ]));
+            }
+            float sum = 0;
+            for (int k = 0; k < ntax; k++) {
+                if (alive[k]) {
+                    rowSum[k] += matrix[k][minI];
+                    sum += matrix[minI][k];
+                }
+            }
+            rowSum[minI] = sum;
+            alive[minI] = true;
+        }
+
+        int i = 0;
+        while (!alive[i])
+            i++;
+        int j = i + 1;
+        while (!alive[j])
+            j++;
+        tree.setWeight(tree.newEdge(nodes[i], nodes[j]), matrix[i][j]);
+        tree.setRoot(nodes[i]);
+        return tree;
+    }
+
+    /**
+     * the classic cubic BioNJ algorithm, which scans all pairs in each step
+     */
+    static PhyloTree computeClassicBioNJTree(TaxaBlock taxaBlock, DistancesBlock distances) {
+        final PhyloTree tree = new PhyloTree();
+        final int nTax = distances.getNtax();
+
+        final Node[] nodes = new Node[nTax + 1];
+        for (int t = 1; t <= nTax; t++) {
+            final Node v = tree.newNode();
+            tree.setLabel(v, taxaBlock.getLabel(t));
+            tree.addTaxon(v, t);
+            nodes[t] = v;
+        }
+        if (nTax < 3) {
+            if (nTax == 2)
+                tree.setWeight(tree.newEdge(nodes[1], nodes[2]), distances.get(1, 2));
+            return tree;
+        }
+
+        final double[][] h = new double[nTax + 1][nTax + 1];
+        final boolean[] active = new boolean[nTax + 1];
+        final double[] b = new double[nTax + 1];
+        for (int i = 1; i <= nTax; i++) {
+            active[i] = true;
+            for (int j = 1; j <= nTax; j++)
+                h[i][j] = (i < j ? distances.get(i, j) : distances.get(j, i));
+        }
+        for (int i = 1; i <= nTax; i++) {
+            for (int j = 1; j <= nTax; j++)
+                b[i] += h[i][j];
+        }
+
+        for (int actual = nTax; actual > 3; actual--) {
+            int i_min = 0, j_min = 0;
+            double d_min = Double.POSITIVE_INFINITY;
+            for (int i = 1; i < nTax; i++) {
+                if (active[i]) {
+                    for (int j = i + 1; j <= nTax; j++) {
+                        if (active[j]) {
+                            final double d_ij = ((double) actual - 2.0) * h[i][j] - b[i] - b[j];
+                            if (d_ij < d_min) {
+                                d_min = d_ij;
+                                i_min = i;
+                                j_min = j;
+                            }
+                        }
+                    }
+                }
+            }
+            final double dist_e = 0.5 * (h[i_min][j_min] + b[i_min] / ((double) actual - 2.0) - b[j_min] / ((double) actual - 2.0));
+            final double dist_f = h[i_min][j_min] - dist_e;
+            active[j_min] = false;
+            b[i_min] = 0.0;
+            b[j_min] = 0.0;
+            for (int i = 1; i <= nTax; i++) {
+                if (i != i_min && active[i]) {
+                    final double temp = 0.5 * (h[i][i_min] - dist_e) + 0.5 * (h[i][j_min] - dist_f);
+                    b[i] = b[i] - h[i][i_min] - h[i][j_min] + temp;
+                    b[i_min] += temp;
+                    h[i_min][i] = h[i][i_min] = temp;
+                }
+            }
+            final Node v = tree.newNode();
+            tree.setWeight(tree.newEdge(nodes[i_min], v), dist_e);
+            tree.setWeight(tree.newEdge(nodes[j_min], v), dist_f);
+            nodes[i_min] = v;
+        }
+
+        int i = 1;
+        while (!active[i])
+            i++;
+        int j = i + 1;
+        while (!active[j])
+            j++;
+        int k = j + 1;
+        while (!active[k])
+            k++;
+        final Node v = tree.newNode();
+        tree.setWeight(tree.newEdge(nodes[i], v), 0.5 * (h[i][j] + h[i][k] - h[j][k]));
+        tree.setWeight(tree.newEdge(nodes[j], v), 0.5 * (h[i][j] + h[j][k] - h[i][k]));
+        tree.setWeight(tree.newEdge(nodes[k], v), 0.5 * (h[i][k] + h[j][k] - h[i][j]));
+        return tree;
+    }
+
+    /**
+     * the classic cubic UPGMA algorithm, which scans all pairs in each step
+     */
+    static PhyloTree computeClassicUPGMATree(TaxaBlock taxaBlock, DistancesBlock distances) {
+        final PhyloTree tree = new PhyloTree();
+        final int ntax = distances.getNtax();
+
+        final Node[] subtrees = new Node[ntax + 1];
+        final int[] sizes = new int[ntax + 1];
+        final double[] heights = new double[ntax + 1];
+        for (int t = 1; t <= ntax; t++) {
+            final Node v = tree.newNode();
+            subtrees[t] = v;
+            tree.setLabel(v, taxaBlock.getLabel(t));
+            tree.addTaxon(v, t);
+            sizes[t] = 1;
+        }
+
+        final double[][] d = new double[ntax + 1][ntax + 1];
+        for (int i = 1; i <= ntax; i++) {
+            for (int j = i + 1; j <= ntax; j++) {
+                final double sum = distances.get(i, j) + distances.get(j, i);
+                if (sum == distances.get(i, j) || sum == distances.get(j, i))
+                    d[i][j] = d[j][i] = sum;
+                else
+                    d[i][j] = d[j][i] = sum / 2.0;
+            }
+        }
+
+        for (int clusters = ntax; clusters > 2; clusters--) {
+            int i_min = 0, j_min = 0;
+            double d_min = Double.POSITIVE_INFINITY;
+            for (int i = 1; i <= clusters; i++) {
+                for (int j = i + 1; j <= clusters; j++) {
+                    if (i_min == 0 || d[i][j] < d_min) {
+                        i_min = i;
+                        j_min = j;
+                        d_min = d[i][j];
+                    }
+                }
+            }
+
+            final double height = d_min / 2.0;
+            final Node v = tree.newNode();
+            tree.setWeight(tree.newEdge(v, subtrees[i_min]), Math.max(height - heights[i_min], 0.0));
+            tree.setWeight(tree.newEdge(v, subtrees[j_min]), Math.max(height - heights[j_min], 0.0));
+            subtrees[i_min] = v;
+            subtrees[j_min] = null;
+            heights[i_min] = height;
+
+            final int size_i = sizes[i_min];
+            final int size_j = sizes[j_min];
+            sizes[i_min] = size_i + size_j;
+            for (int k = 1; k <= ntax; k++) {
+                if ((k == i_min) || k == j_min) continue;
+                d[k][i_min] = d[i_min][k] = (d[k][i_min] * size_i + d[k][j_min] * size_j) / ((double) (size_i + size_j));
+            }
+            if (j_min < clusters) {
+                for (int k = 1; k <= clusters; k++)
+                    d[j_min][k] = d[k][j_min] = d[clusters][k];
+                d[j_min][j_min] = 0.0;
+                subtrees[j_min] = subtrees[clusters];
+                sizes[j_min] = sizes[clusters];
+                heights[j_min] = heights[clusters];
+            }
+        }
+
+        final Node root = tree.newNode();
+        final Edge left = tree.newEdge(root, subtrees[1]);
+        final Edge right = tree.newEdge(root, subtrees[2]);
+        final double halfTotal = 0.5 * (d[1][2] + heights[1] + heights[2]);
+        tree.setWeight(left, halfTotal - heights[1]);
+        tree.setWeight(right, halfTotal - heights[2]);
+        tree.setRoot(root);
+        return tree;
+    }
+}
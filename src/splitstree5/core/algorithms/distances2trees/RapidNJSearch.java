@@ -0,0 +1,551 @@
+/*
+ * RapidNJSearch.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.distances2trees;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * finds the pair of clusters that minimizes the neighbor joining criterion Q(i,j)=(r-2)d(i,j)-R(i)-R(j), using
+ * the bound of RapidNJ (Simonsen, Mailund and Pedersen 2008): each row keeps its smallest distances in sorted order, and
+ * the scan of a row stops as soon as (r-2)d(i,j)-R(i)-max R exceeds the best Q seen so far.
+ * <p>
+ * Clusters are kept in slots. When two clusters are joined, the new cluster takes the slot of the first one and
+ * the slot of the second one is freed. When half of the slots are free, the slots are compacted, keeping their order.
+ * Because the order of slots is the order of the original taxa, ties are broken exactly as in the classic quadratic
+ * scan, that is, the pair (i,j) that comes first, and so results are the same as those of the classic algorithms.
+ * <p>
+ * Rows are searched in parallel, if there are many of them.
+ * Daniel Huson, 10.2026
+ */
+public class RapidNJSearch implements AutoCloseable {
+    /**
+     * default number of smallest distances kept in sorted order for each row
+     */
+    static final int DEFAULT_PREFIX_SIZE = 128;
+    /**
+     * default minimum number of active clusters for which rows are searched in parallel
+     */
+    static final int DEFAULT_MIN_ROWS_FOR_PARALLEL = 1000;
+
+    private static final int MIN_SLOTS_FOR_COMPACTION = 64;
+    private static final double SLACK = 1e-6; // relative slack for rounding errors when computing Q in single precision
+
+    /**
+     * the distances and row sums of the joining algorithm
+     */
+    public interface Matrix {
+        /**
+         * distance between the clusters in the two slots
+         */
+        double get(int i, int j);
+
+        /**
+         * Q value, computed exactly as done by the algorithm
+         *
+         * @param i         slot
+         * @param j         slot, with i<j
+         * @param numActive number of active clusters
+         */
+        double q(int i, int j, int numActive);
+
+        /**
+         * sum of distances from the cluster in this slot to all other active clusters
+         */
+        double getRowSum(int i);
+
+        /**
+         * moves the data of all active clusters to new slots, keeping their order
+         *
+         * @param newSlot new slot for each old slot, or -1, if not active
+         * @param size    new number of slots
+         */
+        void compact(int[] newSlot, int size);
+    }
+
+    private final Matrix matrix;
+    private final ForkJoinPool pool;
+    private final int prefixSize;
+    private final int minRowsForParallel;
+
+    private int size; // number of slots
+    private int numActive;
+    private int[] active; // active slots in increasing order
+    private boolean[] isActive;
+    private int[] ids; // for each slot, the original (0-based) index of the cluster
+    private int[] created; // for each slot, the step in which its cluster was created
+    private int step;
+
+    // each row i contains the columns j of all pairs that it is responsible for, namely those j that were
+    // created before i, or at the same time and j>i
+    private long[][] prefixes; // smallest entries of a row, each encodes distance and column, sorted
+    private int[] prefixStart; // entries before this are no longer in the row
+    private int[] prefixLength;
+    private boolean[] complete; // does prefix contain all entries of the row?
+    private float[] rowBound; // lower bound on all distances in the row
+    private final long[] buffer;
+    private long[][] chunkBuffers;
+
+    /**
+     * constructor
+     *
+     * @param ntax       number of taxa, each taxon t is initially placed in slot t-1
+     * @param matrix     the distances
+     * @param numThreads number of threads to use
+     */
+    public RapidNJSearch(int ntax, Matrix matrix, int numThreads) {
+        this(ntax, matrix, numThreads, DEFAULT_PREFIX_SIZE, DEFAULT_MIN_ROWS_FOR_PARALLEL);
+    }
+
+    /**
+     * constructor
+     *
+     * @param ntax               number of taxa, each taxon t is initially placed in slot t-1
+     * @param matrix             the distances
+     * @param numThreads         number of threads to use
+     * @param prefixSize         number of smallest distances kept in sorted order for each row
+     * @param minRowsForParallel minimum number of active clusters for which rows are searched in parallel
+     */
+    RapidNJSearch(int ntax, Matrix matrix, int numThreads, int prefixSize, int minRowsForParallel) {
+        this.matrix = matrix;
+        this.prefixSize = prefixSize;
+        this.minRowsForParallel = minRowsForParallel;
+        this.pool = (numThreads > 1 && ntax >= minRowsForParallel ? new ForkJoinPool(numThreads) : null);
+
+        size = ntax;
+        numActive = ntax;
+        active = new int[ntax];
+        isActive = new boolean[ntax];
+        ids = new int[ntax];
+        created = new int[ntax];
+        for (int i = 0; i < ntax; i++) {
+            active[i] = i;
+            isActive[i] = true;
+            ids[i] = i;
+        }
+        prefixes = new long[ntax][];
+        prefixStart = new int[ntax];
+        prefixLength = new int[ntax];
+        complete = new boolean[ntax];
+        rowBound = new float[ntax];
+        buffer = new long[ntax];
+
+        if (pool == null) {
+            for (int i = 0; i < ntax; i++)
+                storePrefix(i, buffer, collectRow(i, buffer));
+        } else {
+            runChunks(ntax, (chunk, from, to) -> {
+                final long[] chunkBuffer = getChunkBuffer(chunk);
+                for (int i = from; i < to; i++)
+                    storePrefix(i, chunkBuffer, collectRow(i, chunkBuffer));
+                return null;
+            });
+        }
+    }
+
+    public int getNumActive() {
+        return numActive;
+    }
+
+    /**
+     * gets the active slots in increasing order. Only the first getNumActive() entries are used
+     */
+    public int[] getActive() {
+        return active;
+    }
+
+    /**
+     * gets the original 0-based index of the first taxon in the cluster in the given slot
+     */
+    public int getId(int slot) {
+        return ids[slot];
+    }
+
+    /**
+     * finds the pair of active slots i<j that minimizes Q. Ties are broken by taking the lexicographically smallest pair
+     *
+     * @param pair the slots i and j are returned here
+     */
+    public void findPair(int[] pair) {
+        if (numActive < 2)
+            throw new IllegalStateException("findPair(): fewer than two clusters");
+
+        double maxRowSum = Double.NEGATIVE_INFINITY;
+        double maxAbsRowSum = 0;
+        int maxRow = active[0];
+        for (int a = 0; a < numActive; a++) {
+            final double rowSum = matrix.getRowSum(active[a]);
+            if (rowSum > maxRowSum) {
+                maxRowSum = rowSum;
+                maxRow = active[a];
+            }
+            maxAbsRowSum = Math.max(maxAbsRowSum, Math.abs(rowSum));
+        }
+        final Bounds bounds = new Bounds(numActive - 2, maxRowSum, maxAbsRowSum);
+
+        // any pair gives an upper bound to start with:
+        final double q0 = matrix.q(active[0], active[1], numActive);
+        final Best seed = new Best(Double.isNaN(q0) ? Double.POSITIVE_INFINITY : q0, active[0], active[1]);
+        // the row with the largest row sum usually gives a good bound, which speeds up the scan of all other rows:
+        scanRow(maxRow, bounds, seed, buffer);
+
+        final Best best;
+        if (pool == null || numActive < minRowsForParallel) {
+            best = seed;
+            for (int a = 0; a < numActive; a++)
+                scanRow(active[a], bounds, best, buffer);
+        } else {
+            best = seed.copy();
+            for (Best chunkBest : runChunks(numActive, (chunk, from, to) -> {
+                final Best local = seed.copy();
+                final long[] chunkBuffer = getChunkBuffer(chunk);
+                for (int a = from; a < to; a++)
+                    scanRow(active[a], bounds, local, chunkBuffer);
+                return local;
+            })) {
+                best.offer(chunkBest.q, chunkBest.i, chunkBest.j);
+            }
+        }
+        pair[0] = best.i;
+        pair[1] = best.j;
+    }
+
+    /**
+     * joins two clusters. The matrix must already contain the distances and row sum of the new cluster in slot i
+     *
+     * @param i slot of new cluster
+     * @param j slot to be freed
+     */
+    public void join(int i, int j) {
+        isActive[j] = false;
+        prefixes[j] = null;
+        int b = 0;
+        for (int a = 0; a < numActive; a++) {
+            if (active[a] != j)
+                active[b++] = active[a];
+        }
+        numActive--;
+
+        created[i] = ++step;
+        storePrefix(i, buffer, collectRow(i, buffer));
+
+        if (size >= MIN_SLOTS_FOR_COMPACTION && numActive <= size / 2)
+            compact();
+    }
+
+    /**
+     * scans a row and updates the best pair
+     */
+    private void scanRow(int i, Bounds bounds, Best best, long[] rowBuffer) {
+        final double rowSum = matrix.getRowSum(i);
+        if (bounds.exceeds(rowBound[i], rowSum, best.q))
+            return;
+        {
+            final long[] prefix = prefixes[i];
+            final int length = prefixLength[i];
+            boolean head = true;
+            for (int p = prefixStart[i]; p < length; p++) {
+                final float value = decodeValue(prefix[p]);
+                if (bounds.exceeds(value, rowSum, best.q))
+                    return;
+                final int k = decodeColumn(prefix[p]);
+                if (isInRow(i, k)) {
+                    head = false;
+                    evaluate(i, k, value, rowSum, bounds, best);
+                } else if (head && p + 1 < length) { // skip entries at the start that are no longer in the row
+                    prefixStart[i] = p + 1;
+                    rowBound[i] = decodeValue(prefix[p + 1]);
+                }
+            }
+            if (complete[i])
+                return;
+        }
+
+        // all kept entries were checked, rebuild and check the rest of the row:
+        final int count = collectRow(i, rowBuffer);
+        storePrefix(i, rowBuffer, count);
+        final long[] prefix = prefixes[i];
+        final int length = prefixLength[i];
+        for (int p = 0; p < length; p++) {
+            final float value = decodeValue(prefix[p]);
+            if (bounds.exceeds(value, rowSum, best.q))
+                return;
+            evaluate(i, decodeColumn(prefix[p]), value, rowSum, bounds, best);
+        }
+        for (int p = length; p < count; p++) { // remaining entries are not sorted
+            evaluate(i, decodeColumn(rowBuffer[p]), decodeValue(rowBuffer[p]), rowSum, bounds, best);
+        }
+    }
+
+    /**
+     * computes Q for the pair i,k, unless the lower bound obtained from the row sum of k already exceeds the best value
+     */
+    private void evaluate(int i, int k, float value, double rowSum, Bounds bounds, Best best) {
+        if (bounds.exceeds(value, rowSum, matrix.getRowSum(k), best.q))
+            return;
+        if (i < k)
+            best.offer(matrix.q(i, k, numActive), i, k);
+        else
+            best.offer(matrix.q(k, i, numActive), k, i);
+    }
+
+    /**
+     * is the pair i,k currently contained in row i?
+     */
+    private boolean isInRow(int i, int k) {
+        return isActive[k] && (created[k] < created[i] || (created[k] == created[i] && k > i));
+    }
+
+    /**
+     * collects all entries of a row
+     *
+     * @return number of entries
+     */
+    private int collectRow(int i, long[] rowBuffer) {
+        int count = 0;
+        for (int a = 0; a < numActive; a++) {
+            final int k = active[a];
+            if (k != i && isInRow(i, k))
+                rowBuffer[count++] = encode(matrix.get(i, k), k);
+        }
+        return count;
+    }
+
+    /**
+     * keeps the smallest entries of a row in sorted order
+     */
+    private void storePrefix(int i, long[] rowBuffer, int count) {
+        final int length = Math.min(count, prefixSize);
+        if (length < count)
+            selectSmallest(rowBuffer, count, length);
+        Arrays.sort(rowBuffer, 0, length);
+        if (prefixes[i] == null || prefixes[i].length != length)
+            prefixes[i] = new long[length];
+        System.arraycopy(rowBuffer, 0, prefixes[i], 0, length);
+        prefixStart[i] = 0;
+        prefixLength[i] = length;
+        complete[i] = (length == count);
+        rowBound[i] = (length > 0 ? decodeValue(prefixes[i][0]) : Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * moves all active clusters to the first slots, keeping their order
+     */
+    private void compact() {
+        final int[] newSlot = new int[size];
+        Arrays.fill(newSlot, -1);
+        for (int a = 0; a < numActive; a++)
+            newSlot[active[a]] = a;
+
+        // remove entries that are no longer in a row and renumber columns:
+        for (int a = 0; a < numActive; a++) {
+            final int i = active[a];
+            final long[] prefix = prefixes[i];
+            int length = 0;
+            for (int p = prefixStart[i]; p < prefixLength[i]; p++) {
+                final int k = decodeColumn(prefix[p]);
+                if (isInRow(i, k))
+                    prefix[length++] = (prefix[p] & 0xFFFFFFFF00000000L) | newSlot[k];
+            }
+            prefixStart[i] = 0;
+            prefixLength[i] = length;
+            if (length > 0)
+                rowBound[i] = decodeValue(prefix[0]);
+        }
+
+        matrix.compact(newSlot, numActive);
+
+        for (int a = 0; a < numActive; a++) {
+            final int i = active[a]; // a<=i, so entry i has not yet been overwritten
+            ids[a] = ids[i];
+            created[a] = created[i];
+            prefixes[a] = prefixes[i];
+            prefixStart[a] = prefixStart[i];
+            prefixLength[a] = prefixLength[i];
+            complete[a] = complete[i];
+            rowBound[a] = rowBound[i];
+            isActive[a] = true;
+            active[a] = a;
+        }
+        size = numActive;
+        ids = Arrays.copyOf(ids, size);
+        created = Arrays.copyOf(created, size);
+        prefixes = Arrays.copyOf(prefixes, size);
+        prefixStart = Arrays.copyOf(prefixStart, size);
+        prefixLength = Arrays.copyOf(prefixLength, size);
+        complete = Arrays.copyOf(complete, size);
+        rowBound = Arrays.copyOf(rowBound, size);
+        isActive = Arrays.copyOf(isActive, size);
+        active = Arrays.copyOf(active, size);
+    }
+
+    /**
+     * encodes a distance and column so that the order of codes is the order of distances, ties broken by column.
+     * The distance is rounded down to single precision, so that the decoded value is a lower bound
+     */
+    private static long encode(double value, int column) {
+        float f = (float) value;
+        if (f > value)
+            f = Math.nextDown(f);
+        final int bits = Float.floatToIntBits(f);
+        final int sortable = bits ^ ((bits >> 31) & 0x7FFFFFFF);
+        return ((long) sortable << 32) | column;
+    }
+
+    private static float decodeValue(long code) {
+        final int sortable = (int) (code >>> 32);
+        return Float.intBitsToFloat(sortable ^ ((sortable >> 31) & 0x7FFFFFFF));
+    }
+
+    private static int decodeColumn(long code) {
+        return (int) code;
+    }
+
+    /**
+     * rearranges the array so that the k smallest of the first count entries come first
+     */
+    private static void selectSmallest(long[] array, int count, int k) {
+        int left = 0;
+        int right = count - 1;
+        while (left < right) {
+            final long pivot = array[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (array[i] < pivot)
+                    i++;
+                while (array[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    final long tmp = array[i];
+                    array[i++] = array[j];
+                    array[j--] = tmp;
+                }
+            }
+            if (k - 1 <= j)
+                right = j;
+            else if (k - 1 >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+
+    private interface ChunkTask<T> {
+        T run(int chunk, int from, int to);
+    }
+
+    /**
+     * runs a task on chunks of the range 0..n-1 in parallel
+     */
+    private <T> ArrayList<T> runChunks(int n, ChunkTask<T> task) {
+        final int numChunks = Math.min(n, 8 * pool.getParallelism());
+        final ArrayList<Callable<T>> callables = new ArrayList<>(numChunks);
+        for (int c = 0; c < numChunks; c++) {
+            final int chunk = c;
+            callables.add(() -> task.run(chunk, (int) ((long) n * chunk / numChunks), (int) ((long) n * (chunk + 1) / numChunks)));
+        }
+        final ArrayList<T> results = new ArrayList<>(numChunks);
+        try {
+            for (Future<T> future : pool.invokeAll(callables))
+                results.add(future.get());
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+        return results;
+    }
+
+    private long[] getChunkBuffer(int chunk) {
+        synchronized (this) {
+            if (chunkBuffers == null)
+                chunkBuffers = new long[8 * pool.getParallelism()][];
+            if (chunkBuffers[chunk] == null)
+                chunkBuffers[chunk] = new long[buffer.length];
+            return chunkBuffers[chunk];
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    /**
+     * lower bound on Q for all remaining entries of a row
+     */
+    private static class Bounds {
+        private final int factor;
+        private final double maxRowSum;
+        private final double maxAbsRowSum;
+
+        Bounds(int factor, double maxRowSum, double maxAbsRowSum) {
+            this.factor = factor;
+            this.maxRowSum = maxRowSum;
+            this.maxAbsRowSum = maxAbsRowSum;
+        }
+
+        /**
+         * does Q exceed the given value for all entries whose distance is at least the given one?
+         */
+        boolean exceeds(double distance, double rowSum, double q) {
+            return exceeds(distance, rowSum, maxRowSum, q);
+        }
+
+        /**
+         * does Q exceed the given value for the entry with the given distance and row sums?
+         */
+        boolean exceeds(double distance, double rowSum, double otherRowSum, double q) {
+            final double scaled = factor * distance;
+            return scaled - rowSum - otherRowSum - SLACK * (Math.abs(scaled) + Math.abs(rowSum) + maxAbsRowSum) > q;
+        }
+    }
+
+    /**
+     * the best pair seen so far
+     */
+    private static class Best {
+        private double q;
+        private int i;
+        private int j;
+
+        Best(double q, int i, int j) {
+            this.q = q;
+            this.i = i;
+            this.j = j;
+        }
+
+        Best copy() {
+            return new Best(q, i, j);
+        }
+
+        void offer(double q, int i, int j) {
+            if (q < this.q || (q == this.q && (i < this.i || (i == this.i && j < this.j)))) {
+                this.q = q;
+                this.i = i;
+                this.j = j;
+            }
+        }
+    }
+}
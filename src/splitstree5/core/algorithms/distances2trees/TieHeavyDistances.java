@@ -0,0 +1,63 @@
+/*
+ * TieHeavyDistances.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.distances2trees;
+
+import splitstree5.core.datablocks.DistancesBlock;
+import splitstree5.core.datablocks.TaxaBlock;
+
+import java.util.Random;
+
+/**
+ * random distance matrices with many ties, used by the tests to check that the joining algorithms compute the same
+ * trees as the classic implementations. Matrices have up to 40 taxa in the first 30 runs and up to 200 in the rest,
+ * entries are small integers in every second run and random doubles in every third run
+ * Daniel Huson, 10.2026
+ */
+class TieHeavyDistances {
+    static final int RUNS = 40;
+
+    /**
+     * a check applied to each matrix
+     */
+    interface Check {
+        void apply(int run, TaxaBlock taxaBlock, DistancesBlock distances) throws Exception;
+    }
+
+    /**
+     * applies the check to RUNS random matrices, always the same ones
+     *
+     * @param minTaxa minimum number of taxa
+     */
+    static void forEach(int minTaxa, Check check) throws Exception {
+        final Random random = new Random(666);
+        for (int run = 0; run < RUNS; run++) {
+            final int ntax = minTaxa + random.nextInt(run < 30 ? 40 : 200);
+            final int range = 1 + random.nextInt(run % 2 == 0 ? 3 : 100);
+            final double[][] matrix = new double[ntax][ntax];
+            for (int i = 0; i < ntax; i++) {
+                for (int j = i + 1; j < ntax; j++)
+                    matrix[i][j] = matrix[j][i] = (run % 3 == 0 ? random.nextDouble() * range : random.nextInt(range));
+            }
+            final DistancesBlock distances = new DistancesBlock();
+            distances.set(matrix);
+            check.apply(run, NeighborJoiningBenchmark.createTaxa(ntax), distances);
+        }
+    }
+}
@@ -32,7 +32,9 @@ import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.TreesBlock;
 
 /**
- * UPGMA classic n³ version
+ * UPGMA
+ * <p>
+ * Keeps the minimum of each row, so that the closest pair is usually found in quadratic time overall
  * <p>
  * Created on 2010-02-04
  *
@@ -54,7 +56,16 @@ public class UPGMA extends Algorithm<DistancesBlock, TreesBlock> implements IFro
         progress.setMaximum(taxaBlock.getNtax());
 
         trees.setRooted(true);
+        trees.getTrees().addAll(computeUPGMATree(progress, taxaBlock, distances));
+        progress.close();
+    }
 
+    /**
+     * computes the UPGMA tree. For each row, the minimum distance to a later cluster is kept and only recomputed
+     * when the column that attained it is changed or removed, so that the closest pair is found by scanning
+     * the row minima. This gives the same tree as scanning all pairs
+     */
+    static PhyloTree computeUPGMATree(ProgressListener progress, TaxaBlock taxaBlock, DistancesBlock distances) throws CanceledException {
         final PhyloTree tree = new PhyloTree();
         final int ntax = distances.getNtax();
 
@@ -70,36 +81,37 @@ public class UPGMA extends Algorithm<DistancesBlock, TreesBlock> implements IFro
             sizes[t] = 1;
         }
 
-        final double[][] d = new double[ntax + 1][ntax + 1];// distance matix
+        final Matrix d = new Matrix(ntax); // distance matrix
 
         //Initialise d
-        //Compute the closest values for each taxa.
         for (int i = 1; i <= ntax; i++) {
             for (int j = i + 1; j <= ntax; j++) {
                 //d[i][j] = d[j][i] = (distances.get(i, j) + distances.get(j, i)) / 2.0;
                 final double sum = distances.get(i, j) + distances.get(j, i);
                 if (sum == distances.get(i, j) || sum == distances.get(j, i)) {
-                    d[i][j] = d[j][i] = sum;
+                    d.set(i, j, sum);
                 } else {
-                    d[i][j] = d[j][i] = sum / 2.0;
+                    d.set(i, j, sum / 2.0);
                 }
             }
         }
 
+        //Compute the closest values for each taxa.
+        final double[] rowMin = new double[ntax + 1];
+        final int[] rowArg = new int[ntax + 1];
+        for (int i = 1; i < ntax; i++) {
+            computeRowMin(d, i, ntax, rowMin, rowArg);
+        }
+
         for (int clusters = ntax; clusters > 2; clusters--) {
-            int i_min = 0, j_min = 0;
-            //Find closest pair.
-            double d_min = Double.POSITIVE_INFINITY;
-            for (int i = 1; i <= clusters; i++) {
-                for (int j = i + 1; j <= clusters; j++) {
-                    double dij = d[i][j];
-                    if (i_min == 0 || dij < d_min) {
-                        i_min = i;
-                        j_min = j;
-                        d_min = dij;
-                    }
-                }
+            //Find closest pair, the first one, if there are ties
+            int i_min = 1;
+            for (int i = 2; i < clusters; i++) {
+                if (rowMin[i] < rowMin[i_min])
+                    i_min = i;
             }
+            final int j_min = rowArg[i_min];
+            final double d_min = rowMin[i_min];
 
             final double height = d_min / 2.0;
 
@@ -113,27 +125,40 @@ public class UPGMA extends Algorithm<DistancesBlock, TreesBlock> implements IFro
             subtrees[j_min] = null;
             heights[i_min] = height;
 
-
             final int size_i = sizes[i_min];
             final int size_j = sizes[j_min];
             sizes[i_min] = size_i + size_j;
 
-            for (int k = 1; k <= ntax; k++) {
+            for (int k = 1; k <= clusters; k++) {
                 if ((k == i_min) || k == j_min) continue;
-                final double dki = (d[k][i_min] * size_i + d[k][j_min] * size_j) / ((double) (size_i + size_j));
-                d[k][i_min] = d[i_min][k] = dki;
+                final double dki = (d.get(k, i_min) * size_i + d.get(k, j_min) * size_j) / ((double) (size_i + size_j));
+                d.set(k, i_min, dki);
             }
 
             //Copy the top row of the matrix and arrays into the empty j_min row/column.
             if (j_min < clusters) {
-                for (int k = 1; k <= clusters; k++) {
-                    d[j_min][k] = d[k][j_min] = d[clusters][k];
+                for (int k = 1; k < clusters; k++) {
+                    if (k != j_min)
+                        d.set(j_min, k, d.get(clusters, k));
                 }
-                d[j_min][j_min] = 0.0;
                 subtrees[j_min] = subtrees[clusters];
                 sizes[j_min] = sizes[clusters];
                 heights[j_min] = heights[clusters];
             }
+            d.removeLast(clusters);
+
+            // update row minima, only need to rescan a row if its minimum was in a column that changed or was removed:
+            final int last = clusters - 1;
+            for (int i = 1; i < last; i++) {
+                if (i == i_min || i == j_min || rowArg[i] == i_min || rowArg[i] == j_min || rowArg[i] == clusters) {
+                    computeRowMin(d, i, last, rowMin, rowArg);
+                } else {
+                    if (i_min > i)
+                        offer(d, i, i_min, rowMin, rowArg);
+                    if (j_min > i && j_min <= last)
+                        offer(d, i, j_min, rowMin, rowArg);
+                }
+            }
 
             progress.incrementProgress();
         }
@@ -148,16 +173,72 @@ public class UPGMA extends Algorithm<DistancesBlock, TreesBlock> implements IFro
         final Edge left = tree.newEdge(root, subtrees[brother]);
         final Edge right = tree.newEdge(root, subtrees[sister]);
 
-        final double halfTotal = 0.5 * (d[brother][sister] + heights[brother] + heights[sister]);
+        final double halfTotal = 0.5 * (d.get(brother, sister) + heights[brother] + heights[sister]);
         tree.setWeight(left, halfTotal - heights[brother]);
         tree.setWeight(right, halfTotal - heights[sister]);
 
         tree.setRoot(root);
+        return tree;
+    }
 
-        trees.getTrees().addAll(tree);
-        progress.close();
+    /**
+     * computes the minimum distance from cluster i to all clusters j with i<j<=clusters, and the first j that attains it
+     */
+    private static void computeRowMin(Matrix d, int i, int clusters, double[] rowMin, int[] rowArg) {
+        double min = d.get(i, i + 1);
+        int arg = i + 1;
+        for (int j = i + 2; j <= clusters; j++) {
+            final double dij = d.get(i, j);
+            if (dij < min) {
+                min = dij;
+                arg = j;
+            }
+        }
+        rowMin[i] = min;
+        rowArg[i] = arg;
     }
 
+    /**
+     * updates the row minimum of cluster i, if the distance to j is smaller, or the same and j comes first
+     */
+    private static void offer(Matrix d, int i, int j, double[] rowMin, int[] rowArg) {
+        final double dij = d.get(i, j);
+        if (dij < rowMin[i] || (dij == rowMin[i] && j < rowArg[i])) {
+            rowMin[i] = dij;
+            rowArg[i] = j;
+        }
+    }
+
+    /**
+     * symmetric matrix, 1-based, stored as lower triangle without diagonal
+     */
+    private static class Matrix {
+        private final double[][] rows; // rows[i][j] for j<i
+
+        Matrix(int n) {
+            rows = new double[n + 1][];
+            for (int i = 1; i <= n; i++)
+                rows[i] = new double[i];
+        }
+
+        double get(int i, int j) {
+            return (i > j ? rows[i][j] : rows[j][i]);
+        }
+
+        void set(int i, int j, double value) {
+            if (i > j)
+                rows[i][j] = value;
+            else
+                rows[j][i] = value;
+        }
+
+        /**
+         * frees the row of the last cluster
+         */
+        void removeLast(int i) {
+            rows[i] = null;
+        }
+    }
 
     @Override
     public boolean isApplicable(TaxaBlock taxaBlock, DistancesBlock parent) {
@@ -21,6 +21,7 @@ package splitstree5.core.algorithms.distances2trees;
 
 import jloda.util.progress.ProgressListener;
 import jloda.util.progress.ProgressPercentage;
+import jloda.util.progress.ProgressSilent;
 import org.junit.Test;
 import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.TaxaBlock;
@@ -67,4 +68,14 @@ public class UPGMATest {
         System.out.println("output: " + treesBlock.getTrees().get(0).toString());
         assertEquals(output, treesBlock.getTrees().get(0).toString());
     }
-}
\ No newline at end of file
+
+    /**
+     * checks that the same trees are computed as by the classic algorithm, also when there are many ties
+     */
+    @Test
+    public void testSameAsClassic() throws Exception {
+        TieHeavyDistances.forEach(2, (run, taxaBlock, distances) ->
+                assertEquals(NeighborJoiningBenchmark.computeClassicUPGMATree(taxaBlock, distances).toString(),
+                        UPGMA.computeUPGMATree(new ProgressSilent(), taxaBlock, distances).toString()));
+    }
+}
@@ -19,7 +19,6 @@
 
 package splitstree5.core.algorithms.filters;
 
-import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import jloda.util.Basic;
@@ -32,6 +31,7 @@ import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.TraitsBlock;
 import splitstree5.core.misc.Taxon;
 import splitstree5.core.workflow.UpdateState;
+import splitstree5.core.workflow.WorkflowEngine;
 import splitstree5.gui.algorithmtab.AlgorithmPane;
 import splitstree5.gui.algorithmtab.taxafilterview.TaxaFilterPane;
 
@@ -89,7 +89,7 @@ public class TaxaFilter extends Algorithm<TaxaBlock, TaxaBlock> implements IFrom
         if (parentTraits != null && childTraits != null) {
             childTraits.copySubset(parent, parentTraits, child.getTaxa());
             if (childTraits.getDataNode() != null) {
-                Platform.runLater(() ->
+                WorkflowEngine.runLater(() ->
                 {
                     childTraits.getDataNode().setState(UpdateState.INVALID); // need to set to invalid for change
                     childTraits.getDataNode().setState(UpdateState.VALID);
@@ -29,11 +29,13 @@ import jloda.util.*;
 import jloda.util.progress.ProgressListener;
 import jloda.util.progress.ProgressSilent;
 import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.interfaces.IFromGenomes;
 import splitstree5.core.algorithms.interfaces.IToDistances;
 import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.GenomesBlock;
 import splitstree5.core.datablocks.TaxaBlock;
+import splitstree5.core.datablocks.distances.DistancesStorage;
 import splitstree5.io.nexus.GenomesNexusFormat;
 
 import java.io.IOException;
@@ -41,11 +43,16 @@ import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 
 /**
  * implements the Mash algorithm
+ * <p>
+ * The distances for all pairs of genomes are computed on tiles of the upper triangle and written directly into
+ * the distances block, which uses packed storage for large numbers of genomes. Sketches are cached, so that changing
+ * the distance type or the taxa doesn't require the genomes to be sketched again
  * Daniel Huson, 3.2020
  */
 public class Mash extends Algorithm<GenomesBlock, DistancesBlock> implements IFromGenomes, IToDistances {
@@ -60,6 +67,11 @@ public class Mash extends Algorithm<GenomesBlock, DistancesBlock> implements IFr
 
     private final boolean verbose = false;
 
+    /**
+     * minimum number of genomes for which the distances are stored as a packed triangle
+     */
+    private static final int MIN_TAXA_FOR_PACKED_STORAGE = 5000;
+
     @Override
     public List<String> listOptions() {
         return Arrays.asList("optionKMerSize", "optionSketchSize", "optionDistances", "optionHashSeed", "optionIgnoreUniqueKMers");
@@ -82,6 +94,7 @@ public class Mash extends Algorithm<GenomesBlock, DistancesBlock> implements IFr
         genomesBlock.checkGenomesPresent();
 
         final MashSketch[] sketches = new MashSketch[genomesBlock.size()];
+        final MashSketchCache cache = MashSketchCache.getInstance();
         {
             final ExecutorService service = Executors.newFixedThreadPool(ProgramExecutorService.getNumberOfCoresToUse());
             final Single<Exception> exception = new Single<>(null);
@@ -92,7 +105,14 @@ public class Mash extends Algorithm<GenomesBlock, DistancesBlock> implements IFr
                             try {
                                 progress.checkForCancel();
                                 final var genome = genomesBlock.getGenome(g + 1);
-								sketches[g] = MashSketch.compute(genome.getName(), IteratorUtils.asList(genome.parts()), isNucleotideData, getOptionSketchSize(), getOptionKMerSize(), getOptionHashSeed(), isOptionIgnoreUniqueKMers(), progress);
+                                final String key = (cache.isEnabled() ? MashSketchCache.computeKey(genome, isNucleotideData, getOptionSketchSize(), getOptionKMerSize(), getOptionHashSeed(), isOptionIgnoreUniqueKMers()) : null);
+                                MashSketch sketch = (key != null ? cache.get(key) : null);
+                                if (sketch == null) {
+                                    sketch = MashSketch.compute(genome.getName(), IteratorUtils.asList(genome.parts()), isNucleotideData, getOptionSketchSize(), getOptionKMerSize(), getOptionHashSeed(), isOptionIgnoreUniqueKMers(), progress);
+                                    if (key != null)
+                                        cache.put(key, sketch);
+                                }
+                                sketches[g] = sketch;
                             } catch (Exception ex) {
                                 exception.setIfCurrentValueIsNull(ex);
                             }
@@ -118,42 +138,26 @@ public class Mash extends Algorithm<GenomesBlock, DistancesBlock> implements IFr
         if (countTooSmall > 0)
             NotificationManager.showWarning(String.format("Too few k-mers for %,d genomes- rerun with smaller sketch size", countTooSmall));
 
-        final List<Triplet<MashSketch, MashSketch, Double>> triplets = new ArrayList<>();
-
-        for (int i = 0; i < sketches.length; i++) {
-            for (int j = i + 1; j < sketches.length; j++) {
-                triplets.add(new Triplet<>(sketches[i], sketches[j], 0.0));
-            }
-        }
-
         progress.setSubtask("distances");
-        ExecuteInParallel.apply(triplets, t -> t.setThird(MashDistance.compute(t.getFirst(), t.getSecond(), getOptionDistances())), ProgramExecutorService.getNumberOfCoresToUse(), progress);
-        progress.reportTaskCompleted();
-
-        final Map<String, Integer> name2rank = new HashMap<>();
-
-        for (int i = 0; i < sketches.length; i++) {
-            final String name = sketches[i].getName();
-            name2rank.put(name, i + 1);
-        }
 
+        final int ntax = taxaBlock.getNtax();
         distancesBlock.clear();
+        distancesBlock.setNtax(ntax, ntax >= MIN_TAXA_FOR_PACKED_STORAGE ? DistancesStorage.Packed : DistancesStorage.Square);
 
-        int countUndefined = 0;
-
-        distancesBlock.setNtax(taxaBlock.getNtax());
-        for (Triplet<MashSketch, MashSketch, Double> triplet : triplets) {
-            final int t1 = name2rank.get(triplet.getFirst().getName());
-            final int t2 = name2rank.get(triplet.getSecond().getName());
-            final double dist = triplet.getThird();
+        final GenomeDistanceType distanceType = getOptionDistances();
+        final AtomicInteger undefined = new AtomicInteger();
+        PairwiseScheduler.apply(progress, distancesBlock, (s, t) -> {
+            final double dist = MashDistance.compute(sketches[s - 1], sketches[t - 1], distanceType);
             if (verbose) {
-                System.out.println(triplet.getFirst().getName() + "\t" + triplet.getSecond().getName() + "\t" + triplet.getThird());
+                System.out.println(sketches[s - 1].getName() + "\t" + sketches[t - 1].getName() + "\t" + dist);
             }
-            distancesBlock.set(t1, t2, dist);
-            distancesBlock.set(t2, t1, dist);
             if (dist == 0.75)
-                countUndefined++;
-        }
+                undefined.incrementAndGet();
+            return dist;
+        });
+        progress.reportTaskCompleted();
+
+        final int countUndefined = undefined.get();
         if (countUndefined > 0)
             NotificationManager.showWarning(String.format("Failed to estimate distance for %d pairs (distances set to 0.75) - increase sketch size or decrease k", countUndefined));
     }
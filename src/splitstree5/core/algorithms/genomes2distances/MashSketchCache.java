@@ -0,0 +1,230 @@
+/*
+ * MashSketchCache.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.genomes2distances;
+
+import jloda.kmers.mash.MashSketch;
+import jloda.util.ProgramProperties;
+import splitstree5.core.data.Genome;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * cache for Mash sketches. A sketch is identified by a hash of the sketching parameters and of the input genome,
+ * that is, its name, as this is kept in the sketch, and the path, size and modification time of each file that holds
+ * a part of the genome, or the content of each part that is held in memory. Recently used sketches are kept in memory, up to a total number of hash values.
+ * If a cache directory is set, all sketches are also written to disk, so that reruns with the same sketching parameters
+ * don't need to read the genomes
+ * Daniel Huson, 10.2026
+ */
+public class MashSketchCache {
+    public static final String CACHE_DIRECTORY_PROPERTY = "mashSketchCacheDirectory";
+
+    private static MashSketchCache instance;
+
+    private boolean enabled = true;
+    private long maxValues = 20000000L;
+    private long totalValues = 0;
+    private File cacheDirectory = null;
+
+    private final LinkedHashMap<String, MashSketch> key2sketch = new LinkedHashMap<>(16, 0.75f, true);
+
+    private MashSketchCache() {
+        final String directory = ProgramProperties.get(CACHE_DIRECTORY_PROPERTY, "");
+        if (directory.length() > 0)
+            setCacheDirectory(new File(directory));
+    }
+
+    public static synchronized MashSketchCache getInstance() {
+        if (instance == null)
+            instance = new MashSketchCache();
+        return instance;
+    }
+
+    /**
+     * computes the key for sketching the given genome
+     *
+     * @return hex-encoded SHA-256 hash of the parameters and the genome
+     */
+    public static String computeKey(Genome genome, boolean isNucleotideData, int sketchSize, int kMerSize, int hashSeed, boolean ignoreUniqueKMers) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        update(digest, String.format("mash\t%s\t%d\t%d\t%d\t%s\n", isNucleotideData ? "dna" : "protein", sketchSize, kMerSize, hashSeed, ignoreUniqueKMers));
+        update(digest, String.format("name\t%s\n", genome.getName()));
+        for (int i = 0; i < genome.getNumberOfParts(); i++) {
+            final Genome.GenomePart part = genome.getPart(i);
+            if (part.getFile() != null) {
+                final File file = new File(part.getFile());
+                if (!file.canRead())
+                    throw new IOException("File not found or unreadable: " + file);
+                update(digest, String.format("file\t%s\t%d\t%d\t%d\t%d\n", file.getAbsolutePath(), file.length(), file.lastModified(), part.getOffset(), part.getLength()));
+            } else {
+                final byte[] sequence = part.getSequence();
+                update(digest, String.format("sequence\t%d\n", sequence == null ? -1 : sequence.length));
+                if (sequence != null)
+                    digest.update(sequence);
+            }
+        }
+        final StringBuilder buf = new StringBuilder();
+        for (byte b : digest.digest()) {
+            buf.append(String.format("%02x", b));
+        }
+        return buf.toString();
+    }
+
+    private static void update(MessageDigest digest, String string) {
+        digest.update(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * gets the sketch for the given key from memory or from disk
+     *
+     * @return sketch or null
+     */
+    public MashSketch get(String key) {
+        synchronized (key2sketch) {
+            final MashSketch sketch = key2sketch.get(key);
+            if (sketch != null)
+                return sketch;
+        }
+        final MashSketch sketch = readFromDisk(key);
+        if (sketch != null)
+            putInMemory(key, sketch);
+        return sketch;
+    }
+
+    /**
+     * cache the sketch under the given key
+     */
+    public void put(String key, MashSketch sketch) {
+        putInMemory(key, sketch);
+        writeToDisk(key, sketch);
+    }
+
+    private void putInMemory(String key, MashSketch sketch) {
+        synchronized (key2sketch) {
+            final MashSketch previous = key2sketch.put(key, sketch);
+            if (previous != null)
+                totalValues -= previous.getValues().length;
+            totalValues += sketch.getValues().length;
+            final Iterator<Map.Entry<String, MashSketch>> it = key2sketch.entrySet().iterator();
+            while (totalValues > maxValues && it.hasNext()) {
+                totalValues -= it.next().getValue().getValues().length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * remove all sketches from memory. Files on disk are kept
+     */
+    public void clear() {
+        synchronized (key2sketch) {
+            key2sketch.clear();
+            totalValues = 0;
+        }
+    }
+
+    private void writeToDisk(String key, MashSketch sketch) {
+        if (cacheDirectory != null) {
+            final File file = getCacheFile(key);
+            try {
+                // write to a temporary file first, so that concurrent runs never see a partial sketch
+                final File tmpFile = File.createTempFile(key, ".tmp", cacheDirectory);
+                Files.write(tmpFile.toPath(), sketch.getBytes());
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                System.err.println("Sketch cache: write failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    private MashSketch readFromDisk(String key) {
+        if (cacheDirectory != null) {
+            final File file = getCacheFile(key);
+            if (file.canRead()) {
+                try {
+                    return MashSketch.parse(Files.readAllBytes(file.toPath()));
+                } catch (Exception ex) {
+                    System.err.println("Sketch cache: read failed: " + ex.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    private File getCacheFile(String key) {
+        return new File(cacheDirectory, key + ".msk");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxValues() {
+        return maxValues;
+    }
+
+    /**
+     * set the total number of hash values of all sketches kept in memory
+     */
+    public void setMaxValues(long maxValues) {
+        synchronized (key2sketch) {
+            this.maxValues = Math.max(0, maxValues);
+        }
+    }
+
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * set the directory to which sketches are written, or null, to only use memory. If the directory can't be created
+     * or isn't writable, only memory is used
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        if (cacheDirectory != null) {
+            if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+                System.err.println("Sketch cache: can't create directory, disk cache disabled: " + cacheDirectory);
+                cacheDirectory = null;
+            } else if (!cacheDirectory.canWrite()) {
+                System.err.println("Sketch cache: directory not writable, disk cache disabled: " + cacheDirectory);
+                cacheDirectory = null;
+            }
+        }
+        this.cacheDirectory = cacheDirectory;
+    }
+}
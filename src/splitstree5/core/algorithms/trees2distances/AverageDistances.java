@@ -19,18 +19,20 @@
 
 package splitstree5.core.algorithms.trees2distances;
 
+import jloda.fx.util.ProgramExecutorService;
+import jloda.util.CanceledException;
+import jloda.util.NumberUtils;
+import jloda.util.Single;
 import jloda.util.progress.ProgressListener;
-import jloda.util.progress.ProgressPercentage;
 import splitstree5.core.algorithms.Algorithm;
 import splitstree5.core.algorithms.interfaces.IFromTrees;
 import splitstree5.core.algorithms.interfaces.IToDistances;
-import splitstree5.core.algorithms.trees2splits.TreeSelectorSplits;
 import splitstree5.core.datablocks.DistancesBlock;
-import splitstree5.core.datablocks.SplitsBlock;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.TreesBlock;
 
-import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 
 /**
  * calculates a distance matrix from a tree
@@ -44,47 +46,65 @@ public class AverageDistances extends Algorithm<TreesBlock, DistancesBlock> impl
 
     @Override
     public void compute(ProgressListener progress, TaxaBlock taxaBlock, TreesBlock treesBlock, DistancesBlock distancesBlock) throws Exception {
+        final int ntax = taxaBlock.getNtax();
+        final int ntrees = treesBlock.getNTrees();
+        distancesBlock.setNtax(ntax);
 
-        distancesBlock.setNtax(taxaBlock.getNtax());
+        progress.setMaximum(ntrees);
+        progress.setProgress(0);
 
-        int[][] count = new int[taxaBlock.getNtax() + 1][taxaBlock.getNtax() + 1];
-        // number of trees that contain two given taxa
+        // each thread accumulates into its own matrix, so limit the number of threads by the available memory:
+        final int maxThreadsForMemory = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / (4 * PatristicDistances.getBytes(ntax) + 1));
+        final int numberOfThreads = Math.max(1, NumberUtils.min(ntrees, ProgramExecutorService.getNumberOfCoresToUse(), Runtime.getRuntime().availableProcessors(), maxThreadsForMemory));
 
-        TreeSelectorSplits selector = new TreeSelectorSplits();
+        final PatristicDistances[] sums = new PatristicDistances[numberOfThreads];
+        final ExecutorService executor = ProgramExecutorService.getInstance();
+        final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
+        final Single<CanceledException> exception = new Single<>();
 
-        for (int which = 1; which <= treesBlock.getNTrees(); which++) {
-            TaxaBlock tmpTaxa = (TaxaBlock) taxaBlock.clone();
-            selector.setOptionWhich(which);
-
-            SplitsBlock splits = new SplitsBlock();
-            selector.compute(new ProgressPercentage(), tmpTaxa, treesBlock, splits); // modifies tmpTaxa, too!
-            for (int a = 1; a <= tmpTaxa.getNtax(); a++)
-                for (int b = 1; b <= tmpTaxa.getNtax(); b++) {
-                    int i = taxaBlock.indexOf(tmpTaxa.getLabel(a)); // translate numbering
-                    int j = taxaBlock.indexOf(tmpTaxa.getLabel(b));
-                    count[i][j]++;
-                    count[j][i]++;
-                }
-            for (int s = 0; s < splits.getNsplits(); s++) {
-                BitSet A = splits.getSplits().get(s).getA();
-                BitSet B = splits.getSplits().get(s).getB();
-                for (int a = A.nextSetBit(1); a > 0; a = A.nextSetBit(a + 1)) {
-                    for (int b = B.nextSetBit(1); b > 0; b = B.nextSetBit(b + 1)) {
-                        int i = taxaBlock.indexOf(tmpTaxa.getLabel(a)); // translate numbering
-                        int j = taxaBlock.indexOf(tmpTaxa.getLabel(b));
-                        distancesBlock.set(i, j, distancesBlock.get(i, j) + splits.getSplits().get(s).getWeight());
-                        distancesBlock.set(j, i, distancesBlock.get(i, j));
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int threadNumber = i;
+            final PatristicDistances patristicDistances = sums[i] = new PatristicDistances(ntax);
+            executor.execute(() -> {
+                try {
+                    for (int which = threadNumber + 1; which <= ntrees; which += numberOfThreads) {
+                        patristicDistances.add(treesBlock.getTree(which));
+                        if (threadNumber == 0)
+                            progress.setProgress(which);
+                        else
+                            progress.checkForCancel();
+                        if (exception.get() != null)
+                            return;
                     }
+                } catch (CanceledException ex) {
+                    exception.setIfCurrentValueIsNull(ex);
+                } finally {
+                    countDownLatch.countDown();
                 }
-            }
+            });
+        }
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException e) {
+            if (exception.get() == null) // must have been canceled
+                exception.set(new CanceledException());
         }
-        // divide by count
-        for (int i = 1; i <= taxaBlock.getNtax(); i++) {
-            for (int j = 1; j <= taxaBlock.getNtax(); j++) {
-                if (count[i][j] > 0)
-                    distancesBlock.set(i, j, distancesBlock.get(i, j) / count[i][j]);
+        if (exception.get() != null)
+            throw exception.get();
+
+        for (int i = 1; i < numberOfThreads; i++) {
+            sums[0].merge(sums[i]);
+            sums[i] = null;
+        }
+
+        // every tree is counted for every pair of taxa, and each pair is counted twice, as in earlier versions:
+        final int count = 2 * ntrees;
+        for (int i = 1; i <= ntax; i++) {
+            for (int j = i; j <= ntax; j++) {
+                if (count > 0)
+                    distancesBlock.setBoth(i, j, sums[0].getSum(i, j) / count);
                 else
-                    distancesBlock.set(i, j, 100); // shouldn't ever happen!
+                    distancesBlock.setBoth(i, j, 100); // shouldn't ever happen!
             }
         }
     }
@@ -0,0 +1,144 @@
+/*
+ * PatristicDistances.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.trees2distances;
+
+import jloda.graph.Edge;
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+
+import java.util.Arrays;
+
+/**
+ * accumulates the path-length distances between taxa over a set of trees. The distances of a tree are computed by one
+ * traversal: when the taxa below different children of a node v are combined, their lowest common ancestor is v, so
+ * their distance is depth(a)+depth(b)-2*depth(v). This takes time proportional to the number of pairs of taxa in the tree.
+ * <p>
+ * Not thread safe, use one instance per thread and merge them
+ * Daniel Huson, 10.2026
+ */
+public class PatristicDistances {
+    private final int ntax;
+    private final double[][] sums; // sums[s-1][t-s-1] is the sum of distances between taxa s<t
+
+    private int[] taxa;
+    private double[] depths;
+    private int size;
+
+    /**
+     * constructor
+     *
+     * @param ntax number of taxa
+     */
+    public PatristicDistances(int ntax) {
+        this.ntax = ntax;
+        sums = new double[ntax][];
+        for (int s = 1; s <= ntax; s++)
+            sums[s - 1] = new double[ntax - s];
+        taxa = new int[Math.max(1, ntax)];
+        depths = new double[taxa.length];
+    }
+
+    /**
+     * estimated number of bytes used for the given number of taxa
+     */
+    public static long getBytes(int ntax) {
+        return 8L * ntax * (ntax - 1) / 2 + 16L * ntax;
+    }
+
+    /**
+     * adds the distances between all taxa of the given tree
+     */
+    public void add(PhyloTree tree) {
+        Node start = tree.getRoot();
+        if (start == null)
+            start = tree.getFirstNode();
+        size = 0;
+        if (start != null)
+            visitRec(tree, start, null, 0);
+    }
+
+    /**
+     * visits the subtree below v, appending its taxa and depths to the arrays
+     */
+    private void visitRec(PhyloTree tree, Node v, Edge e, double depthV) {
+        final int start = size;
+        for (int t : tree.getTaxa(v)) { // taxa on v have distance 0 to each other
+            append(t, depthV);
+        }
+        for (Edge f : v.adjacentEdges()) {
+            if (f != e) {
+                final int childStart = size;
+                visitRec(tree, tree.getOpposite(v, f), f, depthV + tree.getWeight(f));
+                // lowest common ancestor of all taxa below f and all taxa seen before at v is v:
+                for (int a = childStart; a < size; a++) {
+                    final int ta = taxa[a];
+                    final double da = depths[a] - 2 * depthV;
+                    for (int b = start; b < childStart; b++) {
+                        add(ta, taxa[b], da + depths[b]);
+                    }
+                }
+            }
+        }
+    }
+
+    private void append(int t, double depth) {
+        if (size == taxa.length) {
+            taxa = Arrays.copyOf(taxa, 2 * size);
+            depths = Arrays.copyOf(depths, 2 * size);
+        }
+        taxa[size] = t;
+        depths[size++] = depth;
+    }
+
+    private void add(int s, int t, double distance) {
+        if (s < t)
+            sums[s - 1][t - s - 1] += distance;
+        else if (s > t)
+            sums[t - 1][s - t - 1] += distance;
+    }
+
+    /**
+     * adds the sums of the other instance to this one
+     */
+    public void merge(PatristicDistances other) {
+        for (int s = 0; s < ntax; s++) {
+            final double[] row = sums[s];
+            final double[] otherRow = other.sums[s];
+            for (int i = 0; i < row.length; i++)
+                row[i] += otherRow[i];
+        }
+    }
+
+    /**
+     * gets the sum of distances between two taxa
+     */
+    public double getSum(int s, int t) {
+        if (s < t)
+            return sums[s - 1][t - s - 1];
+        else if (s > t)
+            return sums[t - 1][s - t - 1];
+        else
+            return 0;
+    }
+
+    public int getNtax() {
+        return ntax;
+    }
+}
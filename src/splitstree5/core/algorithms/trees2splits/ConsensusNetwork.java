@@ -22,23 +22,21 @@ package splitstree5.core.algorithms.trees2splits;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
-import javafx.collections.ObservableList;
 import jloda.fx.util.ProgramExecutorService;
-import jloda.fx.window.NotificationManager;
-import jloda.phylo.PhyloTree;
 import jloda.util.*;
 import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
 import splitstree5.core.algorithms.interfaces.IFromTrees;
 import splitstree5.core.algorithms.interfaces.IToSplits;
+import splitstree5.core.algorithms.trees2splits.utils.SplitFrequencies;
 import splitstree5.core.datablocks.SplitsBlock;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.TreesBlock;
 import splitstree5.core.misc.ASplit;
 import splitstree5.core.misc.Compatibility;
+import splitstree5.core.misc.CompactSplit;
 import splitstree5.utils.SplitsException;
 import splitstree5.utils.SplitsUtilities;
-import splitstree5.utils.TreesUtilities;
 
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
@@ -55,8 +53,6 @@ public class ConsensusNetwork extends Algorithm<TreesBlock, SplitsBlock> impleme
     private final SimpleObjectProperty<EdgeWeights> optionEdgeWeights = new SimpleObjectProperty<>(EdgeWeights.TreeSizeWeightedMean);
     private final DoubleProperty optionThresholdPercent = new SimpleDoubleProperty(30.0);
 
-    private final Object sync = new Object();
-
     @Override
     public String getCitation() {
         return "Holland and Moulton 2003; B. Holland and V. Moulton. Consensus networks:  A method for visualizing incompatibilities in  collections  of  trees. " +
@@ -84,87 +80,21 @@ public class ConsensusNetwork extends Algorithm<TreesBlock, SplitsBlock> impleme
      *
 	 */
     public void compute(ProgressListener progress, TaxaBlock taxaBlock, TreesBlock treesBlock, SplitsBlock splitsBlock) throws CanceledException, SplitsException {
-        final ObservableList<PhyloTree> trees = treesBlock.getTrees();
-        final Map<BitSet, Pair<BitSet, WeightStats>> splitsAndWeights = new HashMap<>();
-        final BitSet taxaInTree = taxaBlock.getTaxaSet();
-
-        final ExecutorService executor = ProgramExecutorService.getInstance();
-
         if (treesBlock.getNTrees() == 1) System.err.println("Consensus network: only one tree specified");
 
-        progress.setMaximum(100);
-        progress.setProgress(0);
-
-        {
-            final int numberOfThreads = Math.max(1, NumberUtils.min(trees.size(), ProgramExecutorService.getNumberOfCoresToUse(), Runtime.getRuntime().availableProcessors()));
-			final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
-            final Single<CanceledException> exception = new Single<>();
-
-            final Single<Boolean> warnedAboutZeroWeight = new Single<>(false);
-
-            for (int i = 0; i < numberOfThreads; i++) {
-                final int threadNumber = i;
-                executor.execute(() -> {
-                    try {
-                        for (int which = threadNumber + 1; which <= trees.size(); which += numberOfThreads) {
-                            final PhyloTree tree = treesBlock.getTree(which);
-                            final double factor;
-                            if (getOptionEdgeWeights() == EdgeWeights.TreeSizeWeightedMean) {
-                                final double treeWeight = TreesUtilities.computeTotalWeight(tree);
-                                if (treeWeight == 0) {
-                                    synchronized (warnedAboutZeroWeight) {
-                                        if (!warnedAboutZeroWeight.get()) {
-                                            NotificationManager.showWarning("Tree[" + which + "] '" + tree.getName() + "' has zero weight (check the message window for others)");
-                                            warnedAboutZeroWeight.set(true);
-                                        }
-                                    }
-                                    System.err.println("Warning: Tree " + which + " has zero weight");
-                                    factor = 1;
-                                } else
-                                    factor = 1.0 / treeWeight;
-                            } else
-                                factor = 1;
-
-                            //System.err.println("Tree "+which+": "+factor);
-
-                            final List<ASplit> splits = new ArrayList<>();
-                            TreesUtilities.computeSplits(taxaInTree, tree, splits);
-                            try {
-                                SplitsUtilities.verifySplits(splits, taxaBlock);
-                            } catch (SplitsException ex) {
-                                Basic.caught(ex);
-                            }
+        final SplitFrequencies splitFrequencies = SplitFrequencies.compute(progress, taxaBlock.getNtax(), treesBlock,
+                getOptionEdgeWeights() == EdgeWeights.TreeSizeWeightedMean, getOptionEdgeWeights() == EdgeWeights.Median);
+        computeSplits(progress, taxaBlock, splitFrequencies, splitsBlock);
+    }
 
-                            for (ASplit split : splits) {
-                                synchronized (sync) {
-                                    final Pair<BitSet, WeightStats> pair = splitsAndWeights.computeIfAbsent(split.getPartContaining(1), k -> new Pair<>(k, new WeightStats()));
-                                    pair.getSecond().add((float) (factor * split.getWeight()), which);
-                                    progress.checkForCancel();
-                                }
-                            }
-                            if (threadNumber == 0) {
-                                progress.setProgress((long) (which * 80.0 / trees.size()));
-                            }
-                            if (exception.get() != null)
-                                return;
-                        }
-                    } catch (CanceledException ex) {
-                        exception.setIfCurrentValueIsNull(ex);
-                    } finally {
-                        countDownLatch.countDown();
-                    }
-                });
-            }
-            try {
-                countDownLatch.await();
-            } catch (InterruptedException e) {
-                if (exception.get() == null) // must have been canceled
-                    exception.set(new CanceledException());
-            }
-            if (exception.get() != null) {
-                throw exception.get();
-            }
-        }
+    /**
+     * compute the consensus splits from the split frequencies of a set of trees, which might have been obtained
+     * from a stream of trees, see SplitFrequencies.compute(ProgressListener,TreeFileStream,boolean,boolean)
+     */
+    public void computeSplits(ProgressListener progress, TaxaBlock taxaBlock, SplitFrequencies splitFrequencies, SplitsBlock splitsBlock) throws CanceledException, SplitsException {
+        final Map<CompactSplit, SplitFrequencies.WeightStats> splitsAndWeights = splitFrequencies.getSplit2Stats();
+        final int ntrees = splitFrequencies.getNumberOfTrees();
+        final ExecutorService executor = ProgramExecutorService.getInstance();
 
         {
             final int numberOfThreads = Math.min(splitsAndWeights.size(), 8);
@@ -173,17 +103,23 @@ public class ConsensusNetwork extends Algorithm<TreesBlock, SplitsBlock> impleme
 
             final double threshold = (optionThresholdPercent.getValue() < 100 ? optionThresholdPercent.getValue() / 100.0 : 0.999999);
 
-            final ArrayList<Pair<BitSet, WeightStats>> array = new ArrayList<>(splitsAndWeights.values());
+            final ArrayList<Map.Entry<CompactSplit, SplitFrequencies.WeightStats>> array = new ArrayList<>(splitsAndWeights.entrySet());
+
+            progress.setMaximum(array.size());
+            progress.setProgress(0);
 
+            final ArrayList<ArrayList<ASplit>> threadSplits = new ArrayList<>();
             for (int i = 0; i < numberOfThreads; i++) {
                 final int threadNumber = i;
+                final ArrayList<ASplit> splits = new ArrayList<>();
+                threadSplits.add(splits);
                 executor.execute(() -> {
                     try {
                         for (int which = threadNumber; which < array.size(); which += numberOfThreads) {
-                            final BitSet side = array.get(which).getFirst();
-                            final WeightStats weightStats = array.get(which).getSecond();
+                            final CompactSplit split = array.get(which).getKey();
+                            final SplitFrequencies.WeightStats weightStats = array.get(which).getValue();
                             final double wgt;
-                            if (weightStats.getCount() / (double) trees.size() > threshold) {
+                            if (weightStats.getCount() / (double) ntrees > threshold) {
                                 switch (getOptionEdgeWeights()) {
                                     case Count:
                                         wgt = weightStats.getCount();
@@ -204,14 +140,12 @@ public class ConsensusNetwork extends Algorithm<TreesBlock, SplitsBlock> impleme
                                         wgt = 1;
                                         break;
                                 }
-                                final float confidence = (float) weightStats.getCount() / (float) trees.size();
-                                synchronized (sync) {
-                                    splitsBlock.getSplits().add(new ASplit(side, taxaBlock.getNtax(), wgt, confidence));
-                                }
+                                final float confidence = (float) weightStats.getCount() / (float) ntrees;
+                                splits.add(split.toASplit(wgt, confidence));
                             }
                             if (threadNumber == 0) {
                                 try {
-									progress.setProgress(80 + 20L * (which / array.size()));
+                                    progress.setProgress(which);
                                 } catch (CanceledException ex) {
                                     exception.set(ex);
                                 }
@@ -233,6 +167,9 @@ public class ConsensusNetwork extends Algorithm<TreesBlock, SplitsBlock> impleme
             if (exception.get() != null) {
                 throw exception.get();
             }
+            for (ArrayList<ASplit> splits : threadSplits) {
+                splitsBlock.getSplits().addAll(splits);
+            }
         }
 
         SplitsUtilities.verifySplits(splitsBlock.getSplits(), taxaBlock);
@@ -271,74 +208,4 @@ public class ConsensusNetwork extends Algorithm<TreesBlock, SplitsBlock> impleme
     public void setOptionThresholdPercent(double optionThresholdPercent) {
         this.optionThresholdPercent.set(optionThresholdPercent);
     }
-
-    /**
-     * a value object contains a set of all weights seen so far and their counts
-     */
-    private static class WeightStats {
-		private final ArrayList<Float> weights;
-		private int totalCount;
-        private double sum;
-        private int treeIndex;
-
-        /**
-         * construct a new values map
-         */
-        WeightStats() {
-            weights = new ArrayList<>();
-            totalCount = 0;
-            sum = 0;
-            treeIndex = -1;
-        }
-
-        /**
-         * add the given weight and count
-         *
-		 */
-        void add(float weight, int treeIndex) {
-            weights.add(weight);
-            totalCount++;
-            sum += weight;
-            this.treeIndex = treeIndex;
-        }
-
-        /**
-         * returns the number of values
-         *
-         * @return number
-         */
-        int getCount() {
-            return totalCount;
-        }
-
-        /**
-         * computes the mean values
-         *
-         * @return mean
-         */
-        double getMean() {
-            return sum / (double) totalCount;
-        }
-
-        /**
-         * computes the median value
-         *
-         * @return median
-         */
-        public double getMedian() {
-            Object[] array = weights.toArray();
-            Arrays.sort(array);
-            return (Float) array[array.length / 2];
-
-        }
-
-        /**
-         * returns the sum of weights
-         *
-         * @return sum
-         */
-        double getSum() {
-            return sum;
-        }
-    }
 }
@@ -26,6 +26,7 @@ import jloda.util.progress.ProgressListener;
 import splitstree5.core.algorithms.Algorithm;
 import splitstree5.core.algorithms.interfaces.IFromTrees;
 import splitstree5.core.algorithms.interfaces.IToSplits;
+import splitstree5.core.algorithms.trees2splits.utils.SplitFrequencies;
 import splitstree5.core.datablocks.SplitsBlock;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.TreesBlock;
@@ -71,6 +72,15 @@ public class ConsensusTreeSplits extends Algorithm<TreesBlock, SplitsBlock> impl
      *
 	 */
     public void compute(ProgressListener progress, TaxaBlock taxaBlock, TreesBlock parent, SplitsBlock child) throws CanceledException, SplitsException {
+        final SplitFrequencies splitFrequencies = SplitFrequencies.compute(progress, taxaBlock.getNtax(), parent,
+                getOptionEdgeWeights() == ConsensusNetwork.EdgeWeights.TreeSizeWeightedMean, getOptionEdgeWeights() == ConsensusNetwork.EdgeWeights.Median);
+        computeSplits(progress, taxaBlock, splitFrequencies, child);
+    }
+
+    /**
+     * compute the consensus splits from the split frequencies of a set of trees
+     */
+    public void computeSplits(ProgressListener progress, TaxaBlock taxaBlock, SplitFrequencies splitFrequencies, SplitsBlock child) throws CanceledException, SplitsException {
         final ConsensusNetwork consensusNetwork = new ConsensusNetwork();
         switch (getOptionConsensus()) {
             default:
@@ -85,7 +95,7 @@ public class ConsensusTreeSplits extends Algorithm<TreesBlock, SplitsBlock> impl
         }
         final SplitsBlock consensusSplits = new SplitsBlock();
         consensusNetwork.setOptionEdgeWeights(getOptionEdgeWeights());
-        consensusNetwork.compute(progress, taxaBlock, parent, consensusSplits);
+        consensusNetwork.computeSplits(progress, taxaBlock, splitFrequencies, consensusSplits);
 
         if (getOptionConsensus().equals(Consensus.Greedy)) {
             final ArrayList<ASplit> list = new ArrayList<>(consensusSplits.getSplits());
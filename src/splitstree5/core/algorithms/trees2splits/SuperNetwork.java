@@ -20,11 +20,13 @@
 package splitstree5.core.algorithms.trees2splits;
 
 import javafx.beans.property.*;
+import jloda.fx.util.ProgramExecutorService;
 import jloda.fx.window.NotificationManager;
 import jloda.graph.Edge;
 import jloda.graph.Node;
 import jloda.phylo.PhyloTree;
 import jloda.util.CanceledException;
+import jloda.util.Single;
 import jloda.util.progress.ProgressListener;
 import jloda.util.progress.ProgressPercentage;
 import splitstree5.core.algorithms.Algorithm;
@@ -33,6 +35,7 @@ import splitstree5.core.algorithms.interfaces.IToSplits;
 import splitstree5.core.algorithms.splits2splits.LeastSquaresWeights;
 import splitstree5.core.algorithms.trees2distances.AverageDistances;
 import splitstree5.core.algorithms.trees2splits.utils.PartialSplit;
+import splitstree5.core.algorithms.trees2splits.utils.ZigZagClosure;
 import splitstree5.core.datablocks.DistancesBlock;
 import splitstree5.core.datablocks.SplitsBlock;
 import splitstree5.core.datablocks.TaxaBlock;
@@ -44,6 +47,8 @@ import splitstree5.utils.TreesUtilities;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 
 /**
  * compute network from partial trees
@@ -419,35 +424,63 @@ public class SuperNetwork extends Algorithm<TreesBlock, SplitsBlock> implements
         return e_taxa;
     }
 
-    Random rand = null;
-
     /**
-     * runs the closure method. Does this multiple times, if desired
+     * runs the closure method. Does this multiple times, if desired. The runs use different random orders of the
+     * partial splits, which are all drawn from one generator seeded by the seed option, and then run in parallel
      *
 	 */
     private void computeClosureOuterLoop(ProgressListener progress, Set<PartialSplit> partialSplits) throws CanceledException {
-        this.rand = new Random(getOptionSeed());
-
-        final Set<PartialSplit> allEverComputed = new HashSet<>(partialSplits);
-
-        for (int i = 0; i < getOptionNumberOfRuns(); i++) {
-            ////doc.notifySubtask("compute closure" + (i == 0 ? "" : "(" + (i + 1) + ")"));
-
-            Set<PartialSplit> clone = new LinkedHashSet<>(partialSplits);
+        final Random random = new Random(getOptionSeed());
+        final int numberOfRuns = getOptionNumberOfRuns();
+        if (numberOfRuns <= 0)
+            return;
+
+        final ArrayList<ArrayList<PartialSplit>> orders = new ArrayList<>(numberOfRuns);
+        for (int i = 0; i < numberOfRuns; i++) {
+            final ArrayList<PartialSplit> order = new ArrayList<>(partialSplits);
+            Collections.shuffle(order, random);
+            orders.add(order);
+        }
 
-            {
-                final Vector<PartialSplit> tmp = new Vector<>(clone);
-                Collections.shuffle(tmp, rand);
-                clone = new LinkedHashSet<>(tmp);
-                computeClosure(progress, clone);
-                progress.checkForCancel();
+        final List<List<PartialSplit>> results = new ArrayList<>(Collections.nCopies(numberOfRuns, null));
+        if (numberOfRuns == 1) {
+            results.set(0, new ZigZagClosure(orders.get(0)).compute(progress));
+        } else {
+            final ExecutorService executor = ProgramExecutorService.getInstance();
+            final int numberOfThreads = Math.max(1, Math.min(numberOfRuns, ProgramExecutorService.getNumberOfCoresToUse()));
+            final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
+            final Single<CanceledException> exception = new Single<>();
+
+            for (int t = 0; t < numberOfThreads; t++) {
+                final int threadNumber = t;
+                executor.execute(() -> {
+                    try {
+                        for (int run = threadNumber; run < numberOfRuns && exception.get() == null; run += numberOfThreads) {
+                            final List<PartialSplit> result = new ZigZagClosure(orders.get(run)).compute(progress);
+                            synchronized (results) {
+                                results.set(run, result);
+                            }
+                        }
+                    } catch (CanceledException ex) {
+                        exception.setIfCurrentValueIsNull(ex);
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                });
             }
+            try {
+                countDownLatch.await();
+            } catch (InterruptedException e) {
+                if (exception.get() == null) // must have been canceled
+                    exception.set(new CanceledException());
+            }
+            if (exception.get() != null)
+                throw exception.get();
+        }
 
-            allEverComputed.addAll(clone);
-
+        for (List<PartialSplit> result : results) {
+            partialSplits.addAll(result);
         }
-        partialSplits.clear();
-        partialSplits.addAll(allEverComputed);
     }
 
     /**
@@ -465,111 +498,6 @@ public class SuperNetwork extends Algorithm<TreesBlock, SplitsBlock> implements
     }
 
 
-    /**
-     * computes the split closure obtained using the zig-zap rule
-     *
-	 */
-    private void computeClosure(ProgressListener progress, Set<PartialSplit> partialSplits) throws CanceledException {
-
-        PartialSplit[] splits;
-        Set<Integer> seniorSplits = new LinkedHashSet<>();
-        Set<Integer> activeSplits = new LinkedHashSet<>();
-        Set<Integer> newSplits = new LinkedHashSet<>();
-        {
-            splits = new PartialSplit[partialSplits.size()];
-            Iterator it = partialSplits.iterator();
-            int pos = 0;
-            while (it.hasNext()) {
-                splits[pos] = (PartialSplit) it.next();
-                seniorSplits.add(pos);
-                pos++;
-                progress.checkForCancel();
-            }
-        }
-
-        // init:
-        {
-            for (int pos1 = 0; pos1 < splits.length; pos1++) {
-
-                for (int pos2 = pos1 + 1; pos2 < splits.length; pos2++) {
-                    PartialSplit ps1 = splits[pos1];
-                    PartialSplit ps2 = splits[pos2];
-                    PartialSplit qs1 = new PartialSplit();
-                    PartialSplit qs2 = new PartialSplit();
-                    if (PartialSplit.applyZigZagRule(ps1, ps2, qs1, qs2)) {
-                        splits[pos1] = qs1;
-                        splits[pos2] = qs2;
-                        newSplits.add(pos1);
-                        newSplits.add(pos2);
-                    }
-                }
-                progress.checkForCancel();
-            }
-        }
-
-        // main loop:
-        {
-            while (newSplits.size() != 0) {
-                seniorSplits.addAll(activeSplits);
-                activeSplits = newSplits;
-                newSplits = new HashSet<>();
-
-                Iterator it1 = seniorSplits.iterator();
-                while (it1.hasNext()) {
-					Integer pos1 = ((Integer) it1.next());
-
-					for (Integer activeSplit : activeSplits) {
-						Integer pos2 = activeSplit;
-						PartialSplit ps1 = splits[pos1];
-						PartialSplit ps2 = splits[pos2];
-						PartialSplit qs1 = new PartialSplit();
-						PartialSplit qs2 = new PartialSplit();
-						if (PartialSplit.applyZigZagRule(ps1, ps2, qs1, qs2)) {
-							splits[pos1] = qs1;
-							splits[pos2] = qs2;
-							newSplits.add(pos1);
-							newSplits.add(pos2);
-						}
-                    }
-                    progress.checkForCancel();
-                }
-                it1 = activeSplits.iterator();
-                while (it1.hasNext()) {
-					Integer pos1 = ((Integer) it1.next());
-
-					for (Integer activeSplit : activeSplits) {
-						Integer pos2 = activeSplit;
-						PartialSplit ps1 = splits[pos1];
-						PartialSplit ps2 = splits[pos2];
-						PartialSplit qs1 = new PartialSplit();
-						PartialSplit qs2 = new PartialSplit();
-						if (PartialSplit.applyZigZagRule(ps1, ps2, qs1, qs2)) {
-							splits[pos1] = qs1;
-							splits[pos2] = qs2;
-							newSplits.add(pos1);
-							newSplits.add(pos2);
-						}
-                    }
-                    progress.checkForCancel();
-                }
-            }
-        }
-
-        partialSplits.clear();
-        Iterator it = seniorSplits.iterator();
-        while (it.hasNext()) {
-            Integer pos1 = (Integer) it.next();
-            partialSplits.add(splits[pos1]);
-            progress.checkForCancel();
-        }
-        it = activeSplits.iterator();
-        while (it.hasNext()) {
-            Integer pos1 = (Integer) it.next();
-            partialSplits.add(splits[pos1]);
-            progress.checkForCancel();
-        }
-    }
-
     /**
      * applies a simple refinement heuristic
      *
@@ -0,0 +1,348 @@
+/*
+ * SplitFrequencies.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.trees2splits.utils;
+
+import jloda.fx.util.ProgramExecutorService;
+import jloda.fx.window.NotificationManager;
+import jloda.phylo.PhyloTree;
+import jloda.util.CanceledException;
+import jloda.util.NumberUtils;
+import jloda.util.Pair;
+import jloda.util.Single;
+import jloda.util.progress.ProgressListener;
+import splitstree5.core.datablocks.TreesBlock;
+import splitstree5.core.misc.CompactSplit;
+import splitstree5.io.imports.utils.SimpleNewickParser;
+import splitstree5.io.imports.utils.TreeFileStream;
+import splitstree5.utils.TreesUtilities;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * table of the splits found in a set of trees, with the number of trees containing each split and statistics of
+ * the split weights. Not thread safe: when computing in parallel, each thread fills its own table and the tables are
+ * merged at the end, so that threads never wait for each other
+ * Daniel Huson, 10.2026
+ */
+public class SplitFrequencies {
+    private static final int QUEUE_SIZE_PER_THREAD = 16;
+
+    private final int ntax;
+    private final boolean keepWeights;
+    private final Map<CompactSplit, WeightStats> split2stats = new HashMap<>();
+    private int numberOfTrees;
+
+    /**
+     * constructor
+     *
+     * @param ntax        number of taxa
+     * @param keepWeights keep all weights of a split, needed for the median
+     */
+    public SplitFrequencies(int ntax, boolean keepWeights) {
+        this.ntax = ntax;
+        this.keepWeights = keepWeights;
+    }
+
+    /**
+     * adds all splits of a tree
+     *
+     * @param tree   tree containing all taxa
+     * @param factor the split weights are multiplied by this factor
+     */
+    public void add(PhyloTree tree, double factor) {
+        TreesUtilities.computeSplits(tree, ntax, (split, weight, confidence) ->
+                split2stats.computeIfAbsent(split, k -> new WeightStats(keepWeights)).add((float) (factor * weight)));
+        numberOfTrees++;
+    }
+
+    /**
+     * merges another table into this one. The other table shouldn't be used afterwards
+     */
+    public void merge(SplitFrequencies other) {
+        for (Map.Entry<CompactSplit, WeightStats> entry : other.split2stats.entrySet()) {
+            final WeightStats stats = split2stats.putIfAbsent(entry.getKey(), entry.getValue());
+            if (stats != null)
+                stats.merge(entry.getValue());
+        }
+        numberOfTrees += other.numberOfTrees;
+    }
+
+    public Map<CompactSplit, WeightStats> getSplit2Stats() {
+        return split2stats;
+    }
+
+    public int getNumberOfTrees() {
+        return numberOfTrees;
+    }
+
+    public int size() {
+        return split2stats.size();
+    }
+
+    /**
+     * computes the table for all trees of the given block. The trees are distributed over threads that each
+     * fill their own table
+     *
+     * @param treeSizeWeighted divide the split weights of each tree by the total weight of the tree
+     * @param keepWeights      keep all weights, needed for the median
+     */
+    public static SplitFrequencies compute(ProgressListener progress, int ntax, TreesBlock treesBlock, boolean treeSizeWeighted, boolean keepWeights) throws CanceledException {
+        final int ntrees = treesBlock.getNTrees();
+        final int numberOfThreads = Math.max(1, NumberUtils.min(ntrees, ProgramExecutorService.getNumberOfCoresToUse(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = ProgramExecutorService.getInstance();
+
+        final SplitFrequencies[] tables = new SplitFrequencies[numberOfThreads];
+        final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
+        final Single<CanceledException> exception = new Single<>();
+        final Single<Boolean> warnedAboutZeroWeight = new Single<>(false);
+
+        progress.setMaximum(ntrees);
+        progress.setProgress(0);
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int threadNumber = i;
+            final SplitFrequencies table = tables[i] = new SplitFrequencies(ntax, keepWeights);
+            executor.execute(() -> {
+                try {
+                    for (int which = threadNumber + 1; which <= ntrees; which += numberOfThreads) {
+                        final PhyloTree tree = treesBlock.getTree(which);
+                        table.add(tree, treeSizeWeighted ? computeFactor(tree, which, warnedAboutZeroWeight) : 1);
+
+                        if (threadNumber == 0)
+                            progress.setProgress(which);
+                        else
+                            progress.checkForCancel();
+                        if (exception.get() != null)
+                            return;
+                    }
+                } catch (CanceledException ex) {
+                    exception.setIfCurrentValueIsNull(ex);
+                } finally {
+                    countDownLatch.countDown();
+                }
+            });
+        }
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException e) {
+            if (exception.get() == null) // must have been canceled
+                exception.set(new CanceledException());
+        }
+        if (exception.get() instanceof IOException)
+            throw (IOException) exception.get();
+        else if (exception.get() instanceof CanceledException)
+            throw (CanceledException) exception.get();
+        else if (exception.get() instanceof RuntimeException)
+            throw (RuntimeException) exception.get();
+        else if (exception.get() != null)
+            throw new IOException(exception.get());
+
+        return merge(tables);
+    }
+
+    /**
+     * computes the table for all trees read from the given stream. The calling thread reads the Newick strings and
+     * passes them on through a bounded queue to threads that parse them and fill their own tables. Memory is bounded
+     * by the number of distinct splits, unless keepWeights is set, as then one weight is kept per split and tree
+     *
+     * @param treeSizeWeighted divide the split weights of each tree by the total weight of the tree
+     * @param keepWeights      keep all weights, needed for the median, memory grows with the number of trees
+     */
+    public static SplitFrequencies compute(ProgressListener progress, TreeFileStream treeStream, boolean treeSizeWeighted, boolean keepWeights) throws IOException, CanceledException {
+        progress.setMaximum(treeStream.getMaximumProgress());
+        progress.setProgress(0);
+
+        final Single<Boolean> warnedAboutZeroWeight = new Single<>(false);
+
+        // the first tree determines the taxa, unless given by a translate statement:
+        final PhyloTree firstTree = treeStream.nextTree();
+        if (firstTree == null)
+            return new SplitFrequencies(0, keepWeights);
+        final int ntax = treeStream.getNtax();
+
+        final int numberOfThreads = Math.max(1, Math.min(ProgramExecutorService.getNumberOfCoresToUse(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = ProgramExecutorService.getInstance();
+
+        final SplitFrequencies[] tables = new SplitFrequencies[numberOfThreads];
+        final ArrayBlockingQueue<Pair<Integer, String>> queue = new ArrayBlockingQueue<>(QUEUE_SIZE_PER_THREAD * numberOfThreads);
+        final Pair<Integer, String> sentinel = new Pair<>(0, null);
+        final CountDownLatch countDownLatch = new CountDownLatch(numberOfThreads);
+        final Single<Exception> exception = new Single<>(); // first exception in a worker
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            final SplitFrequencies table = tables[i] = new SplitFrequencies(ntax, keepWeights);
+            if (i == 0)
+                table.add(firstTree, treeSizeWeighted ? computeFactor(firstTree, 1, warnedAboutZeroWeight) : 1);
+            executor.execute(() -> {
+                try {
+                    final SimpleNewickParser parser = new SimpleNewickParser();
+                    while (true) {
+                        final Pair<Integer, String> item = queue.take();
+                        if (item == sentinel)
+                            return;
+                        if (exception.get() == null) { // after an error, keep emptying the queue
+                            final PhyloTree tree = treeStream.parse(parser, item.getSecond());
+                            table.add(tree, treeSizeWeighted ? computeFactor(tree, item.getFirst(), warnedAboutZeroWeight) : 1);
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    exception.setIfCurrentValueIsNull(new CanceledException());
+                    queue.clear(); // don't block reader
+                } catch (Exception ex) {
+                    exception.setIfCurrentValueIsNull(ex);
+                    queue.clear(); // don't block reader
+                } finally {
+                    countDownLatch.countDown();
+                }
+            });
+        }
+
+        try {
+            try {
+                int which = 1;
+                String newick;
+                while (exception.get() == null && countDownLatch.getCount() == numberOfThreads && (newick = treeStream.nextNewick()) != null) {
+                    queue.put(new Pair<>(++which, newick));
+                    progress.setProgress(treeStream.getProgress());
+                }
+            } finally {
+                for (int i = 0; i < numberOfThreads; i++) {
+                    while (!queue.offer(sentinel, 100, TimeUnit.MILLISECONDS)) {
+                        if (countDownLatch.getCount() == 0) // all threads have stopped
+                            break;
+                    }
+                }
+                countDownLatch.await();
+            }
+        } catch (InterruptedException e) {
+            throw new CanceledException();
+        }
+        if (exception.get() instanceof IOException)
+            throw (IOException) exception.get();
+        else if (exception.get() instanceof CanceledException)
+            throw (CanceledException) exception.get();
+        else if (exception.get() instanceof RuntimeException)
+            throw (RuntimeException) exception.get();
+        else if (exception.get() != null)
+            throw new IOException(exception.get());
+
+        return merge(tables);
+    }
+
+    /**
+     * computes the factor by which the weights of a tree are multiplied, warning about trees of zero weight
+     */
+    private static double computeFactor(PhyloTree tree, int which, Single<Boolean> warnedAboutZeroWeight) {
+        final double treeWeight = TreesUtilities.computeTotalWeight(tree);
+        if (treeWeight == 0) {
+            synchronized (warnedAboutZeroWeight) {
+                if (!warnedAboutZeroWeight.get()) {
+                    NotificationManager.showWarning("Tree[" + which + "] '" + tree.getName() + "' has zero weight (check the message window for others)");
+                    warnedAboutZeroWeight.set(true);
+                }
+            }
+            System.err.println("Warning: Tree " + which + " has zero weight");
+            return 1;
+        } else
+            return 1.0 / treeWeight;
+    }
+
+    /**
+     * merges all tables into the largest one
+     */
+    private static SplitFrequencies merge(SplitFrequencies[] tables) {
+        int largest = 0;
+        for (int i = 1; i < tables.length; i++) {
+            if (tables[i].size() > tables[largest].size())
+                largest = i;
+        }
+        for (int i = 0; i < tables.length; i++) {
+            if (i != largest)
+                tables[largest].merge(tables[i]);
+        }
+        return tables[largest];
+    }
+
+    /**
+     * count and weights of a split, kept in primitive fields
+     */
+    public static class WeightStats {
+        private float[] weights; // null, if weights aren't kept
+        private int count;
+        private double sum;
+
+        WeightStats(boolean keepWeights) {
+            weights = (keepWeights ? new float[4] : null);
+        }
+
+        void add(float weight) {
+            if (weights != null) {
+                if (count == weights.length)
+                    weights = Arrays.copyOf(weights, 2 * count);
+                weights[count] = weight;
+            }
+            count++;
+            sum += weight;
+        }
+
+        void merge(WeightStats other) {
+            if (weights != null) {
+                if (count + other.count > weights.length)
+                    weights = Arrays.copyOf(weights, Math.max(2 * weights.length, count + other.count));
+                System.arraycopy(other.weights, 0, weights, count, other.count);
+            }
+            count += other.count;
+            sum += other.sum;
+        }
+
+        /**
+         * @return number of trees containing the split
+         */
+        public int getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMean() {
+            return sum / count;
+        }
+
+        /**
+         * @return median of the weights, or NaN, if weights weren't kept
+         */
+        public double getMedian() {
+            if (weights == null)
+                return Double.NaN;
+            final float[] array = Arrays.copyOf(weights, count);
+            Arrays.sort(array);
+            return array[array.length / 2];
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * ZigZagClosure.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.trees2splits.utils;
+
+import jloda.util.CanceledException;
+import jloda.util.progress.ProgressListener;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * computes the closure of a list of partial splits under the zig-zag rule, replacing A1/B1 and A2/B2
+ * by A1/(B1uB2) and (A1uA2)/B2. The two sides of all splits are kept in one array of words, and the sets of
+ * splits to process are kept as bit sets, so that testing a pair of splits doesn't allocate anything.
+ * The order in which pairs of splits are processed is the same as in PartialSplit.applyZigZagRule based code,
+ * except that splits changed in a round are visited in increasing order.
+ * <p>
+ * Not thread safe, use one instance per run
+ * Daniel Huson, 10.2026
+ */
+public class ZigZagClosure {
+    private final List<PartialSplit> input;
+    private final int n;
+    private final int words; // words per side
+    private final long[] sides; // side 0 (the one containing the smallest taxon) and side 1 of each split
+    private final boolean[] changed;
+
+    private final long[] q1a;
+    private final long[] q1b;
+    private final long[] q2a;
+    private final long[] q2b;
+
+    /**
+     * constructor
+     *
+     * @param partialSplits the partial splits, in the order in which they are to be processed
+     */
+    public ZigZagClosure(Collection<PartialSplit> partialSplits) {
+        input = new ArrayList<>(partialSplits);
+        n = input.size();
+        int maxTaxon = 0;
+        for (PartialSplit ps : input) {
+            maxTaxon = Math.max(maxTaxon, Math.max(ps.getA().length(), ps.getB().length()));
+        }
+        words = (maxTaxon >>> 6) + 1;
+        sides = new long[2 * n * words];
+        changed = new boolean[n];
+        for (int p = 0; p < n; p++) {
+            copy(input.get(p).getA().toLongArray(), sides, offset(p, 0));
+            copy(input.get(p).getB().toLongArray(), sides, offset(p, 1));
+        }
+        q1a = new long[words];
+        q1b = new long[words];
+        q2a = new long[words];
+        q2b = new long[words];
+    }
+
+    private static void copy(long[] src, long[] dest, int offset) {
+        System.arraycopy(src, 0, dest, offset, src.length);
+    }
+
+    private int offset(int p, int side) {
+        return (2 * p + side) * words;
+    }
+
+    /**
+     * computes the closure
+     *
+     * @return the resulting partial splits. Splits that weren't changed are the original objects
+     */
+    public List<PartialSplit> compute(ProgressListener progress) throws CanceledException {
+        BitSet newSplits = new BitSet();
+
+        // init:
+        for (int p1 = 0; p1 < n; p1++) {
+            for (int p2 = p1 + 1; p2 < n; p2++) {
+                if (apply(p1, p2)) {
+                    newSplits.set(p1);
+                    newSplits.set(p2);
+                }
+            }
+            progress.checkForCancel();
+        }
+
+        // main loop, all splits are senior splits:
+        while (!newSplits.isEmpty()) {
+            final int[] active = newSplits.stream().toArray();
+            newSplits = new BitSet();
+
+            for (int p1 = 0; p1 < n; p1++) {
+                for (int p2 : active) {
+                    if (apply(p1, p2)) {
+                        newSplits.set(p1);
+                        newSplits.set(p2);
+                    }
+                }
+                progress.checkForCancel();
+            }
+            for (int p1 : active) {
+                for (int p2 : active) {
+                    if (apply(p1, p2)) {
+                        newSplits.set(p1);
+                        newSplits.set(p2);
+                    }
+                }
+                progress.checkForCancel();
+            }
+        }
+
+        final ArrayList<PartialSplit> result = new ArrayList<>(n);
+        for (int p = 0; p < n; p++) {
+            if (changed[p])
+                result.add(new PartialSplit(toBitSet(offset(p, 0)), toBitSet(offset(p, 1))));
+            else
+                result.add(input.get(p));
+        }
+        return result;
+    }
+
+    /**
+     * applies the zig-zag rule to two splits, trying the orientations in the same order as PartialSplit.applyZigZagRule
+     *
+     * @return true, if the rule applies and changes the splits
+     */
+    private boolean apply(int p1, int p2) {
+        for (int i = 0; i <= 1; i++) {
+            final int a1 = offset(p1, i);
+            final int b1 = offset(p1, 1 - i);
+            for (int j = 0; j <= 1; j++) {
+                final int a2 = offset(p2, j);
+                final int b2 = offset(p2, 1 - j);
+
+                if (intersects(a1, a2) && intersects(a2, b1) && intersects(b1, b2) && !intersects(a1, b2)) {
+                    for (int w = 0; w < words; w++) {
+                        q1a[w] = sides[a1 + w];
+                        q1b[w] = sides[b1 + w] | sides[b2 + w];
+                        q2a[w] = sides[a1 + w] | sides[a2 + w];
+                        q2b[w] = sides[b2 + w];
+                    }
+                    if ((equals(p1, q1a, q1b) && equals(p2, q2a, q2b)) || (equals(p1, q2a, q2b) && equals(p2, q1a, q1b)))
+                        return false;
+                    set(p1, q1a, q1b);
+                    set(p2, q2a, q2b);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean intersects(int offset1, int offset2) {
+        for (int w = 0; w < words; w++) {
+            if ((sides[offset1 + w] & sides[offset2 + w]) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * is a before b in the order of PartialSplit.compareSides, assuming disjoint sides?
+     */
+    private boolean isFirst(long[] a, long[] b) {
+        return lowest(a) <= lowest(b);
+    }
+
+    /**
+     * @return lowest member, or -1, if empty
+     */
+    private int lowest(long[] side) {
+        for (int w = 0; w < words; w++) {
+            if (side[w] != 0)
+                return 64 * w + Long.numberOfTrailingZeros(side[w]);
+        }
+        return -1;
+    }
+
+    /**
+     * does split p have the sides a and b?
+     */
+    private boolean equals(int p, long[] a, long[] b) {
+        final boolean first = isFirst(a, b);
+        return equals(offset(p, 0), first ? a : b) && equals(offset(p, 1), first ? b : a);
+    }
+
+    private boolean equals(int offset, long[] side) {
+        for (int w = 0; w < words; w++) {
+            if (sides[offset + w] != side[w])
+                return false;
+        }
+        return true;
+    }
+
+    private void set(int p, long[] a, long[] b) {
+        final boolean first = isFirst(a, b);
+        System.arraycopy(first ? a : b, 0, sides, offset(p, 0), words);
+        System.arraycopy(first ? b : a, 0, sides, offset(p, 1), words);
+        changed[p] = true;
+    }
+
+    private BitSet toBitSet(int offset) {
+        final long[] array = new long[words];
+        System.arraycopy(sides, offset, array, 0, words);
+        return BitSet.valueOf(array);
+    }
+}
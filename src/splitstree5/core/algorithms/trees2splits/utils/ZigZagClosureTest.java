@@ -0,0 +1,102 @@
+/*
+ * ZigZagClosureTest.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.algorithms.trees2splits.utils;
+
+import jloda.util.progress.ProgressSilent;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * tests the zig-zag closure against a direct implementation using PartialSplit.applyZigZagRule
+ * Daniel Huson, 10.2026
+ */
+public class ZigZagClosureTest {
+
+    @Test
+    public void testAgainstApplyZigZagRule() throws Exception {
+        final Random random = new Random(17);
+        for (int ntax : new int[]{6, 12, 70}) {
+            for (int run = 0; run < 20; run++) {
+                final ArrayList<PartialSplit> partialSplits = new ArrayList<>();
+                for (int i = 0; i < 30; i++) {
+                    final BitSet A = new BitSet();
+                    final BitSet B = new BitSet();
+                    for (int t = 1; t <= ntax; t++) {
+                        final int r = random.nextInt(3);
+                        if (r == 1)
+                            A.set(t);
+                        else if (r == 2)
+                            B.set(t);
+                    }
+                    if (A.cardinality() > 0 && B.cardinality() > 0)
+                        partialSplits.add(new PartialSplit(A, B));
+                }
+                final List<PartialSplit> expected = computeClosure(partialSplits);
+                final List<PartialSplit> result = new ZigZagClosure(partialSplits).compute(new ProgressSilent());
+                assertEquals(expected.size(), result.size());
+                for (int p = 0; p < expected.size(); p++) {
+                    assertEquals(expected.get(p).getA(), result.get(p).getA());
+                    assertEquals(expected.get(p).getB(), result.get(p).getB());
+                }
+            }
+        }
+    }
+
+    /**
+     * closure computed by applying PartialSplit.applyZigZagRule in the same order as ZigZagClosure
+     */
+    private static List<PartialSplit> computeClosure(List<PartialSplit> partialSplits) {
+        final PartialSplit[] splits = partialSplits.toArray(new PartialSplit[0]);
+        final int n = splits.length;
+
+        SortedSet<Integer> newSplits = new TreeSet<>();
+        for (int p1 = 0; p1 < n; p1++) {
+            for (int p2 = p1 + 1; p2 < n; p2++)
+                apply(splits, p1, p2, newSplits);
+        }
+        while (newSplits.size() > 0) {
+            final SortedSet<Integer> active = newSplits;
+            newSplits = new TreeSet<>();
+            for (int p1 = 0; p1 < n; p1++) {
+                for (int p2 : active)
+                    apply(splits, p1, p2, newSplits);
+            }
+            for (int p1 : active) {
+                for (int p2 : active)
+                    apply(splits, p1, p2, newSplits);
+            }
+        }
+        return Arrays.asList(splits);
+    }
+
+    private static void apply(PartialSplit[] splits, int p1, int p2, Set<Integer> newSplits) {
+        final PartialSplit qs1 = new PartialSplit();
+        final PartialSplit qs2 = new PartialSplit();
+        if (PartialSplit.applyZigZagRule(splits[p1], splits[p2], qs1, qs2)) {
+            splits[p1] = qs1;
+            splits[p2] = qs2;
+            newSplits.add(p1);
+            newSplits.add(p2);
+        }
+    }
+}
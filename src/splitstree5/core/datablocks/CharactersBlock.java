@@ -25,10 +25,12 @@ import splitstree5.core.datablocks.characters.AmbiguityCodes;
 import splitstree5.core.datablocks.characters.CharactersType;
 import splitstree5.io.nexus.CharactersNexusFormat;
 import splitstree5.io.nexus.stateLabeler.StateLabeler;
+import splitstree5.utils.Fingerprint;
 
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A characters block
@@ -399,6 +401,31 @@ public class CharactersBlock extends DataBlock {
         this.hasAmbiguityCodes = hasAmbiguityCodes;
     }
 
+    @Override
+    public long computeFingerprint(TaxaBlock taxaBlock) {
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(getNtax());
+        for (char[] row : matrix)
+            fingerprint.add(row);
+        fingerprint.add(dataType.name());
+        fingerprint.add(symbols);
+        fingerprint.add(gapCharacter);
+        fingerprint.add(missingCharacter);
+        fingerprint.add(diploid);
+        fingerprint.add(respectCase);
+        fingerprint.add(stateLabeler != null);
+        fingerprint.add(characterWeights != null);
+        if (characterWeights != null)
+            fingerprint.add(characterWeights);
+        if (charLabeler != null) {
+            for (Map.Entry<Integer, String> entry : new TreeMap<>(charLabeler).entrySet()) {
+                fingerprint.add(entry.getKey());
+                fingerprint.add(entry.getValue());
+            }
+        }
+        return fingerprint.get();
+    }
+
     @Override
     public String getBlockName() {
         return BLOCK_NAME;
@@ -32,6 +32,7 @@ import splitstree5.core.workflow.UpdateState;
 import splitstree5.io.exports.NexusExporter;
 import splitstree5.io.nexus.INexusFormat;
 import splitstree5.io.nexus.NexusParser;
+import splitstree5.utils.Fingerprint;
 import splitstree5.utils.NameableBase;
 
 import java.io.IOException;
@@ -150,6 +151,29 @@ abstract public class DataBlock extends NameableBase {
         return w.toString();
     }
 
+    /**
+     * computes a fingerprint of the content of this datablock, used to detect whether a recomputation has changed
+     * anything. The datablocks computed by algorithms hash their content directly, so that the result does not depend
+     * on rounding in the output format. By default, hashes the Nexus representation
+     *
+     * @param taxaBlock the taxa that this datablock refers to
+     * @return fingerprint, or 0, if unknown
+     */
+    public long computeFingerprint(TaxaBlock taxaBlock) {
+        try (Fingerprint fingerprint = new Fingerprint()) {
+            fingerprint.add(getClass().getName());
+            final NexusExporter nexusExporter = new NexusExporter();
+            nexusExporter.setPrependTaxa(false);
+            if (this instanceof AnalysisBlock)
+                nexusExporter.export(fingerprint, (AnalysisBlock) this);
+            else
+                nexusExporter.export(fingerprint, taxaBlock, this);
+            return fingerprint.get();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
     public INexusFormat getFormat() {
         return format;
     }
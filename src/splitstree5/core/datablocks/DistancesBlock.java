@@ -21,23 +21,33 @@ package splitstree5.core.datablocks;
 
 import splitstree5.core.algorithms.interfaces.IFromDistances;
 import splitstree5.core.algorithms.interfaces.IToDistances;
+import splitstree5.core.datablocks.distances.DistanceMatrix;
+import splitstree5.core.datablocks.distances.DistancesStorage;
+import splitstree5.core.datablocks.distances.SquareDistanceMatrix;
 import splitstree5.io.nexus.DistancesNexusFormat;
+import splitstree5.utils.Fingerprint;
 
 /**
  * A distances block
+ * <p>
+ * By default, values are held in a full square matrix. For very large numbers of taxa, a packed symmetric storage,
+ * optionally in single precision or memory-mapped, can be selected using setStorage(). Algorithms should read the values using
+ * get() or the views returned by getDistanceMatrix() and getVarianceMatrix(), rather than getDistances(), which must
+ * copy packed values into a new array
  * Daniel Huson, 12/21/16.
  */
 public class DistancesBlock extends DataBlock {
     public static final String BLOCK_NAME = "DISTANCES";
 
-    private double[][] distances;
-    private double[][] variances;
+    private DistancesStorage storage = DistancesStorage.Square;
+    private DistanceMatrix distances;
+    private DistanceMatrix variances;
 
     /**
      * constructor
      */
     public DistancesBlock() {
-        distances = new double[0][0];
+        distances = new SquareDistanceMatrix(0);
         format = new DistancesNexusFormat();
     }
 
@@ -46,27 +56,62 @@ public class DistancesBlock extends DataBlock {
      *
 	 */
     public void copy(DistancesBlock that) {
-        distances = that.getDistances();
-        variances = that.getVariances();
+        storage = that.getStorage();
+        distances = that.getDistanceMatrix();
+        variances = that.getVarianceMatrix();
         format = that.getFormat();
     }
 
     @Override
     public void clear() {
         super.clear();
-        distances = new double[0][0];
+        distances = storage.create(0);
         variances = null;
     }
 
     public void setNtax(int n) {
-        distances = new double[n][n];
+        distances = storage.create(n);
         variances = null;
         setShortDescription(getInfo());
     }
 
+    /**
+     * sets the number of taxa and the storage to use for this and all subsequent matrices
+     */
+    public void setNtax(int n, DistancesStorage storage) {
+        this.storage = storage;
+        setNtax(n);
+    }
+
+    public DistancesStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * sets the storage to use for subsequent matrices, the current values are kept
+     */
+    public void setStorage(DistancesStorage storage) {
+        if (storage != this.storage) {
+            this.storage = storage;
+            distances = copy(distances, storage);
+            if (variances != null)
+                variances = copy(variances, storage);
+        }
+    }
+
+    private static DistanceMatrix copy(DistanceMatrix matrix, DistancesStorage storage) {
+        final int n = matrix.size();
+        final DistanceMatrix result = storage.create(n);
+        for (int i = 0; i < n; i++) {
+            for (int j = (result.isSymmetric() ? i : 0); j < n; j++)
+                result.set(i, j, matrix.get(i, j));
+        }
+        return result;
+    }
+
     @Override
     public int size() {
-        return distances.length;
+        return distances.size();
     }
 
     /**
@@ -77,17 +122,17 @@ public class DistancesBlock extends DataBlock {
      * @return value
      */
     public double get(int i, int j) {
-        return distances[i - 1][j - 1];
+        return distances.get(i - 1, j - 1);
     }
 
     /**
-     * sets the value
+     * sets the value. If the storage is packed, then this also sets the value for j and i
      *
      * @param i     in range 1-nTax
      * @param j     in range 1-nTax
 	 */
     public void set(int i, int j, double value) {
-        distances[i - 1][j - 1] = value;
+        distances.set(i - 1, j - 1, value);
     }
 
     public int getNtax() {
@@ -99,7 +144,9 @@ public class DistancesBlock extends DataBlock {
      *
 	 */
     public void setBoth(int s, int t, double value) {
-        distances[s - 1][t - 1] = distances[t - 1][s - 1] = value;
+        distances.set(s - 1, t - 1, value);
+        if (!distances.isSymmetric())
+            distances.set(t - 1, s - 1, value);
     }
 
     /**
@@ -109,7 +156,7 @@ public class DistancesBlock extends DataBlock {
      */
     public double getVariance(int s, int t) {
         if (variances != null)
-            return variances[s - 1][t - 1];
+            return variances.get(s - 1, t - 1);
         else
             return -1;
     }
@@ -121,10 +168,10 @@ public class DistancesBlock extends DataBlock {
     public void setVariance(int s, int t, double value) {
         synchronized (this) {
             if (variances == null) {
-                variances = new double[distances.length][distances.length];
+                variances = storage.create(distances.size());
             }
         }
-        variances[s - 1][t - 1] = value;
+        variances.set(s - 1, t - 1, value);
     }
 
     public void clearVariances() {
@@ -140,14 +187,11 @@ public class DistancesBlock extends DataBlock {
      *
 	 */
     public void set(double[][] distances) {
-        if (this.distances.length != distances.length) {
-            this.distances = new double[distances.length][distances.length];
+        if (this.distances.size() != distances.length) {
+            this.distances = storage.create(distances.length);
             variances = null;
         }
-
-        for (int i = 0; i < distances.length; i++) {
-            System.arraycopy(distances[i], 0, this.distances[i], 0, distances.length);
-        }
+        copy(distances, this.distances);
     }
 
     /**
@@ -155,26 +199,81 @@ public class DistancesBlock extends DataBlock {
      *
 	 */
     public void set(double[][] distances, double[][] variances) {
-        if (this.distances == null || this.distances.length != distances.length)
-            this.distances = new double[distances.length][distances.length];
+        if (this.distances == null || this.distances.size() != distances.length)
+            this.distances = storage.create(distances.length);
 
-        if (this.variances == null || this.variances.length != variances.length)
-            this.variances = new double[variances.length][variances.length];
+        if (this.variances == null || this.variances.size() != variances.length)
+            this.variances = storage.create(variances.length);
 
-        for (int i = 0; i < distances.length; i++) {
-            System.arraycopy(distances[i], 0, this.distances[i], 0, distances.length);
-            System.arraycopy(variances[i], 0, this.variances[i], 0, distances.length);
+        copy(distances, this.distances);
+        copy(variances, this.variances);
+    }
+
+    private static void copy(double[][] source, DistanceMatrix target) {
+        if (target instanceof SquareDistanceMatrix) {
+            final double[][] array = ((SquareDistanceMatrix) target).getArray();
+            for (int i = 0; i < source.length; i++) {
+                System.arraycopy(source[i], 0, array[i], 0, source.length);
+            }
+        } else {
+            for (int i = 0; i < source.length; i++) {
+                for (int j = (target.isSymmetric() ? i : 0); j < source.length; j++)
+                    target.set(i, j, source[i][j]);
+            }
         }
     }
 
+    /**
+     * gets the distances as a square array, 0-based. For the default storage, this is the underlying array,
+     * otherwise it is a copy
+     */
     public double[][] getDistances() {
-        return distances;
+        return toArray(distances);
     }
 
+    /**
+     * gets the variances as a square array, 0-based, or null. For the default storage, this is the underlying array,
+     * otherwise it is a copy
+     */
     public double[][] getVariances() {
+        return variances == null ? null : toArray(variances);
+    }
+
+    private static double[][] toArray(DistanceMatrix matrix) {
+        if (matrix instanceof SquareDistanceMatrix)
+            return ((SquareDistanceMatrix) matrix).getArray();
+        else
+            return matrix.toArray();
+    }
+
+    /**
+     * gets a view of the distances, 0-based
+     */
+    public DistanceMatrix getDistanceMatrix() {
+        return distances;
+    }
+
+    /**
+     * gets a view of the variances, 0-based, or null
+     */
+    public DistanceMatrix getVarianceMatrix() {
         return variances;
     }
 
+    @Override
+    public long computeFingerprint(TaxaBlock taxaBlock) {
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(getNtax());
+        final double[] row = new double[getNtax()];
+        for (int i = 0; i < getNtax(); i++)
+            fingerprint.add(distances.getRow(i, row));
+        if (variances != null) {
+            for (int i = 0; i < getNtax(); i++)
+                fingerprint.add(variances.getRow(i, row));
+        }
+        return fingerprint.get();
+    }
+
     @Override
     public Class<IFromDistances> getFromInterface() {
         return IFromDistances.class;
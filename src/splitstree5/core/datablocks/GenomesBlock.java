@@ -25,7 +25,9 @@ import splitstree5.core.algorithms.interfaces.IFromGenomes;
 import splitstree5.core.algorithms.interfaces.IToGenomes;
 import splitstree5.core.data.Genome;
 import splitstree5.io.nexus.GenomesNexusFormat;
+import splitstree5.utils.Fingerprint;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -111,6 +113,37 @@ public class GenomesBlock extends DataBlock {
         return genomes.get(t - 1);
     }
 
+    /**
+     * fingerprints the sequences held in memory. Sequences that are read from files on demand are represented by
+     * their file, position and the size and modification time of the file
+     */
+    @Override
+    public long computeFingerprint(TaxaBlock taxaBlock) {
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(genomes.size());
+        for (Genome genome : genomes) {
+            fingerprint.add(genome.getName());
+            fingerprint.add(genome.getAccession());
+            fingerprint.add(genome.getLength());
+            fingerprint.add(genome.getNumberOfParts());
+            for (Genome.GenomePart part : genome.getParts()) {
+                fingerprint.add(part.getName());
+                fingerprint.add(part.getLength());
+                if (part.getFile() != null) {
+                    final File file = new File(part.getFile());
+                    fingerprint.add(part.getFile());
+                    fingerprint.add(part.getOffset());
+                    fingerprint.add(file.length());
+                    fingerprint.add(file.lastModified());
+                } else {
+                    final byte[] sequence = part.getSequence();
+                    fingerprint.add(sequence == null ? new byte[0] : sequence);
+                }
+            }
+        }
+        return fingerprint.get();
+    }
+
     @Override
     public String getBlockName() {
         return BLOCK_NAME;
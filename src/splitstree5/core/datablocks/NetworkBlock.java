@@ -26,8 +26,11 @@ import jloda.graph.NodeArray;
 import jloda.phylo.PhyloGraph;
 import splitstree5.core.algorithms.interfaces.IFromNetwork;
 import splitstree5.core.algorithms.interfaces.IToNetwork;
+import splitstree5.utils.Fingerprint;
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * implements a network
@@ -144,6 +147,40 @@ public class NetworkBlock extends DataBlock {
         this.networkType = networkType;
     }
 
+    @Override
+    public long computeFingerprint(TaxaBlock taxaBlock) {
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(String.valueOf(networkType));
+        final Map<Node, Integer> node2index = new HashMap<>();
+        fingerprint.add(graph.getNumberOfNodes());
+        for (Node v : graph.nodes()) {
+            node2index.put(v, node2index.size());
+            fingerprint.add(graph.getLabel(v));
+            for (int t : graph.getTaxa(v))
+                fingerprint.add(t);
+            fingerprint.add(-1);
+            addData(fingerprint, node2data.get(v));
+        }
+        fingerprint.add(graph.getNumberOfEdges());
+        for (Edge e : graph.edges()) {
+            fingerprint.add(node2index.get(e.getSource()));
+            fingerprint.add(node2index.get(e.getTarget()));
+            fingerprint.add(graph.getWeight(e));
+            addData(fingerprint, edge2data.get(e));
+        }
+        return fingerprint.get();
+    }
+
+    private static void addData(Fingerprint fingerprint, Map<String, String> data) {
+        if (data != null) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(data).entrySet()) {
+                fingerprint.add(entry.getKey());
+                fingerprint.add(entry.getValue());
+            }
+        }
+        fingerprint.add(-1);
+    }
+
     @Override
     public String getBlockName() {
         return BLOCK_NAME;
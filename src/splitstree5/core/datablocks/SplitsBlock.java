@@ -26,6 +26,7 @@ import splitstree5.core.algorithms.interfaces.IToSplits;
 import splitstree5.core.misc.ASplit;
 import splitstree5.core.misc.Compatibility;
 import splitstree5.io.nexus.SplitsNexusFormat;
+import splitstree5.utils.Fingerprint;
 import splitstree5.utils.SplitsUtilities;
 
 import java.util.*;
@@ -240,6 +241,33 @@ public class SplitsBlock extends DataBlock {
 		return getNsplits() + " splits" + (compatibility != Compatibility.unknown ? ", " + StringUtils.fromCamelCase(compatibility.toString()).toLowerCase() : "");
     }
 
+    @Override
+    public long computeFingerprint(TaxaBlock taxaBlock) {
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(splits.size());
+        for (ASplit split : splits) {
+            fingerprint.add(split.getA().toLongArray());
+            fingerprint.add(split.getB().toLongArray());
+            fingerprint.add(split.getWeight());
+            fingerprint.add(split.getConfidence());
+            fingerprint.add(split.getLabel());
+        }
+        for (Map.Entry<Integer, String> entry : new TreeMap<>(splitLabels).entrySet()) {
+            fingerprint.add(entry.getKey());
+            fingerprint.add(entry.getValue());
+        }
+        fingerprint.add(cycle != null);
+        if (cycle != null) {
+            for (int t : cycle)
+                fingerprint.add(t);
+        }
+        fingerprint.add(compatibility.name());
+        fingerprint.add(fit);
+        fingerprint.add(threshold);
+        fingerprint.add(partial);
+        return fingerprint.get();
+    }
+
     @Override
     public String getBlockName() {
         return BLOCK_NAME;
@@ -30,6 +30,7 @@ import javafx.collections.ObservableMap;
 import splitstree5.core.algorithms.interfaces.IFromTaxa;
 import splitstree5.core.algorithms.interfaces.IToTaxa;
 import splitstree5.core.misc.Taxon;
+import splitstree5.utils.Fingerprint;
 
 import java.io.IOException;
 import java.util.*;
@@ -339,6 +340,18 @@ public class TaxaBlock extends DataBlock {
         return false;
     }
 
+    @Override
+    public long computeFingerprint(TaxaBlock taxaBlock) {
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(getNtax());
+        for (Taxon taxon : taxa) {
+            fingerprint.add(taxon.getName());
+            fingerprint.add(taxon.getDisplayLabel());
+            fingerprint.add(taxon.getInfo());
+        }
+        return fingerprint.get();
+    }
+
     @Override
     public String getBlockName() {
         return BLOCK_NAME;
@@ -22,10 +22,16 @@ package splitstree5.core.datablocks;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import jloda.graph.Edge;
+import jloda.graph.Node;
 import jloda.phylo.PhyloTree;
 import splitstree5.core.algorithms.interfaces.IFromTrees;
 import splitstree5.core.algorithms.interfaces.IToTrees;
 import splitstree5.io.nexus.TreesNexusFormat;
+import splitstree5.utils.Fingerprint;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A trees block
@@ -134,6 +140,35 @@ public class TreesBlock extends DataBlock {
         return trees.get(t - 1);
     }
 
+    @Override
+    public long computeFingerprint(TaxaBlock taxaBlock) {
+        final Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(trees.size());
+        fingerprint.add(partial);
+        fingerprint.add(rooted);
+        for (PhyloTree tree : trees) {
+            fingerprint.add(tree.getName());
+            final Map<Node, Integer> node2index = new HashMap<>();
+            fingerprint.add(tree.getNumberOfNodes());
+            for (Node v : tree.nodes()) {
+                node2index.put(v, node2index.size());
+                fingerprint.add(tree.getLabel(v));
+                for (int t : tree.getTaxa(v))
+                    fingerprint.add(t);
+                fingerprint.add(-1);
+            }
+            fingerprint.add(tree.getRoot() == null ? -1 : node2index.get(tree.getRoot()));
+            fingerprint.add(tree.getNumberOfEdges());
+            for (Edge e : tree.edges()) {
+                fingerprint.add(node2index.get(e.getSource()));
+                fingerprint.add(node2index.get(e.getTarget()));
+                fingerprint.add(tree.getWeight(e));
+                fingerprint.add(tree.getConfidence(e));
+            }
+        }
+        return fingerprint.get();
+    }
+
     @Override
     public String getBlockName() {
         return BLOCK_NAME;
@@ -0,0 +1,77 @@
+/*
+ * DistanceMatrix.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.datablocks.distances;
+
+/**
+ * a square matrix of pairwise values, indices 0-based. Implementations are views of the underlying storage, so
+ * algorithms can read the values of a distances block without first copying them into an array of their own
+ * Daniel Huson, 10.2026
+ */
+public interface DistanceMatrix {
+    /**
+     * @return number of rows and columns
+     */
+    int size();
+
+    /**
+     * gets the value for i and j
+     *
+     * @param i in range 0..size-1
+     * @param j in range 0..size-1
+     */
+    double get(int i, int j);
+
+    /**
+     * sets the value for i and j. For a symmetric matrix, this also sets the value for j and i
+     *
+     * @param i in range 0..size-1
+     * @param j in range 0..size-1
+     */
+    void set(int i, int j, double value);
+
+    /**
+     * @return true, if the value for (i,j) is always the value for (j,i)
+     */
+    boolean isSymmetric();
+
+    /**
+     * copies row i into the given array
+     *
+     * @param row array of length at least size, or null
+     * @return the row
+     */
+    default double[] getRow(int i, double[] row) {
+        if (row == null)
+            row = new double[size()];
+        for (int j = 0; j < size(); j++)
+            row[j] = get(i, j);
+        return row;
+    }
+
+    /**
+     * copies the matrix into a new square array
+     */
+    default double[][] toArray() {
+        final double[][] array = new double[size()][];
+        for (int i = 0; i < size(); i++)
+            array[i] = getRow(i, null);
+        return array;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * DistancesStorage.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.datablocks.distances;
+
+import java.io.IOException;
+
+/**
+ * how the values of a distances block are stored
+ * <p>
+ * Square: full square array of doubles, n*n*8 bytes, the default
+ * Packed, PackedFloat: symmetric, upper triangle only, n*(n+1)/2*8 or *4 bytes on the heap
+ * Mapped, MappedFloat: as packed, but held in a memory-mapped temporary file, outside of the heap
+ * Daniel Huson, 10.2026
+ */
+public enum DistancesStorage {
+    Square, Packed, PackedFloat, Mapped, MappedFloat;
+
+    /**
+     * creates a new matrix of the given size, with all values 0
+     */
+    public DistanceMatrix create(int n) {
+        switch (this) {
+            default:
+            case Square:
+                return new SquareDistanceMatrix(n);
+            case Packed:
+                return new PackedDistanceMatrix(n, false);
+            case PackedFloat:
+                return new PackedDistanceMatrix(n, true);
+            case Mapped:
+            case MappedFloat:
+                try {
+                    return PackedDistanceMatrix.createMapped(n, this == MappedFloat);
+                } catch (IOException ex) {
+                    throw new RuntimeException("Failed to create memory-mapped distance matrix: " + ex.getMessage());
+                }
+        }
+    }
+
+    /**
+     * @return the number of bytes required to store n x n values
+     */
+    public long getBytes(int n) {
+        final long cells = (this == Square ? (long) n * n : (long) n * (n + 1) / 2);
+        return cells * (this == PackedFloat || this == MappedFloat ? 4 : 8);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * PackedDistanceMatrix.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.datablocks.distances;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * a symmetric distance matrix that only stores the upper triangle, including the diagonal, in single or double precision.
+ * Row i holds the values for columns i..n-1.
+ * <p>
+ * The rows are either held in arrays on the heap, or in a memory-mapped temporary file, which is split into
+ * chunks of whole rows of at most 1GB each. The file is deleted as soon as it is mapped, the memory is returned to
+ * the operating system once the matrix is garbage collected.
+ * <p>
+ * Different cells may be set by different threads concurrently
+ * Daniel Huson, 10.2026
+ */
+public class PackedDistanceMatrix implements DistanceMatrix {
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final int n;
+    private final boolean useFloat;
+
+    private final double[][] doubleRows;
+    private final float[][] floatRows;
+
+    private final ByteBuffer[] chunks;
+    private final int[] rowChunk;
+    private final int[] rowOffset; // byte offset of the diagonal value of row i in its chunk
+
+    /**
+     * creates a packed matrix on the heap
+     *
+     * @param useFloat store values in single precision
+     */
+    public PackedDistanceMatrix(int n, boolean useFloat) {
+        this.n = n;
+        this.useFloat = useFloat;
+        if (useFloat) {
+            floatRows = new float[n][];
+            for (int i = 0; i < n; i++)
+                floatRows[i] = new float[n - i];
+            doubleRows = null;
+        } else {
+            doubleRows = new double[n][];
+            for (int i = 0; i < n; i++)
+                doubleRows[i] = new double[n - i];
+            floatRows = null;
+        }
+        chunks = null;
+        rowChunk = null;
+        rowOffset = null;
+    }
+
+    private PackedDistanceMatrix(int n, boolean useFloat, ByteBuffer[] chunks, int[] rowChunk, int[] rowOffset) {
+        this.n = n;
+        this.useFloat = useFloat;
+        this.chunks = chunks;
+        this.rowChunk = rowChunk;
+        this.rowOffset = rowOffset;
+        doubleRows = null;
+        floatRows = null;
+    }
+
+    /**
+     * creates a packed matrix in a memory-mapped temporary file
+     *
+     * @param useFloat store values in single precision
+     */
+    public static PackedDistanceMatrix createMapped(int n, boolean useFloat) throws IOException {
+        final int bytesPerValue = (useFloat ? 4 : 8);
+        if ((long) n * bytesPerValue > MAX_CHUNK_BYTES)
+            throw new IOException("Too many taxa: " + n);
+
+        final int[] rowChunk = new int[n];
+        final int[] rowOffset = new int[n];
+        final long[] chunkBytes = new long[n + 1];
+        int numberOfChunks = 0;
+        long bytes = 0;
+        for (int i = 0; i < n; i++) {
+            final long rowBytes = (long) (n - i) * bytesPerValue;
+            if (bytes + rowBytes > MAX_CHUNK_BYTES) {
+                chunkBytes[numberOfChunks++] = bytes;
+                bytes = 0;
+            }
+            rowChunk[i] = numberOfChunks;
+            rowOffset[i] = (int) bytes;
+            bytes += rowBytes;
+        }
+        chunkBytes[numberOfChunks++] = bytes;
+
+        final File file = File.createTempFile("distances", ".tmp");
+        final ByteBuffer[] chunks = new ByteBuffer[numberOfChunks];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            long total = 0;
+            for (int c = 0; c < numberOfChunks; c++)
+                total += chunkBytes[c];
+            raf.setLength(total);
+            long position = 0;
+            for (int c = 0; c < numberOfChunks; c++) {
+                chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, position, chunkBytes[c]);
+                position += chunkBytes[c];
+            }
+        } finally {
+            if (!file.delete())
+                file.deleteOnExit();
+        }
+        return new PackedDistanceMatrix(n, useFloat, chunks, rowChunk, rowOffset);
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (i > j) {
+            final int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        if (floatRows != null)
+            return floatRows[i][j - i];
+        else if (doubleRows != null)
+            return doubleRows[i][j - i];
+        else if (useFloat)
+            return chunks[rowChunk[i]].getFloat(rowOffset[i] + 4 * (j - i));
+        else
+            return chunks[rowChunk[i]].getDouble(rowOffset[i] + 8 * (j - i));
+    }
+
+    @Override
+    public void set(int i, int j, double value) {
+        if (i > j) {
+            final int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        if (floatRows != null)
+            floatRows[i][j - i] = (float) value;
+        else if (doubleRows != null)
+            doubleRows[i][j - i] = value;
+        else if (useFloat)
+            chunks[rowChunk[i]].putFloat(rowOffset[i] + 4 * (j - i), (float) value);
+        else
+            chunks[rowChunk[i]].putDouble(rowOffset[i] + 8 * (j - i), value);
+    }
+
+    @Override
+    public boolean isSymmetric() {
+        return true;
+    }
+
+    @Override
+    public double[] getRow(int i, double[] row) {
+        if (row == null)
+            row = new double[n];
+        for (int j = 0; j < i; j++)
+            row[j] = get(j, i);
+        if (floatRows != null) {
+            final float[] values = floatRows[i];
+            for (int j = i; j < n; j++)
+                row[j] = values[j - i];
+        } else if (doubleRows != null)
+            System.arraycopy(doubleRows[i], 0, row, i, n - i);
+        else {
+            for (int j = i; j < n; j++)
+                row[j] = get(i, j);
+        }
+        return row;
+    }
+
+    public boolean isFloat() {
+        return useFloat;
+    }
+
+    public boolean isMapped() {
+        return chunks != null;
+    }
+}
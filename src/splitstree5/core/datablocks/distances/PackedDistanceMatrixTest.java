@@ -0,0 +1,104 @@
+/*
+ * PackedDistanceMatrixTest.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.datablocks.distances;
+
+import org.junit.Test;
+import splitstree5.core.datablocks.DistancesBlock;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * tests the packed storage of distances
+ * Daniel Huson, 10.2026
+ */
+public class PackedDistanceMatrixTest {
+
+    @Test
+    public void testStorages() {
+        final int n = 57;
+        final double[][] values = createSymmetric(n, new Random(42));
+        for (DistancesStorage storage : DistancesStorage.values()) {
+            final DistanceMatrix matrix = storage.create(n);
+            assertEquals(n, matrix.size());
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++)
+                    matrix.set(i, j, values[i][j]);
+            }
+            final double delta = (storage == DistancesStorage.PackedFloat || storage == DistancesStorage.MappedFloat ? 1e-6 : 0);
+            for (int i = 0; i < n; i++) {
+                assertArrayEquals(storage.name(), values[i], matrix.getRow(i, null), delta);
+                for (int j = 0; j < n; j++)
+                    assertEquals(storage.name(), values[i][j], matrix.get(i, j), delta);
+            }
+        }
+    }
+
+    @Test
+    public void testPackedIsSymmetric() {
+        final DistanceMatrix matrix = new PackedDistanceMatrix(4, false);
+        matrix.set(3, 1, 2.5);
+        assertEquals(2.5, matrix.get(1, 3), 0);
+        assertEquals(2.5, matrix.get(3, 1), 0);
+        matrix.set(1, 3, 1.5);
+        assertEquals(1.5, matrix.get(3, 1), 0);
+    }
+
+    @Test
+    public void testDistancesBlock() {
+        final int n = 20;
+        final double[][] values = createSymmetric(n, new Random(7));
+
+        final DistancesBlock square = new DistancesBlock();
+        square.set(values);
+        final long fingerprint = square.computeFingerprint(null);
+
+        for (DistancesStorage storage : new DistancesStorage[]{DistancesStorage.Packed, DistancesStorage.Mapped}) {
+            final DistancesBlock packed = new DistancesBlock();
+            packed.setNtax(n, storage);
+            for (int s = 1; s <= n; s++) {
+                for (int t = s + 1; t <= n; t++)
+                    packed.setBoth(s, t, values[s - 1][t - 1]);
+            }
+            assertEquals(storage, packed.getStorage());
+            assertEquals(fingerprint, packed.computeFingerprint(null));
+            for (int i = 0; i < n; i++)
+                assertArrayEquals(values[i], packed.getDistances()[i], 0);
+
+            packed.setVariance(2, 5, 0.25);
+            assertEquals(0.25, packed.getVariance(5, 2), 0);
+        }
+
+        square.setStorage(DistancesStorage.PackedFloat);
+        assertEquals(n, square.getNtax());
+        assertEquals(values[3][11], square.get(12, 4), 1e-6);
+    }
+
+    private static double[][] createSymmetric(int n, Random random) {
+        final double[][] values = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++)
+                values[i][j] = values[j][i] = Math.round(1000 * random.nextDouble()) / 1000.0;
+        }
+        return values;
+    }
+}
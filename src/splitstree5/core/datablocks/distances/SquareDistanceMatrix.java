@@ -0,0 +1,75 @@
+/*
+ * SquareDistanceMatrix.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.datablocks.distances;
+
+/**
+ * a distance matrix stored as a full square array of doubles. This is the default storage, it also holds
+ * matrices that are not symmetric
+ * Daniel Huson, 10.2026
+ */
+public class SquareDistanceMatrix implements DistanceMatrix {
+    private final double[][] values;
+
+    public SquareDistanceMatrix(int n) {
+        this(new double[n][n]);
+    }
+
+    /**
+     * wraps the given square array, without copying it
+     */
+    public SquareDistanceMatrix(double[][] values) {
+        this.values = values;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        return values[i][j];
+    }
+
+    @Override
+    public void set(int i, int j, double value) {
+        values[i][j] = value;
+    }
+
+    @Override
+    public boolean isSymmetric() {
+        return false;
+    }
+
+    @Override
+    public double[] getRow(int i, double[] row) {
+        if (row == null)
+            return values[i].clone();
+        System.arraycopy(values[i], 0, row, 0, values.length);
+        return row;
+    }
+
+    /**
+     * @return the underlying array
+     */
+    public double[][] getArray() {
+        return values;
+    }
+}
@@ -250,6 +250,11 @@ public final class ASplit implements Comparable<ASplit> {
             return false;
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * A.hashCode() + B.hashCode();
+    }
+
     public ASplit clone() {
         ASplit result = new ASplit(this.getA(), this.ntax());
         result.setWeight(this.getWeight());
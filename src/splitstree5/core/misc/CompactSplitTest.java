@@ -0,0 +1,86 @@
+/*
+ * CompactSplitTest.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.misc;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * tests compact splits
+ * Daniel Huson, 10.2026
+ */
+public class CompactSplitTest {
+
+    @Test
+    public void testNormalization() {
+        final Random random = new Random(7);
+        for (int ntax : new int[]{4, 63, 64, 65, 130}) {
+            for (int run = 0; run < 50; run++) {
+                final BitSet part = new BitSet();
+                for (int t = 1; t <= ntax; t++) {
+                    if (random.nextBoolean())
+                        part.set(t);
+                }
+                final BitSet complement = (BitSet) part.clone();
+                complement.flip(1, ntax + 1);
+
+                final CompactSplit split = CompactSplit.of(part, ntax);
+                final CompactSplit other = CompactSplit.of(complement, ntax);
+                assertEquals(split, other);
+                assertEquals(split.hashCode(), other.hashCode());
+                assertEquals(0, split.compareTo(other));
+                assertTrue(split.contains(1));
+                assertEquals(part.get(1) ? part : complement, split.getPartContaining1());
+                assertEquals(part.get(1) ? complement : part, split.getPartNotContaining1());
+                assertEquals(Math.min(part.cardinality(), complement.cardinality()), split.size());
+
+                final ASplit aSplit = split.toASplit(2.5, 0.5);
+                assertEquals(new ASplit(part, ntax), aSplit);
+                assertEquals(new ASplit(part, ntax).hashCode(), aSplit.hashCode());
+                assertEquals(split, CompactSplit.of(aSplit));
+            }
+        }
+    }
+
+    @Test
+    public void testOrderAndPool() {
+        final int ntax = 70;
+        final BitSet a = new BitSet();
+        a.set(1, 3);
+        final BitSet b = new BitSet();
+        b.set(1);
+        b.set(3);
+        final CompactSplit splitA = CompactSplit.of(a, ntax);
+        final CompactSplit splitB = CompactSplit.of(b, ntax);
+        assertNotEquals(splitA, splitB);
+        assertTrue(splitA.compareTo(splitB) < 0);
+        assertTrue(splitB.compareTo(splitA) > 0);
+
+        final CompactSplit.Pool pool = new CompactSplit.Pool();
+        assertSame(splitA, pool.intern(splitA));
+        assertSame(splitA, pool.intern(CompactSplit.of(a, ntax)));
+        assertSame(splitB, pool.intern(splitB));
+        assertEquals(2, pool.size());
+    }
+}
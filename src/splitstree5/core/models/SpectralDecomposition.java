@@ -0,0 +1,223 @@
+/*
+ * SpectralDecomposition.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.models;
+
+/**
+ * the eigensystem of a reversible substitution model, used to compute maximum likelihood distances.
+ * <p>
+ * If V and D are the eigenvectors and eigenvalues of Pi^(1/2) Q Pi^(-1/2), then
+ * X_ij(t) = pi_i P_ij(t) = (1-pinv) sum_k sqrt(pi_i) sqrt(pi_j) V_ik V_jk e_k(t) + pinv pi_i [i=j],
+ * with e_k(t)=exp(D_k t), or the corresponding gamma term. The products sqrt(pi_i) sqrt(pi_j) V_ik V_jk are computed once,
+ * so that X(t) and its first two derivatives are obtained in one pass, and are only needed for pairs of states
+ * that are observed. As X is symmetric, only the upper triangle is used.
+ * <p>
+ * Immutable, can be shared by threads
+ * Daniel Huson, 10.2026
+ */
+public class SpectralDecomposition {
+    private static final double TOLERANCE = 1e-12;
+    private static final int MAX_ITERATIONS = 100;
+
+    private final int nStates;
+    private final double[] freqs;
+    private final double[] evals;
+    private final double gamma;
+    private final double pinv;
+    private final double[][] weights; // for each cell i<=j of the upper triangle, the products for all k
+
+    /**
+     * constructor
+     *
+     * @param freqs base frequencies
+     * @param evals eigenvalues of Pi^(1/2) Q Pi^(-1/2)
+     * @param evecs eigenvectors, evecs[i][k] is the i-th entry of the k-th eigenvector
+     * @param gamma gamma parameter, or 0, for equal rates
+     * @param pinv  proportion of invariable sites
+     */
+    public SpectralDecomposition(double[] freqs, double[] evals, double[][] evecs, double gamma, double pinv) {
+        this.nStates = freqs.length;
+        this.freqs = freqs.clone();
+        this.evals = evals.clone();
+        this.gamma = gamma;
+        this.pinv = pinv;
+
+        weights = new double[nStates * (nStates + 1) / 2][nStates];
+        for (int i = 0; i < nStates; i++) {
+            for (int j = i; j < nStates; j++) {
+                final double[] w = weights[cell(i, j)];
+                final double f = Math.sqrt(freqs[i]) * Math.sqrt(freqs[j]);
+                for (int k = 0; k < nStates; k++)
+                    w[k] = f * evecs[i][k] * evecs[j][k];
+            }
+        }
+    }
+
+    private int cell(int i, int j) {
+        return i * nStates - i * (i - 1) / 2 + (j - i);
+    }
+
+    public int getNstates() {
+        return nStates;
+    }
+
+    /**
+     * computes the time t that maximizes the log likelihood sum F_ij log X_ij(t) in the range [tmin,tmax]. Uses Newton steps
+     * on the derivative of the log likelihood, safeguarded by bisection
+     *
+     * @param F    the frequencies of pairs of states
+     * @param tmin lower bound
+     * @param tmax upper bound
+     * @return the maximum likelihood time, or tmax, if the likelihood still increases at tmax
+     */
+    public double maximizeLikelihood(double[][] F, double tmin, double tmax) {
+        // symmetrize F, as X is symmetric, and only keep observed pairs of states:
+        final int[] cells = new int[weights.length];
+        final double[] counts = new double[weights.length];
+        final int[] diagonal = new int[weights.length]; // state, if cell is on diagonal, else -1
+        int nCells = 0;
+        double sum = 0.0;
+        double sumDiagonal = 0.0;
+        for (int i = 0; i < nStates; i++) {
+            for (int j = i; j < nStates; j++) {
+                final double count = (i == j ? F[i][i] : F[i][j] + F[j][i]);
+                if (count != 0.0) {
+                    cells[nCells] = cell(i, j);
+                    counts[nCells] = count;
+                    diagonal[nCells] = (i == j ? i : -1);
+                    nCells++;
+                }
+                sum += count;
+                if (i == j)
+                    sumDiagonal += count;
+            }
+        }
+
+        final Evaluation evaluation = new Evaluation(nStates);
+
+        evaluate(tmin, cells, counts, diagonal, nCells, evaluation);
+        if (evaluation.d1 <= 0)
+            return tmin;
+        evaluate(tmax, cells, counts, diagonal, nCells, evaluation);
+        if (evaluation.d1 >= 0)
+            return tmax;
+
+        double lo = tmin;
+        double hi = tmax;
+
+        // start from the Jukes-Cantor estimate, if defined:
+        double t = 0.5 * (lo + hi);
+        if (sum > 0) {
+            final double b = (nStates - 1.0) / nStates;
+            final double p = 1.0 - sumDiagonal / sum;
+            if (p < b) {
+                final double jc = -b * Math.log(1.0 - p / b);
+                if (jc > lo && jc < hi)
+                    t = jc;
+            }
+        }
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            evaluate(t, cells, counts, diagonal, nCells, evaluation);
+            if (evaluation.d1 == 0)
+                return t;
+            if (evaluation.d1 > 0)
+                lo = t;
+            else
+                hi = t;
+
+            double next = t - evaluation.d1 / evaluation.d2;
+            if (!(evaluation.d2 < 0) || !(next > lo && next < hi)) // not concave or step leaves bracket
+                next = 0.5 * (lo + hi);
+            if (Math.abs(next - t) <= TOLERANCE * Math.max(1.0, t) || hi - lo <= TOLERANCE * Math.max(1.0, t))
+                return next;
+            t = next;
+        }
+        return t;
+    }
+
+    /**
+     * computes the first and second derivative of the log likelihood at time t
+     */
+    private void evaluate(double t, int[] cells, double[] counts, int[] diagonal, int nCells, Evaluation evaluation) {
+        final double[] e0 = evaluation.e0;
+        final double[] e1 = evaluation.e1;
+        final double[] e2 = evaluation.e2;
+
+        for (int k = 0; k < nStates; k++) {
+            final double lambda = evals[k];
+            if (gamma <= 0.0) {
+                final double e = (1.0 - pinv) * Math.exp(lambda * t);
+                e0[k] = e;
+                e1[k] = lambda * e;
+                e2[k] = lambda * lambda * e;
+            } else {
+                final double base = 1.0 - gamma * lambda * t;
+                final double c = -1.0 - gamma;
+                final double e = (1.0 - pinv) * Math.pow(base, c);
+                e0[k] = e;
+                e1[k] = -gamma * lambda * c * e / base;
+                e2[k] = gamma * gamma * lambda * lambda * c * (c - 1.0) * e / (base * base);
+            }
+        }
+
+        double d1 = 0.0;
+        double d2 = 0.0;
+        for (int c = 0; c < nCells; c++) {
+            final double[] w = weights[cells[c]];
+            double x0 = 0.0;
+            double x1 = 0.0;
+            double x2 = 0.0;
+            for (int k = 0; k < nStates; k++) {
+                x0 += w[k] * e0[k];
+                x1 += w[k] * e1[k];
+                x2 += w[k] * e2[k];
+            }
+            if (diagonal[c] != -1)
+                x0 += pinv * freqs[diagonal[c]];
+            if (x0 <= 0.0) { // numerically impossible observation, move away from here
+                evaluation.d1 = (x1 >= 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+                evaluation.d2 = Double.NaN;
+                return;
+            }
+            final double r = x1 / x0;
+            d1 += counts[c] * r;
+            d2 += counts[c] * (x2 / x0 - r * r);
+        }
+        evaluation.d1 = d1;
+        evaluation.d2 = d2;
+    }
+
+    /**
+     * working arrays and results of an evaluation
+     */
+    private static class Evaluation {
+        final double[] e0;
+        final double[] e1;
+        final double[] e2;
+        double d1;
+        double d2;
+
+        Evaluation(int nStates) {
+            e0 = new double[nStates];
+            e1 = new double[nStates];
+            e2 = new double[nStates];
+        }
+    }
+}
@@ -92,6 +92,15 @@ public interface SubstitutionModel {
      */
     int getNstates();
 
+    /**
+     * gets the eigensystem of the model, used to compute maximum likelihood distances quickly
+     *
+     * @return eigensystem, or null, if not available
+     */
+    default SpectralDecomposition getSpectralDecomposition() {
+        return null;
+    }
+
 	//boolean isGroupBased();
 }
 
@@ -0,0 +1,45 @@
+/*
+ * TransitionMatrix.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.models;
+
+/**
+ * the transition probabilities P(t) last computed by a substitution model. Models keep one per thread, so that
+ * the same model can be used to compute distances for several pairs of taxa in parallel
+ * Daniel Huson, 10.2026
+ */
+public class TransitionMatrix {
+    public final double[][] P;
+    public double t;
+    public int version; // version of model parameters used to compute P
+
+    /**
+     * constructs the P matrix for t=0, which is the identity
+     *
+     * @param nStates number of states
+     * @param version current version of model parameters
+     */
+    public TransitionMatrix(int nStates, int version) {
+        P = new double[nStates][nStates];
+        for (int i = 0; i < nStates; i++)
+            P[i][i] = 1.0;
+        t = 0.0;
+        this.version = version;
+    }
+}
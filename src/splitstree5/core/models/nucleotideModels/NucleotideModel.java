@@ -28,14 +28,18 @@ package splitstree5.core.models.nucleotideModels;
 import Jama.EigenvalueDecomposition;
 import Jama.Matrix;
 import jloda.fx.window.NotificationManager;
-import jloda.util.CanceledException;
 import jloda.util.progress.ProgressListener;
+import splitstree5.core.algorithms.characters2distances.utils.EncodedAlignment;
 import splitstree5.core.algorithms.characters2distances.utils.PairwiseCompare;
+import splitstree5.core.algorithms.characters2distances.utils.PairwiseScheduler;
 import splitstree5.core.algorithms.characters2distances.utils.SaturatedDistancesException;
 import splitstree5.core.datablocks.CharactersBlock;
 import splitstree5.core.datablocks.DistancesBlock;
+import splitstree5.core.models.SpectralDecomposition;
 import splitstree5.core.models.SubstitutionModel;
-import splitstree5.utils.SplitsException;
+import splitstree5.core.models.TransitionMatrix;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author bryant
@@ -53,9 +57,11 @@ public abstract class NucleotideModel implements SubstitutionModel {
     private double[] evals; /* evalues of Pi^(1/2) Q Pi^(-1/2) */
     private double[][] evecs; /* evectors of Pi^(1/2) Q Pi^(-1/2) */
 
-    private double[][] Pmatrix; /* Current P matrix */
     private double[][] Qmatrix; /* Current Q matrix */
-    private double tval;
+    private volatile int version; /* incremented whenever the parameters change */
+    private final ThreadLocal<TransitionMatrix> transitionMatrix = ThreadLocal.withInitial(() -> new TransitionMatrix(4, version)); /* Current P matrix, per thread */
+    private SpectralDecomposition spectralDecomposition; /* eigensystem for current version, computed on demand */
+    private int spectralDecompositionVersion;
     private double propInvariableSites; /* Proportion of invariant sites */
     private double gamma = 0.0;
 
@@ -130,11 +136,7 @@ public abstract class NucleotideModel implements SubstitutionModel {
         evals = EX.getRealEigenvalues();
         evecs = (EX.getV().getArrayCopy());
 
-        /* Default Pvalue is for tval = 0 */
-        Pmatrix = new double[4][4];
-        tval = 0.0;
-        for (int i = 0; i < 4; i++)
-            Pmatrix[i][i] = 1.0;
+        version++;
     }
 
     /**
@@ -162,11 +164,29 @@ public abstract class NucleotideModel implements SubstitutionModel {
     }
 
     /**
-     * Compute the transition probabilities. These can be extracted using getP
+     * gets the transition probabilities for the given time. These are cached per thread, so that a model can be
+     * used by several threads at the same time
      *
      * @param t length of branch
+     * @return P matrix
+     */
+    private double[][] getPmatrix(double t) {
+        final TransitionMatrix cache = transitionMatrix.get();
+        if (t != cache.t || cache.version != version) {
+            cache.version = version;
+            computeP(t, cache.P);
+            cache.t = t;
+        }
+        return cache.P;
+    }
+
+    /**
+     * Compute the transition probabilities
+     *
+     * @param t       length of branch
+     * @param Pmatrix the P matrix to fill
      */
-    protected void computeP(double t) {
+    private void computeP(double t, double[][] Pmatrix) {
 
         double[] expD = new double[4];
         for (int i = 0; i < 4; i++) {
@@ -197,7 +217,6 @@ public abstract class NucleotideModel implements SubstitutionModel {
                 Pmatrix[i][i] += propInvariableSites;
             }
         }
-        tval = t;
     }
 
     /**
@@ -210,10 +229,7 @@ public abstract class NucleotideModel implements SubstitutionModel {
      * @return double X_ij(t) value
      */
     public double getX(int i, int j, double t) {
-        if (t != tval) {
-            computeP(t);
-        }
-        return freqs[i] * Pmatrix[i][j];
+        return freqs[i] * getPmatrix(t)[i][j];
     }
 
     /**
@@ -226,11 +242,21 @@ public abstract class NucleotideModel implements SubstitutionModel {
      * @return double P_ij(t) value
      */
     public double getP(int i, int j, double t) {
-        if (t != tval) {
-            computeP(t);
-        }
+        return getPmatrix(t)[i][j];
+    }
 
-        return Pmatrix[i][j];
+    /**
+     * gets the eigensystem of the model, used to compute maximum likelihood distances
+     *
+     * @return eigensystem
+     */
+    @Override
+    public synchronized SpectralDecomposition getSpectralDecomposition() {
+        if (spectralDecomposition == null || spectralDecompositionVersion != version) {
+            spectralDecomposition = new SpectralDecomposition(freqs, evals, evecs, gamma, propInvariableSites);
+            spectralDecompositionVersion = version;
+        }
+        return spectralDecomposition;
     }
 
     /**
@@ -250,8 +276,7 @@ public abstract class NucleotideModel implements SubstitutionModel {
     public void setPropInvariableSites(double p) {
         if (p != propInvariableSites) {
             propInvariableSites = p;
-            if (tval != 0.0)
-                computeP(tval);
+            version++;
         }
     }
 
@@ -273,9 +298,7 @@ public abstract class NucleotideModel implements SubstitutionModel {
 //Note: negative gamma -> equals rates.
         if (val != gamma) {
             gamma = val;
-            if (tval != 0.0) {
-                computeP(tval);
-            }
+            version++;
         }
     }
 
@@ -317,7 +340,7 @@ public abstract class NucleotideModel implements SubstitutionModel {
             evals[i] /= r;
 
         //Recompute transition probabilities
-        computeP(this.tval);
+        version++;
     }
 
 //    /**
@@ -413,51 +436,47 @@ public abstract class NucleotideModel implements SubstitutionModel {
      *
      * @param progress   used to display the progress
 	 */
-    public void apply(ProgressListener progress, CharactersBlock characters, DistancesBlock distances, boolean useML) throws SplitsException, CanceledException {
+    public void apply(ProgressListener progress, CharactersBlock characters, DistancesBlock distances, boolean useML) throws Exception {
         final int ntax = characters.getNtax();
         distances.setNtax(ntax);
-        progress.setMaximum(ntax);
 
-        int numMissing = 0;
+        final AtomicInteger numMissing = new AtomicInteger();
+
+        final EncodedAlignment alignment = new EncodedAlignment(characters, false);
 
-        for (int s = 1; s <= ntax; s++) {
-            for (int t = s + 1; t <= ntax; t++) {
-                final PairwiseCompare seqPair = new PairwiseCompare(characters, s, t);
-                double dist = 100.0;
+        PairwiseScheduler.apply(progress, distances, (s, t) -> {
+            final PairwiseCompare seqPair = new PairwiseCompare(alignment, s, t);
+            double dist = 100.0;
 
-                if (useML) {
-                    //Maximum likelihood distance
+            if (useML) {
+                //Maximum likelihood distance
+                try {
+                    dist = seqPair.mlDistance(this);
+                } catch (SaturatedDistancesException e) {
+                    numMissing.incrementAndGet();
+                }
+            } else {
+                //Exact distance
+                final double[][] F = seqPair.getF();
+                if (F == null)
+                    numMissing.incrementAndGet();
+                else {
                     try {
-                        dist = seqPair.mlDistance(this);
+                        dist = exactDistance(F);
                     } catch (SaturatedDistancesException e) {
-                        numMissing++;
-                    }
-                } else {
-                    //Exact distance
-                    final double[][] F = seqPair.getF();
-                    if (F == null)
-                        numMissing++;
-                    else {
-                        try {
-                            dist = exactDistance(F);
-                        } catch (SaturatedDistancesException e) {
-                            numMissing++;
-                        }
+                        numMissing.incrementAndGet();
                     }
                 }
-
-                distances.set(s, t, dist);
-                distances.set(t, s, dist);
-
-                final double var = seqPair.bulmerVariance(dist, 0.75);
-                distances.setVariance(s, t, var);
-                distances.setVariance(t, s, var);
             }
-            progress.incrementProgress();
-        }
+
+            final double var = seqPair.bulmerVariance(dist, 0.75);
+            distances.setVariance(s, t, var);
+            distances.setVariance(t, s, var);
+            return dist;
+        });
         progress.close();
 
-        if (numMissing > 0) {
+        if (numMissing.get() > 0) {
             NotificationManager.showWarning("Proceed with caution: " + numMissing + " saturated or missing entries in the distance matrix");
         }
     }
@@ -25,7 +25,9 @@
  */
 package splitstree5.core.models.proteinModels;
 
+import splitstree5.core.models.SpectralDecomposition;
 import splitstree5.core.models.SubstitutionModel;
+import splitstree5.core.models.TransitionMatrix;
 
 import java.util.Random;
 
@@ -42,8 +44,10 @@ public abstract class ProteinModel implements SubstitutionModel {
     double[] evals; /* evalues of Pi^(1/2) Q Pi^(-1/2) */
     double[][] evecs; /* evectors of Pi^(1/2) Q Pi^(-1/2) */
 
-    double[][] Pmatrix; /* Current P matrix */
-    double tval;
+    private volatile int version; /* incremented whenever the parameters change */
+    private final ThreadLocal<TransitionMatrix> transitionMatrix = ThreadLocal.withInitial(() -> new TransitionMatrix(20, version)); /* Current P matrix, per thread */
+    private SpectralDecomposition spectralDecomposition; /* eigensystem for current version, computed on demand */
+    private int spectralDecompositionVersion;
 
     double gamma; /* Gamma parameter. This is 0 for no gamma */
     double pinv; /* Proportion of invariant sites */
@@ -57,18 +61,10 @@ public abstract class ProteinModel implements SubstitutionModel {
     /**
      * init
      * <p/>
-     * Sets P matrix to the identity, tval to zero, and computes sqrts of pi values.
+     * Resets the P matrices and computes sqrts of pi values.
      */
     protected void init() {
-
-        tval = 0.0;
-        Pmatrix = new double[20][20];
-        for (int i = 0; i < 20; i++)
-            for (int j = 0; j < 20; j++)
-                if (i == j)
-                    Pmatrix[i][j] = 1.0;
-                else
-                    Pmatrix[i][j] = 0.0;
+        version++;
 
         sqrtf = new double[20];
         for (int i = 0; i < 20; i++)
@@ -81,6 +77,20 @@ public abstract class ProteinModel implements SubstitutionModel {
         return freqs[i];
     }
 
+    /**
+     * gets the P matrix for time t. These are cached per thread, so that a model can be used by several threads
+     * at the same time
+     */
+    private double[][] getPmatrix(double t) {
+        final TransitionMatrix cache = transitionMatrix.get();
+        if (t != cache.t || cache.version != version) {
+            cache.version = version;
+            computeP(t, cache.P);
+            cache.t = t;
+        }
+        return cache.P;
+    }
+
     /**
      * computeP
      *
@@ -94,7 +104,7 @@ public abstract class ProteinModel implements SubstitutionModel {
      *          and
      *          P(t) = Pi^(-1/2) V' exp(D) V Pi^(1/2)
      */
-    protected void computeP(double t) {
+    private void computeP(double t, double[][] Pmatrix) {
 
         double[] expD = new double[20];
         for (int i = 0; i < 20; i++) {
@@ -126,7 +136,6 @@ public abstract class ProteinModel implements SubstitutionModel {
                 Pmatrix[i][i] += pinv;
             }
         }
-        tval = t;
     }
 
     /**
@@ -167,19 +176,26 @@ public abstract class ProteinModel implements SubstitutionModel {
 
 
     public double getX(int i, int j, double t) {
-        if (t != tval) {
-            computeP(t);
-        }
-        return freqs[i] * Pmatrix[i][j];
+        return freqs[i] * getPmatrix(t)[i][j];
     }
 
 
     public double getP(int i, int j, double t) {
-        if (t != tval) {
-            computeP(t);
-        }
+        return getPmatrix(t)[i][j];
+    }
 
-        return Pmatrix[i][j];
+    /**
+     * gets the eigensystem of the model, used to compute maximum likelihood distances
+     *
+     * @return eigensystem
+     */
+    @Override
+    public synchronized SpectralDecomposition getSpectralDecomposition() {
+        if (spectralDecomposition == null || spectralDecompositionVersion != version) {
+            spectralDecomposition = new SpectralDecomposition(freqs, evals, evecs, gamma, pinv);
+            spectralDecompositionVersion = version;
+        }
+        return spectralDecomposition;
     }
 
 
@@ -190,8 +206,7 @@ public abstract class ProteinModel implements SubstitutionModel {
     public void setPinv(double p) {
         if (p != pinv) {
             pinv = p;
-            if (tval != 0.0)
-                computeP(tval);
+            version++;
         }
     }
 
@@ -202,8 +217,7 @@ public abstract class ProteinModel implements SubstitutionModel {
     public void setGamma(double val) {
         if (gamma != val) {
             gamma = val;
-            if (tval != 0.0)
-                computeP(tval);
+            version++;
         }
     }
 
@@ -33,7 +33,10 @@ import jloda.util.PluginClassLoader;
 import splitstree5.core.algorithms.Algorithm;
 import splitstree5.core.datablocks.DataBlock;
 import splitstree5.core.datablocks.TaxaBlock;
+import splitstree5.io.nexus.AlgorithmNexusOutput;
+import splitstree5.utils.Fingerprint;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.TreeMap;
@@ -56,6 +59,8 @@ public class Connector<P extends DataBlock, C extends DataBlock> extends Workflo
 
     private final BooleanProperty applicable = new SimpleBooleanProperty(false); // algorithm is set and applicable?
 
+    private volatile long inputFingerprint = 0; // fingerprint of the input from which the child was last computed, 0 if unknown
+
     private final ChangeListener<UpdateState> parentStateChangeListener = new ChangeListener<>() {
         @Override
         public void changed(ObservableValue<? extends UpdateState> observable, UpdateState oldValue, UpdateState newValue) {
@@ -160,6 +165,16 @@ public class Connector<P extends DataBlock, C extends DataBlock> extends Workflo
 
     @Override
     public void setState(UpdateState state) {
+        setState(state, true);
+    }
+
+    /**
+     * sets the state. If the connector is invalidated and its parent is valid, the algorithm is restarted
+     *
+     * @param debounce if true, the restart is delayed so that a quick succession of edits leads to one computation.
+     *                 Use false when the parent has just been computed, so that cascaded updates start immediately
+     */
+    void setState(UpdateState state, boolean debounce) {
         synchronized (this) {
             final UpdateState oldState = getState();
 
@@ -169,6 +184,11 @@ public class Connector<P extends DataBlock, C extends DataBlock> extends Workflo
                         super.setState(UpdateState.NOT_APPLICABLE);
                         break;
                     }
+                    if (WorkflowEngine.isHeadless()) { // no FX services, computation is driven by a WorkflowEngine
+                        child.setState(UpdateState.INVALID);
+                        super.setState(UpdateState.INVALID);
+                        break;
+                    }
                     if (Platform.isFxApplicationThread())
                         service.cancel();
                     else
@@ -179,10 +199,11 @@ public class Connector<P extends DataBlock, C extends DataBlock> extends Workflo
                         if (verbose)
                             System.err.println(getAlgorithm().getName() + " " + oldState + " -> " + UpdateState.COMPUTING);
                         super.setState(UpdateState.COMPUTING);
+                        final Runnable restart = (debounce ? service::scheduleRestart : service::restartNow);
                         if (Platform.isFxApplicationThread())
-                            service.restart();
+                            restart.run();
                         else
-                            Platform.runLater(service::restart);
+                            Platform.runLater(restart);
                     } else
                         super.setState(UpdateState.INVALID);
                     break;
@@ -199,6 +220,61 @@ public class Connector<P extends DataBlock, C extends DataBlock> extends Workflo
         }
     }
 
+    /**
+     * marks this connector and its child as valid without recomputing. Only to be used when the input hasn't changed
+     */
+    public void revalidate() {
+        if (verbose)
+            System.err.println(getAlgorithm().getName() + " " + getState() + " -> " + UpdateState.VALID + " (unchanged input)");
+        if (!WorkflowEngine.isHeadless()) {
+            if (Platform.isFxApplicationThread())
+                service.cancelScheduledRestart();
+            else
+                Platform.runLater(service::cancelScheduledRestart);
+        }
+        setState(UpdateState.VALID);
+        child.setState(UpdateState.VALID);
+    }
+
+    /**
+     * computes the fingerprint of the current input of this connector, that is, of the algorithm and its options,
+     * the working taxa and the parent datablock
+     *
+     * @return fingerprint, or 0, if unknown
+     */
+    public long computeInputFingerprint() {
+        final DataNode taxaNode = taxaBlock.getDataNode();
+        if (algorithm == null || parent.getFingerprint() == 0 || taxaNode == null || taxaNode.getFingerprint() == 0)
+            return 0;
+        try (Fingerprint fingerprint = new Fingerprint()) {
+            fingerprint.add(parent.getFingerprint());
+            fingerprint.add(taxaNode.getFingerprint());
+            fingerprint.add(algorithm.getClass().getName());
+            (new AlgorithmNexusOutput()).write(fingerprint, algorithm);
+            return fingerprint.get();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * does the child hold the result for the current input, so that there is no need to recompute?
+     *
+     * @return true, if child was computed from identical input
+     */
+    public boolean isUpToDate() {
+        return inputFingerprint != 0 && child.getFingerprint() != 0 && getState() != UpdateState.FAILED
+               && isApplicable() && inputFingerprint == computeInputFingerprint();
+    }
+
+    public long getInputFingerprint() {
+        return inputFingerprint;
+    }
+
+    public void setInputFingerprint(long inputFingerprint) {
+        this.inputFingerprint = inputFingerprint;
+    }
+
     /**
      * force a recompute
      */
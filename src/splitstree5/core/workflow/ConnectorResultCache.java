@@ -0,0 +1,440 @@
+/*
+ * ConnectorResultCache.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.workflow;
+
+import jloda.phylo.PhyloTree;
+import splitstree5.core.algorithms.Algorithm;
+import splitstree5.core.datablocks.DataBlock;
+import splitstree5.core.datablocks.DistancesBlock;
+import splitstree5.core.datablocks.SplitsBlock;
+import splitstree5.core.datablocks.TreesBlock;
+import splitstree5.core.datablocks.distances.DistancesStorage;
+import splitstree5.core.misc.ASplit;
+import splitstree5.core.misc.Compatibility;
+import splitstree5.main.Version;
+import splitstree5.utils.Fingerprint;
+
+import java.io.*;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * cache for the results of connectors. A result is identified by the input fingerprint of the connector, which covers
+ * the algorithm class, the algorithm options, the working taxa and the exact content of the parent datablock, so that
+ * repeated or reverted edits can be answered without recomputing. Recent results are kept in memory as copies of the
+ * datablocks, evicting the least recently used ones once there are more than maxEntries results or more than
+ * maxValues stored values. If a cache directory is set, distances and splits are also written to disk in an exact
+ * binary format, so that they survive eviction and later runs, RunWorkflow sets the directory for option -rc
+ * Daniel Huson, 10.2026
+ */
+public class ConnectorResultCache {
+    /**
+     * version of the binary file format, part of the key of all files written to disk
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static ConnectorResultCache instance;
+
+    private boolean enabled = true;
+    private int maxEntries = 32;
+    private long maxValues = 32_000_000L; // about 256MB, when values are doubles
+    private File cacheDirectory = null;
+
+    private final LinkedHashMap<Long, Entry> key2entry = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalValues = 0;
+
+    private ConnectorResultCache() {
+    }
+
+    public static synchronized ConnectorResultCache getInstance() {
+        if (instance == null)
+            instance = new ConnectorResultCache();
+        return instance;
+    }
+
+    /**
+     * can the result of this connector be cached? We require a proper algorithm class (top filters are anonymous),
+     * a known input fingerprint and a child datablock that we know how to copy exactly
+     *
+     * @param inputFingerprint the input fingerprint of the connector, as computed by Connector.computeInputFingerprint()
+     * @return true, if cacheable
+     */
+    public static boolean isCacheable(Connector connector, long inputFingerprint) {
+        final Algorithm algorithm = connector.getAlgorithm();
+        return inputFingerprint != 0 && algorithm != null && !algorithm.getClass().isAnonymousClass() && isSupported(connector.getChildDataBlock());
+    }
+
+    private static boolean isSupported(DataBlock dataBlock) {
+        return dataBlock instanceof DistancesBlock || dataBlock instanceof SplitsBlock || dataBlock instanceof TreesBlock;
+    }
+
+    /**
+     * if a result is cached for the given input fingerprint, copy it into the child datablock of the connector
+     *
+     * @return the fingerprint of the restored result, or 0, if not found
+     */
+    public long restore(long inputFingerprint, Connector connector) {
+        Entry entry;
+        synchronized (key2entry) {
+            entry = key2entry.get(inputFingerprint);
+        }
+        if (entry == null) {
+            entry = readFromDisk(inputFingerprint, connector.getChildDataBlock());
+            if (entry == null)
+                return 0;
+            add(inputFingerprint, entry);
+        }
+        copy(entry.result, connector.getChildDataBlock());
+        return entry.fingerprint;
+    }
+
+    /**
+     * cache a copy of the child datablock of the connector under the given input fingerprint
+     *
+     * @param fingerprint the fingerprint of the child datablock
+     */
+    public void put(long inputFingerprint, Connector connector, long fingerprint) {
+        final DataBlock child = connector.getChildDataBlock();
+        final DataBlock result;
+        try {
+            result = child.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            return;
+        }
+        copy(child, result);
+        final Entry entry = new Entry(result, fingerprint);
+        add(inputFingerprint, entry);
+        writeToDisk(inputFingerprint, entry);
+    }
+
+    /**
+     * adds an entry to memory and evicts the least recently used entries, if there are too many or they are too large
+     */
+    private void add(long inputFingerprint, Entry entry) {
+        synchronized (key2entry) {
+            final Entry previous = key2entry.put(inputFingerprint, entry);
+            if (previous != null)
+                totalValues -= previous.values;
+            totalValues += entry.values;
+            final var it = key2entry.values().iterator();
+            while (it.hasNext() && (key2entry.size() > maxEntries || totalValues > maxValues)) {
+                totalValues -= it.next().values;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * estimates the number of values stored in a datablock
+     */
+    private static long countValues(DataBlock dataBlock) {
+        if (dataBlock instanceof DistancesBlock) {
+            final DistancesBlock distances = (DistancesBlock) dataBlock;
+            return (long) distances.getNtax() * distances.getNtax() * (distances.isVariances() ? 2 : 1);
+        } else if (dataBlock instanceof SplitsBlock) {
+            final SplitsBlock splits = (SplitsBlock) dataBlock;
+            final int ntax = (splits.getNsplits() > 0 ? splits.get(1).ntax() : 0);
+            return (long) splits.getNsplits() * (2 * (ntax / 64 + 1) + 2);
+        } else if (dataBlock instanceof TreesBlock) {
+            long count = 0;
+            for (PhyloTree tree : ((TreesBlock) dataBlock).getTrees()) {
+                count += tree.getNumberOfNodes() + 2L * tree.getNumberOfEdges();
+            }
+            return count;
+        } else
+            return 0;
+    }
+
+    /**
+     * remove all entries from memory. Files on disk are kept
+     */
+    public void clear() {
+        synchronized (key2entry) {
+            key2entry.clear();
+            totalValues = 0;
+        }
+    }
+
+    /**
+     * copies the exact content of one supported datablock into another of the same type
+     */
+    private static void copy(DataBlock source, DataBlock target) {
+        if (source instanceof DistancesBlock) {
+            final DistancesBlock src = (DistancesBlock) source;
+            final DistancesBlock tar = (DistancesBlock) target;
+            tar.setNtax(src.getNtax(), src.getStorage());
+            if (src.isVariances())
+                tar.set(src.getDistances(), src.getVariances());
+            else
+                tar.set(src.getDistances());
+        } else if (source instanceof SplitsBlock) {
+            ((SplitsBlock) target).copy((SplitsBlock) source);
+        } else if (source instanceof TreesBlock) {
+            final TreesBlock src = (TreesBlock) source;
+            final TreesBlock tar = (TreesBlock) target;
+            tar.clear();
+            for (PhyloTree tree : src.getTrees()) {
+                tar.getTrees().add(new PhyloTree(tree));
+            }
+            tar.setPartial(src.isPartial());
+            tar.setRooted(src.isRooted());
+        }
+    }
+
+    private void writeToDisk(long inputFingerprint, Entry entry) {
+        if (cacheDirectory != null && (entry.result instanceof DistancesBlock || entry.result instanceof SplitsBlock)) {
+            final File file = getCacheFile(inputFingerprint);
+            final File tmpFile = new File(file.getPath() + ".tmp");
+            try (DataOutputStream outs = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpFile))))) {
+                outs.writeInt(FORMAT_VERSION);
+                outs.writeUTF(Version.SHORT_DESCRIPTION);
+                outs.writeLong(inputFingerprint);
+                outs.writeLong(entry.fingerprint);
+                if (entry.result instanceof DistancesBlock)
+                    write(outs, (DistancesBlock) entry.result);
+                else
+                    write(outs, (SplitsBlock) entry.result);
+            } catch (IOException ex) {
+                System.err.println("Result cache: write failed: " + ex.getMessage());
+                tmpFile.delete();
+                return;
+            }
+            if (!tmpFile.renameTo(file))
+                tmpFile.delete();
+        }
+    }
+
+    private Entry readFromDisk(long inputFingerprint, DataBlock child) {
+        if (cacheDirectory != null && (child instanceof DistancesBlock || child instanceof SplitsBlock)) {
+            final File file = getCacheFile(inputFingerprint);
+            if (file.canRead()) {
+                try (DataInputStream ins = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+                    if (ins.readInt() != FORMAT_VERSION || !ins.readUTF().equals(Version.SHORT_DESCRIPTION) || ins.readLong() != inputFingerprint)
+                        return null;
+                    final long fingerprint = ins.readLong();
+                    if (child instanceof DistancesBlock)
+                        return new Entry(readDistances(ins), fingerprint);
+                    else
+                        return new Entry(readSplits(ins), fingerprint);
+                } catch (IOException ex) {
+                    System.err.println("Result cache: read failed: " + ex.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void write(DataOutputStream outs, DistancesBlock distances) throws IOException {
+        final int ntax = distances.getNtax();
+        outs.writeInt(ntax);
+        outs.writeUTF(distances.getStorage().name());
+        outs.writeBoolean(distances.isVariances());
+        final double[] row = new double[ntax];
+        for (int i = 0; i < ntax; i++) {
+            for (double value : distances.getDistanceMatrix().getRow(i, row))
+                outs.writeDouble(value);
+        }
+        if (distances.isVariances()) {
+            for (int i = 0; i < ntax; i++) {
+                for (double value : distances.getVarianceMatrix().getRow(i, row))
+                    outs.writeDouble(value);
+            }
+        }
+    }
+
+    private static DistancesBlock readDistances(DataInputStream ins) throws IOException {
+        final int ntax = ins.readInt();
+        final DistancesStorage storage;
+        try {
+            storage = DistancesStorage.valueOf(ins.readUTF());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex);
+        }
+        final boolean hasVariances = ins.readBoolean();
+        final DistancesBlock distances = new DistancesBlock();
+        distances.setNtax(ntax, storage);
+        for (int i = 1; i <= ntax; i++) {
+            for (int j = 1; j <= ntax; j++)
+                distances.set(i, j, ins.readDouble());
+        }
+        if (hasVariances) {
+            for (int i = 1; i <= ntax; i++) {
+                for (int j = 1; j <= ntax; j++)
+                    distances.setVariance(i, j, ins.readDouble());
+            }
+        }
+        return distances;
+    }
+
+    private static void write(DataOutputStream outs, SplitsBlock splits) throws IOException {
+        outs.writeInt(splits.getNsplits());
+        for (ASplit split : splits.getSplits()) {
+            writeBitSet(outs, split.getA());
+            writeBitSet(outs, split.getB());
+            outs.writeDouble(split.getWeight());
+            outs.writeDouble(split.getConfidence());
+            writeString(outs, split.getLabel());
+        }
+        outs.writeInt(splits.getSplitLabels().size());
+        for (Map.Entry<Integer, String> label : splits.getSplitLabels().entrySet()) {
+            outs.writeInt(label.getKey());
+            writeString(outs, label.getValue());
+        }
+        final int[] cycle = splits.getCycle();
+        outs.writeInt(cycle == null ? -1 : cycle.length);
+        if (cycle != null) {
+            for (int t : cycle)
+                outs.writeInt(t);
+        }
+        outs.writeUTF(splits.getCompatibility().name());
+        outs.writeFloat(splits.getFit());
+        outs.writeFloat(splits.getThreshold());
+        outs.writeBoolean(splits.isPartial());
+    }
+
+    private static SplitsBlock readSplits(DataInputStream ins) throws IOException {
+        final SplitsBlock splits = new SplitsBlock();
+        final int nsplits = ins.readInt();
+        for (int s = 0; s < nsplits; s++) {
+            final BitSet A = readBitSet(ins);
+            final BitSet B = readBitSet(ins);
+            final ASplit split = new ASplit(A, B, ins.readDouble(), ins.readDouble());
+            split.setLabel(readString(ins));
+            splits.getSplits().add(split);
+        }
+        final int nlabels = ins.readInt();
+        for (int l = 0; l < nlabels; l++) {
+            final int s = ins.readInt();
+            splits.getSplitLabels().put(s, readString(ins));
+        }
+        final int length = ins.readInt();
+        if (length >= 0) {
+            final int[] cycle = new int[length];
+            for (int i = 0; i < length; i++)
+                cycle[i] = ins.readInt();
+            splits.setCycle(cycle, false);
+        }
+        try {
+            splits.setCompatibility(Compatibility.valueOf(ins.readUTF()));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex);
+        }
+        splits.setFit(ins.readFloat());
+        splits.setThreshold(ins.readFloat());
+        splits.setPartial(ins.readBoolean());
+        return splits;
+    }
+
+    private static void writeBitSet(DataOutputStream outs, BitSet set) throws IOException {
+        final long[] words = set.toLongArray();
+        outs.writeInt(words.length);
+        for (long word : words)
+            outs.writeLong(word);
+    }
+
+    private static BitSet readBitSet(DataInputStream ins) throws IOException {
+        final long[] words = new long[ins.readInt()];
+        for (int w = 0; w < words.length; w++)
+            words[w] = ins.readLong();
+        return BitSet.valueOf(words);
+    }
+
+    private static void writeString(DataOutputStream outs, String string) throws IOException {
+        outs.writeBoolean(string != null);
+        if (string != null)
+            outs.writeUTF(string);
+    }
+
+    private static String readString(DataInputStream ins) throws IOException {
+        return ins.readBoolean() ? ins.readUTF() : null;
+    }
+
+    /**
+     * the file name is a hash of the format version, the program version and the input fingerprint
+     */
+    private File getCacheFile(long inputFingerprint) {
+        final Fingerprint key = new Fingerprint();
+        key.add(FORMAT_VERSION);
+        key.add(Version.SHORT_DESCRIPTION);
+        key.add(inputFingerprint);
+        return new File(cacheDirectory, String.format("%016x-%016x.bin.gz", inputFingerprint, key.get()));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * set the number of results kept in memory
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    public long getMaxValues() {
+        return maxValues;
+    }
+
+    /**
+     * set the maximum number of values (distances, split words and weights, tree nodes and edges) kept in memory
+     */
+    public void setMaxValues(long maxValues) {
+        this.maxValues = Math.max(0, maxValues);
+    }
+
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * set the directory to which results are written, or null, to only use memory
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        if (cacheDirectory != null && !cacheDirectory.isDirectory() && !cacheDirectory.mkdirs())
+            System.err.println("Result cache: can't create directory: " + cacheDirectory);
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * a cached result and its fingerprint
+     */
+    private static class Entry {
+        private final DataBlock result;
+        private final long fingerprint;
+        private final long values;
+
+        Entry(DataBlock result, long fingerprint) {
+            this.result = result;
+            this.fingerprint = fingerprint;
+            this.values = countValues(result);
+        }
+    }
+}
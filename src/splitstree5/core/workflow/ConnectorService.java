@@ -19,8 +19,10 @@
 
 package splitstree5.core.workflow;
 
+import javafx.animation.PauseTransition;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
+import javafx.util.Duration;
 import jloda.fx.control.ProgressPane;
 import jloda.fx.util.ProgramExecutorService;
 import jloda.fx.util.TaskWithProgressListener;
@@ -36,8 +38,15 @@ import splitstree5.core.datablocks.DataBlock;
  */
 public class ConnectorService<P extends DataBlock, C extends DataBlock> extends Service<Boolean> {
     public static final boolean verbose = false;
+
+    private static int debounceMillis = 50;
+
 	private final Connector<P, C> connector;
 
+    private PauseTransition debounce; // created on demand, in FX thread
+    private volatile long scheduledTime = 0;
+    private volatile long lastSchedulingLatency = -1;
+
     public ConnectorService(Connector<P, C> connector) {
         this.connector = connector;
         executorProperty().set(ProgramExecutorService.getInstance());
@@ -52,37 +61,92 @@ public class ConnectorService<P extends DataBlock, C extends DataBlock> extends
         return connector.getAlgorithm().getName();
     }
 
+    /**
+     * schedules a restart of the service. During interactive edits, a connector is often invalidated several times in quick
+     * succession, so all requests that arrive within the debounce window are coalesced into one restart.
+     * If the debounce window is zero, the service is restarted immediately. Must be called in the FX application thread
+     */
+    public void scheduleRestart() {
+        if (debounceMillis <= 0)
+            restartNow();
+        else {
+            if (scheduledTime == 0)
+                scheduledTime = System.currentTimeMillis();
+            if (debounce == null) {
+                debounce = new PauseTransition();
+                debounce.setOnFinished(e -> restart());
+            }
+            debounce.setDuration(Duration.millis(debounceMillis));
+            debounce.playFromStart();
+        }
+    }
+
+    /**
+     * restarts the service without delay, replacing any restart that has been scheduled. Used when the parent has just
+     * been computed. Must be called in the FX application thread
+     */
+    public void restartNow() {
+        if (debounce != null)
+            debounce.stop();
+        if (scheduledTime == 0)
+            scheduledTime = System.currentTimeMillis();
+        restart();
+    }
+
+    /**
+     * cancels a restart that has been scheduled, but not yet started. Must be called in the FX application thread
+     */
+    public void cancelScheduledRestart() {
+        if (debounce != null)
+            debounce.stop();
+        scheduledTime = 0;
+    }
+
+    /**
+     * time between the first request to (re)start the service and the start of the computation, in milliseconds
+     *
+     * @return latency of the last run, or -1, if never run
+     */
+    public long getLastSchedulingLatency() {
+        return lastSchedulingLatency;
+    }
+
+    public static int getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    /**
+     * set the window used to coalesce rapid invalidations. Use 0 for batch runs, so that connectors start without delay
+     */
+    public static void setDebounceMillis(int debounceMillis) {
+        ConnectorService.debounceMillis = debounceMillis;
+    }
+
     /**
      * create a task that also provides support for the old progress listener interface
      */
     private class MyTask extends TaskWithProgressListener<Boolean> {
         @Override
         public Boolean call() throws Exception {
-            synchronized (connector.getChild().getDataBlock()) { // make sure that we only ever have one task working on a given datablock
-                final long start = System.currentTimeMillis();
-                try {
-                    if (verbose)
-                        System.err.println("--- Compute " + getMethodName() + " called");
-                    connector.getChild().stateProperty().set(UpdateState.INVALID);
-                    connector.stateProperty().set(UpdateState.COMPUTING);
-
-                    connector.getChild().getDataBlock().clear(); // always start with a fresh datablock
-                    Thread.sleep(100);
-                    getProgressListener().setTasks(connector.getAlgorithm().getName(), "Running");
-                    connector.getAlgorithm().compute(getProgressListener(), connector.getTaxaBlock(), connector.getParent().getDataBlock(), connector.getChild().getDataBlock());
-                } catch (CanceledException ex) {
-                    if (verbose)
-                        System.err.println("USER CANCELED");
-                    connector.stateProperty().set(UpdateState.FAILED);
-                    throw ex;
-                } finally {
-                    if (verbose)
-						System.err.println("--- Compute " + getMethodName() + " done ("
-										   + StringUtils.removeTrailingZerosAfterDot("" + ((System.currentTimeMillis() - start) / 1000.0))
-										   + "s)");
-                }
-                return true;
+            final long start = System.currentTimeMillis();
+            try {
+                lastSchedulingLatency = (scheduledTime > 0 ? start - scheduledTime : 0);
+                scheduledTime = 0;
+                if (verbose)
+                    System.err.println("--- Compute " + getMethodName() + " called (scheduling latency: " + lastSchedulingLatency + "ms)");
+                WorkflowEngine.compute(getProgressListener(), connector);
+            } catch (CanceledException ex) {
+                if (verbose)
+                    System.err.println("USER CANCELED");
+                connector.stateProperty().set(UpdateState.FAILED);
+                throw ex;
+            } finally {
+                if (verbose)
+                    System.err.println("--- Compute " + getMethodName() + " done ("
+                                       + StringUtils.removeTrailingZerosAfterDot("" + ((System.currentTimeMillis() - start) / 1000.0))
+                                       + "s)");
             }
+            return true;
         }
 
         @Override
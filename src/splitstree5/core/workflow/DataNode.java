@@ -36,6 +36,8 @@ public class DataNode<D extends DataBlock> extends WorkflowNode {
     private final ObservableList<Connector<D, ? extends DataBlock>> children;
     private Connector<? extends DataBlock, D> parent;
 
+    private volatile long fingerprint = 0; // fingerprint of the datablock, as last computed, 0 if unknown
+
     /**
      * constructor
      *
@@ -59,19 +61,33 @@ public class DataNode<D extends DataBlock> extends WorkflowNode {
         super.setState(state);
         if (this == dataBlock.getDocument().getWorkflow().getWorkingTaxaNode())
             dataBlock.getDocument().getWorkflow().getWorkingDataNode().setState(UpdateState.INVALID);
-        for (WorkflowNode child : getChildren()) {
-            child.setState(UpdateState.INVALID);
-            for (Object connector : getChildren()) {
-                WorkflowNode node = ((Connector) connector).getChild();
-                if (node != null)
-                    node.setState(UpdateState.INVALID);
+        for (Connector<D, ? extends DataBlock> child : getChildren()) {
+            if (state == UpdateState.VALID && child.isUpToDate()) { // early cutoff: input of child hasn't changed
+                child.revalidate();
+                continue;
             }
+            child.setState(UpdateState.INVALID, state != UpdateState.VALID); // don't delay cascaded updates
+            if (child.getChild() != null)
+                child.getChild().setState(UpdateState.INVALID);
         }
     }
 
     public void clear() {
     }
 
+    /**
+     * gets the fingerprint of the datablock, as determined when it was last computed
+     *
+     * @return fingerprint, or 0, if unknown
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(long fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
     public ObservableList<Connector<D, ? extends DataBlock>> getChildren() {
         return children;
     }
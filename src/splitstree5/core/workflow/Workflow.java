@@ -19,7 +19,6 @@
 
 package splitstree5.core.workflow;
 
-import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.property.*;
 import javafx.beans.value.ObservableValue;
@@ -179,7 +178,7 @@ public class Workflow {
                 topNodes.add(n);
         });
 
-        workingTaxaNode.addListener((c, o, n) -> Platform.runLater(() -> {
+        workingTaxaNode.addListener((c, o, n) -> WorkflowEngine.runLater(() -> {
             if (o != null)
                 workingNodes.remove(o);
             if (n != null)
@@ -191,7 +190,7 @@ public class Workflow {
                 workingNodes.remove(o);
             if (n != null)
                 workingNodes.add(n);
-            Platform.runLater(() -> hasWorkingTraitsNodeForFXThread.set(n != null));
+            WorkflowEngine.runLater(() -> hasWorkingTraitsNodeForFXThread.set(n != null));
         });
         workingDataNode.addListener((c, o, n) -> {
             if (o != null)
@@ -423,6 +422,7 @@ public class Workflow {
 
             } else if (node instanceof Connector) {
                 connectorNodes.remove(node);
+                ((Connector) node).getService().cancelScheduledRestart();
                 ((Connector) node).getService().cancel();
             }
 			invalidNodes.remove(node);
@@ -624,7 +624,7 @@ public class Workflow {
     }
 
     public void incrementTopologyChanged() {
-        Platform.runLater(() -> topologyChanged.set(topologyChanged.get() + 1));
+        WorkflowEngine.runLater(() -> topologyChanged.set(topologyChanged.get() + 1));
     }
 
     public LongProperty getTopologyChanged() {
@@ -640,6 +640,7 @@ public class Workflow {
 
     public void cancelAll() {
         for (Connector connector : connectorNodes) {
+            connector.getService().cancelScheduledRestart();
             connector.getService().cancel();
         }
     }
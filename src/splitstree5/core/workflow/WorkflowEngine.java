@@ -0,0 +1,433 @@
+/*
+ * WorkflowEngine.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.core.workflow;
+
+import javafx.application.Platform;
+import jloda.util.Basic;
+import jloda.util.CanceledException;
+import jloda.util.Pair;
+import jloda.util.StringUtils;
+import jloda.util.progress.ProgressListener;
+import jloda.util.progress.ProgressSilent;
+import splitstree5.core.datablocks.DataBlock;
+import splitstree5.core.datablocks.ViewerBlock;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * headless workflow engine: walks the workflow graph in topological order and runs the algorithm of each connector
+ * directly, without using the JavaFX ConnectorService. Independent branches are run on threads of their own, not on
+ * the ProgramExecutorService, as algorithms submit their work to that service and wait for it
+ * Daniel Huson, 10.2026
+ */
+public class WorkflowEngine {
+    private static volatile boolean headless = false;
+
+    private static final Object stateLock = new Object();
+
+    private final Workflow workflow;
+
+    private boolean verbose = false;
+
+    private int parallelism = 1;
+
+    private final Map<Connector, Long> connector2millis = new ConcurrentHashMap<>();
+    private long wallClockMillis = 0;
+
+    /**
+     * constructor
+     */
+    public WorkflowEngine(Workflow workflow) {
+        this.workflow = workflow;
+    }
+
+    /**
+     * updates the complete workflow in the calling thread
+     *
+     * @return true, if all applicable connectors were successfully computed
+     */
+    public boolean update(ProgressListener progress) throws CanceledException {
+        final long start = System.currentTimeMillis();
+        connector2millis.clear();
+        try {
+            if (parallelism > 1)
+                return updateInParallel(progress, getConnectorsInTopologicalOrder());
+            else {
+                boolean ok = true;
+                for (Connector connector : getConnectorsInTopologicalOrder()) {
+                    if (!update(progress, connector))
+                        ok = false;
+                }
+                return ok;
+            }
+        } finally {
+            wallClockMillis = System.currentTimeMillis() - start;
+            if (verbose)
+                System.err.println(getTimingReport());
+        }
+    }
+
+    /**
+     * updates all connectors, running up to parallelism independent branches at the same time. A connector is started once
+     * its parent connector and all connectors that compute the working taxa are done. Connectors that are ready are
+     * started in topological order
+     *
+     * @return true, if all applicable connectors were successfully computed
+     */
+    private boolean updateInParallel(ProgressListener progress, ArrayList<Connector> connectors) throws CanceledException {
+        final Map<Connector, ArrayList<Connector>> connector2dependents = new HashMap<>();
+        final Map<Connector, Integer> connector2waiting = new HashMap<>();
+        setupDependencies(connectors, connector2dependents, connector2waiting);
+
+        final Map<Connector, Integer> connector2rank = new HashMap<>();
+        for (Connector connector : connectors)
+            connector2rank.put(connector, connector2rank.size());
+        final PriorityQueue<Connector> ready = new PriorityQueue<>(Comparator.comparing(connector2rank::get));
+        for (Connector connector : connectors) {
+            if (connector2waiting.get(connector) == 0)
+                ready.add(connector);
+        }
+
+        progress.setTasks("Updating workflow", "");
+        progress.setMaximum(connectors.size());
+        progress.setProgress(0);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            final Thread thread = new Thread(runnable, "WorkflowEngine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final ExecutorCompletionService<Pair<Connector, Boolean>> completionService = new ExecutorCompletionService<>(executor);
+        final ArrayList<Future<Pair<Connector, Boolean>>> running = new ArrayList<>();
+        boolean ok = true;
+        final ProgressListener branchProgress = createBranchProgress(progress);
+        try {
+            while (ready.size() > 0 || running.size() > 0) {
+                progress.checkForCancel();
+                while (running.size() < parallelism && ready.size() > 0) {
+                    final Connector connector = ready.remove();
+                    running.add(completionService.submit(() -> new Pair<>(connector, update(branchProgress, connector))));
+                }
+                final Future<Pair<Connector, Boolean>> future = completionService.take();
+                running.remove(future);
+                final Pair<Connector, Boolean> result = future.get();
+                if (!result.getSecond())
+                    ok = false;
+                for (Connector dependent : connector2dependents.get(result.getFirst())) {
+                    if (connector2waiting.merge(dependent, -1, Integer::sum) == 0)
+                        ready.add(dependent);
+                }
+                progress.incrementProgress();
+            }
+        } catch (InterruptedException ex) {
+            throw new CanceledException();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof CanceledException)
+                throw (CanceledException) ex.getCause();
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            for (Future<Pair<Connector, Boolean>> future : running) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+        return ok;
+    }
+
+    /**
+     * creates a silent progress listener for the branch tasks, which reports a cancel of the given progress listener
+     */
+    private static ProgressListener createBranchProgress(ProgressListener progress) {
+        return new ProgressSilent() {
+            @Override
+            public void setProgress(long steps) throws CanceledException {
+                super.setProgress(steps);
+                checkForCancel();
+            }
+
+            @Override
+            public void incrementProgress() throws CanceledException {
+                super.incrementProgress();
+                checkForCancel();
+            }
+
+            @Override
+            public void checkForCancel() throws CanceledException {
+                if (progress.isUserCancelled())
+                    throw new CanceledException();
+            }
+
+            @Override
+            public boolean isUserCancelled() {
+                return progress.isUserCancelled();
+            }
+        };
+    }
+
+    /**
+     * each connector depends on its parent connector and, unless it is itself involved in computing the working taxa,
+     * on all connectors below the top taxa node
+     */
+    private void setupDependencies(ArrayList<Connector> connectors, Map<Connector, ArrayList<Connector>> connector2dependents, Map<Connector, Integer> connector2waiting) {
+        final Set<Connector> all = new HashSet<>(connectors);
+        final ArrayList<Connector> taxaConnectors = getConnectorsBelow(workflow.getTopTaxaNode());
+
+        for (Connector connector : connectors) {
+            connector2dependents.put(connector, new ArrayList<>());
+            connector2waiting.put(connector, 0);
+        }
+        for (Connector connector : connectors) {
+            final Connector parentConnector = connector.getParent().getParent();
+            if (parentConnector != null && all.contains(parentConnector)) {
+                connector2dependents.get(parentConnector).add(connector);
+                connector2waiting.merge(connector, 1, Integer::sum);
+            }
+            if (!taxaConnectors.contains(connector)) {
+                for (Connector taxaConnector : taxaConnectors) {
+                    if (taxaConnector != parentConnector) {
+                        connector2dependents.get(taxaConnector).add(connector);
+                        connector2waiting.merge(connector, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * reports the time spent by each connector in the last update, and the critical path, that is, the chain of
+     * dependent connectors with the largest total running time, which bounds the time of a parallel update
+     *
+     * @return timing report
+     */
+    public String getTimingReport() {
+        final ArrayList<Connector> connectors = getConnectorsInTopologicalOrder();
+        final Map<Connector, ArrayList<Connector>> connector2dependents = new HashMap<>();
+        setupDependencies(connectors, connector2dependents, new HashMap<>());
+
+        // longest path by running time, connectors are in topological order:
+        final Map<Connector, Long> connector2finish = new HashMap<>();
+        final Map<Connector, Connector> connector2predecessor = new HashMap<>();
+        long totalMillis = 0;
+        Connector last = null;
+        for (Connector connector : connectors) {
+            final long millis = connector2millis.getOrDefault(connector, 0L);
+            totalMillis += millis;
+            final long finish = connector2finish.getOrDefault(connector, 0L) + millis;
+            connector2finish.put(connector, finish);
+            if (last == null || finish > connector2finish.get(last))
+                last = connector;
+            for (Connector dependent : connector2dependents.get(connector)) {
+                if (finish >= connector2finish.getOrDefault(dependent, 0L)) {
+                    connector2finish.put(dependent, finish);
+                    connector2predecessor.put(dependent, connector);
+                }
+            }
+        }
+
+        final LinkedList<String> path = new LinkedList<>();
+        for (Connector connector = last; connector != null; connector = connector2predecessor.get(connector)) {
+            path.addFirst(connector.getName() + " (" + formatSeconds(connector2millis.getOrDefault(connector, 0L)) + ")");
+        }
+        return "Critical path: " + StringUtils.toString(path, " -> ") + "\n"
+               + "Critical path time: " + formatSeconds(last != null ? connector2finish.get(last) : 0)
+               + ", total compute time: " + formatSeconds(totalMillis)
+               + ", wall-clock time: " + formatSeconds(wallClockMillis);
+    }
+
+    private static String formatSeconds(long millis) {
+        return StringUtils.removeTrailingZerosAfterDot("" + (millis / 1000.0)) + "s";
+    }
+
+    /**
+     * updates a single connector, assuming that all connectors above have already been updated
+     *
+     * @return true, if computed or not applicable, false if failed or parent not valid
+     */
+    public boolean update(ProgressListener progress, Connector connector) throws CanceledException {
+        final DataNode child = connector.getChild();
+
+        if (connector.getParent().getState() != UpdateState.VALID) {
+            setState(connector, UpdateState.INVALID);
+            setState(child, UpdateState.INVALID);
+            return false;
+        }
+        if (connector.getAlgorithm() == null || !connector.getAlgorithm().isApplicable(connector.getTaxaBlock(), connector.getParentDataBlock())) {
+            setState(connector, UpdateState.NOT_APPLICABLE);
+            return true;
+        }
+        if (isHeadless() && child.getDataBlock() instanceof ViewerBlock)
+            return true; // viewers require the FX toolkit
+
+        if (connector.isUpToDate()) { // input unchanged since last computation
+            setState(connector, UpdateState.VALID);
+            setState(child, UpdateState.VALID);
+            return true;
+        }
+
+        final long start = System.currentTimeMillis();
+        try {
+            compute(progress, connector);
+            setState(connector, UpdateState.VALID);
+            setState(child, UpdateState.VALID);
+            return true;
+        } catch (CanceledException ex) {
+            setState(connector, UpdateState.FAILED);
+            throw ex;
+        } catch (Exception ex) {
+            System.err.println("Algorithm " + connector.getAlgorithm().getName() + " failed: " + ex.getMessage());
+            Basic.caught(ex);
+            setState(connector, UpdateState.FAILED);
+            return false;
+        } finally {
+            connector2millis.put(connector, System.currentTimeMillis() - start);
+            if (verbose)
+                System.err.println("--- Compute " + connector.getAlgorithm().getName() + " done ("
+                                   + StringUtils.removeTrailingZerosAfterDot("" + ((System.currentTimeMillis() - start) / 1000.0))
+                                   + "s)");
+        }
+    }
+
+    /**
+     * runs the algorithm of the given connector on a freshly cleared child datablock, or copies a cached result, if the
+     * input has been seen before. Afterwards, the fingerprints of the input and of the result are recorded.
+     * Used both by the engine and by the ConnectorService
+     */
+    static <P extends DataBlock, C extends DataBlock> void compute(ProgressListener progress, Connector<P, C> connector) throws Exception {
+        synchronized (connector.getChild().getDataBlock()) { // make sure that we only ever have one task working on a given datablock
+            setState(connector.getChild(), UpdateState.INVALID);
+            setState(connector, UpdateState.COMPUTING);
+
+            final long inputFingerprint = connector.computeInputFingerprint();
+            connector.setInputFingerprint(0);
+            connector.getChild().setFingerprint(0);
+
+            connector.getChild().getDataBlock().clear(); // always start with a fresh datablock
+            progress.setTasks(connector.getAlgorithm().getName(), "Running");
+
+            final ConnectorResultCache cache = ConnectorResultCache.getInstance();
+            final boolean cacheable = (cache.isEnabled() && ConnectorResultCache.isCacheable(connector, inputFingerprint));
+            long fingerprint = (cacheable ? cache.restore(inputFingerprint, connector) : 0);
+            if (fingerprint != 0) {
+                progress.setSubtask("using cached result");
+            } else {
+                connector.getAlgorithm().compute(progress, connector.getTaxaBlock(), connector.getParent().getDataBlock(), connector.getChild().getDataBlock());
+                if (!(connector.getChildDataBlock() instanceof ViewerBlock))
+                    fingerprint = connector.getChildDataBlock().computeFingerprint(connector.getTaxaBlock());
+                if (cacheable && fingerprint != 0)
+                    cache.put(inputFingerprint, connector, fingerprint);
+            }
+
+            // record what the result was computed from, so that descendants can be kept if the result is unchanged
+            if (!(connector.getChildDataBlock() instanceof ViewerBlock)) {
+                connector.getChild().setFingerprint(fingerprint);
+                connector.setInputFingerprint(inputFingerprint);
+            }
+        }
+    }
+
+    /**
+     * sets the state of a node without propagating it. State changes trigger listeners in the workflow that are not
+     * thread-safe, so they are serialized
+     */
+    private static void setState(WorkflowNode node, UpdateState state) {
+        synchronized (stateLock) {
+            node.stateProperty().set(state);
+        }
+    }
+
+    /**
+     * gets all connectors below the top taxa and top data nodes in topological order. The taxa filter comes first,
+     * as all other connectors depend on the working taxa
+     *
+     * @return connectors in topological order
+     */
+    public ArrayList<Connector> getConnectorsInTopologicalOrder() {
+        final ArrayList<Connector> list = getConnectorsBelow(workflow.getTopTaxaNode());
+        list.addAll(getConnectorsBelow(workflow.getTopDataNode()));
+        return list;
+    }
+
+    /**
+     * gets all connectors below the given node in breadth-first order
+     *
+     * @return connectors below node
+     */
+    private static ArrayList<Connector> getConnectorsBelow(DataNode root) {
+        final ArrayList<Connector> list = new ArrayList<>();
+        final Queue<DataNode> queue = new LinkedList<>();
+        if (root != null)
+            queue.add(root);
+
+        while (queue.size() > 0) {
+            final DataNode node = queue.remove();
+            for (Object obj : node.getChildren()) {
+                final Connector connector = (Connector) obj;
+                list.add(connector);
+                queue.add(connector.getChild());
+            }
+        }
+        return list;
+    }
+
+    public Workflow getWorkflow() {
+        return workflow;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * set the maximum number of connectors that are computed at the same time
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * in headless mode, no JavaFX toolkit is present, connectors do not start their services and all computation is driven by a WorkflowEngine
+     */
+    public static boolean isHeadless() {
+        return headless;
+    }
+
+    public static void setHeadless(boolean headless) {
+        WorkflowEngine.headless = headless;
+    }
+
+    /**
+     * runs the given runnable in the FX application thread, or directly, when running headless
+     */
+    public static void runLater(Runnable runnable) {
+        if (headless)
+            runnable.run();
+        else
+            Platform.runLater(runnable);
+    }
+}
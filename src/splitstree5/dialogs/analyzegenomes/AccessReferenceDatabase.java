@@ -37,6 +37,7 @@ import splitstree5.dialogs.UrlUtilities;
 import java.io.*;
 import java.net.URL;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
@@ -49,9 +50,18 @@ import java.util.stream.Collectors;
 
 /**
  * provides next to a reference database
+ * <p>
+ * In format version 2, sketches and Bloom filters are stored as binary BLOBs, in format version 1, as hex-encoded
+ * TEXT. Both are read. All lookups use prepared statements, which are kept per connection, and lookups of many taxa
+ * bind batches of ids to one query
  * Daniel Huson, 8.2020
  */
 public class AccessReferenceDatabase implements Closeable {
+    /**
+     * the format version written by UpgradeReferenceDatabase
+     */
+    public static final int FORMAT_VERSION = 2;
+
     private final AccessReferenceDatabase[] copiesForSearching;
     private final AtomicInteger which = new AtomicInteger(0);
 
@@ -66,6 +76,12 @@ public class AccessReferenceDatabase implements Closeable {
     private final int mashS;
     private final int mashSeed;
     private final int taxonomyRoot;
+    private final int formatVersion;
+
+    private static final int IDS_PER_QUERY = 100; // number of ids bound to one IN (...) query
+
+    private final Map<String, PreparedStatement> sql2statement = new HashMap<>();
+    private volatile Map<Integer, int[]> parent2children;
 
     /**
      * open database
@@ -78,9 +94,9 @@ public class AccessReferenceDatabase implements Closeable {
     /**
      * open the database
      * <p>
-     * Schema:
-     * CREATE TABLE mash_sketches (taxon_id INTEGER PRIMARY KEY, mash_sketch TEXT NOT NULL);
-     * CREATE TABLE bloom_filters (taxon_id INTEGER PRIMARY KEY, bloom_filter TEXT NOT NULL);
+     * Schema (in format version 1, sketches and Bloom filters are hex-encoded TEXT):
+     * CREATE TABLE mash_sketches (taxon_id INTEGER PRIMARY KEY, mash_sketch BLOB NOT NULL);
+     * CREATE TABLE bloom_filters (taxon_id INTEGER PRIMARY KEY, bloom_filter BLOB NOT NULL);
      * CREATE TABLE taxa (taxon_id INTEGER PRIMARY KEY, taxon_name TEXT, taxon_display_name TEXT, parent_id INTEGER REFERENCES taxa(taxon_id));
      * CREATE TABLE info (key TEXT PRIMARY KEY, value TEXT NOT NULL);
      * CREATE TABLE genomes (taxon_id INTEGER PRIMARY KEY, genome_accession TEXT NOT NULL, genome_size INTEGER, fasta_url TEXT);
@@ -114,15 +130,32 @@ public class AccessReferenceDatabase implements Closeable {
         mashS = executeQueryInt("SELECT value FROM info WHERE key='mash_s';", 1).get(0);
         mashSeed = executeQueryInt("SELECT value FROM info WHERE key='mash_seed';", 1).get(0);
         taxonomyRoot = executeQueryInt("SELECT taxon_id FROM taxa WHERE parent_id=0;", 1).get(0);
+        final ArrayList<Integer> versions = executeQueryInt("SELECT value FROM info WHERE key='format_version';", 1);
+        formatVersion = (versions.size() > 0 ? versions.get(0) : 1);
     }
 
+    /**
+     * gets the schema of the current format version
+     */
     public static String getSchema() {
-        return "CREATE TABLE bloom_filters (taxon_id INTEGER PRIMARY KEY, bloom_filter TEXT NOT NULL) WITHOUT ROWID;\n" +
+        return getSchema(FORMAT_VERSION);
+    }
+
+    /**
+     * gets the schema of the given format version. Version 2 stores sketches and Bloom filters as BLOBs, version 1 as hex-encoded TEXT
+     */
+    public static String getSchema(int formatVersion) {
+        final String type = (formatVersion >= 2 ? "BLOB" : "TEXT");
+        return "CREATE TABLE bloom_filters (taxon_id INTEGER PRIMARY KEY, bloom_filter " + type + " NOT NULL) WITHOUT ROWID;\n" +
                 "CREATE TABLE tree (key TEXT PRIMARY KEY, value TEXT NOT NULL) WITHOUT ROWID;\n" +
                 "CREATE TABLE taxa (taxon_id INTEGER PRIMARY KEY, taxon_name TEXT, taxon_display_name TEXT, parent_id INTEGER REFERENCES taxa(taxon_id)) WITHOUT ROWID;\n" +
                 "CREATE TABLE info (key TEXT PRIMARY KEY, value TEXT NOT NULL) WITHOUT ROWID;\n" +
                 "CREATE TABLE genomes (taxon_id INTEGER PRIMARY KEY, genome_accession TEXT NOT NULL, genome_size INTEGER, fasta_url TEXT) WITHOUT ROWID;\n" +
-                "CREATE TABLE mash_sketches (taxon_id INTEGER PRIMARY KEY, mash_sketch TEXT NOT NULL) WITHOUT ROWID;\n";
+                "CREATE TABLE mash_sketches (taxon_id INTEGER PRIMARY KEY, mash_sketch " + type + " NOT NULL) WITHOUT ROWID;\n";
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
     }
 
     public static boolean isDatabaseFile(String fileName) {
@@ -163,6 +196,16 @@ public class AccessReferenceDatabase implements Closeable {
     }
 
     public void close() {
+        synchronized (sql2statement) {
+            for (PreparedStatement statement : sql2statement.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    Basic.caught(e);
+                }
+            }
+            sql2statement.clear();
+        }
         if (connection != null) {
             try {
                 connection.close();
@@ -175,56 +218,97 @@ public class AccessReferenceDatabase implements Closeable {
         }
     }
 
-    public ArrayList<Pair<Integer, MashSketch>> getMashSketches(Collection<Integer> taxonIds) throws SQLException, IOException {
-		final String query = String.format("select taxon_id,mash_sketch from mash_sketches where taxon_id in('%s');", StringUtils.toString(taxonIds, "','"));
+    /**
+     * gets the prepared statement for the given SQL, preparing it on first use. A statement must only be used
+     * while synchronized on it
+     */
+    private PreparedStatement prepare(String sql) throws SQLException {
+        synchronized (sql2statement) {
+            PreparedStatement statement = sql2statement.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                sql2statement.put(sql, statement);
+            }
+            return statement;
+        }
+    }
 
-        final ResultSet rs = connection.createStatement().executeQuery(query);
-        final int columnCount = rs.getMetaData().getColumnCount();
+    /**
+     * gets the bytes of a sketch or Bloom filter, stored as a BLOB or, in format version 1, as hex-encoded TEXT
+     */
+    private static byte[] getBytes(ResultSet rs, int column) throws SQLException {
+        final Object value = rs.getObject(column);
+        if (value instanceof byte[])
+            return (byte[]) value;
+        else
+            return (value == null ? null : HexUtils.decodeHexString(value.toString()));
+    }
 
+    public ArrayList<Pair<Integer, MashSketch>> getMashSketches(Collection<Integer> taxonIds) throws SQLException, IOException {
+        final Map<Integer, byte[]> id2bytes = new HashMap<>();
+        queryByTaxonIds("SELECT taxon_id, mash_sketch FROM mash_sketches WHERE taxon_id IN (%s);", taxonIds, rs -> id2bytes.put(rs.getInt(1), getBytes(rs, 2)));
         final ArrayList<Pair<Integer, MashSketch>> result = new ArrayList<>();
-        if (columnCount >= 2) {
-            while (rs.next()) {
-                final int taxon = rs.getInt(1);
-                final String hexString = rs.getString(2);
-                final MashSketch mashSketch = MashSketch.parse(HexUtils.decodeHexString(hexString));
-                result.add(new Pair<>(taxon, mashSketch));
-            }
+        for (int taxon : taxonIds) {
+            final byte[] bytes = id2bytes.get(taxon);
+            if (bytes != null)
+                result.add(new Pair<>(taxon, MashSketch.parse(bytes)));
         }
         return result;
     }
 
     public ArrayList<Pair<Integer, BloomFilter>> getBloomFilters(Collection<Integer> taxonIds) throws SQLException, IOException {
-		final String query = String.format("SELECT taxon_id,bloom_filter FROM bloom_filters WHERE taxon_id IN('%s');", StringUtils.toString(taxonIds, "','"));
-
-        final ResultSet rs = connection.createStatement().executeQuery(query);
-
+        final Map<Integer, byte[]> id2bytes = new HashMap<>();
+        queryByTaxonIds("SELECT taxon_id, bloom_filter FROM bloom_filters WHERE taxon_id IN (%s);", taxonIds, rs -> id2bytes.put(rs.getInt(1), getBytes(rs, 2)));
         final ArrayList<Pair<Integer, BloomFilter>> result = new ArrayList<>();
-        while (rs.next()) {
-            final int taxon = rs.getInt(1);
-            final String hexString = rs.getString(2);
-            final BloomFilter bloomFilter = BloomFilter.parseBytes(HexUtils.decodeHexString(hexString));
-            result.add(new Pair<>(taxon, bloomFilter));
+        for (int taxon : taxonIds) {
+            final byte[] bytes = id2bytes.get(taxon);
+            if (bytes != null)
+                result.add(new Pair<>(taxon, BloomFilter.parseBytes(bytes)));
         }
         return result;
     }
 
     public Map<Integer, String> getNames(Collection<Integer> taxonIds) throws SQLException {
-		final String query = String.format("SELECT taxon_id,taxon_name FROM taxa WHERE taxon_id IN('%s');", StringUtils.toString(taxonIds, "','"));
-
-        final ResultSet rs = connection.createStatement().executeQuery(query);
-
         final Map<Integer, String> result = new TreeMap<>();
-        while (rs.next()) {
-            result.put(rs.getInt(1), rs.getString(2));
-        }
+        queryByTaxonIds("SELECT taxon_id, taxon_name FROM taxa WHERE taxon_id IN (%s);", taxonIds, rs -> result.put(rs.getInt(1), rs.getString(2)));
         return result;
     }
 
-    public String getName(int taxonId) throws SQLException {
-        final String query = String.format("SELECT taxon_id,taxon_name FROM taxa WHERE taxon_id=%d;", taxonId);
-        final ResultSet rs = connection.createStatement().executeQuery(query);
+    /**
+     * runs a query that selects rows by taxon id, given as a format with one %s for the list of ids, for all given ids.
+     * The ids are processed in chunks of IDS_PER_QUERY, the last chunk is padded with repeats of its last id, so that
+     * all chunks use the same prepared statement. The statement is only locked while a chunk is processed
+     *
+     * @param queryFormat query with one %s that is replaced by the parameter list
+     * @param taxonIds    ids to look up
+     * @param consumer    called for each row in the result
+     */
+    private void queryByTaxonIds(String queryFormat, Collection<Integer> taxonIds, RowConsumer consumer) throws SQLException {
+        if (taxonIds.size() == 0)
+            return;
+        final PreparedStatement statement = prepare(String.format(queryFormat, StringUtils.toString(Collections.nCopies(IDS_PER_QUERY, "?"), ",")));
+        final Integer[] ids = taxonIds.toArray(new Integer[0]);
+        for (int start = 0; start < ids.length; start += IDS_PER_QUERY) {
+            final int end = Math.min(ids.length, start + IDS_PER_QUERY);
+            synchronized (statement) {
+                for (int i = 0; i < IDS_PER_QUERY; i++) {
+                    statement.setInt(i + 1, ids[Math.min(start + i, end - 1)]);
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(rs);
+                    }
+                }
+            }
+        }
+    }
 
-        return rs.getString(2);
+    private interface RowConsumer {
+        void accept(ResultSet rs) throws SQLException;
+    }
+
+    public String getName(int taxonId) throws SQLException {
+        return getNames(Collections.singleton(taxonId)).get(taxonId);
     }
 
     public Map<Integer, List<Integer>> getAncestors(Collection<Integer> taxonIds) throws SQLException {
@@ -233,20 +317,25 @@ public class AccessReferenceDatabase implements Closeable {
                 "parent_of(taxon_id, parent) AS\n" +
                 "(SELECT taxon_id, parent_id FROM taxa),\n" +
                 "ancestor(taxon_id) AS\n" +
-                "(SELECT parent FROM parent_of WHERE taxon_id=%d\n" +
+                "(SELECT parent FROM parent_of WHERE taxon_id=%s\n" +
                 "UNION ALL\n" +
                 "SELECT parent FROM parent_of JOIN ancestor USING(taxon_id))\n" +
                 "SELECT taxa.taxon_id FROM ancestor, taxa\n" +
                 "WHERE ancestor.taxon_id=taxa.taxon_id;\n";
 
         final Map<Integer, List<Integer>> map = new HashMap<>();
-        for (var taxonId : taxonIds) {
-            final ResultSet rs = connection.createStatement().executeQuery(String.format(queryFormat, taxonId));
-            final LinkedList<Integer> ancestors = new LinkedList<>();
-            while (rs.next()) {
-                ancestors.add(0, rs.getInt(1));
+        final PreparedStatement statement = prepare(String.format(queryFormat, "?"));
+        synchronized (statement) {
+            for (var taxonId : taxonIds) {
+                statement.setInt(1, taxonId);
+                final LinkedList<Integer> ancestors = new LinkedList<>();
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        ancestors.add(0, rs.getInt(1));
+                    }
+                }
+                map.put(taxonId, ancestors);
             }
-            map.put(taxonId, ancestors);
         }
         return map;
     }
@@ -294,32 +383,36 @@ public class AccessReferenceDatabase implements Closeable {
     }
 
     public Map<Integer, String> getFiles(Collection<Integer> taxonIds) throws SQLException, IOException {
-		final String query = String.format("SELECT taxon_id,fasta_url FROM genomes WHERE taxon_id IN('%s');", StringUtils.toString(taxonIds, "','"));
-
-        final ResultSet rs = connection.createStatement().executeQuery(query);
-
+        final Map<Integer, String> id2url = new HashMap<>();
+        queryByTaxonIds("SELECT taxon_id, fasta_url FROM genomes WHERE taxon_id IN (%s);", taxonIds, rs -> id2url.put(rs.getInt(1), rs.getString(2)));
         final Map<Integer, String> result = new HashMap<>();
-        while (rs.next()) {
-            final int taxon = rs.getInt(1);
-            if (rs.getString(2).equals("null")) {
+        for (int taxon : taxonIds) {
+            final String url = id2url.get(taxon);
+            if (url == null)
+                continue;
+            if (url.equals("null")) {
                 System.err.println("The genome URL for " + this.getName(taxon) + " is null");
                 continue;
             }
-            System.out.println(taxon + "\t" + rs.getString(2));
-            final String fileURL = UrlUtilities.getFileForFtpUrl(rs.getString(2), ".*_cds_.*", ".*fna.gz$");
+            System.out.println(taxon + "\t" + url);
+            final String fileURL = UrlUtilities.getFileForFtpUrl(url, ".*_cds_.*", ".*fna.gz$");
             result.put(taxon, fileURL);
         }
         return result;
     }
 
     public String getFile(Integer taxonId) throws SQLException, IOException {
-        final String query = String.format("SELECT taxon_id,fasta_url FROM genomes WHERE taxon_id=%d;", taxonId);
-
-        final ResultSet rs = connection.createStatement().executeQuery(query);
+        return UrlUtilities.getFileForFtpUrl(getFastaURL(taxonId), ".*_cds_.*", ".*fna.gz$");
+    }
 
-        //final Map<Integer, String> result = new HashMap<>();
-        //final int taxon = rs.getInt(1);
-        return UrlUtilities.getFileForFtpUrl(rs.getString(2), ".*_cds_.*", ".*fna.gz$");
+    private String getFastaURL(int taxonId) throws SQLException {
+        final PreparedStatement statement = prepare("SELECT fasta_url FROM genomes WHERE taxon_id=?;");
+        synchronized (statement) {
+            statement.setInt(1, taxonId);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
     }
 
     public int countGenomes() throws SQLException {
@@ -351,11 +444,50 @@ public class AccessReferenceDatabase implements Closeable {
     }
 
     public Collection<Integer> getTaxonomyChildren(int parent_id) throws SQLException {
-        return new ArrayList<>(executeQueryInt("SELECT taxon_id FROM taxa WHERE parent_id=" + parent_id + ";", 1));
+        final int[] children = getParent2Children().get(parent_id);
+        final ArrayList<Integer> result = new ArrayList<>(children == null ? 0 : children.length);
+        if (children != null) {
+            for (int child : children)
+                result.add(child);
+        }
+        return result;
+    }
+
+    /**
+     * gets the children of all taxa, read from the database with a single query on first use, so that traversing
+     * the taxonomy doesn't require a scan of the taxa table for each node
+     */
+    private Map<Integer, int[]> getParent2Children() throws SQLException {
+        if (parent2children == null) {
+            synchronized (sql2statement) {
+                if (parent2children == null) {
+                    final Map<Integer, ArrayList<Integer>> map = new HashMap<>();
+                    try (var statement = connection.createStatement(); ResultSet rs = statement.executeQuery("SELECT taxon_id, parent_id FROM taxa;")) {
+                        while (rs.next()) {
+                            map.computeIfAbsent(rs.getInt(2), k -> new ArrayList<>()).add(rs.getInt(1));
+                        }
+                    }
+                    final Map<Integer, int[]> result = new HashMap<>();
+                    for (var entry : map.entrySet()) {
+                        result.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+                    }
+                    parent2children = result;
+                }
+            }
+        }
+        return parent2children;
     }
 
     public int getTaxonomyParent(int taxid) throws SQLException {
-        return new ArrayList<>(executeQueryInt("SELECT parent_id FROM taxa WHERE taxon_id=" + taxid + ";", 1)).get(0);
+        final PreparedStatement statement = prepare("SELECT parent_id FROM taxa WHERE taxon_id=?;");
+        synchronized (statement) {
+            statement.setInt(1, taxid);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next())
+                    throw new SQLException("Taxon not found: " + taxid);
+                return rs.getInt(1);
+            }
+        }
     }
 
     public Map<String, String> getReferenceFile2Name(ObservableList<Integer> taxonIds, ProgressListener progress) throws SQLException, IOException {
@@ -499,7 +631,7 @@ public class AccessReferenceDatabase implements Closeable {
             if (exception.get() == null) {
                 try {
                     final AccessReferenceDatabase database = getCopy();
-                    final Collection<Integer> ids = database.getTaxonomyChildren(taxonId);
+                    final Collection<Integer> ids = getTaxonomyChildren(taxonId);
                     final ArrayList<Pair<Integer, BloomFilter>> bloomFilters = database.getBloomFilters(ids);
                     for (Pair<Integer, BloomFilter> pair : bloomFilters) {
                         final BloomFilter bloomFilter = pair.getSecond();
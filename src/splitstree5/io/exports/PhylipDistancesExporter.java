@@ -47,9 +47,9 @@ public class PhylipDistancesExporter implements IFromDistances, IExportDistances
 
         if (!optionTriangular) {
             System.err.println("standard");
-            for (int i = 1; i <= distances.getDistances().length; i++) {
+            for (int i = 1; i <= distances.getNtax(); i++) {
                 StringBuilder sequence = new StringBuilder();
-                for (int j = 1; j <= distances.getDistances()[i - 1].length; j++) {
+                for (int j = 1; j <= distances.getNtax(); j++) {
                     sequence.append(String.format("%.5f ", distances.get(i, j)));
                 }
                 if (taxa.getLabel(i).length() >= 10)
@@ -65,7 +65,7 @@ public class PhylipDistancesExporter implements IFromDistances, IExportDistances
         } else {
             System.err.println("triangular");
             w.write(taxa.getLabel(1) + "\n");
-            for (int i = 2; i <= distances.getDistances().length; i++) {
+            for (int i = 2; i <= distances.getNtax(); i++) {
 				StringBuilder sequence = new StringBuilder();
                 for (int j = 1; j <= i - 1; j++) {
                     sequence.append(String.format("%.5f ", distances.get(i, j)));
@@ -19,6 +19,7 @@
 
 package splitstree5.io.imports;
 
+import jloda.fx.util.ProgramExecutorService;
 import jloda.phylo.PhyloTree;
 import jloda.util.*;
 import jloda.util.progress.ProgressListener;
@@ -32,6 +33,8 @@ import splitstree5.utils.TreesUtilities;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Newick tree importer
@@ -42,12 +45,15 @@ import java.util.*;
 
 
 public class NewickTreeImporter implements IToTrees, IImportTrees {
+    private static final int TREES_PER_CHUNK = 64;
+
     public static final List<String> extensions = new ArrayList<>(Arrays.asList("new", "nwk", "tree", "tre", "treefile"));
 
     private boolean optionConvertMultiLabeledTree = false;
 
     /**
-     * parse trees
+     * parse trees. Lines are read and assembled into trees by the calling thread. Chunks of trees are parsed concurrently,
+     * and the parsed trees are then processed in input order, so that taxon ids are assigned as in a sequential parse
      *
 	 */
     public void parse(ProgressListener progressListener, String inputFile, TaxaBlock taxa, TreesBlock trees) throws IOException, CanceledException {
@@ -56,14 +62,13 @@ public class NewickTreeImporter implements IToTrees, IImportTrees {
             progressListener.setMaximum(it.getMaximumProgress());
             progressListener.setProgress(0);
 
-            final var taxName2Id = new HashMap<String, Integer>(); // starts at 1
-            final var taxonNamesFound = new HashSet<String>();
-            final ArrayList<String> orderedTaxonNames = new ArrayList<>();
+            final var taxonNames = new TaxonNames();
+            final var executor = ProgramExecutorService.getInstance();
+            final var maxChunksInFlight = 2 * Math.max(1, ProgramExecutorService.getNumberOfCoresToUse());
+            final var chunks = new ArrayDeque<FutureTask<List<ParsedTree>>>();
 
-            var newickParser = new SimpleNewickParser();
-            newickParser.setEnforceLabelDoesNotStartWithADigit(true);
-            var partial = false;
-            final var parts = new ArrayList<String>();
+            var chunk = new ArrayList<Pair<Integer, String>>(TREES_PER_CHUNK);
+            final var parts = new StringBuilder();
 
             // read in the trees
             while (it.hasNext()) {
@@ -71,90 +76,177 @@ public class NewickTreeImporter implements IToTrees, IImportTrees {
 				final var line = StringUtils.removeComments(it.next(), '[', ']');
                 if (line.endsWith(";")) {
                     final String treeLine;
-                    if (parts.size() > 0) {
-						parts.add(line);
-						treeLine = StringUtils.toString(parts, "");
-						parts.clear();
+                    if (parts.length() > 0) {
+                        parts.append(line);
+                        treeLine = parts.toString();
+                        parts.setLength(0);
                     } else
                         treeLine = line;
-                    final PhyloTree tree;
-                    try {
-                        tree = newickParser.parse(treeLine);
-                    } catch (IOException ex) {
-                        throw new IOExceptionWithLineNumber(lineno, ex);
-                    }
-                    if (TreesUtilities.hasNumbersOnLeafNodes(tree)) {
-                        throw new IOExceptionWithLineNumber(lineno, "Leaf labels must not be numbers");
+                    chunk.add(new Pair<>(lineno, treeLine));
+                    if (chunk.size() == TREES_PER_CHUNK) {
+                        final var task = createParseTask(chunk);
+                        chunks.add(task);
+                        executor.execute(task);
+                        chunk = new ArrayList<>(TREES_PER_CHUNK);
+                        if (chunks.size() >= maxChunksInFlight)
+                            taxonNames.addAll(getResult(chunks.poll()), trees);
                     }
-                    if (TreesUtilities.hasNumbersOnInternalNodes(tree)) {
-                        TreesUtilities.changeNumbersOnInternalNodesToEdgeConfidencies(tree);
-                    }
-                    final var leafLabelList = IteratorUtils.asList(newickParser.labels());
-                    final var leafLabelSet = new HashSet<String>(leafLabelList);
-                    final var multiLabeled = (leafLabelSet.size() < leafLabelList.size());
-
-                    if (multiLabeled) {
-                        if (isOptionConvertMultiLabeledTree()) {
-                            final var seen = new HashSet<String>();
-                            for (var v : tree.nodes()) {
-                                var label = tree.getLabel(v);
-                                if (label != null) {
-                                    var count = 1;
-                                    while (seen.contains(label)) {
-                                        label = tree.getLabel(v) + "-" + (++count);
-                                    }
-                                    if (count > 1)
-                                        tree.setLabel(v, label);
-                                    seen.add(label);
-                                }
-                            }
-                        } else {
-                            for (var z : leafLabelSet) {
-                                leafLabelList.remove(z);
-                            }
-                            throw new IOExceptionWithLineNumber(lineno, "Name appears multiple times in tree:" + leafLabelList.get(0));
+                    progressListener.setProgress(it.getProgress());
+                } else
+                    parts.append(line);
+            }
+            if (chunk.size() > 0)
+                chunks.add(createParseTask(chunk));
+            while (chunks.size() > 0)
+                taxonNames.addAll(getResult(chunks.poll()), trees);
+
+            if (parts.length() > 0)
+				System.err.println("Ignoring trailing lines at end of file:\n" + StringUtils.abbreviateDotDotDot(parts.toString(), 400));
+            taxa.addTaxaByNames(taxonNames.orderedTaxonNames);
+            trees.setPartial(taxonNames.partial);
+            trees.setRooted(true);
+        }
+    }
+
+    /**
+     * creates the task of parsing a chunk of trees
+     *
+     * @param chunk pairs of line number and tree
+     */
+    private FutureTask<List<ParsedTree>> createParseTask(List<Pair<Integer, String>> chunk) {
+        final var convertMultiLabeledTree = isOptionConvertMultiLabeledTree();
+        return new FutureTask<>(() -> {
+            final var newickParser = new SimpleNewickParser();
+            newickParser.setEnforceLabelDoesNotStartWithADigit(true);
+            final var result = new ArrayList<ParsedTree>(chunk.size());
+            for (var pair : chunk) {
+                result.add(parseTree(newickParser, pair.getFirst(), pair.getSecond(), convertMultiLabeledTree));
+            }
+            return result;
+        });
+    }
+
+    /**
+     * gets the result of a parse task. If the task hasn't been started yet, it is run in the calling thread
+     */
+    private static List<ParsedTree> getResult(FutureTask<List<ParsedTree>> task) throws IOException, CanceledException {
+        task.run(); // does nothing, if already run by executor
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            throw new CanceledException();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            else
+                throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * parses a single tree, does not yet assign taxa
+     */
+    private static ParsedTree parseTree(SimpleNewickParser newickParser, int lineno, String treeLine, boolean convertMultiLabeledTree) throws IOException {
+        final PhyloTree tree;
+        try {
+            tree = newickParser.parse(treeLine);
+        } catch (IOException ex) {
+            throw new IOExceptionWithLineNumber(lineno, ex);
+        }
+        if (TreesUtilities.hasNumbersOnLeafNodes(tree)) {
+            throw new IOExceptionWithLineNumber(lineno, "Leaf labels must not be numbers");
+        }
+        if (TreesUtilities.hasNumbersOnInternalNodes(tree)) {
+            TreesUtilities.changeNumbersOnInternalNodesToEdgeConfidencies(tree);
+        }
+        var leafLabelList = IteratorUtils.asList(newickParser.labels());
+        final var leafLabelSet = new LinkedHashSet<String>(leafLabelList);
+
+        if (leafLabelSet.size() < leafLabelList.size()) { // multi-labeled
+            if (convertMultiLabeledTree) {
+                final var seen = new HashSet<String>();
+                for (var v : tree.nodes()) {
+                    var label = tree.getLabel(v);
+                    if (label != null) {
+                        var count = 1;
+                        while (seen.contains(label)) {
+                            label = tree.getLabel(v) + "-" + (++count);
                         }
+                        if (count > 1)
+                            tree.setLabel(v, label);
+                        seen.add(label);
                     }
+                }
+                leafLabelList = new ArrayList<>(leafLabelSet); // renamed copies are not taxa, keep each name once
+            } else {
+                for (var z : leafLabelSet) {
+                    leafLabelList.remove(z);
+                }
+                throw new IOExceptionWithLineNumber(lineno, "Name appears multiple times in tree:" + leafLabelList.get(0));
+            }
+        }
+        return new ParsedTree(tree, leafLabelList);
+    }
 
-                    if (taxonNamesFound.size() == 0) {
-                        for (var name : newickParser.labels()) {
-                            taxonNamesFound.add(name);
+    /**
+     * a parsed tree and its distinct leaf labels, in order of first appearance
+     */
+    private static class ParsedTree {
+        private final PhyloTree tree;
+        private final List<String> labels;
+
+        ParsedTree(PhyloTree tree, List<String> labels) {
+            this.tree = tree;
+            this.labels = labels;
+        }
+    }
+
+    /**
+     * the taxon names found, in order of first appearance
+     */
+    private static class TaxonNames {
+        private final HashMap<String, Integer> taxName2Id = new HashMap<>(); // starts at 1
+        private final ArrayList<String> orderedTaxonNames = new ArrayList<>();
+        private boolean partial = false;
+
+        /**
+         * assigns taxa to the parsed trees and adds them to the trees block, in order
+         */
+        void addAll(List<ParsedTree> parsedTrees, TreesBlock trees) {
+            for (var parsedTree : parsedTrees) {
+                final var tree = parsedTree.tree;
+                if (orderedTaxonNames.size() == 0) {
+                    for (var name : parsedTree.labels) {
+                        orderedTaxonNames.add(name);
+                        taxName2Id.put(name, orderedTaxonNames.size());
+                    }
+                } else {
+                    final var numberOfKnownTaxa = orderedTaxonNames.size();
+                    var count = 0; // number of known taxa in this tree, labels are distinct
+                    for (var name : parsedTree.labels) {
+                        if (taxName2Id.containsKey(name))
+                            count++;
+                        else {
+                            System.err.println("Additional taxon name: " + name);
                             orderedTaxonNames.add(name);
                             taxName2Id.put(name, orderedTaxonNames.size());
                         }
-                    } else {
-                        if (!taxonNamesFound.equals(IteratorUtils.asSet(newickParser.labels()))) {
-                            partial = true;
-                            for (var name : newickParser.labels()) {
-                                if (!taxonNamesFound.contains(name)) {
-                                    System.err.println("Additional taxon name: " + name);
-                                    taxonNamesFound.add(name);
-                                    orderedTaxonNames.add(name);
-                                    taxName2Id.put(name, orderedTaxonNames.size());
-                                }
-                            }
-                        }
                     }
-                    for (var v : tree.nodes()) {
-                        final var label = tree.getLabel(v);
-                        if (label != null && label.length() > 0) {
-                            if (taxonNamesFound.contains(label)) { // need to check that this is a taxon name, could also be a number placed on the root...
-                                tree.addTaxon(v, taxName2Id.get(label));
-                            }
+                    if (count < numberOfKnownTaxa || orderedTaxonNames.size() > numberOfKnownTaxa)
+                        partial = true;
+                }
+                for (var v : tree.nodes()) {
+                    final var label = tree.getLabel(v);
+                    if (label != null && label.length() > 0) {
+                        final var taxonId = taxName2Id.get(label);
+                        if (taxonId != null) { // need to check that this is a taxon name, could also be a number placed on the root...
+                            tree.addTaxon(v, taxonId);
                         }
                     }
-                    trees.getTrees().add(tree);
-                    tree.setName("tree-" + trees.size());
-
-                    progressListener.setProgress(it.getProgress());
-                } else
-                    parts.add(line);
+                }
+                trees.getTrees().add(tree);
+                tree.setName("tree-" + trees.size());
             }
-            if (parts.size() > 0)
-				System.err.println("Ignoring trailing lines at end of file:\n" + StringUtils.abbreviateDotDotDot(StringUtils.toString(parts, "\n"), 400));
-            taxa.addTaxaByNames(orderedTaxonNames);
-            trees.setPartial(partial);
-            trees.setRooted(true);
         }
     }
 
@@ -0,0 +1,284 @@
+/*
+ * TreeFileStream.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.io.imports.utils;
+
+import jloda.graph.Node;
+import jloda.phylo.PhyloTree;
+import jloda.util.FileLineIterator;
+import jloda.util.IOExceptionWithLineNumber;
+import jloda.util.StringUtils;
+import splitstree5.utils.TreesUtilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * reads the trees of a Newick or Nexus file one at a time, so that files that are too large to be loaded into a trees
+ * block can be processed in bounded memory. Optionally skips a burn-in and only keeps every n-th tree (thinning).
+ * Skipped trees are not parsed.
+ * <p>
+ * All trees must be on the same taxa. These are given by the translate command of a Nexus file, or else by the first tree.
+ * Reading statements isn't thread safe, but once the taxa are known (after the first call of parse), statements can be
+ * parsed concurrently, each thread using its own parser
+ * Daniel Huson, 10.2026
+ */
+public class TreeFileStream implements Closeable {
+    private final FileLineIterator it;
+    private final boolean nexus;
+    private String pending; // line read ahead
+    private boolean done;
+    private int lineNumber;
+
+    private Map<String, String> translator;
+    private final ArrayList<String> taxonNames = new ArrayList<>();
+    private final Map<String, Integer> taxName2Id = new HashMap<>();
+    private volatile boolean taxaKnown;
+
+    private int burnIn = 0;
+    private int thinning = 1;
+    private int numberOfStatements; // number of tree statements read, including skipped ones
+    private final SimpleNewickParser parser = new SimpleNewickParser();
+
+    /**
+     * opens a file of trees, in Newick or Nexus format
+     */
+    public TreeFileStream(String fileName) throws IOException {
+        it = new FileLineIterator(fileName);
+        String line = skipEmptyLines();
+        nexus = (line != null && line.toLowerCase().startsWith("#nexus"));
+        if (nexus) {
+            while (line != null && !line.toLowerCase().matches("begin\\s+trees\\s*;.*"))
+                line = nextLine();
+            if (line == null)
+                throw new IOException("No TREES block found: " + fileName);
+            pending = null;
+        } else
+            pending = line;
+    }
+
+    private String nextLine() {
+        if (it.hasNext()) {
+            lineNumber++;
+            return StringUtils.removeComments(it.next(), '[', ']').trim();
+        } else
+            return null;
+    }
+
+    private String skipEmptyLines() {
+        String line = nextLine();
+        while (line != null && line.length() == 0)
+            line = nextLine();
+        return line;
+    }
+
+    /**
+     * reads the next statement, i.e. everything up to the next semicolon at the end of a line
+     *
+     * @return statement without semicolon, or null, if at end
+     */
+    private String nextStatement() {
+        final StringBuilder buf = new StringBuilder();
+        String line = (pending != null ? pending : nextLine());
+        pending = null;
+        while (line != null) {
+            if (line.endsWith(";")) {
+                buf.append(line, 0, line.length() - 1);
+                return buf.toString().trim();
+            }
+            buf.append(line);
+            if (nexus)
+                buf.append(' ');
+            line = nextLine();
+        }
+        if (buf.toString().trim().length() > 0)
+            System.err.println("Ignoring trailing lines at end of file:\n" + StringUtils.abbreviateDotDotDot(buf.toString(), 400));
+        return null;
+    }
+
+    /**
+     * gets the Newick string of the next tree that isn't skipped by burn-in or thinning
+     *
+     * @return Newick string, or null, if no more trees
+     */
+    public String nextNewick() throws IOException {
+        while (!done) {
+            final String statement = nextStatement();
+            if (statement == null) {
+                done = true;
+            } else if (!nexus) {
+                if (keep(numberOfStatements++))
+                    return statement;
+            } else {
+                final String lower = statement.toLowerCase();
+                if (lower.equals("end") || lower.equals("endblock")) {
+                    done = true;
+                } else if (lower.startsWith("translate") && (lower.length() == 9 || Character.isWhitespace(lower.charAt(9)))) {
+                    parseTranslate(statement.substring(9));
+                } else if (lower.startsWith("tree") && (lower.length() == 4 || Character.isWhitespace(lower.charAt(4)) || lower.charAt(4) == '*')) {
+                    final int pos = statement.indexOf('=');
+                    if (pos == -1)
+                        throw new IOExceptionWithLineNumber(lineNumber, "Expected '=' in tree statement");
+                    if (keep(numberOfStatements++))
+                        return statement.substring(pos + 1).trim();
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean keep(int index) {
+        return index >= burnIn && (index - burnIn) % thinning == 0;
+    }
+
+    /**
+     * parses the body of a translate statement and sets up the taxa
+     */
+    private void parseTranslate(String body) throws IOException {
+        translator = new HashMap<>();
+        for (String pair : body.split(",")) {
+            final String[] tokens = pair.trim().split("\\s+", 2);
+            if (tokens.length != 2)
+                throw new IOExceptionWithLineNumber(lineNumber, "Translate: expected pair of node label and taxon name, got: " + pair.trim());
+            final String taxonName = stripQuotes(tokens[1].trim());
+            translator.put(tokens[0], taxonName);
+            if (!taxName2Id.containsKey(taxonName)) {
+                taxonNames.add(taxonName);
+                taxName2Id.put(taxonName, taxonNames.size());
+            }
+        }
+        taxaKnown = true;
+    }
+
+    private static String stripQuotes(String name) {
+        if (name.length() >= 2 && name.startsWith("'") && name.endsWith("'"))
+            return name.substring(1, name.length() - 1);
+        else
+            return name;
+    }
+
+    /**
+     * parses the next tree that isn't skipped by burn-in or thinning
+     *
+     * @return tree, or null, if no more trees
+     */
+    public PhyloTree nextTree() throws IOException {
+        final String newick = nextNewick();
+        return newick == null ? null : parse(parser, newick);
+    }
+
+    /**
+     * parses a tree and assigns taxa to its nodes. If the taxa are not yet known, they are taken from this tree
+     *
+     * @param parser parser to use, each thread needs its own
+     * @return tree containing all taxa
+     */
+    public PhyloTree parse(SimpleNewickParser parser, String newick) throws IOException {
+        final PhyloTree tree = parser.parse(newick);
+        if (translator != null)
+            tree.changeLabels(translator);
+        if (TreesUtilities.hasNumbersOnInternalNodes(tree))
+            TreesUtilities.changeNumbersOnInternalNodesToEdgeConfidencies(tree);
+
+        if (!taxaKnown) {
+            synchronized (taxName2Id) {
+                if (!taxaKnown) {
+                    for (Node v : tree.nodes()) {
+                        final String label = tree.getLabel(v);
+                        if (v.getOutDegree() == 0 && label != null && label.length() > 0 && !taxName2Id.containsKey(label)) {
+                            taxonNames.add(label);
+                            taxName2Id.put(label, taxonNames.size());
+                        }
+                    }
+                    taxaKnown = true;
+                }
+            }
+        }
+
+        int count = 0;
+        for (Node v : tree.nodes()) {
+            final String label = tree.getLabel(v);
+            if (label != null && label.length() > 0) {
+                final Integer taxonId = taxName2Id.get(label);
+                if (taxonId != null) {
+                    tree.addTaxon(v, taxonId);
+                    count++;
+                } else if (v.getOutDegree() == 0)
+                    throw new IOException("Tree contains unknown taxon: " + label);
+            }
+        }
+        if (count != taxonNames.size())
+            throw new IOException("Tree contains " + count + " of " + taxonNames.size() + " taxa, partial trees not supported");
+        return tree;
+    }
+
+    /**
+     * @return taxon names, known after the first tree has been parsed
+     */
+    public List<String> getTaxonNames() {
+        return Collections.unmodifiableList(taxonNames);
+    }
+
+    public int getNtax() {
+        return taxonNames.size();
+    }
+
+    public int getBurnIn() {
+        return burnIn;
+    }
+
+    /**
+     * set the number of trees to skip at the beginning
+     */
+    public void setBurnIn(int burnIn) {
+        this.burnIn = Math.max(0, burnIn);
+    }
+
+    public int getThinning() {
+        return thinning;
+    }
+
+    /**
+     * set to n to only keep every n-th tree after the burn-in
+     */
+    public void setThinning(int thinning) {
+        this.thinning = Math.max(1, thinning);
+    }
+
+    /**
+     * @return number of tree statements read so far, including skipped ones
+     */
+    public int getNumberOfStatements() {
+        return numberOfStatements;
+    }
+
+    public long getProgress() {
+        return it.getProgress();
+    }
+
+    public long getMaximumProgress() {
+        return it.getMaximumProgress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        it.close();
+    }
+}
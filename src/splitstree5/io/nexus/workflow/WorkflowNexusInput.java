@@ -37,6 +37,7 @@ import splitstree5.core.datablocks.*;
 import splitstree5.core.workflow.Connector;
 import splitstree5.core.workflow.DataNode;
 import splitstree5.core.workflow.Workflow;
+import splitstree5.core.workflow.WorkflowEngine;
 import splitstree5.io.nexus.AlgorithmNexusInput;
 import splitstree5.io.nexus.SplitsTree5NexusInput;
 import splitstree5.io.nexus.TaxaNexusInput;
@@ -195,6 +196,8 @@ public class WorkflowNexusInput extends TaskWithProgressListener<MainWindow> {
                     final AlgorithmNexusInput algorithmInput = new AlgorithmNexusInput();
                     final Algorithm algorithm = algorithmInput.parse(np);
 					title2algorithmAndLink.put(algorithmInput.getTitle(), new Pair<>(algorithm, StringUtils.toString(algorithmInput.getLink(), " ")));
+                } else if (WorkflowEngine.isHeadless() && np.peekMatchBeginBlock(ViewerBlock.BLOCK_NAME)) {
+                    np.skipBlock(); // viewers require the FX toolkit
                 } else if (np.peekMatchBeginBlock("taxa")) {
                     final TaxaNexusInput taxaInput = new TaxaNexusInput();
                     final TaxaBlock dataBlock = new TaxaBlock();
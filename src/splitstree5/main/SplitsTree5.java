@@ -28,6 +28,7 @@ import jloda.fx.window.SplashScreen;
 import jloda.fx.window.WindowGeometry;
 import jloda.util.Basic;
 import jloda.util.ProgramProperties;
+import splitstree5.core.workflow.ConnectorService;
 
 import java.io.File;
 import java.time.Duration;
@@ -90,11 +91,13 @@ public class SplitsTree5 extends Application {
         final boolean silentMode = options.getOption("-S", "silentMode", "Silent mode", false);
         ProgramExecutorService.setNumberOfCoresToUse(options.getOption("-t", "threads", "Maximum number of threads to use in a parallel algorithm (0=all available)", 0));
 
+        final int debounceMillis = options.getOption("-d", "debounce", "Milliseconds to wait for further edits before recomputing (0=no delay)", ConnectorService.getDebounceMillis());
         enableExperimental = options.getOption("-x", "experimental", "Enable experimental features", false);
 
         options.done();
 
         ProgramProperties.load(propertiesFile);
+        ConnectorService.setDebounceMillis(debounceMillis);
 
         System.err.println("Java version: " + System.getProperty("java.version"));
 
@@ -19,85 +19,76 @@
 
 package splitstree5.tools;
 
-import javafx.application.Application;
-import javafx.application.Platform;
-import javafx.beans.value.ChangeListener;
-import javafx.stage.Stage;
 import jloda.fx.util.ArgsOptions;
 import jloda.fx.util.ProgramExecutorService;
 import jloda.fx.util.ResourceManagerFX;
 import jloda.fx.window.NotificationManager;
 import jloda.util.Basic;
+import jloda.util.Counter;
 import jloda.util.FileUtils;
 import jloda.util.PeakMemoryUsageMonitor;
 import jloda.util.ProgramProperties;
+import jloda.util.StringUtils;
 import jloda.util.progress.ProgressListener;
 import jloda.util.progress.ProgressPercentage;
+import jloda.util.progress.ProgressSilent;
+import splitstree5.core.Document;
+import splitstree5.core.algorithms.genomes2distances.MashSketchCache;
 import splitstree5.core.datablocks.TaxaBlock;
+import splitstree5.core.workflow.ConnectorResultCache;
 import splitstree5.core.workflow.DataNode;
 import splitstree5.core.workflow.Workflow;
 import splitstree5.core.workflow.WorkflowDataLoader;
+import splitstree5.core.workflow.WorkflowEngine;
 import splitstree5.dialogs.exporter.ExportManager;
 import splitstree5.dialogs.importer.ImporterManager;
 import splitstree5.io.nexus.workflow.WorkflowNexusInput;
 import splitstree5.io.nexus.workflow.WorkflowNexusOutput;
-import splitstree5.main.MainWindow;
 import splitstree5.main.SplitsTree5;
 import splitstree5.main.Version;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static splitstree5.dialogs.importer.ImporterManager.UNKNOWN_FORMAT;
 
 /**
  * runs a workflow on one or more input files
+ * The workflow is updated by a headless WorkflowEngine, so no display or FX toolkit is required
  * Daniel Huson, 9.2018
  */
-public class
-RunWorkflow extends Application {
-    private static String[] args;
-
-    @Override
-    public void init() {
-        ProgramProperties.setProgramName("RunWorkflow");
-        ProgramProperties.setProgramVersion(Version.SHORT_DESCRIPTION);
-        NotificationManager.setEchoToConsole(false);
-
-        PeakMemoryUsageMonitor.start();
-    }
-
-    @Override
-    public void stop() {
-        System.err.println("Total time:  " + PeakMemoryUsageMonitor.getSecondsSinceStartString());
-        System.err.println("Peak memory: " + PeakMemoryUsageMonitor.getPeakUsageString());
-        System.exit(0);
-    }
-
+public class RunWorkflow {
     /**
-     * add functional annotations to DNA alignments
+     * main
      */
     public static void main(String[] args) {
-        RunWorkflow.args = args;
-        Application.launch();
-    }
-
-    @Override
-    public void start(Stage primaryStage) {
-        ProgramExecutorService.getInstance().submit(() -> {
-            try {
-                run(args);
-            } catch (Exception ex) {
-                if (!ex.getMessage().startsWith("Help"))
-                    Basic.caught(ex);
-            }
-            Platform.exit();
-        });
+        try {
+            ProgramProperties.setProgramName("RunWorkflow");
+            ProgramProperties.setProgramVersion(Version.SHORT_DESCRIPTION);
+            NotificationManager.setEchoToConsole(false);
+            WorkflowEngine.setHeadless(true);
+
+            PeakMemoryUsageMonitor.start();
+            (new RunWorkflow()).run(args);
+            System.err.println("Total time:  " + PeakMemoryUsageMonitor.getSecondsSinceStartString());
+            System.err.println("Peak memory: " + PeakMemoryUsageMonitor.getPeakUsageString());
+            System.exit(0);
+        } catch (Exception ex) {
+            if (ex.getMessage() == null || !ex.getMessage().startsWith("Help"))
+                Basic.caught(ex);
+            System.exit(1);
+        }
     }
 
-    private void run(String[] args) throws Exception {
+    /**
+     * run the program
+     */
+    public void run(String[] args) throws Exception {
         ResourceManagerFX.addResourceRoot(SplitsTree5.class, "splitstree5/resources");
 
         final ArgsOptions options = new ArgsOptions(args, RunWorkflow.class, "Exports data from a SplitsTree5 workflow");
@@ -126,6 +117,13 @@ RunWorkflow extends Application {
         final String propertiesFile = options.getOption("-p", "propertiesFile", "Properties file", defaultPreferenceFile);
 
 
+        ProgramExecutorService.setNumberOfCoresToUse(options.getOption("-t", "threads", "Number of threads", 8));
+        int parallelFiles = options.getOption("-j", "parallelFiles", "Number of input files to process in parallel, each using its own copy of the workflow", 1);
+        final int parallelBranches = options.getOption("-b", "parallelBranches", "Number of independent workflow branches to compute in parallel", 1);
+        final boolean reportTiming = options.getOption("-rt", "reportTiming", "Report the time used by each algorithm and the critical path", false);
+        final String resultCacheDirectory = options.getOption("-rc", "resultCache", "Directory in which to keep results of algorithms for reuse in later runs", "");
+        final String sketchCacheDirectory = options.getOption("-sc", "sketchCache", "Directory in which to keep Mash sketches of genomes for reuse in later runs", "");
+
         final boolean silent = options.getOption("-s", "silent", "Silent mode (hide all stderr output)", false);
         if (silent)
             Basic.hideSystemErr();
@@ -133,6 +131,11 @@ RunWorkflow extends Application {
 
         ProgramProperties.load(propertiesFile);
 
+        if (resultCacheDirectory.length() > 0)
+            ConnectorResultCache.getInstance().setCacheDirectory(new File(resultCacheDirectory));
+        if (sketchCacheDirectory.length() > 0)
+            MashSketchCache.getInstance().setCacheDirectory(new File(sketchCacheDirectory));
+
         if (!inputWorkflowFile.canRead())
             throw new IOException("File not found or unreadable: " + inputWorkflowFile);
 
@@ -191,8 +194,7 @@ RunWorkflow extends Application {
         if (!WorkflowNexusInput.isApplicable(inputWorkflowFile.getPath()))
             throw new IOException("Workflow not valid: " + inputWorkflowFile);
 
-        final MainWindow mainWindow = new MainWindow();
-        final Workflow workflow = mainWindow.getWorkflow();
+        final Workflow workflow = new Document().getWorkflow();
 
         try (final ProgressListener progress = new ProgressPercentage("Loading workflow from file: " + inputWorkflowFile)) {
             WorkflowNexusInput.input(progress, workflow, new ArrayList<>(), inputWorkflowFile.getPath());
@@ -208,57 +210,125 @@ RunWorkflow extends Application {
         System.err.println("Loaded workflow has " + workflow.getNumberOfDataNodes() + " nodes and " + workflow.getNumberOfConnectorNodes() + " connections");
         System.err.println("Number of input taxa: " + workflow.getTopTaxaNode().getDataBlock().getNtax());
 
-        for (int i = 0; i < inputFiles.length; i++) {
-            final String inputFile = inputFiles[i];
-            System.err.println("++++ Processing " + inputFile + " (" + (i + 1) + " of " + inputFiles.length + ") ++++");
+        if (outputFiles[0].equals("stdout"))
+            parallelFiles = 1; // don't interleave output
+        parallelFiles = Math.max(1, Math.min(parallelFiles, inputFiles.length));
 
-            final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger numberFailed = new AtomicInteger(0);
 
-            final ChangeListener<Boolean> listener = (c, o, n) -> {
-                if (n) {
-                    System.err.println("Updating workflow...");
-                }
-                if (!n) {
-                    System.err.println("done");
-                    latch.countDown();
+        if (parallelFiles == 1) {
+            final WorkflowEngine engine = createEngine(workflow, parallelBranches, reportTiming);
+            for (int i = 0; i < inputFiles.length; i++) {
+                System.err.println("++++ Processing " + inputFiles[i] + " (" + (i + 1) + " of " + inputFiles.length + ") ++++");
+                if (!process(engine, inputFiles[i], getOutputFile(inputFiles, outputFiles, i), inputFormat, nodeName, exportFormat, new ProgressPercentage()))
+                    numberFailed.incrementAndGet();
+            }
+        } else {
+            // clone the workflow template, each instance is used by one file at a time:
+            final String template;
+            try (StringWriter w = new StringWriter()) {
+                (new WorkflowNexusOutput()).save(workflow, w, true);
+                template = w.toString();
+            }
+            final BlockingQueue<WorkflowEngine> instances = new ArrayBlockingQueue<>(parallelFiles);
+            instances.add(createEngine(workflow, parallelBranches, reportTiming));
+            while (instances.size() < parallelFiles) {
+                final Workflow copy = new Document().getWorkflow();
+                WorkflowNexusInput.input(new ProgressSilent(), copy, new ArrayList<>(), new StringReader(template));
+                instances.add(createEngine(copy, parallelBranches, reportTiming));
+            }
+            System.err.println("Processing " + inputFiles.length + " files using " + parallelFiles + " copies of the workflow");
+
+            final String[] theInputFiles = inputFiles;
+            final String[] theOutputFiles = outputFiles;
+            final Counter numberDone = new Counter(0);
+            final ExecutorService service = Executors.newFixedThreadPool(parallelFiles);
+            try (ProgressPercentage progress = new ProgressPercentage("Processing input files", inputFiles.length)) {
+                try {
+                    for (int i = 0; i < inputFiles.length; i++) {
+                        final int index = i;
+                        service.submit(() -> {
+                            try {
+                                final WorkflowEngine instance = instances.take();
+                                try {
+                                    if (!process(instance, theInputFiles[index], getOutputFile(theInputFiles, theOutputFiles, index), inputFormat, nodeName, exportFormat, new ProgressSilent()))
+                                        numberFailed.incrementAndGet();
+                                } finally {
+                                    instances.add(instance);
+                                }
+                            } catch (InterruptedException ignored) {
+                                numberFailed.incrementAndGet();
+                            } finally {
+                                synchronized (progress) {
+                                    numberDone.increment();
+                                    progress.setProgress(numberDone.get());
+                                }
+                            }
+                        });
+                    }
+                } finally {
+                    service.shutdown();
+                    //noinspection ResultOfMethodCallIgnored
+                    service.awaitTermination(1000, TimeUnit.DAYS);
                 }
-            };
+            }
+        }
+        if (numberFailed.get() > 0)
+            System.err.println("Number of input files FAILED: " + numberFailed.get() + " of " + inputFiles.length);
+    }
 
+    /**
+     * creates a headless engine for the given workflow
+     */
+    private static WorkflowEngine createEngine(Workflow workflow, int parallelBranches, boolean reportTiming) {
+        final WorkflowEngine engine = new WorkflowEngine(workflow);
+        engine.setParallelism(parallelBranches);
+        engine.setVerbose(reportTiming);
+        return engine;
+    }
+
+    /**
+     * determines the output file for the i-th input file
+     */
+    private static File getOutputFile(String[] inputFiles, String[] outputFiles, int i) {
+        return new File((outputFiles.length == inputFiles.length ? outputFiles[i] : outputFiles[0]));
+    }
+
+    /**
+     * loads an input file into the workflow, updates the workflow and then saves it or exports the named node.
+     * Failures are reported and do not affect the processing of other files
+     *
+     * @return true, if successful
+     */
+    private static boolean process(WorkflowEngine engine, String inputFile, File outputFile, String inputFormat, String nodeName, String exportFormat, ProgressListener progress) {
+        final long start = System.currentTimeMillis();
+        final Workflow workflow = engine.getWorkflow();
+        try (progress) {
             WorkflowDataLoader.load(workflow, inputFile, inputFormat);
 
-            // listens for end of update and counts down latch:
-            workflow.updatingProperty().addListener(listener);
+            // update workflow:
+            final boolean updated = engine.update(progress);
+            if (!updated)
+                System.err.println("Update FAILED for some nodes: " + inputFile);
 
-            try {
-                // update workflow:
-                topTaxaNode.getChildren().get(0).forceRecompute();
-                // wait for end of update:
-                latch.await();
+            // save updated workflow:
+            if (nodeName.length() == 0) {
+                (new WorkflowNexusOutput()).save(workflow, outputFile, false);
+                System.err.println("Saved workflow has " + workflow.getNumberOfDataNodes() + " nodes and " + workflow.getNumberOfConnectorNodes() + " connections: " + outputFile);
+            } else {
+                final DataNode dataNode = workflow.findDataNode(nodeName);
 
-                // save updated workflow:
-                try {
-                    final File outputFile = new File((outputFiles.length == inputFiles.length ? outputFiles[i] : outputFiles[0]));
-                    System.err.println("Saving to file: " + outputFile);
-                    if (exportCompleteWorkflow) {
-                        (new WorkflowNexusOutput()).save(workflow, outputFile, false);
-                        System.err.println("done");
-                        System.err.println("Saved workflow has " + workflow.getNumberOfDataNodes() + " nodes and " + workflow.getNumberOfConnectorNodes() + " connections");
-                    } else {
-                        final DataNode dataNode = workflow.findDataNode(nodeName);
-
-                        if (dataNode == null)
-                            throw new IOException("Node with title '" + nodeName + "': not found");
-
-                        System.err.println("Exporting node '" + nodeName + "' to file: " + outputFile);
-                        ExportManager.getInstance().exportFile(outputFile.getPath(), workflow.getWorkingTaxaBlock(), dataNode.getDataBlock(), exportFormat);
-                    }
-                } catch (IOException e) {
-                    System.err.println("Save FAILED: " + e.getMessage());
-                }
-            } finally {
-                // remove listener
-                workflow.updatingProperty().removeListener(listener);
+                if (dataNode == null)
+                    throw new IOException("Node with title '" + nodeName + "': not found");
+
+                ExportManager.getInstance().exportFile(outputFile.getPath(), workflow.getWorkingTaxaBlock(), dataNode.getDataBlock(), exportFormat);
+                System.err.println("Exported node '" + nodeName + "' to file: " + outputFile);
             }
+            System.err.println("Processed " + inputFile + " (" + StringUtils.removeTrailingZerosAfterDot("" + ((System.currentTimeMillis() - start) / 1000.0)) + "s)");
+            return updated;
+        } catch (Exception ex) {
+            System.err.println("FAILED " + inputFile + ": " + ex.getMessage());
+            return false;
         }
     }
 }
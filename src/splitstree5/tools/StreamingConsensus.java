@@ -0,0 +1,140 @@
+/*
+ * StreamingConsensus.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.tools;
+
+import jloda.fx.util.ArgsOptions;
+import jloda.fx.util.ProgramExecutorService;
+import jloda.util.Basic;
+import jloda.util.FileUtils;
+import jloda.util.PeakMemoryUsageMonitor;
+import jloda.util.ProgramProperties;
+import jloda.util.UsageException;
+import jloda.util.progress.ProgressPercentage;
+import splitstree5.core.algorithms.trees2splits.ConsensusNetwork;
+import splitstree5.core.algorithms.trees2splits.ConsensusTreeSplits;
+import splitstree5.core.algorithms.trees2splits.utils.SplitFrequencies;
+import splitstree5.core.datablocks.SplitsBlock;
+import splitstree5.core.datablocks.TaxaBlock;
+import splitstree5.io.imports.utils.TreeFileStream;
+import splitstree5.io.nexus.SplitsNexusOutput;
+import splitstree5.io.nexus.TaxaNexusOutput;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * computes a consensus network or consensus tree splits for a file of trees that is too large to be loaded into a
+ * trees block, such as the output of a MrBayes or BEAST run. Trees are read one at a time, optionally skipping
+ * a burn-in and thinning, and only the split frequencies are kept in memory. Median edge weights are not offered,
+ * as they require all weights of all splits to be kept
+ * Daniel Huson, 10.2026
+ */
+public class StreamingConsensus {
+    public enum Method {Network, Majority, Strict, Greedy}
+
+    /**
+     * main
+     */
+    public static void main(String[] args) {
+        try {
+            ProgramProperties.setProgramName("StreamingConsensus");
+            ProgramProperties.setProgramVersion(splitstree5.main.Version.SHORT_DESCRIPTION);
+
+            PeakMemoryUsageMonitor.start();
+            (new StreamingConsensus()).run(args);
+            System.err.println("Total time:  " + PeakMemoryUsageMonitor.getSecondsSinceStartString());
+            System.err.println("Peak memory: " + PeakMemoryUsageMonitor.getPeakUsageString());
+            System.exit(0);
+        } catch (Exception ex) {
+            Basic.caught(ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run the program
+     */
+    public void run(String[] args) throws Exception {
+        final ArgsOptions options = new ArgsOptions(args, this.getClass(), "Computes consensus splits for a large file of trees in bounded memory");
+        options.setVersion(ProgramProperties.getProgramVersion());
+        options.setLicense("This is free software, licensed under the terms of the GNU General Public License, Version 3.");
+        options.setAuthors("Daniel H. Huson");
+
+        options.comment("Input and output:");
+        final String inputFile = options.getOptionMandatory("-i", "input", "Input file of trees (Newick or Nexus, .gz ok)", "");
+        final String outputFile = options.getOption("-o", "output", "Output file for taxa and splits in Nexus format (stdout, .gz ok)", "stdout");
+
+        options.comment("Sampling:");
+        final int burnIn = options.getOption("-b", "burnIn", "Number of trees to skip at the beginning", 0);
+        final int thinning = options.getOption("-n", "thinning", "Only use every n-th tree after burn-in", 1);
+
+        options.comment("Consensus:");
+        final Method method = Method.valueOf(options.getOption("-m", "method", "Consensus method", Arrays.stream(Method.values()).map(Enum::name).toArray(String[]::new), Method.Network.name()));
+        final double thresholdPercent = options.getOption("-p", "thresholdPercent", "Threshold for percent of trees that a split must occur in (network only)", 30.0);
+        final ConsensusNetwork.EdgeWeights edgeWeights = ConsensusNetwork.EdgeWeights.valueOf(options.getOption("-w", "edgeWeights", "Edge weights (Median is not supported, as it needs memory for every tree)",
+                Arrays.stream(ConsensusNetwork.EdgeWeights.values()).filter(e -> e != ConsensusNetwork.EdgeWeights.Median).map(Enum::name).toArray(String[]::new), ConsensusNetwork.EdgeWeights.TreeSizeWeightedMean.name()));
+
+        options.comment(ArgsOptions.OTHER);
+        ProgramExecutorService.setNumberOfCoresToUse(options.getOption("-t", "threads", "Number of threads to use", Runtime.getRuntime().availableProcessors()));
+        options.done();
+
+        if (edgeWeights == ConsensusNetwork.EdgeWeights.Median) // in case the legal values are not checked
+            throw new UsageException("Median edge weights are not supported in streaming mode");
+
+        FileUtils.checkFileReadableNonEmpty(inputFile);
+        FileUtils.checkFileWritable(outputFile, true);
+
+        final TaxaBlock taxaBlock = new TaxaBlock();
+        final SplitsBlock splitsBlock = new SplitsBlock();
+
+        try (TreeFileStream treeStream = new TreeFileStream(inputFile); ProgressPercentage progress = new ProgressPercentage("Reading trees from: " + inputFile)) {
+            treeStream.setBurnIn(burnIn);
+            treeStream.setThinning(thinning);
+
+            final SplitFrequencies splitFrequencies = SplitFrequencies.compute(progress, treeStream, edgeWeights == ConsensusNetwork.EdgeWeights.TreeSizeWeightedMean, false);
+            System.err.printf("Trees: %,d read, %,d used, %,d distinct splits%n", treeStream.getNumberOfStatements(), splitFrequencies.getNumberOfTrees(), splitFrequencies.size());
+            if (splitFrequencies.getNumberOfTrees() == 0)
+                throw new Exception("No trees remain after burn-in and thinning");
+
+            taxaBlock.addTaxaByNames(treeStream.getTaxonNames());
+
+            if (method == Method.Network) {
+                final ConsensusNetwork consensusNetwork = new ConsensusNetwork();
+                consensusNetwork.setOptionEdgeWeights(edgeWeights);
+                consensusNetwork.setOptionThresholdPercent(thresholdPercent);
+                consensusNetwork.computeSplits(progress, taxaBlock, splitFrequencies, splitsBlock);
+            } else {
+                final ConsensusTreeSplits consensusTreeSplits = new ConsensusTreeSplits();
+                consensusTreeSplits.setOptionEdgeWeights(edgeWeights);
+                consensusTreeSplits.setOptionConsensus(ConsensusTreeSplits.Consensus.valueOf(method.name()));
+                consensusTreeSplits.computeSplits(progress, taxaBlock, splitFrequencies, splitsBlock);
+            }
+        }
+        System.err.printf("Splits: %,d%n", splitsBlock.getNsplits());
+
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(FileUtils.getOutputStreamPossiblyZIPorGZIP(outputFile)))) {
+            w.write("#nexus\n");
+            (new TaxaNexusOutput()).write(w, taxaBlock);
+            (new SplitsNexusOutput()).write(w, taxaBlock, splitsBlock);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * UpgradeReferenceDatabase.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.tools;
+
+import jloda.fx.util.ArgsOptions;
+import jloda.thirdparty.HexUtils;
+import jloda.util.Basic;
+import jloda.util.FileUtils;
+import jloda.util.PeakMemoryUsageMonitor;
+import jloda.util.ProgramProperties;
+import jloda.util.progress.ProgressPercentage;
+import org.sqlite.SQLiteConfig;
+import splitstree5.dialogs.analyzegenomes.AccessReferenceDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+
+/**
+ * upgrades a reference database to the current format version, in which Mash sketches and Bloom filters are
+ * stored as binary BLOBs rather than hex-encoded TEXT. Rows are copied table by table using batched prepared statements
+ * Daniel Huson, 10.2026
+ */
+public class UpgradeReferenceDatabase {
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * main
+     */
+    public static void main(String[] args) {
+        try {
+            ProgramProperties.setProgramName("UpgradeReferenceDatabase");
+            ProgramProperties.setProgramVersion(splitstree5.main.Version.SHORT_DESCRIPTION);
+
+            PeakMemoryUsageMonitor.start();
+            (new UpgradeReferenceDatabase()).run(args);
+            System.err.println("Total time:  " + PeakMemoryUsageMonitor.getSecondsSinceStartString());
+            System.err.println("Peak memory: " + PeakMemoryUsageMonitor.getPeakUsageString());
+            System.exit(0);
+        } catch (Exception ex) {
+            Basic.caught(ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * run the program
+     */
+    public void run(String[] args) throws Exception {
+        final ArgsOptions options = new ArgsOptions(args, this.getClass(), "Upgrades a reference database to format version " + AccessReferenceDatabase.FORMAT_VERSION);
+        options.setVersion(ProgramProperties.getProgramVersion());
+        options.setLicense("This is free software, licensed under the terms of the GNU General Public License, Version 3.");
+        options.setAuthors("Daniel H. Huson");
+
+        options.comment("Input and output");
+        final String inputFile = options.getOptionMandatory("-i", "input", "Reference database to upgrade", "");
+        final String outputFile = options.getOptionMandatory("-o", "output", "Upgraded reference database (must not exist)", "");
+        options.done();
+
+        if (!FileUtils.fileExistsAndIsNonEmpty(inputFile))
+            throw new IOException("File not found or unreadable: " + inputFile);
+        if ((new File(outputFile)).exists())
+            throw new IOException("File exists: " + outputFile);
+
+        upgrade(inputFile, outputFile);
+    }
+
+    /**
+     * copies the input database to a new database in the current format
+     */
+    public static void upgrade(String inputFile, String outputFile) throws SQLException, IOException {
+        final SQLiteConfig inputConfig = new SQLiteConfig();
+        inputConfig.setReadOnly(true);
+
+        try (Connection source = inputConfig.createConnection("jdbc:sqlite:" + inputFile);
+             Connection target = (new SQLiteConfig()).createConnection("jdbc:sqlite:" + outputFile)) {
+            try (Statement statement = target.createStatement()) {
+                for (String create : AccessReferenceDatabase.getSchema().split("\n")) {
+                    if (create.trim().length() > 0)
+                        statement.execute(create);
+                }
+            }
+            target.setAutoCommit(false);
+
+            final ArrayList<String> tables = new ArrayList<>();
+            try (Statement statement = source.createStatement(); ResultSet rs = statement.executeQuery("SELECT name FROM sqlite_master WHERE type='table';")) {
+                while (rs.next())
+                    tables.add(rs.getString(1));
+            }
+
+            for (String table : new String[]{"info", "taxa", "genomes", "tree", "mash_sketches", "bloom_filters"}) {
+                if (tables.contains(table))
+                    copyTable(source, target, table, table.equals("mash_sketches") || table.equals("bloom_filters"));
+            }
+
+            try (PreparedStatement statement = target.prepareStatement("INSERT OR REPLACE INTO info VALUES('format_version',?);")) {
+                statement.setString(1, String.valueOf(AccessReferenceDatabase.FORMAT_VERSION));
+                statement.executeUpdate();
+            }
+            target.commit();
+        }
+    }
+
+    /**
+     * copies all rows of a table. If binary is set, then the second column is decoded from hex, if it is stored as TEXT
+     */
+    private static void copyTable(Connection source, Connection target, String table, boolean binary) throws SQLException, IOException {
+        final int count;
+        try (Statement statement = source.createStatement(); ResultSet rs = statement.executeQuery("SELECT count(*) FROM " + table + ";")) {
+            count = (rs.next() ? rs.getInt(1) : 0);
+        }
+
+        try (Statement statement = source.createStatement(); ResultSet rs = statement.executeQuery("SELECT * FROM " + table + ";");
+             ProgressPercentage progress = new ProgressPercentage("Copying table " + table, count)) {
+            final int columns = rs.getMetaData().getColumnCount();
+            final StringBuilder buf = new StringBuilder("INSERT INTO " + table + " VALUES(?");
+            for (int c = 2; c <= columns; c++)
+                buf.append(",?");
+            buf.append(");");
+
+            try (PreparedStatement insert = target.prepareStatement(buf.toString())) {
+                int rows = 0;
+                while (rs.next()) {
+                    for (int c = 1; c <= columns; c++) {
+                        final Object value = rs.getObject(c);
+                        if (binary && c == 2 && value instanceof String)
+                            insert.setBytes(c, HexUtils.decodeHexString((String) value));
+                        else
+                            insert.setObject(c, value);
+                    }
+                    insert.addBatch();
+                    if (++rows % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                        progress.setProgress(rows);
+                    }
+                }
+                insert.executeBatch();
+                progress.setProgress(rows);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Fingerprint.java Copyright (C) 2022 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package splitstree5.utils;
+
+import java.io.Writer;
+
+/**
+ * 64-bit content fingerprint (FNV-1a). Values are added one by one, text can also be written to it, so that
+ * anything that has a text representation can be fingerprinted without building a string.
+ * A fingerprint of 0 is reserved to mean "unknown"
+ * Daniel Huson, 10.2026
+ */
+public class Fingerprint extends Writer {
+    private static final long OFFSET = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private long value = OFFSET;
+
+    public Fingerprint add(long x) {
+        for (int i = 0; i < 8; i++) {
+            value = (value ^ (x & 0xff)) * PRIME;
+            x >>>= 8;
+        }
+        return this;
+    }
+
+    public Fingerprint add(int x) {
+        return add((long) x);
+    }
+
+    public Fingerprint add(double x) {
+        return add(Double.doubleToLongBits(x));
+    }
+
+    public Fingerprint add(long[] array) {
+        add(array.length);
+        for (long x : array)
+            add(x);
+        return this;
+    }
+
+    public Fingerprint add(double[] array) {
+        add(array.length);
+        for (double x : array)
+            add(x);
+        return this;
+    }
+
+    public Fingerprint add(byte[] array) {
+        add(array.length);
+        for (byte x : array)
+            value = (value ^ (x & 0xff)) * PRIME;
+        return this;
+    }
+
+    public Fingerprint add(char[] array) {
+        add(array.length);
+        for (char x : array)
+            add(x);
+        return this;
+    }
+
+    public Fingerprint add(boolean x) {
+        return add(x ? 1L : 0L);
+    }
+
+    public Fingerprint add(String s) {
+        if (s == null)
+            return add(-1);
+        add(s.length());
+        for (int i = 0; i < s.length(); i++)
+            add(s.charAt(i));
+        return this;
+    }
+
+    private void add(char c) {
+        value = (value ^ (c & 0xff)) * PRIME;
+        value = (value ^ (c >>> 8)) * PRIME;
+    }
+
+    /**
+     * gets the fingerprint
+     *
+     * @return fingerprint, never 0
+     */
+    public long get() {
+        return value != 0 ? value : 1;
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) {
+        for (int i = off; i < off + len; i++)
+            add(chars[i]);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -27,6 +27,7 @@ import jloda.util.NumberUtils;
 import splitstree5.core.datablocks.TaxaBlock;
 import splitstree5.core.datablocks.TreesBlock;
 import splitstree5.core.misc.ASplit;
+import splitstree5.core.misc.CompactSplit;
 
 import java.util.BitSet;
 import java.util.Collection;
@@ -194,6 +195,73 @@ public class TreesUtilities {
         return taxaInTree;
     }
 
+    /**
+     * consumes the splits of a tree
+     */
+    public interface CompactSplitConsumer {
+        void accept(CompactSplit split, double weight, double confidence);
+    }
+
+    /**
+     * compute all the splits in a tree that contains all taxa 1..ntax, as compact splits. Avoids the two bit sets per
+     * split that computeSplits(BitSet,PhyloTree,Collection) allocates
+     *
+     * @param tree     the tree, must contain all taxa 1..ntax
+     * @param ntax     number of taxa
+     * @param consumer is given each split together with its weight and confidence
+     */
+    public static void computeSplits(final PhyloTree tree, final int ntax, final CompactSplitConsumer consumer) {
+        if (tree.getRoot() == null) {
+            for (Node v : tree.nodes()) {
+                if (tree.hasTaxa(v) && v.getDegree() == 1) {
+                    System.err.println("Internal error: tree not rooted, but should be");
+                    tree.setRoot(v);
+                    break;
+                }
+            }
+        }
+        if (tree.getRoot() != null)
+            tree2compactSplitsRec(tree.getRoot(), null, tree, ntax, consumer);
+    }
+
+    /**
+     * recursively extract all splits as compact splits, using the same conventions as tree2splitsRec
+     *
+     * @return taxa on and below v, bit t representing taxon t
+     */
+    private static long[] tree2compactSplitsRec(final Node v, final Edge e, final PhyloTree tree, final int ntax, final CompactSplitConsumer consumer) {
+        final long[] vAndBelowTaxa = new long[CompactSplit.numberOfWords(ntax)];
+        for (int t : tree.getTaxa(v)) {
+            vAndBelowTaxa[t >>> 6] |= (1L << t);
+        }
+
+        for (Edge f : v.adjacentEdges()) {
+            if (f != e) {
+                final Node w = tree.getOpposite(v, f);
+                final long[] wAndBelowTaxa = tree2compactSplitsRec(w, f, tree, ntax, consumer);
+
+                boolean ok = true;
+                double weight = tree.getWeight(f);
+                double confidence = tree.getConfidence(f);
+                final Node root = tree.getRoot();
+                if (root != null && (f.getSource() == root || f.getTarget() == root) && root.getDegree() == 2 && !tree.hasTaxa(v)) {
+                    final Edge g = (root.getFirstAdjacentEdge() != f ? root.getFirstAdjacentEdge() : root.getLastAdjacentEdge());
+                    if (f.getId() < g.getId()) {
+                        weight = tree.getWeight(f) + tree.getWeight(g);
+                        confidence = 0.5 * (tree.getConfidence(f) + tree.getConfidence(g));
+                    } else
+                        ok = false;
+                }
+
+                if (ok)
+                    consumer.accept(CompactSplit.of(wAndBelowTaxa, ntax), weight, (float) confidence);
+                for (int i = 0; i < vAndBelowTaxa.length; i++)
+                    vAndBelowTaxa[i] |= wAndBelowTaxa[i];
+            }
+        }
+        return vAndBelowTaxa;
+    }
+
     /**
      * recursively extract all splits
      *